@@ -31,6 +31,8 @@ import org.commonjava.indy.bind.jaxrs.util.ResponseHelper;
 import org.commonjava.indy.content.ContentDigester;
 import org.commonjava.indy.content.browse.ContentBrowseController;
 import org.commonjava.indy.content.browse.model.ContentBrowseResult;
+import org.commonjava.indy.core.bind.jaxrs.util.RequestUtils;
+import org.commonjava.indy.core.content.PrecompressedContentCache;
 import org.commonjava.indy.model.core.PackageTypes;
 import org.commonjava.indy.model.core.StoreKey;
 import org.commonjava.indy.model.core.StoreType;
@@ -56,6 +58,8 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 @Api( value = "Indy Directory Content Browse", description = "Browse directory content in indy repository" )
@@ -90,6 +94,9 @@ public class ContentBrowseResource
     @Inject
     ContentDigester contentDigester;
 
+    @Inject
+    PrecompressedContentCache precompressedCache;
+
     @Context UriInfo uriInfo;
 
     @Context HttpServletRequest request;
@@ -235,7 +242,14 @@ public class ContentBrowseResource
         {
             result = getBrowseResult( packageType, type, name, path, uriInfo );
 
-            response = responseHelper.formatOkResponseWithJsonEntity( result );
+            if ( result != null && precompressedCache != null && RequestUtils.acceptsEncoding( request, "gzip" ) )
+            {
+                response = formatListingResponse( result, path, uriInfo );
+            }
+            else
+            {
+                response = responseHelper.formatOkResponseWithJsonEntity( result );
+            }
         }
         catch ( IndyWorkflowException e )
         {
@@ -243,10 +257,39 @@ public class ContentBrowseResource
                                          StringUtils.isBlank( path ) ? "/" : path, name, e.getMessage() ), e );
             response = responseHelper.formatResponse( e );
         }
+        catch ( IOException e )
+        {
+            response = responseHelper.formatResponse( e, "Failed to render listing: " + path + " from: " + name );
+        }
 
         return response;
     }
 
+    /**
+     * Listings are rendered on every request, but rarely change between two of them. Send the gzip copy of the same
+     * rendering instead of leaving the encoding handler to compress the same bytes again.
+     */
+    private Response formatListingResponse( final ContentBrowseResult result, final String path,
+                                            final UriInfo uriInfo )
+            throws IOException
+    {
+        final byte[] json = mapper.writeValueAsBytes( result );
+        if ( json.length <= PrecompressedContentCache.MIN_BYTES )
+        {
+            return responseHelper.formatOkResponseWithJsonEntity( new String( json, StandardCharsets.UTF_8 ) );
+        }
+
+        // listing entries link to the base URI of the request
+        final byte[] gzip = precompressedCache.getGzip( result.getStoreKey(), path,
+                                                        uriInfo.getBaseUri().toString(), json );
+
+        return Response.ok( gzip, ApplicationContent.application_json )
+                       .header( ApplicationHeader.content_length.key(), gzip.length )
+                       .header( ApplicationHeader.content_encoding.key(), "gzip" )
+                       .header( ApplicationHeader.vary.key(), ApplicationHeader.accept_encoding.key() )
+                       .build();
+    }
+
     private ContentBrowseResult getBrowseResult( final String packageType, final String type, final String name,
                                                  final String path, final UriInfo uriInfo )
             throws IndyWorkflowException
@@ -735,6 +735,31 @@ public abstract class IndexingContentManagerDecorator
         Logger logger = LoggerFactory.getLogger( getClass() );
         logger.trace( "Storing: {} in: {} from indexing level", path, store.getKey() );
         Transfer transfer = delegate.store( store, path, stream, op, eventMetadata );
+        indexStored( store, path, transfer, eventMetadata );
+        return transfer;
+    }
+
+    @Override
+    public Transfer store( final ArtifactStore store, final String path, final Transfer source,
+                           final TransferOperation op, final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
+        if ( !indexCfg.isEnabled() )
+        {
+            return delegate.store( store, path, source, op, eventMetadata );
+        }
+
+        Logger logger = LoggerFactory.getLogger( getClass() );
+        logger.trace( "Storing: {} in: {} from: {} at indexing level", path, store.getKey(), source );
+        Transfer transfer = delegate.store( store, path, source, op, eventMetadata );
+        indexStored( store, path, transfer, eventMetadata );
+        return transfer;
+    }
+
+    private void indexStored( final ArtifactStore store, final String path, final Transfer transfer,
+                              final EventMetadata eventMetadata )
+    {
+        Logger logger = LoggerFactory.getLogger( getClass() );
         if ( transfer != null )
         {
             if ( indexCfg.isEnabled() )
@@ -775,7 +800,6 @@ public abstract class IndexingContentManagerDecorator
                 } ) );
             }
         }
-        return transfer;
     }
 
     @Override
@@ -37,6 +37,8 @@ public class FoloConfig
     public static final boolean DEFAULT_DISABLED =  false;
     public static final String DEFAULT_FOLO_CASSANDRA_KEYSPACE =  "folo";
     public static final String DEFAULT_FOLO_CASSANDRA_TABLENAME =  "records";
+    public static final long DEFAULT_FOLO_CASSANDRA_WRITE_PERIOD_MILLIS = 1000;
+    public static final int DEFAULT_FOLO_CASSANDRA_WRITE_QUEUE_SIZE = 10000;
 
     private Boolean enabled;
 
@@ -48,6 +50,10 @@ public class FoloConfig
 
     private String foloCassandraTablename;
 
+    private Long foloCassandraWritePeriodMillis;
+
+    private Integer foloCassandraWriteQueueSize;
+
     public FoloConfig()
     {
     }
@@ -103,6 +109,32 @@ public class FoloConfig
         this.foloCassandraTablename = foloCassandraTablename;
     }
 
+    public long getFoloCassandraWritePeriodMillis()
+    {
+        return foloCassandraWritePeriodMillis == null ?
+                DEFAULT_FOLO_CASSANDRA_WRITE_PERIOD_MILLIS :
+                foloCassandraWritePeriodMillis;
+    }
+
+    @ConfigName( "folo.cassandra.write.period.millis" )
+    public void setFoloCassandraWritePeriodMillis( Long foloCassandraWritePeriodMillis )
+    {
+        this.foloCassandraWritePeriodMillis = foloCassandraWritePeriodMillis;
+    }
+
+    public int getFoloCassandraWriteQueueSize()
+    {
+        return foloCassandraWriteQueueSize == null ?
+                DEFAULT_FOLO_CASSANDRA_WRITE_QUEUE_SIZE :
+                foloCassandraWriteQueueSize;
+    }
+
+    @ConfigName( "folo.cassandra.write.queue.size" )
+    public void setFoloCassandraWriteQueueSize( Integer foloCassandraWriteQueueSize )
+    {
+        this.foloCassandraWriteQueueSize = foloCassandraWriteQueueSize;
+    }
+
     @Override
     public String getDefaultConfigFileName()
     {
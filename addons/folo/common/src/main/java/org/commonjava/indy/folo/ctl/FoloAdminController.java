@@ -20,6 +20,7 @@ import org.commonjava.cdi.util.weft.ExecutorConfig;
 import org.commonjava.cdi.util.weft.SingleThreadedExecutorService;
 import org.commonjava.cdi.util.weft.WeftExecutorService;
 import org.commonjava.cdi.util.weft.WeftManaged;
+import org.commonjava.cdi.util.weft.exception.PoolOverloadException;
 import org.commonjava.indy.IndyWorkflowException;
 import org.commonjava.indy.content.ContentDigester;
 import org.commonjava.indy.content.ContentManager;
@@ -55,20 +56,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.io.FilenameUtils.getExtension;
 import static org.apache.commons.io.IOUtils.copy;
 import static org.commonjava.indy.core.ctl.PoolUtils.detectOverloadVoid;
 import static org.commonjava.indy.folo.FoloUtils.backupTrackedContent;
@@ -103,6 +111,18 @@ public class FoloAdminController
     @ExecutorConfig( threads = 50, priority = 4, named = "folo-recalculator", maxLoadFactor = 100, loadSensitive = ExecutorConfig.BooleanLiteral.TRUE )
     private WeftExecutorService recalculationExecutor;
 
+    @Inject
+    @WeftManaged
+    @ExecutorConfig( threads = 8, priority = 4, named = "folo-repo-zip", maxLoadFactor = 100, loadSensitive = ExecutorConfig.BooleanLiteral.TRUE )
+    private WeftExecutorService repoZipExecutor;
+
+    // how many repository zip entries are resolved ahead of the one being written
+    private static final int REPO_ZIP_PREFETCH = 16;
+
+    // content that doesn't get any smaller by deflating it again
+    private static final Set<String> COMPRESSED_EXTENSIONS =
+            new HashSet<>( Arrays.asList( "jar", "war", "ear", "aar", "zip", "tgz", "gz", "bz2", "xz" ) );
+
     protected FoloAdminController()
     {
     }
@@ -116,6 +136,7 @@ public class FoloAdminController
         this.contentManager = contentManager;
         this.contentDigester = contentDigester;
         this.recalculationExecutor = new SingleThreadedExecutorService( "folo-recalculator" );
+        this.repoZipExecutor = new SingleThreadedExecutorService( "folo-repo-zip" );
     }
 
     public TrackedContentDTO seal( final String id, final String baseUrl )
@@ -176,10 +197,33 @@ public class FoloAdminController
     public File renderRepositoryZip( final String id )
             throws IndyWorkflowException
     {
-        final TrackingKey tk = new TrackingKey( id );
+        final TrackedContent record = getRepositoryZipRecord( id );
 
-        File file = filer.getRepositoryZipFile( tk ).getDetachedFile();
+        File file = filer.getRepositoryZipFile( record.getKey() ).getDetachedFile();
         file.getParentFile().mkdirs();
+
+        try (OutputStream out = new FileOutputStream( file ))
+        {
+            writeRepositoryZip( record, out );
+        }
+        catch ( final IOException e )
+        {
+            throw new IndyWorkflowException( "Failed to generate repository zip from tracking record: {}. Reason: {}",
+                                             e, id, e.getMessage() );
+        }
+
+        return file;
+    }
+
+    /**
+     * Retrieve the tracking record a repository zip is rendered from, failing with NOT_FOUND before anything is
+     * written when there is none.
+     */
+    public TrackedContent getRepositoryZipRecord( final String id )
+            throws IndyWorkflowException
+    {
+        final TrackingKey tk = new TrackingKey( id );
+
         logger.debug( "Retrieving tracking record for: {}", tk );
         final TrackedContent record = recordManager.get( tk );
         logger.debug( "Got: {}", record );
@@ -190,75 +234,136 @@ public class FoloAdminController
                                              "No tracking record available for: %s. Maybe you forgot to seal it?", tk );
         }
 
-        final Set<String> seenPaths = new HashSet<>();
-        final List<Transfer> items = new ArrayList<>();
+        return record;
+    }
 
-        addTransfers( record.getUploads(), items, id, seenPaths );
-        addTransfers( record.getDownloads(), items, id, seenPaths );
+    /**
+     * Write the content referenced by the tracking record as a zip to the given stream, sorted by path, while the zip
+     * is being built. The transfers of the next entries are resolved in parallel with writing the current one; when
+     * the executor is overloaded they are resolved on the calling thread instead, since part of the zip may already
+     * be on its way to the client. Already-compressed content is written without compression rather than STORED, so
+     * its size and CRC don't have to be known up front and the content is only read once. The stream is not closed.
+     */
+    public void writeRepositoryZip( final TrackedContent record, final OutputStream out )
+            throws IndyWorkflowException, IOException
+    {
+        final String id = record.getKey().getId();
 
-        logger.debug( "Retrieved {} files. Creating zip.", items.size() );
+        // uploads win over downloads of the same path
+        final Map<String, List<TrackedContentEntry>> candidates = new TreeMap<>();
+        addCandidates( record.getUploads(), candidates );
+        addCandidates( record.getDownloads(), candidates );
 
-        Collections.sort( items, ( f, s ) -> f.getPath().compareTo( s.getPath() ) );
+        logger.debug( "Writing zip of {} paths for: {}", candidates.size(), id );
 
-        try (ZipOutputStream stream = new ZipOutputStream( new FileOutputStream( file ) ))
+        final Iterator<Map.Entry<String, List<TrackedContentEntry>>> paths = candidates.entrySet().iterator();
+        final Deque<Future<RepositoryZipItem>> prefetched = new ArrayDeque<>();
+        final ZipOutputStream stream = new ZipOutputStream( out );
+        try
         {
-            for ( final Transfer item : items )
+            while ( paths.hasNext() || !prefetched.isEmpty() )
             {
-                // logger.info( "Adding: {}", item );
-                if ( item != null )
+                while ( paths.hasNext() && prefetched.size() < REPO_ZIP_PREFETCH )
                 {
-                    final String path = item.getPath();
-                    final ZipEntry ze = new ZipEntry( path );
-                    stream.putNextEntry( ze );
-
-                    InputStream itemStream = null;
+                    final Map.Entry<String, List<TrackedContentEntry>> path = paths.next();
                     try
                     {
-                        itemStream = item.openInputStream();
-                        copy( itemStream, stream );
+                        prefetched.add( repoZipExecutor.submit(
+                                () -> prepareZipItem( id, path.getKey(), path.getValue() ) ) );
                     }
-                    finally
+                    catch ( final PoolOverloadException e )
                     {
-                        closeQuietly( itemStream );
+                        logger.debug( "Repository zip executor is overloaded, resolving {} inline", path.getKey() );
+                        prefetched.add( CompletableFuture.completedFuture(
+                                prepareZipItem( id, path.getKey(), path.getValue() ) ) );
+                        break;
                     }
                 }
+
+                final RepositoryZipItem item = prefetched.poll().get();
+                if ( item == null )
+                {
+                    continue;
+                }
+
+                stream.setLevel( item.compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION );
+                stream.putNextEntry( new ZipEntry( item.path ) );
+                try (InputStream itemStream = item.transfer.openInputStream())
+                {
+                    copy( itemStream, stream );
+                }
+                stream.closeEntry();
             }
+
+            stream.finish();
+            stream.flush();
         }
-        catch ( final IOException e )
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IndyWorkflowException( "Interrupted while generating repository zip for: {}", id );
+        }
+        catch ( final ExecutionException e )
         {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
             throw new IndyWorkflowException( "Failed to generate repository zip from tracking record: {}. Reason: {}",
-                                             e, id, e.getMessage() );
+                                             e.getCause(), id, e.getCause().getMessage() );
+        }
+        finally
+        {
+            prefetched.forEach( f -> f.cancel( true ) );
         }
-
-        return file;
     }
 
-    private void addTransfers( final Set<TrackedContentEntry> entries, final List<Transfer> items,
-                               final String trackingId, final Set<String> seenPaths )
-            throws IndyWorkflowException
+    private RepositoryZipItem prepareZipItem( final String trackingId, final String path,
+                                              final List<TrackedContentEntry> entries )
+            throws IndyWorkflowException, IOException
     {
-        if ( entries != null && !entries.isEmpty() )
+        for ( final TrackedContentEntry entry : entries )
         {
-            for ( final TrackedContentEntry entry : entries )
+            final StoreKey sk = entry.getStoreKey();
+            final Transfer transfer = contentManager.getTransfer( sk, path, TransferOperation.DOWNLOAD );
+            if ( transfer == null )
             {
-                final String path = entry.getPath();
-                if ( path == null || seenPaths.contains( path ) )
-                {
-                    continue;
-                }
-                final StoreKey sk = entry.getStoreKey();
-                Transfer transfer = contentManager.getTransfer( sk, path, TransferOperation.DOWNLOAD );
-                if ( transfer == null )
-                {
-                    Logger logger = LoggerFactory.getLogger( getClass() );
-                    logger.warn( "While creating Folo repo zip for: {}, cannot find: {} in: {}", trackingId, path, sk );
-                }
-                else
-                {
-                    seenPaths.add( path );
-                    items.add( transfer );
-                }
+                logger.warn( "While creating Folo repo zip for: {}, cannot find: {} in: {}", trackingId, path, sk );
+                continue;
             }
+
+            return new RepositoryZipItem( path, transfer,
+                                          COMPRESSED_EXTENSIONS.contains( getExtension( path ).toLowerCase() ) );
+        }
+
+        return null;
+    }
+
+    private void addCandidates( final Set<TrackedContentEntry> entries,
+                                final Map<String, List<TrackedContentEntry>> candidates )
+    {
+        if ( entries != null )
+        {
+            entries.stream()
+                   .filter( entry -> entry.getPath() != null )
+                   .forEach( entry -> candidates.computeIfAbsent( entry.getPath(), p -> new ArrayList<>() )
+                                                .add( entry ) );
+        }
+    }
+
+    private static final class RepositoryZipItem
+    {
+        private final String path;
+
+        private final Transfer transfer;
+
+        private final boolean compressed;
+
+        RepositoryZipItem( final String path, final Transfer transfer, final boolean compressed )
+        {
+            this.path = path;
+            this.transfer = transfer;
+            this.compressed = compressed;
         }
     }
 
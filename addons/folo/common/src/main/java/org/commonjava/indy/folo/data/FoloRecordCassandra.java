@@ -3,6 +3,7 @@ package org.commonjava.indy.folo.data;
 import com.datastax.driver.core.*;
 import com.datastax.driver.mapping.Mapper;
 import com.datastax.driver.mapping.MappingManager;
+import org.commonjava.cdi.util.weft.NamedThreadFactory;
 import org.commonjava.indy.IndyWorkflowException;
 import org.commonjava.indy.action.IndyLifecycleException;
 import org.commonjava.indy.action.StartupAction;
@@ -10,6 +11,7 @@ import org.commonjava.indy.conf.IndyConfiguration;
 import org.commonjava.indy.folo.change.FoloBackupListener;
 import org.commonjava.indy.folo.change.FoloExpirationWarningListener;
 import org.commonjava.indy.folo.conf.FoloConfig;
+import org.commonjava.indy.folo.model.StoreEffect;
 import org.commonjava.indy.folo.model.TrackedContent;
 import org.commonjava.indy.folo.model.TrackedContentEntry;
 import org.commonjava.indy.folo.model.TrackingKey;
@@ -18,16 +20,25 @@ import org.commonjava.indy.subsys.cassandra.CassandraClient;
 import org.commonjava.indy.subsys.cassandra.util.SchemaUtils;
 import org.commonjava.indy.subsys.infinispan.CacheHandle;
 import org.commonjava.maven.galley.util.UrlUtils;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import org.commonjava.o11yphant.metrics.api.Gauge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.UriInfo;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.commonjava.indy.folo.data.DtxTrackingRecord.fromCassandraRow;
@@ -39,6 +50,16 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
     private final static String DOWNLOADS = "DOWNLOAD";
     private final static String UPLOADS = "UPLOAD";
 
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final int MAX_SEALED_KEYS = 1000;
+
+    private static final String WRITER_NAME = "folo-record-writer";
+
+    private static final int PENDING_WRITER_TTL_SECONDS = 600;
+
+    private static final long MIN_SEAL_WAIT_MILLIS = 10000;
+
     private final Logger logger = LoggerFactory.getLogger( this.getClass() );
 
     @Inject
@@ -50,15 +71,48 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
     @Inject
     IndyConfiguration indyConfig;
 
+    @Inject
+    DefaultMetricsManager metricsManager;
+
     @Context
     UriInfo uriInfo;
 
+    // entries waiting for the write-behind writer, by tracking key
+    private final Map<String, PendingRecord> pendingRecords = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // tracking keys known to be sealed, so entries recorded after that fail right away instead of at write time
+    private final Map<String, Boolean> sealedKeys = Collections.synchronizedMap( new LinkedHashMap<String, Boolean>()
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Boolean> eldest )
+        {
+            return size() > MAX_SEALED_KEYS;
+        }
+    } );
+
+    private final AtomicLong lastFlushDuration = new AtomicLong();
+
+    private final AtomicLong lastFlushSize = new AtomicLong();
+
+    private ScheduledExecutorService writeService;
+
     private Session session;
     private Mapper<DtxTrackingRecord> trackingMapper;
 
     private PreparedStatement getTrackingRecordByBuildIdAndPath;
     private PreparedStatement getTrackingRecordBySealed;
     private PreparedStatement getTrackingRecordsByTrackingKey;
+    private PreparedStatement getSealedByTrackingKey;
+    private PreparedStatement insertPendingWriter;
+    private PreparedStatement deletePendingWriter;
+    private PreparedStatement getPendingWriters;
+    private PreparedStatement getPendingTrackingKeys;
+
+    private String nodeId;
 
 
     private static String createFoloRecordsTable( String keyspace )
@@ -86,7 +140,27 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
         return "CREATE INDEX IF NOT EXISTS sealed_idx ON " + keyspace + ".records (sealed);";
     }
 
+    // the nodes which have entries of a tracking key waiting to be written
+    private static String createFoloPendingWritersTable( String keyspace )
+    {
+        return "CREATE TABLE IF NOT EXISTS " + keyspace + ".pending_writers ("
+                + "tracking_key text,"
+                + "node text,"
+                + "PRIMARY KEY ((tracking_key),node)"
+                + ");";
+    }
 
+    public FoloRecordCassandra()
+    {
+    }
+
+    public FoloRecordCassandra( CassandraClient cassandraClient, FoloConfig config, IndyConfiguration indyConfig )
+    {
+        this.cassandraClient = cassandraClient;
+        this.config = config;
+        this.indyConfig = indyConfig;
+        initialize();
+    }
 
     @PostConstruct
     public void initialize() {
@@ -99,6 +173,7 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
         session.execute( SchemaUtils.getSchemaCreateKeyspace( foloCassandraKeyspace, indyConfig.getKeyspaceReplicas() ));
         session.execute(createFoloRecordsTable(foloCassandraKeyspace));
         session.execute(createFoloSealedIdx(foloCassandraKeyspace));
+        session.execute(createFoloPendingWritersTable(foloCassandraKeyspace));
 
         MappingManager mappingManager = new MappingManager(session);
         trackingMapper = mappingManager.mapper(DtxTrackingRecord.class,foloCassandraKeyspace);
@@ -111,13 +186,128 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
         getTrackingRecordsByTrackingKey =
                 session.prepare("SELECT * FROM "  + foloCassandraKeyspace + ".records WHERE tracking_key=?;");
 
+        getSealedByTrackingKey =
+                session.prepare("SELECT sealed FROM "  + foloCassandraKeyspace + ".records WHERE tracking_key=? LIMIT 1;");
+
+        insertPendingWriter = session.prepare(
+                "INSERT INTO " + foloCassandraKeyspace + ".pending_writers (tracking_key,node) VALUES (?,?) USING TTL "
+                        + PENDING_WRITER_TTL_SECONDS + ";" );
+        deletePendingWriter = session.prepare(
+                "DELETE FROM " + foloCassandraKeyspace + ".pending_writers WHERE tracking_key=? AND node=?;" );
+        getPendingWriters = session.prepare(
+                "SELECT node FROM " + foloCassandraKeyspace + ".pending_writers WHERE tracking_key=?;" );
+        getPendingTrackingKeys = session.prepare(
+                "SELECT DISTINCT tracking_key FROM " + foloCassandraKeyspace + ".pending_writers;" );
+
+        nodeId = indyConfig.getNodeId();
+
         logger.warn("-- Cassandra Folo Records Keyspace and Tables created  ---");
 
+        if ( metricsManager != null )
+        {
+            Map<String, Gauge<Integer>> gauges = new HashMap<>();
+            gauges.put( "pending", pendingCount::get );
+            gauges.put( "duration", () -> (int) lastFlushDuration.get() );
+            gauges.put( "size", () -> (int) lastFlushSize.get() );
+            metricsManager.addGauges( getClass(), "write", gauges );
+        }
+
+        long writePeriod = config.getFoloCassandraWritePeriodMillis();
+        if ( writePeriod > 0 )
+        {
+            writeService = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory( WRITER_NAME, new ThreadGroup( WRITER_NAME ), true, 4 ) );
+            writeService.scheduleWithFixedDelay( () -> {
+                try
+                {
+                    flushPendingEntries();
+                }
+                catch ( RuntimeException e )
+                {
+                    // keep the writer scheduled, the next run picks up whatever is still pending
+                    logger.error( "Failed to write pending tracking entries", e );
+                }
+            }, writePeriod, writePeriod, TimeUnit.MILLISECONDS );
+        }
     }
 
+    @PreDestroy
+    public void stop() {
+        if ( writeService != null )
+        {
+            writeService.shutdown();
+        }
+        flushPendingEntries();
+    }
+
+    /**
+     * Queue the entry to be written with the next batch, so the caller doesn't wait for Cassandra. An entry recorded
+     * again for the same tracking key, path and effect before that replaces the earlier one. When too many entries are
+     * waiting, or write-behind is disabled, the entry is written directly.
+     * <p>
+     * The first entry queued for a tracking key since its last write checks whether the record was sealed on any node,
+     * and registers this node as a pending writer of the key, which {@link #seal(TrackingKey)} waits for.
+     */
     @Override
     public boolean recordArtifact(TrackedContentEntry entry) throws FoloContentException, IndyWorkflowException {
 
+        String id = entry.getTrackingKey().getId();
+        if ( sealedKeys.containsKey( id ) )
+        {
+            throw new FoloContentException( "Tracking record: {} is already sealed!", entry.getTrackingKey() );
+        }
+
+        if ( writeService == null )
+        {
+            return writeArtifact( entry );
+        }
+
+        if ( pendingCount.get() >= config.getFoloCassandraWriteQueueSize() && !pendingRecords.containsKey( id ) )
+        {
+            logger.debug( "{} tracking entries waiting to be written, writing {} directly", pendingCount.get(), id );
+            return writeArtifact( entry );
+        }
+
+        String key = entry.getPath() + ":" + entry.getEffect();
+        while ( true )
+        {
+            PendingRecord record = pendingRecords.computeIfAbsent( id, k -> new PendingRecord() );
+            synchronized ( record )
+            {
+                if ( record.retired )
+                {
+                    continue; // written and dropped meanwhile, queue to a new one
+                }
+
+                if ( !record.registered )
+                {
+                    if ( isSealed( id ) )
+                    {
+                        sealedKeys.put( id, Boolean.TRUE );
+                        retire( id, record );
+                        throw new FoloContentException( "Tracking record: {} is already sealed!",
+                                                        entry.getTrackingKey() );
+                    }
+                    session.execute( insertPendingWriter.bind( id, nodeId ) );
+                    record.registered = true;
+                }
+
+                if ( record.entries.put( key, entry ) == null )
+                {
+                    pendingCount.incrementAndGet();
+                }
+                return true;
+            }
+        }
+    }
+
+    private boolean isSealed( String id ) {
+        Row row = session.execute( getSealedByTrackingKey.bind( id ) ).one();
+        return row != null && row.getBool( "sealed" );
+    }
+
+    private boolean writeArtifact(TrackedContentEntry entry) throws FoloContentException {
+
         String buildId = entry.getTrackingKey().getId();
         String path = entry.getPath();
 
@@ -156,6 +346,246 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
 
     }
 
+    /**
+     * Write all queued entries as unlogged batches per tracking key, which is the partition key of the records table.
+     * Instead of reading each record before writing it, the sealed state is read once per tracking key; entries of
+     * sealed records are dropped. Entries from failed batches are queued again, unless a newer entry for them was
+     * queued meanwhile.
+     */
+    public void flushPendingEntries() {
+        flush( new ArrayList<>( pendingRecords.keySet() ) );
+    }
+
+    /**
+     * Write the queued entries of one tracking key, and wait for any other flush still writing entries of it.
+     */
+    private void flushPendingEntries( String id ) {
+        flush( Collections.singleton( id ) );
+
+        PendingRecord record = pendingRecords.get( id );
+        if ( record != null )
+        {
+            synchronized ( record )
+            {
+                while ( record.flushing > 0 )
+                {
+                    try
+                    {
+                        record.wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void flush( Collection<String> ids ) {
+        long start = System.currentTimeMillis();
+
+        // upload and download of the same path share a row; like the upload listener, the upload wins
+        Map<String, PendingRecord> records = new LinkedHashMap<>();
+        Map<String, Map<String, TrackedContentEntry>> partitions = new LinkedHashMap<>();
+        for ( String id : ids )
+        {
+            PendingRecord record = pendingRecords.get( id );
+            if ( record == null )
+            {
+                continue;
+            }
+
+            Map<String, TrackedContentEntry> paths = new LinkedHashMap<>();
+            synchronized ( record )
+            {
+                if ( record.entries.isEmpty() )
+                {
+                    continue; // taken by another flush, which retires it
+                }
+                record.entries.values()
+                              .forEach( e -> paths.merge( e.getPath(), e,
+                                                          ( a, b ) -> a.getEffect() == StoreEffect.UPLOAD ? a : b ) );
+                pendingCount.addAndGet( -record.entries.size() );
+                record.entries.clear();
+                record.flushing++;
+            }
+            records.put( id, record );
+            partitions.put( id, paths );
+        }
+
+        if ( partitions.isEmpty() )
+        {
+            return;
+        }
+
+        Map<String, ResultSetFuture> sealedQueries = new HashMap<>();
+        partitions.keySet().forEach( id -> sealedQueries.put( id, session.executeAsync( getSealedByTrackingKey.bind( id ) ) ) );
+
+        Map<ResultSetFuture, List<TrackedContentEntry>> writes = new LinkedHashMap<>();
+        int total = 0;
+        for ( Map.Entry<String, Map<String, TrackedContentEntry>> partition : partitions.entrySet() )
+        {
+            List<TrackedContentEntry> entries = new ArrayList<>( partition.getValue().values() );
+            try
+            {
+                Row row = sealedQueries.get( partition.getKey() ).getUninterruptibly().one();
+                if ( row != null && row.getBool( "sealed" ) )
+                {
+                    logger.error( "Tracking record: {} is already sealed! Dropping {} entries.", partition.getKey(),
+                                  entries.size() );
+                    sealedKeys.put( partition.getKey(), Boolean.TRUE );
+                    continue;
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Failed to read state of tracking record: {}, will retry. Reason: {}",
+                             partition.getKey(), e.getMessage() );
+                requeue( records.get( partition.getKey() ), entries );
+                continue;
+            }
+
+            total += entries.size();
+            writeBatches( entries, writes );
+        }
+
+        int failed = 0;
+        for ( Map.Entry<ResultSetFuture, List<TrackedContentEntry>> write : writes.entrySet() )
+        {
+            try
+            {
+                write.getKey().getUninterruptibly();
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Failed to write {} tracking entries, will retry. Reason: {}", write.getValue().size(),
+                             e.getMessage() );
+                List<TrackedContentEntry> entries = write.getValue();
+                requeue( records.get( entries.get( 0 ).getTrackingKey().getId() ), entries );
+                failed += entries.size();
+            }
+        }
+
+        records.forEach( ( id, record ) -> {
+            synchronized ( record )
+            {
+                record.flushing--;
+                if ( record.flushing == 0 && record.entries.isEmpty() )
+                {
+                    retire( id, record );
+                }
+                record.notifyAll();
+            }
+        } );
+
+        lastFlushDuration.set( System.currentTimeMillis() - start );
+        lastFlushSize.set( total );
+        logger.debug( "Wrote {} tracking entries in {} batches, {} failed", total, writes.size(), failed );
+    }
+
+    /**
+     * Drop a record with nothing left to write, and with it this node from the pending writers of the key. Entries
+     * queued after this go to a new record, which registers again; the driver's client-side timestamps order that
+     * insert after this delete.
+     */
+    private void retire( String id, PendingRecord record ) {
+        record.retired = true;
+        pendingRecords.remove( id, record );
+        if ( record.registered )
+        {
+            session.executeAsync( deletePendingWriter.bind( id, nodeId ) );
+        }
+    }
+
+    private void writeBatches( List<TrackedContentEntry> entries, Map<ResultSetFuture, List<TrackedContentEntry>> writes ) {
+        for ( int i = 0; i < entries.size(); i += MAX_BATCH_SIZE )
+        {
+            int end = Math.min( entries.size(), i + MAX_BATCH_SIZE );
+
+            BatchStatement batch = new BatchStatement( BatchStatement.Type.UNLOGGED );
+            entries.subList( i, end ).forEach( e -> batch.add( trackingMapper.saveQuery( new DtxTrackingRecord( e ) ) ) );
+
+            writes.put( session.executeAsync( batch ), entries.subList( i, end ) );
+        }
+    }
+
+    private void requeue( PendingRecord record, List<TrackedContentEntry> entries ) {
+        synchronized ( record )
+        {
+            entries.forEach( e -> {
+                if ( record.entries.putIfAbsent( e.getPath() + ":" + e.getEffect(), e ) == null )
+                {
+                    pendingCount.incrementAndGet();
+                }
+            } );
+        }
+    }
+
+    /**
+     * Wait until no other node has entries of the tracking key waiting to be written. A node which went away with
+     * entries pending is given up on after a while; its registration expires on its own.
+     */
+    private void awaitPendingWriters( TrackingKey trackingKey ) {
+        long writePeriod = config.getFoloCassandraWritePeriodMillis();
+        long deadline = System.currentTimeMillis() + Math.max( MIN_SEAL_WAIT_MILLIS, writePeriod * 10 );
+        long pollMillis = Math.min( 1000, Math.max( 50, writePeriod / 4 ) );
+        while ( true )
+        {
+            List<String> writers = new ArrayList<>();
+            for ( Row row : session.execute( getPendingWriters.bind( trackingKey.getId() ) ) )
+            {
+                String node = row.getString( "node" );
+                if ( !nodeId.equals( node ) )
+                {
+                    writers.add( node );
+                }
+            }
+
+            if ( writers.isEmpty() )
+            {
+                return;
+            }
+
+            if ( System.currentTimeMillis() > deadline )
+            {
+                logger.warn( "Tracking record: {} still has entries pending on nodes: {}. Sealing without them.",
+                             trackingKey, writers );
+                return;
+            }
+
+            logger.debug( "Waiting for nodes: {} to write pending entries of tracking record: {}", writers,
+                          trackingKey );
+            try
+            {
+                Thread.sleep( pollMillis );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Entries of one tracking key waiting to be written, guarded by its own monitor.
+     */
+    private static final class PendingRecord
+    {
+        // by path and effect
+        private final Map<String, TrackedContentEntry> entries = new LinkedHashMap<>();
+
+        // flushes writing entries taken from here
+        private int flushing;
+
+        // whether this node is in the pending writers of the key
+        private boolean registered;
+
+        private boolean retired;
+    }
+
     @Override
     public void delete(TrackingKey key) {
 
@@ -196,6 +626,7 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
 
     @Override
     public boolean hasRecord(TrackingKey key) {
+        flushPendingEntries( key.getId() );
         return hasSealedRecord(key) || hasInProgressRecord(key);
     }
 
@@ -233,12 +664,17 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
 
     @Override
     public TrackedContent get(TrackingKey key) {
+        flushPendingEntries( key.getId() );
         List<DtxTrackingRecord> trackingRecords =  getDtxTrackingRecordsFromDb(key);
         return transformDtxTrackingRecordToTrackingContent(key,trackingRecords);
     }
 
     @Override
     public TrackedContent seal(TrackingKey trackingKey) {
+        // entries still queued for this record, on this or any other node, have to be part of it
+        flushPendingEntries( trackingKey.getId() );
+        awaitPendingWriters( trackingKey );
+
         List<DtxTrackingRecord> trackingRecords =  getDtxTrackingRecordsFromDb(trackingKey);
 
         if(trackingRecords == null ||  trackingRecords.isEmpty()) {
@@ -252,6 +688,7 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
             return transformDtxTrackingRecordToTrackingContent(trackingKey,trackingRecords);
         }
         logger.debug( "Sealing record for: {}", trackingKey );
+        sealedKeys.put( trackingKey.getId(), Boolean.TRUE );
         for(DtxTrackingRecord record : trackingRecords) {
             record.setState(true);
             trackingMapper.save(record);
@@ -261,7 +698,14 @@ public class FoloRecordCassandra implements FoloRecord,StartupAction {
 
     @Override
     public Set<TrackingKey> getInProgressTrackingKey() {
-        return getTrackingKeys(false);
+        // records with entries not written yet, on any node, are in progress as well
+        Set<TrackingKey> trackingKeys = getTrackingKeys(false);
+        for ( Row row : session.execute( getPendingTrackingKeys.bind() ) )
+        {
+            trackingKeys.add( new TrackingKey( row.getString( "tracking_key" ) ) );
+        }
+        pendingRecords.keySet().forEach( id -> trackingKeys.add( new TrackingKey( id ) ) );
+        return trackingKeys;
     }
 
     @Override
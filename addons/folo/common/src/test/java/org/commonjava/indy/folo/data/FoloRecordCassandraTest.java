@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.folo.data;
+
+import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
+import org.commonjava.indy.conf.DefaultIndyConfiguration;
+import org.commonjava.indy.folo.conf.FoloConfig;
+import org.commonjava.indy.folo.model.StoreEffect;
+import org.commonjava.indy.folo.model.TrackedContent;
+import org.commonjava.indy.folo.model.TrackedContentEntry;
+import org.commonjava.indy.folo.model.TrackingKey;
+import org.commonjava.indy.model.core.AccessChannel;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
+import org.commonjava.indy.subsys.cassandra.CassandraClient;
+import org.commonjava.indy.subsys.cassandra.config.CassandraConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Two records sharing one keyspace stand for two cluster nodes. Their writers are idle for the whole test, so entries
+ * are only written by reads and seals.
+ */
+public class FoloRecordCassandraTest
+{
+    private static final String KEYSPACE = "folo";
+
+    private static final long WRITE_PERIOD_MILLIS = 60 * 60 * 1000;
+
+    private final StoreKey hosted = new StoreKey( "maven", StoreType.hosted, "build-1" );
+
+    private CassandraClient client;
+
+    private FoloRecordCassandra nodeA;
+
+    private FoloRecordCassandra nodeB;
+
+    @Before
+    public void start() throws Exception
+    {
+        EmbeddedCassandraServerHelper.startEmbeddedCassandra();
+
+        CassandraConfig config = new CassandraConfig();
+        config.setEnabled( true );
+        config.setCassandraHost( "localhost" );
+        config.setCassandraPort( 9142 );
+        client = new CassandraClient( config );
+
+        nodeA = newNode( "node-a" );
+        nodeB = newNode( "node-b" );
+    }
+
+    @After
+    public void stop() throws Exception
+    {
+        nodeA.stop();
+        nodeB.stop();
+        client.close();
+        EmbeddedCassandraServerHelper.cleanEmbeddedCassandra();
+    }
+
+    @Test
+    public void queuedEntriesAreDedupedAndWrittenOnRead() throws Exception
+    {
+        TrackingKey key = new TrackingKey( "dedupe" );
+
+        nodeA.recordArtifact( entry( key, "org/foo/1/foo-1.pom", StoreEffect.DOWNLOAD, 1L ) );
+        nodeA.recordArtifact( entry( key, "org/foo/1/foo-1.pom", StoreEffect.DOWNLOAD, 2L ) );
+        nodeA.recordArtifact( entry( key, "org/foo/1/foo-1.jar", StoreEffect.DOWNLOAD, 3L ) );
+        nodeA.recordArtifact( entry( key, "org/foo/1/foo-1.jar", StoreEffect.UPLOAD, 4L ) );
+
+        // nothing is written yet, but another node sees the record as in progress
+        assertThat( nodeB.get( key ).getDownloads().size(), equalTo( 0 ) );
+        assertThat( nodeB.getInProgressTrackingKey().contains( key ), equalTo( true ) );
+
+        TrackedContent record = nodeA.get( key );
+        assertThat( record.getDownloads().size(), equalTo( 1 ) );
+        assertThat( record.getDownloads().iterator().next().getSize(), equalTo( 2L ) );
+        assertThat( record.getUploads().size(), equalTo( 1 ) );
+        assertThat( record.getUploads().iterator().next().getSize(), equalTo( 4L ) );
+    }
+
+    @Test
+    public void sealWaitsForEntriesPendingOnOtherNodes() throws Exception
+    {
+        TrackingKey key = new TrackingKey( "seal" );
+
+        nodeA.recordArtifact( entry( key, "org/foo/1/foo-1.pom", StoreEffect.DOWNLOAD, 1L ) );
+
+        Thread writer = new Thread( () -> {
+            try
+            {
+                Thread.sleep( 500 );
+            }
+            catch ( InterruptedException e )
+            {
+                return;
+            }
+            nodeA.flushPendingEntries();
+        } );
+        writer.start();
+
+        TrackedContent sealed = nodeB.seal( key );
+        writer.join();
+
+        assertThat( sealed.getDownloads().size(), equalTo( 1 ) );
+
+        // node A learns about the seal from the database, not just from its own seals
+        try
+        {
+            nodeA.recordArtifact( entry( key, "org/foo/1/foo-1.jar", StoreEffect.DOWNLOAD, 2L ) );
+            fail( "Recorded an entry into a sealed record" );
+        }
+        catch ( FoloContentException e )
+        {
+            // expected
+        }
+    }
+
+    private FoloRecordCassandra newNode( String nodeId )
+    {
+        FoloConfig config = new FoloConfig();
+        config.setFoloCassandraKeyspace( KEYSPACE );
+        config.setFoloCassandraWritePeriodMillis( WRITE_PERIOD_MILLIS );
+
+        DefaultIndyConfiguration indyConfig = new DefaultIndyConfiguration();
+        indyConfig.setKeyspaceReplicas( 1 );
+        indyConfig.setNodeId( nodeId );
+
+        return new FoloRecordCassandra( client, config, indyConfig );
+    }
+
+    private TrackedContentEntry entry( TrackingKey key, String path, StoreEffect effect, long size )
+    {
+        return new TrackedContentEntry( key, hosted, AccessChannel.NATIVE, "", path, effect, size, "md5", "sha1",
+                                        "sha256" );
+    }
+}
@@ -33,6 +33,7 @@ import org.commonjava.indy.folo.data.FoloContentException;
 import org.commonjava.indy.folo.dto.TrackedContentDTO;
 import org.commonjava.indy.folo.dto.TrackedContentEntryDTO;
 import org.commonjava.indy.folo.dto.TrackingIdsDTO;
+import org.commonjava.indy.folo.model.TrackedContent;
 import org.commonjava.indy.model.core.BatchDeleteRequest;
 import org.commonjava.indy.model.core.io.IndyObjectMapper;
 import org.commonjava.maven.galley.event.EventMetadata;
@@ -52,6 +53,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.io.File;
 import java.io.IOException;
@@ -132,15 +134,27 @@ public class FoloAdminResource
     @Path( "/{id}/repo/zip" )
     @GET
     @Produces( application_zip )
-    public File getZipRepository( @ApiParam( "User-assigned tracking session key" ) @PathParam( "id" ) String id )
+    public Response getZipRepository( @ApiParam( "User-assigned tracking session key" ) @PathParam( "id" ) String id )
     {
         try
         {
-            File zip = controller.renderRepositoryZip( id );
-            return zip;
-            //
-            //            final Response.ResponseBuilder builder = Response.ok( zip );
-            //            return setInfoHeaders( builder, zip, false, application_zip ).build();
+            // look the record up first, so a missing one is still a 404 rather than a broken stream
+            final TrackedContent record = controller.getRepositoryZipRecord( id );
+
+            final StreamingOutput zip = out -> {
+                try
+                {
+                    controller.writeRepositoryZip( record, out );
+                }
+                catch ( IndyWorkflowException e )
+                {
+                    logger.error( String.format( "Failed to stream repository zip for: %s. Reason: %s", id,
+                                                 e.getMessage() ), e );
+                    throw new IOException( e.getMessage(), e );
+                }
+            };
+
+            return Response.ok( zip, application_zip ).build();
         }
         catch ( IndyWorkflowException e )
         {
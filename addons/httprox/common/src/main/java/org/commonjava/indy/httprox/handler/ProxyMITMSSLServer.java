@@ -15,54 +15,54 @@
  */
 package org.commonjava.indy.httprox.handler;
 
-import org.apache.http.ProtocolVersion;
-import org.apache.http.RequestLine;
-import org.apache.http.message.BasicRequestLine;
 import org.commonjava.indy.core.ctl.ContentController;
 import org.commonjava.indy.httprox.conf.HttproxConfig;
 import org.commonjava.indy.httprox.util.CertificateAndKeys;
 import org.commonjava.indy.httprox.util.HttpConduitWrapper;
+import org.commonjava.indy.httprox.util.OutputStreamSinkChannel;
 import org.commonjava.indy.httprox.util.ProxyMeter;
 import org.commonjava.indy.httprox.util.ProxyResponseHelper;
-import org.commonjava.indy.httprox.util.OutputStreamSinkChannel;
 import org.commonjava.indy.model.core.ArtifactStore;
 import org.commonjava.indy.subsys.http.util.UserPass;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.channels.StreamSinkChannel;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocketFactory;
-import java.io.BufferedReader;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.BufferedOutputStream;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
-import java.nio.channels.SocketChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static java.lang.Integer.parseInt;
 import static javax.ws.rs.HttpMethod.GET;
 import static javax.ws.rs.HttpMethod.HEAD;
-import static org.commonjava.propulsor.boot.PortFinder.findOpenPort;
 import static org.commonjava.indy.httprox.util.CertUtils.createKeyStore;
 import static org.commonjava.indy.httprox.util.CertUtils.createSignedCertificateAndKey;
 import static org.commonjava.indy.httprox.util.CertUtils.getPrivateKey;
@@ -72,18 +72,24 @@ import static org.commonjava.indy.httprox.util.HttpProxyConstants.GET_METHOD;
 /**
  * We create server crt based on the host name and use a CA crt to sign it. We send the CA crt to client and they use
  * it when sending requests to MITM server.
+ * <p>
+ * TLS is terminated directly on the client connection with an {@link SSLEngine}: the request reader hands over the
+ * encrypted bytes it reads, handshake records and responses are written to the sink channel of the same connection.
+ * No thread is held while the handshake and the request are in progress; only the transfer of the requested content
+ * runs on the executor, like the content transfer of a plain proxy request.
+ * <p>
+ * Encrypted output the channel doesn't take right away is queued and written when the channel becomes writable, so
+ * the I/O thread never waits for the client. The transfer waits for the queue to drain before writing more.
  */
-public class ProxyMITMSSLServer implements Runnable
+public class ProxyMITMSSLServer
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private static final int FIND_OPEN_PORT_MAX_RETRIES = 16;
-
-    private static final int GET_SOCKET_CHANNEL_MAX_RETRIES = 32;
+    private static final int MAX_REQUEST_HEAD_SIZE = 64 * 1024;
 
-    private static final int GET_SOCKET_CHANNEL_WAIT_TIME_IN_MILLISECONDS = 500;
+    private static final byte[] HEAD_END = "\r\n\r\n".getBytes( StandardCharsets.US_ASCII );
 
-    private static final int ACCEPT_SOCKET_WAIT_TIME_IN_MILLISECONDS = 20000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate( 0 );
 
     private final String host;
 
@@ -93,8 +99,6 @@ public class ProxyMITMSSLServer implements Runnable
 
     private ProxyMeter meterTemplate;
 
-    private volatile int serverPort;
-
     private final String trackingId;
 
     private final UserPass proxyUserPass;
@@ -105,11 +109,39 @@ public class ProxyMITMSSLServer implements Runnable
 
     private final ProxyResponseHelper proxyResponseHelper;
 
-    private volatile boolean isCancelled = false;
+    private final StreamSinkChannel sinkChannel;
+
+    private final Executor executor;
+
+    private final ReentrantLock wrapLock = new ReentrantLock();
+
+    private final ByteArrayOutputStream requestHead = new ByteArrayOutputStream();
+
+    private SSLEngine engine;
+
+    private ByteBuffer netIn;
+
+    private ByteBuffer appIn;
+
+    private ByteBuffer netOut;
+
+    private final Deque<ByteBuffer> pendingOut = new ArrayDeque<>();
+
+    // guarded by pendingOut; set while writes are resumed to drain pendingOut or finish a flush
+    private boolean outputPending;
+
+    private volatile XnioExecutor.Key timeoutKey;
+
+    private volatile long lastActivity;
+
+    private boolean dispatched;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public ProxyMITMSSLServer( String host, int port, String trackingId, UserPass proxyUserPass,
                                ProxyResponseHelper proxyResponseHelper, ContentController contentController,
-                               CacheProvider cacheProvider, HttproxConfig config, final ProxyMeter meterTemplate )
+                               CacheProvider cacheProvider, HttproxConfig config, final ProxyMeter meterTemplate,
+                               final StreamSinkChannel sinkChannel, final Executor executor )
     {
         this.host = host;
         this.port = port;
@@ -120,32 +152,19 @@ public class ProxyMITMSSLServer implements Runnable
         this.cacheProvider = cacheProvider;
         this.config = config;
         this.meterTemplate = meterTemplate;
+        this.sinkChannel = sinkChannel;
+        this.executor = executor;
     }
 
-    @Override
-    public void run()
-    {
-        try
-        {
-            execute();
-        }
-        catch ( Exception e )
-        {
-            logger.warn( "Exception failed", e );
-        }
-    }
-
-    private volatile boolean started;
-
     private char[] keystorePassword = "password".toCharArray(); // keystore password can not be null
 
     // TODO: What are the memory footprint implications of this? It seems like these will never be purged.
-    private static Map<String, HostContext> hostContextMap = new ConcurrentHashMap(); // cache keystore and socket factory, key: hostname
+    private static Map<String, HostContext> hostContextMap = new ConcurrentHashMap(); // cache keystore and ssl context, key: hostname
 
     /**
-     * Generate the keystore on-the-fly and initiate SSL socket factory.
+     * Generate the keystore on-the-fly and initiate SSL context.
      */
-    private SSLServerSocketFactory getSSLServerSocketFactory( String host ) throws Exception
+    private SSLContext getSSLContext( String host ) throws Exception
     {
         AtomicReference<Exception> err = new AtomicReference<>();
         HostContext context = hostContextMap.computeIfAbsent( host, (k) -> {
@@ -157,8 +176,7 @@ public class ProxyMITMSSLServer implements Runnable
 
                final SSLContext sc = SSLContext.getInstance( "TLS" );
                sc.init( kmf.getKeyManagers(), null, null );
-               final SSLServerSocketFactory factory = sc.getServerSocketFactory();
-               return new HostContext(ks, factory);
+               return new HostContext(ks, sc);
            }
            catch ( Exception e )
            {
@@ -171,7 +189,7 @@ public class ProxyMITMSSLServer implements Runnable
             throw err.get();
         }
 
-        return context.getSslSocketFactory();
+        return context.getSslContext();
     }
 
     private KeyStore getKeyStore( String host ) throws Exception
@@ -191,100 +209,413 @@ public class ProxyMITMSSLServer implements Runnable
         return ks;
     }
 
-    private void execute() throws Exception
+    /**
+     * Create the server side SSL engine for the tunnel. This has to be done before the client is told the tunnel is
+     * established, since the client starts the handshake right after that.
+     */
+    public void start() throws Exception
     {
-        ProxyMeter meter = null;
-        SSLServerSocketFactory sslServerSocketFactory = getSSLServerSocketFactory( host );
+        engine = getSSLContext( host ).createSSLEngine( host, port );
+        engine.setUseClientMode( false );
 
-        serverPort = findOpenPort( FIND_OPEN_PORT_MAX_RETRIES );
+        netIn = ByteBuffer.allocate( engine.getSession().getPacketBufferSize() );
+        appIn = ByteBuffer.allocate( engine.getSession().getApplicationBufferSize() );
+        netOut = ByteBuffer.allocate( engine.getSession().getPacketBufferSize() );
 
-        // TODO: What is the performance implication of opening a new server socket each time? Should we try to cache these?
-        try ( ServerSocket sslServerSocket = sslServerSocketFactory.createServerSocket( serverPort ) )
+        // the tunnel is given up when nothing was received or sent for the socket timeout, in case the client or the
+        // transfer hangs
+        touch();
+        scheduleIdleCheck( TimeUnit.MINUTES.toMillis( config.getMITMSoTimeoutMinutes() ) );
+
+        logger.debug( "MITM SSL engine created for {}:{}", host, port );
+    }
+
+    private void touch()
+    {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    private void scheduleIdleCheck( final long delayMillis )
+    {
+        XnioIoThread ioThread = sinkChannel.getIoThread();
+        if ( ioThread != null )
+        {
+            timeoutKey = ioThread.executeAfter( this::checkIdle, delayMillis, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Rather than resetting the timer on every read and write, check how long the tunnel has been idle when it fires,
+     * and schedule it again for the rest of the timeout.
+     */
+    private void checkIdle()
+    {
+        if ( closed.get() )
+        {
+            return;
+        }
+
+        final long timeout = TimeUnit.MINUTES.toMillis( config.getMITMSoTimeoutMinutes() );
+        final long idle = System.currentTimeMillis() - lastActivity;
+        if ( idle >= timeout )
+        {
+            logger.warn( "MITM tunnel to {}:{} timed out after {} ms idle.", host, port, idle );
+            close();
+        }
+        else
+        {
+            scheduleIdleCheck( timeout - idle );
+        }
+    }
+
+    /**
+     * Feed encrypted bytes read from the client connection. This runs the handshake as far as the data allows, and
+     * collects the decrypted request. Once the request head is complete, the transfer is dispatched to the executor.
+     */
+    public synchronized void receive( final byte[] bytes ) throws IOException
+    {
+        if ( closed.get() )
         {
+            logger.debug( "MITM tunnel closed, dropping {} bytes from client", bytes.length );
+            return;
+        }
+
+        touch();
 
-            sslServerSocket.setSoTimeout( ACCEPT_SOCKET_WAIT_TIME_IN_MILLISECONDS ); //in case the response handler times out
-            started = true;
+        netIn = ensureRemaining( netIn, bytes.length );
+        netIn.put( bytes );
+        netIn.flip();
+        try
+        {
+            unwrap();
+        }
+        catch ( SSLException e )
+        {
+            logger.debug( "MITM handshake with client failed for {}:{}, {}", host, port, e.toString() );
+            close();
+        }
+        finally
+        {
+            netIn.compact();
+        }
+    }
 
-            if ( !isCancelled )
+    private void unwrap() throws IOException
+    {
+        while ( !closed.get() )
+        {
+            final SSLEngineResult result = engine.unwrap( netIn, appIn );
+            switch ( result.getStatus() )
             {
-                try ( Socket socket = sslServerSocket.accept() )
+                case BUFFER_OVERFLOW:
+                {
+                    appIn = ensureRemaining( appIn, engine.getSession().getApplicationBufferSize() );
+                    continue;
+                }
+                case BUFFER_UNDERFLOW:
+                {
+                    // wait for the rest of the record
+                    return;
+                }
+                case CLOSED:
                 {
-                    logger.debug( "MITM server started, {}", sslServerSocket );
-                    long startNanos = System.nanoTime();
-                    String method = null;
-                    String requestLine = null;
+                    logger.debug( "Client closed MITM session for {}:{}", host, port );
+                    close();
+                    return;
+                }
+                default:
+                {
+                    break;
+                }
+            }
 
-                    meter = meterTemplate.copy( startNanos, method, requestLine );
+            if ( appIn.position() > 0 )
+            {
+                readRequest();
+            }
 
-                    socket.setSoTimeout( (int) TimeUnit.MINUTES.toMillis( config.getMITMSoTimeoutMinutes() ) );
+            final HandshakeStatus status = handshake( result.getHandshakeStatus() );
+            if ( !netIn.hasRemaining() || ( result.bytesConsumed() == 0 && status != HandshakeStatus.NEED_UNWRAP ) )
+            {
+                return;
+            }
+        }
+    }
 
-                    logger.debug( "MITM server accepted" );
-                    try ( BufferedReader in = new BufferedReader( new InputStreamReader( socket.getInputStream() ) ) )
+    /**
+     * Run delegated tasks and send handshake records until the engine needs more data from the client, or the
+     * handshake is done.
+     */
+    private HandshakeStatus handshake( HandshakeStatus status ) throws IOException
+    {
+        while ( !closed.get() )
+        {
+            switch ( status )
+            {
+                case NEED_TASK:
+                {
+                    Runnable task;
+                    while ( ( task = engine.getDelegatedTask() ) != null )
                     {
-
-                        // TODO: Should we implement a while loop around this with some sort of read timeout, in case multiple requests are inlined?
-                        // In principle, any sort of network communication is permitted over this port, but even if we restrict this to
-                        // HTTPS only, couldn't there be multiple requests over the port at a time?
-                        String path = null;
-                        StringBuilder sb = new StringBuilder();
-                        String line;
-                        while ( ( line = in.readLine() ) != null )
-                        {
-                            sb.append( line + "\n" );
-                            if ( line.startsWith( GET ) || line.startsWith( HEAD ) ) // only care about GET/HEAD
-                            {
-                                String[] toks = line.split("\\s+");
-                                method = toks[0];
-                                path = toks[1];
-                                requestLine = line;
-                            }
-                            else if ( line.isEmpty() )
-                            {
-                                logger.debug( "Get empty line and break" );
-                                break;
-                            }
-                        }
-
-                        logger.debug( "Request:\n{}", sb.toString() );
-
-                        if ( path != null )
-                        {
-                            try
-                            {
-                                transferRemote( socket, host, port, method, path, meter );
-                            }
-                            catch ( Exception e )
-                            {
-                                logger.error( "Transfer remote failed", e );
-                            }
-                        }
-                        else
-                        {
-                            logger.debug( "MITM server failed to get request from client" );
-                        }
+                        task.run();
                     }
+                    status = engine.getHandshakeStatus();
+                    break;
+                }
+                case NEED_WRAP:
+                {
+                    status = wrap( EMPTY, false );
+                    break;
                 }
-                catch ( SocketTimeoutException ste )
+                default:
                 {
-                    logger.error( "Socket read timeout with client hostname: {}, on port: {}.", host, port );
-                    throw ste;
+                    return status;
                 }
             }
-            logger.debug( "MITM server closed" );
+        }
+        return status;
+    }
+
+    /**
+     * Encrypt and send data to the client. Only the transfer may block until the client took it; the handshake runs on
+     * the I/O thread, which must not wait for the client.
+     */
+    private HandshakeStatus wrap( final ByteBuffer src, final boolean blocking ) throws IOException
+    {
+        HandshakeStatus status;
+        wrapLock.lock();
+        try
+        {
+            SSLEngineResult result;
+            do
+            {
+                netOut.clear();
+                result = engine.wrap( src, netOut );
+                if ( result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW )
+                {
+                    netOut = ByteBuffer.allocate( netOut.capacity() + engine.getSession().getPacketBufferSize() );
+                    continue;
+                }
+
+                netOut.flip();
+                if ( netOut.hasRemaining() )
+                {
+                    send( netOut );
+                }
+
+                if ( result.getStatus() == SSLEngineResult.Status.CLOSED )
+                {
+                    break;
+                }
+            }
+            while ( src.hasRemaining() || result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW );
+
+            status = result.getHandshakeStatus();
         }
         finally
         {
-            if (meter != null)
+            wrapLock.unlock();
+        }
+
+        if ( blocking )
+        {
+            awaitOutput();
+        }
+        return status;
+    }
+
+    /**
+     * Write as much as the channel takes right now, and queue the rest for the write listener. Never blocks.
+     */
+    private void send( final ByteBuffer data ) throws IOException
+    {
+        synchronized ( pendingOut )
+        {
+            if ( pendingOut.isEmpty() && sinkChannel.write( data ) > 0 )
+            {
+                touch();
+            }
+
+            if ( data.hasRemaining() )
+            {
+                final ByteBuffer rest = ByteBuffer.allocate( data.remaining() );
+                rest.put( data );
+                rest.flip();
+                pendingOut.add( rest );
+            }
+
+            if ( !drainOutput() && !outputPending )
+            {
+                outputPending = true;
+                sinkChannel.resumeWrites();
+            }
+        }
+    }
+
+    /**
+     * Write queued output and flush the channel, as far as possible without blocking. Has to be called holding the
+     * pendingOut monitor.
+     *
+     * @return true when everything has been written and flushed
+     */
+    private boolean drainOutput() throws IOException
+    {
+        ByteBuffer next;
+        while ( ( next = pendingOut.peek() ) != null )
+        {
+            if ( sinkChannel.write( next ) > 0 )
             {
-                meter.reportResponseSummary();
+                touch();
             }
-            isCancelled = false;
-            started = false;
+
+            if ( next.hasRemaining() )
+            {
+                return false;
+            }
+            pendingOut.poll();
+        }
+
+        return sinkChannel.flush();
+    }
+
+    /**
+     * Called on the I/O thread when the client connection is writable again.
+     */
+    public void handleWritable()
+    {
+        boolean failed = false;
+        synchronized ( pendingOut )
+        {
+            try
+            {
+                if ( drainOutput() )
+                {
+                    outputPending = false;
+                    sinkChannel.suspendWrites();
+                    pendingOut.notifyAll();
+                }
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Writing to MITM client of {}:{} failed, {}", host, port, e.toString() );
+                failed = true;
+            }
+        }
+
+        if ( failed )
+        {
+            close();
+        }
+    }
+
+    /**
+     * Wait until the write listener has written and flushed all queued output.
+     */
+    private void awaitOutput() throws IOException
+    {
+        synchronized ( pendingOut )
+        {
+            while ( outputPending )
+            {
+                if ( closed.get() )
+                {
+                    throw new IOException( "MITM tunnel closed" );
+                }
+
+                try
+                {
+                    pendingOut.wait( 1000 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "Interrupted while writing to MITM client" );
+                }
+            }
+        }
+    }
+
+    private void flushOutput() throws IOException
+    {
+        synchronized ( pendingOut )
+        {
+            if ( !outputPending && !drainOutput() )
+            {
+                outputPending = true;
+                sinkChannel.resumeWrites();
+            }
+        }
+        awaitOutput();
+    }
+
+    private void readRequest() throws IOException
+    {
+        appIn.flip();
+        final byte[] bytes = new byte[appIn.remaining()];
+        appIn.get( bytes );
+        appIn.clear();
+
+        if ( dispatched )
+        {
+            // only one request is served per tunnel, the tunnel is closed after the response
+            logger.debug( "Ignoring {} more bytes of client data for {}:{}", bytes.length, host, port );
+            return;
+        }
+
+        requestHead.write( bytes );
+
+        final byte[] head = requestHead.toByteArray();
+        final int end = indexOf( head, HEAD_END );
+        if ( end < 0 )
+        {
+            if ( head.length > MAX_REQUEST_HEAD_SIZE )
+            {
+                logger.debug( "MITM request head too large for {}:{}", host, port );
+                close();
+            }
+            return;
+        }
+
+        final String request = new String( head, 0, end, StandardCharsets.ISO_8859_1 );
+        logger.debug( "Request:\n{}", request );
+
+        final String requestLine = request.split( "\r\n", 2 )[0];
+        final String[] toks = requestLine.split( "\\s+" );
+        if ( toks.length < 2 || !( GET.equals( toks[0] ) || HEAD.equals( toks[0] ) ) ) // only care about GET/HEAD
+        {
+            logger.debug( "MITM server failed to get request from client" );
+            close();
+            return;
         }
+
+        dispatched = true;
+
+        final String method = toks[0];
+        final String path = toks[1];
+        executor.execute( () -> serve( method, path, requestLine ) );
     }
 
-    private void transferRemote( Socket socket, String host, int port, String method, String path,
-                                 final ProxyMeter meter ) throws Exception
+    private void serve( final String method, final String path, final String requestLine )
+    {
+        final ProxyMeter meter = meterTemplate.copy( System.nanoTime(), method, requestLine );
+        try
+        {
+            transferRemote( host, port, method, path, meter );
+        }
+        catch ( Exception e )
+        {
+            logger.error( "Transfer remote failed", e );
+        }
+        finally
+        {
+            meter.reportResponseSummary();
+            close();
+            logger.debug( "MITM server closed" );
+        }
+    }
+
+    protected void transferRemote( String host, int port, String method, String path, final ProxyMeter meter )
+                    throws Exception
     {
         String protocol = "https";
         String auth = null;
@@ -295,7 +626,7 @@ public class ProxyMITMSSLServer implements Runnable
         logger.debug( "Requesting remote URL: {}", remoteUrl.toString() );
 
         ArtifactStore store = proxyResponseHelper.getArtifactStore( trackingId, remoteUrl );
-        try (BufferedOutputStream out = new BufferedOutputStream( socket.getOutputStream() );
+        try (BufferedOutputStream out = new BufferedOutputStream( getOutputStream() );
             HttpConduitWrapper http = new HttpConduitWrapper( new OutputStreamSinkChannel( out ), null, contentController,
                     cacheProvider ))
         {
@@ -305,61 +636,136 @@ public class ProxyMITMSSLServer implements Runnable
         }
     }
 
-    public SocketChannel getSocketChannel() throws InterruptedException, ExecutionException
+    /**
+     * Stream whose content is encrypted and written to the client connection.
+     */
+    protected OutputStream getOutputStream()
     {
-        for ( int i = 0; i < GET_SOCKET_CHANNEL_MAX_RETRIES; i++ )
+        return new OutputStream()
         {
-            logger.debug( "Try to get socket channel #{}", i + 1 );
-            if ( started )
+            @Override
+            public void write( final int b ) throws IOException
+            {
+                write( new byte[] { (byte) b }, 0, 1 );
+            }
+
+            @Override
+            public void write( final byte[] b, final int off, final int len ) throws IOException
+            {
+                if ( closed.get() )
+                {
+                    throw new IOException( "MITM tunnel closed" );
+                }
+                wrap( ByteBuffer.wrap( b, off, len ), true );
+            }
+
+            @Override
+            public void flush() throws IOException
+            {
+                flushOutput();
+            }
+        };
+    }
+
+    /**
+     * Send close_notify to the client and close the connection.
+     */
+    public void close()
+    {
+        if ( !closed.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        if ( timeoutKey != null )
+        {
+            timeoutKey.remove();
+        }
+
+        synchronized ( pendingOut )
+        {
+            pendingOut.notifyAll();
+        }
+
+        try
+        {
+            // a response still being written to a client that doesn't read holds the lock; closing the channel
+            // below makes that write fail, so just skip close_notify then
+            if ( engine != null && wrapLock.tryLock() )
             {
-                logger.debug( "Server started" );
                 try
                 {
-                    return openSocketChannelToMITM();
+                    engine.closeOutbound();
+                    netOut.clear();
+                    engine.wrap( EMPTY, netOut );
+                    netOut.flip();
+
+                    // best effort, whatever the client doesn't take right away is dropped with the connection
+                    send( netOut );
                 }
-                catch ( IOException e )
+                finally
                 {
-                    throw new ExecutionException( "Open socket channel to MITM failed", e );
+                    wrapLock.unlock();
                 }
             }
-            else
-            {
-                logger.debug( "Server not started, wait..." );
-                TimeUnit.MILLISECONDS.sleep( GET_SOCKET_CHANNEL_WAIT_TIME_IN_MILLISECONDS );
-            }
+
+            sinkChannel.shutdownWrites();
+            sinkChannel.flush();
+            sinkChannel.close();
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Close MITM tunnel failed, {}", e.toString() );
         }
-        return null;
     }
 
-    private SocketChannel openSocketChannelToMITM() throws IOException
+    public boolean isClosed()
+    {
+        return closed.get();
+    }
+
+    private static ByteBuffer ensureRemaining( final ByteBuffer buffer, final int size )
     {
-        logger.debug( "Open socket channel to MITM server, localhost:{}", serverPort );
+        if ( buffer.remaining() >= size )
+        {
+            return buffer;
+        }
 
-        InetSocketAddress target = new InetSocketAddress( "localhost", serverPort );
-        return SocketChannel.open( target );
+        final ByteBuffer result = ByteBuffer.allocate( buffer.position() + size );
+        buffer.flip();
+        result.put( buffer );
+        return result;
     }
 
-    /**
-     * Signal the request and response should be cancelled.
-     */
-    public void stop()
+    private static int indexOf( final byte[] data, final byte[] target )
     {
-        isCancelled = true;
-        logger.debug( "MITM server timed out waiting for response creation" );
+        outer:
+        for ( int i = 0; i <= data.length - target.length; i++ )
+        {
+            for ( int j = 0; j < target.length; j++ )
+            {
+                if ( data[i + j] != target[j] )
+                {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
     }
 
     class HostContext{
        private KeyStore keystore;
-       private SSLServerSocketFactory sslSocketFactory;
-       HostContext(KeyStore ks, SSLServerSocketFactory factory){
+       private SSLContext sslContext;
+       HostContext(KeyStore ks, SSLContext context){
           keystore = ks;
-          sslSocketFactory = factory;
+          sslContext = context;
        }
       KeyStore getKeystore() {
          return keystore;
       }
-      SSLServerSocketFactory getSslSocketFactory() {
-         return sslSocketFactory;
+      SSLContext getSslContext() {
+         return sslContext;
       }
        
     }
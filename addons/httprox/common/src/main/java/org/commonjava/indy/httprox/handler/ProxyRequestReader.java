@@ -67,7 +67,7 @@ public final class ProxyRequestReader
 
     private final ConduitStreamSinkChannel sinkChannel;
 
-    private ProxySSLTunnel sslTunnel;
+    private ProxyMITMSSLServer mitmServer;
 
     private List<Character> lastFour = new ArrayList<>();
 
@@ -95,10 +95,10 @@ public final class ProxyRequestReader
 
             byte[] bytes = bReq.toByteArray();
 
-            if ( sslTunnel != null )
+            if ( mitmServer != null )
             {
-                logger.debug( "Send to ssl tunnel, {}, bytes:\n\n {}\n", new String( bytes ), Hex.encodeHexString( bytes ) );
-                directTo( sslTunnel );
+                logger.debug( "Send to MITM server, bytes:\n\n {}\n", Hex.encodeHexString( bytes ) );
+                directTo( mitmServer );
                 return;
             }
 
@@ -156,16 +156,16 @@ public final class ProxyRequestReader
         }
     }
 
-    public void setProxySSLTunnel( ProxySSLTunnel sslTunnel )
+    public void setMITMServer( ProxyMITMSSLServer mitmServer )
     {
-        this.sslTunnel = sslTunnel;
+        this.mitmServer = mitmServer;
     }
 
-    private void directTo( ProxySSLTunnel sslTunnel ) throws IOException
+    private void directTo( ProxyMITMSSLServer mitmServer ) throws IOException
     {
         byte[] bytes = bReq.toByteArray();
-        logger.trace( "Write client data to ssl tunnel, size: {}", bytes.length );
-        sslTunnel.write( bytes );
+        logger.trace( "Write client data to MITM server, size: {}", bytes.length );
+        mitmServer.receive( bytes );
     }
 
     private int doRead( final ConduitStreamSourceChannel channel )
@@ -53,7 +53,6 @@ import org.xnio.conduits.ConduitStreamSourceChannel;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.net.URL;
-import java.nio.channels.SocketChannel;
 import java.util.concurrent.TimeUnit;
 
 import org.commonjava.cdi.util.weft.WeftExecutorService;
@@ -88,7 +87,7 @@ public final class ProxyResponseWriter
 
     private final SocketAddress peerAddress;
 
-    private ProxySSLTunnel sslTunnel;
+    private ProxyMITMSSLServer mitmServer;
 
     private boolean directed = false;
 
@@ -126,7 +125,7 @@ public final class ProxyResponseWriter
 
     private boolean summaryReported;
 
-    // run short-living tunnels and MITM servers
+    // run content transfers of MITM requests
 
     public ProxyResponseWriter( final HttproxConfig config, final StoreDataManager storeManager,
                                 final ContentController contentController,
@@ -185,6 +184,11 @@ public final class ProxyResponseWriter
     {
         if ( directed )
         {
+            // the connection carries the MITM tunnel now, which writes queued output when the channel is writable
+            if ( mitmServer != null )
+            {
+                mitmServer.handleWritable();
+            }
             return;
         }
 
@@ -225,10 +229,10 @@ public final class ProxyResponseWriter
             sinkChannel.getCloseSetter().set( ( c ) -> {
                 logger.trace( "Sink channel closing." );
                 Thread.currentThread().setName( oldThreadName );
-                if ( sslTunnel != null )
+                if ( mitmServer != null )
                 {
-                    logger.trace( "Close ssl tunnel" );
-                    sslTunnel.close();
+                    logger.trace( "Close MITM server" );
+                    mitmServer.close();
                 }
             } );
 
@@ -337,35 +341,22 @@ public final class ProxyResponseWriter
                                     String host = toks[0];
                                     int port = parseInt( toks[1] );
 
-                                    directed = true;
-
-                                    // After this, the proxy simply opens a plain socket to the target server and relays
-                                    // everything between the initial client and the target server (including the TLS handshake).
-
-                                    SocketChannel socketChannel;
-
+                                    // After this, the proxy terminates TLS on the client connection itself. The MITM server
+                                    // decrypts what the reader hands over and encrypts the response into the sink channel.
                                     ProxyMITMSSLServer svr =
                                             new ProxyMITMSSLServer( host, port, trackingId, proxyUserPass,
                                                                     proxyResponseHelper, contentController,
-                                                                    cacheProvider, config, meter );
-                                    tunnelAndMITMExecutor.submit( svr );
-                                    socketChannel = svr.getSocketChannel();
+                                                                    cacheProvider, config, meter, sinkChannel,
+                                                                    tunnelAndMITMExecutor );
+                                    svr.start();
 
-                                    if ( socketChannel == null )
-                                    {
-                                        logger.debug( "Failed to get MITM socket channel" );
-                                        http.writeStatus( ApplicationStatus.SERVER_ERROR );
-                                        svr.stop();
-                                        break;
-                                    }
-
-                                    sslTunnel = new ProxySSLTunnel( sinkChannel, socketChannel, config );
-                                    tunnelAndMITMExecutor.submit( sslTunnel );
-                                    proxyRequestReader.setProxySSLTunnel( sslTunnel ); // client input will be directed to target socket
+                                    directed = true;
+                                    mitmServer = svr;
+                                    proxyRequestReader.setMITMServer( svr ); // client input will be directed to MITM server
 
                                     // When all is ready, send the 200 to client. Client send the SSL handshake to reader,
-                                    // reader direct it to tunnel to MITM. MITM finish the handshake and read the request data,
-                                    // retrieve remote content and send back to tunnel to client.
+                                    // reader direct it to MITM. MITM finish the handshake and read the request data,
+                                    // then retrieve remote content and send it back to client through the SSL engine.
                                     http.writeStatus( ApplicationStatus.OK );
                                     http.writeHeader( "Status", "200 OK\n" );
 
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.httprox;
+
+import org.commonjava.indy.httprox.conf.HttproxConfig;
+import org.commonjava.indy.httprox.handler.ProxyMITMSSLServer;
+import org.commonjava.indy.httprox.util.OutputStreamSinkChannel;
+import org.commonjava.indy.httprox.util.ProxyMeter;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.commonjava.indy.httprox.util.CertUtils.loadX509Certificate;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ProxyMITMSSLServerTest
+{
+    private static final String HOST = "repo.example.com";
+
+    private static final String CONTENT = "This is a test";
+
+    private final ByteArrayOutputStream toClient = new ByteArrayOutputStream();
+
+    private final List<String> requested = new ArrayList<>();
+
+    @Test
+    public void serveRequestOverSSLEngineOnClientConnection()
+            throws Exception
+    {
+        ProxyMITMSSLServer server = createServer();
+        server.start();
+
+        SSLEngine client = clientContext().createSSLEngine( HOST, 443 );
+        client.setUseClientMode( true );
+        client.beginHandshake();
+
+        ByteBuffer netIn = ByteBuffer.allocate( client.getSession().getPacketBufferSize() * 4 );
+        ByteBuffer appIn = ByteBuffer.allocate( client.getSession().getApplicationBufferSize() * 4 );
+
+        HandshakeStatus status = client.getHandshakeStatus();
+        while ( status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING )
+        {
+            switch ( status )
+            {
+                case NEED_WRAP:
+                    status = send( client, server, ByteBuffer.allocate( 0 ) );
+                    break;
+                case NEED_TASK:
+                    Runnable task;
+                    while ( ( task = client.getDelegatedTask() ) != null )
+                    {
+                        task.run();
+                    }
+                    status = client.getHandshakeStatus();
+                    break;
+                default:
+                    status = receive( client, netIn, appIn );
+            }
+        }
+
+        send( client, server, ByteBuffer.wrap(
+                ( "GET /org/foo/bar/1.0/bar-1.0.pom HTTP/1.1\r\nHost: " + HOST + "\r\n\r\n" ).getBytes(
+                        StandardCharsets.US_ASCII ) ) );
+
+        // the transfer runs inline here, so the whole response and close_notify are already written
+        assertThat( requested, equalTo( Collections.singletonList( "GET /org/foo/bar/1.0/bar-1.0.pom" ) ) );
+        assertThat( server.isClosed(), equalTo( true ) );
+
+        while ( !client.isInboundDone() && ( toClient.size() > 0 || netIn.position() > 0 ) )
+        {
+            receive( client, netIn, appIn );
+        }
+
+        appIn.flip();
+        String response = StandardCharsets.US_ASCII.decode( appIn ).toString();
+        assertThat( response.startsWith( "HTTP/1.1 200 OK\r\n" ), equalTo( true ) );
+        assertThat( response.endsWith( "\r\n\r\n" + CONTENT ), equalTo( true ) );
+        assertThat( client.isInboundDone(), equalTo( true ) );
+    }
+
+    @Test
+    public void closeTunnelOnHandshakeFailure()
+            throws Exception
+    {
+        ProxyMITMSSLServer server = createServer();
+        server.start();
+
+        // not a TLS record at all
+        server.receive( "POST / HTTP/1.1\r\n\r\n".getBytes( StandardCharsets.US_ASCII ) );
+
+        assertThat( server.isClosed(), equalTo( true ) );
+        assertThat( requested.isEmpty(), equalTo( true ) );
+    }
+
+    @Test
+    public void queueHandshakeOutputUntilClientConnectionIsWritable()
+            throws Exception
+    {
+        AtomicBoolean writable = new AtomicBoolean( false );
+        AtomicBoolean resumed = new AtomicBoolean( false );
+        ProxyMITMSSLServer server = createServer( new OutputStreamSinkChannel( toClient )
+        {
+            @Override
+            public int write( final ByteBuffer byteBuffer ) throws IOException
+            {
+                return writable.get() ? super.write( byteBuffer ) : 0;
+            }
+
+            @Override
+            public void resumeWrites()
+            {
+                resumed.set( true );
+            }
+        } );
+        server.start();
+
+        SSLEngine client = clientContext().createSSLEngine( HOST, 443 );
+        client.setUseClientMode( true );
+        client.beginHandshake();
+
+        // the server hello can't be written, receiving the client hello must not wait for it
+        send( client, server, ByteBuffer.allocate( 0 ) );
+        assertThat( toClient.size(), equalTo( 0 ) );
+        assertThat( resumed.get(), equalTo( true ) );
+        assertThat( server.isClosed(), equalTo( false ) );
+
+        writable.set( true );
+        server.handleWritable();
+        assertThat( toClient.size() > 0, equalTo( true ) );
+    }
+
+    private ProxyMITMSSLServer createServer()
+    {
+        return createServer( new OutputStreamSinkChannel( toClient ) );
+    }
+
+    private ProxyMITMSSLServer createServer( final OutputStreamSinkChannel sinkChannel )
+    {
+        HttproxConfig config = new HttproxConfig();
+        config.setMITMCAKey( resource( "ca.der" ) );
+        config.setMITMCACert( resource( "ca.crt" ) );
+        config.setMITMDNTemplate( "CN=<host>, O=Test Org" );
+
+        ProxyMeter meter = new ProxyMeter( "CONNECT", "CONNECT " + HOST + ":443 HTTP/1.1", System.nanoTime(), null,
+                                           LoggerFactory.getLogger( getClass() ), null );
+
+        return new ProxyMITMSSLServer( HOST, 443, null, null, null, null, null, config, meter,
+                                       sinkChannel, Runnable::run )
+        {
+            @Override
+            protected void transferRemote( final String host, final int port, final String method,
+                                           final String path, final ProxyMeter meter )
+                    throws Exception
+            {
+                requested.add( method + " " + path );
+                try (OutputStream out = getOutputStream())
+                {
+                    out.write( ( "HTTP/1.1 200 OK\r\nContent-Length: " + CONTENT.length() + "\r\n\r\n"
+                            + CONTENT ).getBytes( StandardCharsets.US_ASCII ) );
+                }
+            }
+        };
+    }
+
+    private HandshakeStatus send( final SSLEngine client, final ProxyMITMSSLServer server, final ByteBuffer data )
+            throws Exception
+    {
+        ByteBuffer netOut = ByteBuffer.allocate( client.getSession().getPacketBufferSize() );
+        SSLEngineResult result = client.wrap( data, netOut );
+        netOut.flip();
+
+        byte[] bytes = new byte[netOut.remaining()];
+        netOut.get( bytes );
+        server.receive( bytes );
+
+        return result.getHandshakeStatus();
+    }
+
+    private HandshakeStatus receive( final SSLEngine client, final ByteBuffer netIn, final ByteBuffer appIn )
+            throws Exception
+    {
+        netIn.put( toClient.toByteArray() );
+        toClient.reset();
+
+        netIn.flip();
+        SSLEngineResult result = client.unwrap( netIn, appIn );
+        netIn.compact();
+
+        return result.getHandshakeStatus();
+    }
+
+    private SSLContext clientContext()
+            throws Exception
+    {
+        KeyStore trustStore = KeyStore.getInstance( KeyStore.getDefaultType() );
+        trustStore.load( null, null );
+        trustStore.setCertificateEntry( "ca", loadX509Certificate( new File( resource( "ca.crt" ) ) ) );
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+        tmf.init( trustStore );
+
+        SSLContext context = SSLContext.getInstance( "TLS" );
+        context.init( null, tmf.getTrustManagers(), null );
+        return context;
+    }
+
+    private String resource( final String name )
+    {
+        return new File( Thread.currentThread().getContextClassLoader().getResource( name ).getPath() ).getPath();
+    }
+}
@@ -69,6 +69,8 @@ public class IndyKojiConfig
 
     public static final long DEFAULT_METADATA_TIMEOUT_SECONDS = 86400;
 
+    public static final long DEFAULT_AUTHORITY_VERDICT_TIMEOUT_SECONDS = 300;
+
     private static final boolean DEFAULT_TAG_PATTERNS_ENABLED = false;
 
     private static final boolean DEFAULT_PROXY_BINARY_BUILDS = false;
@@ -133,6 +135,8 @@ public class IndyKojiConfig
 
     private String artifactAuthorityStore;
 
+    private Long authorityVerdictTimeoutSeconds;
+
     private Integer connectionPoolTimeoutSeconds;
 
     private String versionFilter;
@@ -608,6 +612,11 @@ public class IndyKojiConfig
                 this.artifactAuthorityStore = value;
                 break;
             }
+            case "artifact.authority.verdict.timeout.seconds":
+            {
+                this.authorityVerdictTimeoutSeconds = Long.parseLong( value.trim() );
+                break;
+            }
             case "naming.format":
             {
                 this.namingFormat = value;
@@ -738,6 +747,18 @@ public class IndyKojiConfig
         this.artifactAuthorityStore = artifactAuthorityStore;
     }
 
+    public Long getAuthorityVerdictTimeoutSeconds()
+    {
+        return authorityVerdictTimeoutSeconds == null ?
+                DEFAULT_AUTHORITY_VERDICT_TIMEOUT_SECONDS :
+                authorityVerdictTimeoutSeconds;
+    }
+
+    public void setAuthorityVerdictTimeoutSeconds( long authorityVerdictTimeoutSeconds )
+    {
+        this.authorityVerdictTimeoutSeconds = authorityVerdictTimeoutSeconds;
+    }
+
     public String getNamingFormat() {
         return namingFormat;
     }
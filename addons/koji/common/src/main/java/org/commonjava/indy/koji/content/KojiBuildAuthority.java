@@ -22,7 +22,12 @@ import com.redhat.red.build.koji.model.xmlrpc.KojiBuildArchiveCollection;
 import com.redhat.red.build.koji.model.xmlrpc.KojiBuildInfo;
 import com.redhat.red.build.koji.model.xmlrpc.KojiSessionInfo;
 import org.apache.commons.io.IOUtils;
+import org.commonjava.cdi.util.weft.ExecutorConfig;
+import org.commonjava.cdi.util.weft.WeftExecutorService;
+import org.commonjava.cdi.util.weft.WeftManaged;
 import org.commonjava.indy.IndyWorkflowException;
+import org.commonjava.indy.change.event.ArtifactStoreDeletePostEvent;
+import org.commonjava.indy.change.event.ArtifactStorePostUpdateEvent;
 import org.commonjava.indy.content.ContentDigester;
 import org.commonjava.indy.content.DirectContentAccess;
 import org.commonjava.indy.data.IndyDataException;
@@ -31,41 +36,66 @@ import org.commonjava.indy.koji.conf.IndyKojiConfig;
 import org.commonjava.o11yphant.metrics.annotation.Measure;
 import org.commonjava.indy.model.core.ArtifactStore;
 import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
 import org.commonjava.indy.subsys.infinispan.CacheProducer;
 import org.commonjava.atlas.maven.ident.ref.ProjectRef;
 import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.event.FileDeletionEvent;
+import org.commonjava.maven.galley.event.FileEvent;
+import org.commonjava.maven.galley.event.FileStorageEvent;
 import org.commonjava.maven.galley.io.checksum.ContentDigest;
 import org.commonjava.maven.galley.io.checksum.TransferMetadata;
 import org.commonjava.maven.galley.maven.spi.type.TypeMapper;
 import org.commonjava.maven.galley.maven.util.ArtifactPathUtils;
 import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
 import org.infinispan.manager.DefaultCacheManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static org.apache.commons.lang3.StringUtils.contains;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+import static org.commonjava.indy.core.ctl.PoolUtils.detectOverloadVoid;
+import static org.commonjava.indy.util.LocationUtils.getKey;
 import static org.commonjava.maven.galley.io.ChecksummingTransferDecorator.FORCE_CHECKSUM;
+import static org.commonjava.maven.galley.io.SpecialPathConstants.HTTP_METADATA_EXT;
 
 /**
  * Created by jdcasey on 1/4/17.
  *
  * Implements authoritative artifact checking using checksums against some authoritative repository. If no authoritative
  * store is configured, all builds are treated as authoritative and cleared for use.
+ *
+ * Verdicts are cached per build for the configured verdict timeout. Uploads, deletions and store updates affecting the
+ * authoritative store move it to a new content version, which makes all earlier verdicts stale. Only the events of this
+ * node are seen, so changes made through other nodes show once the verdicts time out.
  */
 @ApplicationScoped
 public class KojiBuildAuthority
@@ -74,6 +104,8 @@ public class KojiBuildAuthority
     private static final List<String> EXCLUDED_FILE_ENDINGS = Collections.unmodifiableList(
             Arrays.asList( "-sources.zip", "-patches.zip", "-sources.jar", "-javadoc.jar" ) );
 
+    private static final int MAX_VERDICTS = 10000;
+
     @Inject
     private IndyKojiConfig config;
 
@@ -92,12 +124,43 @@ public class KojiBuildAuthority
     @Inject
     private DirectContentAccess directContentAccess;
 
+    @Inject
+    @WeftManaged
+    @ExecutorConfig( threads=8, priority=8, named="koji-authority", maxLoadFactor = 100, loadSensitive = ExecutorConfig.BooleanLiteral.TRUE)
+    private WeftExecutorService authorityService;
+
+    private final AtomicLong authorityVersion = new AtomicLong();
+
+    private volatile Set<StoreKey> authorityKeys;
+
+    private final Map<String, Verdict> verdicts =
+            Collections.synchronizedMap( new LinkedHashMap<String, Verdict>( 256, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<String, Verdict> eldest )
+                {
+                    return size() > MAX_VERDICTS;
+                }
+            } );
+
     protected KojiBuildAuthority(){}
 
     public KojiBuildAuthority( IndyKojiConfig config, TypeMapper typeMapper, KojiClient kojiClient,
                                StoreDataManager storeDataManager, ContentDigester contentDigester,
                                DirectContentAccess directContentAccess, DefaultCacheManager cacheManager )
     {
+        this( config, typeMapper, kojiClient, storeDataManager, contentDigester, directContentAccess, cacheManager,
+              null );
+    }
+
+    public KojiBuildAuthority( IndyKojiConfig config, TypeMapper typeMapper, KojiClient kojiClient,
+                               StoreDataManager storeDataManager, ContentDigester contentDigester,
+                               DirectContentAccess directContentAccess, DefaultCacheManager cacheManager,
+                               WeftExecutorService authorityService )
+    {
+        this.authorityService = authorityService;
         this.config = config;
         this.typeMapper = typeMapper;
         this.kojiContentProvider = new IndyKojiContentProvider( kojiClient, new CacheProducer( null, cacheManager, null ) );
@@ -146,6 +209,14 @@ public class KojiBuildAuthority
 
         if ( authoritativeStore != null )
         {
+            // read the version before checking, so a change during the check leaves the verdict under a stale key
+            final String verdictKey = build.getId() + ":" + authoritativeStore.getKey() + ":" + authorityVersion.get();
+            final Verdict cached = verdicts.get( verdictKey );
+            if ( cached != null && cached.expires > System.currentTimeMillis() )
+            {
+                return cached.authorized;
+            }
+
             KojiBuildArchiveCollection archiveCollection = seenBuildArchives.get( build.getId() );
             if ( archiveCollection == null )
             {
@@ -178,49 +249,283 @@ public class KojiBuildAuthority
                                                                     .collect( Collectors.toList() );
             // @formatter:on
 
+            List<KojiArchiveInfo> toCheck = new ArrayList<>();
             for ( KojiArchiveInfo archive : sortedArchives )
             {
-                try
+                if ( isMavenArtifact( archive ) )
                 {
-                    if ( isMavenArtifact( archive ) )
-                    {
-                        // skip non-Maven artifacts
-                        continue;
-                    }
+                    // skip non-Maven artifacts
+                    continue;
+                }
 
-                    if ( containsPlaceholders( archive ) )
-                    {
-                        return false;
-                    }
+                if ( containsPlaceholders( archive ) )
+                {
+                    return cacheVerdict( verdictKey, false );
+                }
 
-                    String artifactPath = ArtifactPathUtils.formatArtifactPath( archive.asArtifact(), typeMapper );
-                    String md5 = checksumArtifact( authoritativeStore, artifactPath, eventMetadata );
-                    if ( isNotBlank( md5 ) )
-                    {
-                        //FIXME: not sure if all koji archives are using md5 as checksum type for maven build
-                        String kojiMd5 = archive.getChecksum();
-
-                        Logger logger = LoggerFactory.getLogger( getClass() );
-                        logger.info(
-                                "Checking checksum for {} (path: {}) in auth store {}, auth store checksum:{}, koji build check sum:{}",
-                                ref, path, authoritativeStore, md5, kojiMd5 );
-
-                        if ( !md5.equals( kojiMd5 ) )
-                        {
-                            // if checksum is not the same, it means the artifact in koji is DIFFERENT from the one in the authoritative store. Reject this.
-                            return false;
-                        }
-                    }
+                toCheck.add( archive );
+            }
+
+            Boolean verified = checkArchives( toCheck, path, eventMetadata, ref, authoritativeStore );
+            if ( verified == null )
+            {
+                // some archive couldn't be checked, don't keep the verdict around
+                return true;
+            }
+
+            return cacheVerdict( verdictKey, verified );
+        }
+
+        return true;
+    }
+
+    /**
+     * Check the archives against the authoritative store, concurrently when there is more than one, stopping at the
+     * first mismatch.
+     *
+     * @return false on a mismatch, true if all archives passed, or null if some archive couldn't be checked
+     */
+    private Boolean checkArchives( final List<KojiArchiveInfo> archives, final String path,
+                                   final EventMetadata eventMetadata, final ProjectRef ref,
+                                   final ArtifactStore authoritativeStore )
+    {
+        if ( authorityService == null || archives.size() < 2 )
+        {
+            return checkArchivesInline( archives, path, eventMetadata, ref, authoritativeStore );
+        }
+
+        final Logger logger = LoggerFactory.getLogger( getClass() );
+        final CompletionService<Boolean> svc = new ExecutorCompletionService<>( authorityService );
+        final List<Future<Boolean>> futures = new ArrayList<>( archives.size() );
+        try
+        {
+            detectOverloadVoid( () -> archives.forEach( archive -> futures.add( svc.submit(
+                    () -> checkArchive( archive, path, eventMetadata, ref, authoritativeStore ) ) ) ) );
+        }
+        catch ( IndyWorkflowException e )
+        {
+            logger.warn( "Authority checks overloaded, checking archives of {} in the request thread", ref );
+            futures.forEach( f -> f.cancel( true ) );
+            return checkArchivesInline( archives, path, eventMetadata, ref, authoritativeStore );
+        }
+
+        Boolean result = TRUE;
+        try
+        {
+            for ( int i = 0; i < futures.size(); i++ )
+            {
+                Boolean checked = svc.take().get();
+                if ( FALSE.equals( checked ) )
+                {
+                    return false;
+                }
+                else if ( checked == null )
+                {
+                    result = null;
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            logger.warn( "Interrupted while checking archives of: {}", ref );
+            result = null;
+        }
+        catch ( ExecutionException e )
+        {
+            logger.error( "Failed to check archives of: " + ref, e );
+            result = null;
+        }
+        finally
+        {
+            futures.forEach( f -> f.cancel( true ) );
+        }
+
+        return result;
+    }
+
+    private Boolean checkArchivesInline( final List<KojiArchiveInfo> archives, final String path,
+                                         final EventMetadata eventMetadata, final ProjectRef ref,
+                                         final ArtifactStore authoritativeStore )
+    {
+        Boolean result = TRUE;
+        for ( KojiArchiveInfo archive : archives )
+        {
+            Boolean checked = checkArchive( archive, path, eventMetadata, ref, authoritativeStore );
+            if ( FALSE.equals( checked ) )
+            {
+                return false;
+            }
+            else if ( checked == null )
+            {
+                result = null;
+            }
+        }
+        return result;
+    }
+
+    private Boolean checkArchive( final KojiArchiveInfo archive, final String path, final EventMetadata eventMetadata,
+                                  final ProjectRef ref, final ArtifactStore authoritativeStore )
+    {
+        try
+        {
+            String artifactPath = ArtifactPathUtils.formatArtifactPath( archive.asArtifact(), typeMapper );
+            String md5 = checksumArtifact( authoritativeStore, artifactPath, new EventMetadata( eventMetadata ) );
+            if ( isNotBlank( md5 ) )
+            {
+                //FIXME: not sure if all koji archives are using md5 as checksum type for maven build
+                String kojiMd5 = archive.getChecksum();
+
+                Logger logger = LoggerFactory.getLogger( getClass() );
+                logger.info(
+                        "Checking checksum for {} (path: {}) in auth store {}, auth store checksum:{}, koji build check sum:{}",
+                        ref, path, authoritativeStore, md5, kojiMd5 );
+
+                // if checksum is not the same, it means the artifact in koji is DIFFERENT from the one in the authoritative store. Reject this.
+                return md5.equals( kojiMd5 );
+            }
+
+            return true;
+        }
+        catch ( Exception e )
+        {
+            Logger logger = LoggerFactory.getLogger( getClass() );
+            logger.error( "SHOULD NEVER HAPPEN: Failed to transform artifact to path: " + e.getMessage(), e );
+            return null;
+        }
+    }
+
+    private boolean cacheVerdict( final String verdictKey, final boolean authorized )
+    {
+        verdicts.put( verdictKey, new Verdict( authorized, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(
+                config.getAuthorityVerdictTimeoutSeconds() ) ) );
+        return authorized;
+    }
+
+    public void onFileStorage( @Observes final FileStorageEvent event )
+    {
+        if ( event.getType() == TransferOperation.UPLOAD )
+        {
+            onAuthorityContentChange( event );
+        }
+    }
+
+    public void onFileDeletion( @Observes final FileDeletionEvent event )
+    {
+        onAuthorityContentChange( event );
+    }
+
+    public void onStoreUpdate( @Observes final ArtifactStorePostUpdateEvent event )
+    {
+        onAuthorityStoresChange( event.getChanges() );
+    }
+
+    public void onStoreDelete( @Observes final ArtifactStoreDeletePostEvent event )
+    {
+        onAuthorityStoresChange( event.getStores() );
+    }
+
+    private void onAuthorityContentChange( final FileEvent event )
+    {
+        if ( verdicts.isEmpty() || !isChecksummedPath( event.getTransfer().getPath() ) )
+        {
+            return;
+        }
+
+        final StoreKey key = getKey( event );
+        if ( key != null && getAuthorityKeys().contains( key ) )
+        {
+            dropVerdicts( key );
+        }
+    }
+
+    /**
+     * Store changes can move stores in or out of the authoritative group, so the keys are looked up again, and verdicts
+     * are dropped when a changed store was or is part of it.
+     */
+    private void onAuthorityStoresChange( final Collection<ArtifactStore> stores )
+    {
+        final Set<StoreKey> previous = authorityKeys;
+        authorityKeys = null;
+        if ( verdicts.isEmpty() )
+        {
+            return;
+        }
+
+        final Set<StoreKey> current = getAuthorityKeys();
+        stores.stream()
+              .map( ArtifactStore::getKey )
+              .filter( key -> current.contains( key ) || ( previous != null && previous.contains( key ) ) )
+              .findFirst()
+              .ifPresent( this::dropVerdicts );
+    }
+
+    int getCachedVerdictCount()
+    {
+        return verdicts.size();
+    }
+
+    private void dropVerdicts( final StoreKey key )
+    {
+        Logger logger = LoggerFactory.getLogger( getClass() );
+        logger.debug( "Authoritative store {} changed through {}, dropping cached build verdicts",
+                      config.getArtifactAuthorityStore(), key );
+        authorityVersion.incrementAndGet();
+        verdicts.clear();
+    }
+
+    /**
+     * Only artifacts and their checksum files take part in the check, metadata files can't change a verdict.
+     */
+    private static boolean isChecksummedPath( final String path )
+    {
+        return path != null && !path.endsWith( HTTP_METADATA_EXT ) && !path.contains( "maven-metadata.xml" );
+    }
+
+    /**
+     * Keys of the authoritative store and, if it is a group, of all stores in it. Kept until a store changes, so
+     * content events only need a set lookup.
+     */
+    private Set<StoreKey> getAuthorityKeys()
+    {
+        Set<StoreKey> keys = authorityKeys;
+        if ( keys != null )
+        {
+            return keys;
+        }
+
+        if ( config.getArtifactAuthorityStore() == null )
+        {
+            keys = Collections.emptySet();
+        }
+        else
+        {
+            final StoreKey authStoreKey = StoreKey.fromString( config.getArtifactAuthorityStore() );
+            final Set<StoreKey> members = new HashSet<>();
+            members.add( authStoreKey );
+            keys = members;
+            if ( authStoreKey.getType() == StoreType.group )
+            {
+                try
+                {
+                    storeDataManager.query()
+                                    .getOrderedStoresInGroup( authStoreKey.getPackageType(), authStoreKey.getName() )
+                                    .forEach( store -> members.add( store.getKey() ) );
                 }
-                catch ( Exception e )
+                catch ( IndyDataException e )
                 {
                     Logger logger = LoggerFactory.getLogger( getClass() );
-                    logger.error( "SHOULD NEVER HAPPEN: Failed to transform artifact to path: " + e.getMessage(), e );
+                    logger.warn( "Failed to list members of authoritative store {}, error message: {}",
+                                 authStoreKey, e.getMessage() );
+
+                    // don't keep an incomplete set around, try again on the next event
+                    return keys;
                 }
             }
         }
 
-        return true;
+        authorityKeys = keys;
+        return keys;
     }
 
     /**
@@ -261,7 +566,7 @@ public class KojiBuildAuthority
         return null;
     }
 
-    private String checksumArtifact( ArtifactStore store, String path, EventMetadata eventMetadata )
+    protected String checksumArtifact( ArtifactStore store, String path, EventMetadata eventMetadata )
     {
         final Logger logger = LoggerFactory.getLogger( getClass() );
         try
@@ -301,4 +606,17 @@ public class KojiBuildAuthority
 
         return null;
     }
+
+    private static final class Verdict
+    {
+        private final boolean authorized;
+
+        private final long expires;
+
+        Verdict( final boolean authorized, final long expires )
+        {
+            this.authorized = authorized;
+            this.expires = expires;
+        }
+    }
 }
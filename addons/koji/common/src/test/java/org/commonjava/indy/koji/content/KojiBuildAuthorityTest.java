@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.koji.content;
+
+import com.redhat.red.build.koji.model.xmlrpc.KojiArchiveInfo;
+import com.redhat.red.build.koji.model.xmlrpc.KojiBuildArchiveCollection;
+import com.redhat.red.build.koji.model.xmlrpc.KojiBuildInfo;
+import org.commonjava.atlas.maven.ident.ref.SimpleProjectRef;
+import org.commonjava.cdi.util.weft.PoolWeftExecutorService;
+import org.commonjava.cdi.util.weft.WeftExecutorService;
+import org.commonjava.indy.audit.ChangeSummary;
+import org.commonjava.indy.data.StoreDataManager;
+import org.commonjava.indy.koji.conf.IndyKojiConfig;
+import org.commonjava.indy.mem.data.MemoryStoreDataManager;
+import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.HostedRepository;
+import org.commonjava.indy.util.LocationUtils;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.event.FileStorageEvent;
+import org.commonjava.maven.galley.maven.internal.type.StandardTypeMapper;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.commonjava.indy.pkg.maven.model.MavenPackageTypeDescriptor.MAVEN_PKG_KEY;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class KojiBuildAuthorityTest
+{
+    private static final String GROUP_ID = "org.foo";
+
+    private final AtomicInteger checksumLookups = new AtomicInteger();
+
+    private ExecutorService threads;
+
+    private StoreDataManager storeDataManager;
+
+    private HostedRepository authority;
+
+    private HostedRepository other;
+
+    private KojiBuildAuthority buildAuthority;
+
+    private KojiBuildInfo build;
+
+    @Before
+    public void setup()
+            throws Exception
+    {
+        storeDataManager = new MemoryStoreDataManager( true );
+        authority = new HostedRepository( MAVEN_PKG_KEY, "authority" );
+        other = new HostedRepository( MAVEN_PKG_KEY, "other" );
+        for ( ArtifactStore store : new ArtifactStore[] { authority, other } )
+        {
+            storeDataManager.storeArtifactStore( store, new ChangeSummary( ChangeSummary.SYSTEM_USER, "test setup" ),
+                                                 false, true, new EventMetadata() );
+        }
+
+        IndyKojiConfig config = new IndyKojiConfig();
+        config.setArtifactAuthorityStore( authority.getKey().toString() );
+        config.setAuthorityVerdictTimeoutSeconds( 300 );
+
+        threads = Executors.newCachedThreadPool();
+        WeftExecutorService authorityService =
+                new PoolWeftExecutorService( "test-koji-authority", (ThreadPoolExecutor) threads, 4, 10f, false,
+                                             null, null );
+
+        buildAuthority = new KojiBuildAuthority( config, new StandardTypeMapper(), null, storeDataManager, null, null,
+                                                 null, authorityService )
+        {
+            @Override
+            protected String checksumArtifact( final ArtifactStore store, final String path,
+                                               final EventMetadata eventMetadata )
+            {
+                checksumLookups.incrementAndGet();
+                return "xxx";
+            }
+        };
+
+        build = new KojiBuildInfo();
+        build.setId( 1 );
+    }
+
+    @After
+    public void shutdown()
+    {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void mavenArchivesAreNotCheckedAgainstAuthorityStore()
+            throws Exception
+    {
+        // the authority store would report a different checksum for both
+        List<KojiArchiveInfo> archives = archives( "first", "aaa", "second", "bbb" );
+
+        assertThat( isAuthorized( archives ), equalTo( true ) );
+        assertThat( checksumLookups.get(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void verdictIsCachedUntilAuthorityContentChanges()
+            throws Exception
+    {
+        List<KojiArchiveInfo> archives = archives( "first", "aaa", "second", "bbb" );
+
+        assertThat( isAuthorized( archives ), equalTo( true ) );
+        assertThat( buildAuthority.getCachedVerdictCount(), equalTo( 1 ) );
+
+        // content of other stores and metadata of the authority store don't matter
+        buildAuthority.onFileStorage( upload( other, "org/foo/first/1.0/first-1.0.jar" ) );
+        buildAuthority.onFileStorage( upload( authority, "org/foo/first/maven-metadata.xml" ) );
+        assertThat( buildAuthority.getCachedVerdictCount(), equalTo( 1 ) );
+
+        buildAuthority.onFileStorage( upload( authority, "org/foo/second/1.0/second-1.0.jar" ) );
+        assertThat( buildAuthority.getCachedVerdictCount(), equalTo( 0 ) );
+    }
+
+    private boolean isAuthorized( final List<KojiArchiveInfo> archives )
+            throws Exception
+    {
+        Map<Integer, KojiBuildArchiveCollection> seen = new HashMap<>();
+        seen.put( build.getId(), new KojiBuildArchiveCollection( build, archives ) );
+
+        return buildAuthority.isAuthorized( "org/foo/first/1.0/first-1.0.jar", new EventMetadata(),
+                                            new SimpleProjectRef( GROUP_ID, "first" ), build, null, seen );
+    }
+
+    private List<KojiArchiveInfo> archives( final String... artifactIdsAndChecksums )
+    {
+        List<KojiArchiveInfo> archives = new ArrayList<>();
+        for ( int i = 0; i < artifactIdsAndChecksums.length; i += 2 )
+        {
+            String artifactId = artifactIdsAndChecksums[i];
+            KojiArchiveInfo archive = new KojiArchiveInfo();
+            archive.setGroupId( GROUP_ID );
+            archive.setArtifactId( artifactId );
+            archive.setVersion( "1.0" );
+            archive.setExtension( "jar" );
+            archive.setFilename( artifactId + "-1.0.jar" );
+            archive.setChecksum( artifactIdsAndChecksums[i + 1] );
+            archives.add( archive );
+        }
+        return archives;
+    }
+
+    private FileStorageEvent upload( final ArtifactStore store, final String path )
+    {
+        Transfer transfer = new Transfer( new ConcreteResource( LocationUtils.toLocation( store ), path ), null, null,
+                                          null );
+        return new FileStorageEvent( TransferOperation.UPLOAD, transfer, new EventMetadata() );
+    }
+}
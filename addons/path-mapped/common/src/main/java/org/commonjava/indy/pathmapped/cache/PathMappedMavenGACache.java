@@ -23,15 +23,21 @@ import com.datastax.driver.core.Session;
 import com.google.common.collect.Lists;
 import org.commonjava.indy.action.IndyLifecycleException;
 import org.commonjava.indy.action.StartupAction;
+import org.commonjava.indy.change.event.ArtifactStoreDeletePostEvent;
+import org.commonjava.indy.change.event.ArtifactStorePostUpdateEvent;
+import org.commonjava.indy.change.event.ArtifactStoreUpdateType;
 import org.commonjava.indy.conf.IndyConfiguration;
 import org.commonjava.indy.data.IndyDataException;
 import org.commonjava.indy.data.StoreDataManager;
 import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.StoreKey;
 import org.commonjava.indy.model.core.StoreType;
 import org.commonjava.indy.subsys.cassandra.CassandraClient;
-import org.commonjava.indy.subsys.infinispan.CacheHandle;
-import org.commonjava.indy.subsys.infinispan.CacheProducer;
 import org.commonjava.maven.galley.cache.pathmapped.PathMappedCacheProvider;
+import org.commonjava.maven.galley.event.FileDeletionEvent;
+import org.commonjava.maven.galley.event.FileStorageEvent;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.commonjava.storage.pathmapped.core.PathMappedFileManager;
 import org.commonjava.storage.pathmapped.model.PathMap;
@@ -41,28 +47,48 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
-import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
 import static org.commonjava.indy.subsys.cassandra.util.SchemaUtils.getSchemaCreateKeyspace;
+import static org.commonjava.indy.util.LocationUtils.getKey;
 import static org.commonjava.storage.pathmapped.util.PathMapUtils.ROOT_DIR;
 
+/**
+ * Maps groupId/artifactId paths (GA) to the hosted stores containing a pom of them, so that group requests can skip
+ * the build stores which can't have the content. The mapping is kept in Cassandra; stores are scanned once by the
+ * startup or timer scan, while uploads and deletions keep the GAs up to date as they happen. A store only counts as
+ * scanned, and so can be filtered out, after its scan completed; until then it is unknown and always included.
+ * <p>
+ * GA rows are cached locally for {@link #LOCAL_TTL_SECONDS} only, since they decide which stores are filtered out and
+ * uploads on other nodes have to show up quickly. The scanned stores are cached for {@link #SCANNED_TTL_MINUTES}; a
+ * stale copy only misses stores, which are then treated as unknown. The stores of a row are encoded as a bitset over
+ * an index of store names.
+ */
 @ApplicationScoped
 public class PathMappedMavenGACache
                 implements StartupAction
@@ -75,6 +101,12 @@ public class PathMappedMavenGACache
 
     private static final int TIMER_PERIOD_MINUTES = 60;
 
+    private static final int MAX_LOCAL_ENTRIES = 100000;
+
+    private static final int LOCAL_TTL_SECONDS = 10;
+
+    private static final int SCANNED_TTL_MINUTES = 5;
+
     // @formatter:off
     private static String getSchemaCreateTable( String keyspace )
     {
@@ -102,10 +134,23 @@ public class PathMappedMavenGACache
     @Inject
     private CassandraClient cassandraClient;
 
-    @Inject
-    private CacheProducer cacheProducer;
+    private final Map<String, StoreSet> localCache =
+            Collections.synchronizedMap( new LinkedHashMap<String, StoreSet>( 1024, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<String, StoreSet> eldest )
+                {
+                    return size() > MAX_LOCAL_ENTRIES;
+                }
+            } );
+
+    private final Map<String, Integer> storeIds = new ConcurrentHashMap<>();
+
+    private final List<String> storeNames = Collections.synchronizedList( new ArrayList<>() );
 
-    private CacheHandle<String, Set<String>> inMemoryCache;
+    private volatile boolean scanPending;
 
     private String gaStorePattern;
 
@@ -119,12 +164,11 @@ public class PathMappedMavenGACache
     {
     }
 
-    public PathMappedMavenGACache( final IndyConfiguration config, final CacheProducer cacheProducer,
-                                   final CassandraClient cassandraClient, final StoreDataManager storeDataManager,
+    public PathMappedMavenGACache( final IndyConfiguration config, final CassandraClient cassandraClient,
+                                   final StoreDataManager storeDataManager,
                                    final PathMappedCacheProvider cacheProvider )
     {
         this.config = config;
-        this.cacheProducer = cacheProducer;
         this.cassandraClient = cassandraClient;
         this.storeDataManager = storeDataManager;
         this.gaStorePattern = config.getGACacheStorePattern();
@@ -155,8 +199,6 @@ public class PathMappedMavenGACache
             return;
         }
 
-        inMemoryCache = cacheProducer.getCache( "ga-in-memory-cache" );
-
         session.execute( getSchemaCreateKeyspace( keyspace, config.getKeyspaceReplicas() ) );
         session.execute( getSchemaCreateTable( keyspace ) );
 
@@ -201,6 +243,10 @@ public class PathMappedMavenGACache
         return "MavenGACache";
     }
 
+    /**
+     * Uploads and deletions keep the scanned stores current, so the timer only has to scan the stores added since the
+     * last scan, and retry the ones whose scan failed.
+     */
     private void startTimer()
     {
         Timer timer = new Timer( true );
@@ -209,13 +255,18 @@ public class PathMappedMavenGACache
             @Override
             public void run()
             {
-                fill();
+                if ( scanPending )
+                {
+                    fill();
+                }
             }
         }, MINUTES.toMillis( TIMER_PERIOD_MINUTES ), MINUTES.toMillis( TIMER_PERIOD_MINUTES ) );
     }
 
     public void fill()
     {
+        scanPending = false;
+
         Set<String> matched; // matched stores
         try
         {
@@ -224,6 +275,7 @@ public class PathMappedMavenGACache
         catch ( IndyDataException e )
         {
             logger.error( "Failed to get matched stores", e );
+            scanPending = true;
             return;
         }
 
@@ -250,6 +302,7 @@ public class PathMappedMavenGACache
                 if ( !success )
                 {
                     logger.warn( "Scan failed for: {}", batch ); // just log it, timer task will try the failed later
+                    scanPending = true;
                 }
             } );
             scanned = getScannedStores(); // refresh scanned
@@ -265,6 +318,138 @@ public class PathMappedMavenGACache
         }
     }
 
+    /**
+     * Add the store to the GA of an uploaded pom right away, instead of waiting for a scan.
+     */
+    public void onFileStorage( @Observes final FileStorageEvent event )
+    {
+        if ( !started || event.getType() != TransferOperation.UPLOAD )
+        {
+            return;
+        }
+
+        final Transfer transfer = event.getTransfer();
+        final String storeName = getMatchedStoreName( transfer );
+        final String ga = storeName == null ? null : getGAPath( transfer.getPath() );
+        if ( ga != null )
+        {
+            logger.debug( "Add store to GA, ga: {}, store: {}", ga, storeName );
+            update( ga, singleton( storeName ) );
+        }
+    }
+
+    /**
+     * Remove the store from the GA of a deleted pom, unless a pom of another version of the GA is still there.
+     */
+    public void onFileDeletion( @Observes final FileDeletionEvent event )
+    {
+        if ( !started )
+        {
+            return;
+        }
+
+        final Transfer transfer = event.getTransfer();
+        final String storeName = getMatchedStoreName( transfer );
+        final String ga = storeName == null ? null : getGAPath( transfer.getPath() );
+        if ( ga != null && !containsPom( storeName, ga ) )
+        {
+            logger.debug( "Remove store from GA, ga: {}, store: {}", ga, storeName );
+            reduce( ga, singleton( storeName ), false );
+        }
+    }
+
+    /**
+     * A new store stays unknown until the next timer scan. Marking it as scanned right away would let other nodes,
+     * still holding the scanned stores without it, take its GA entries for stale ones and remove them.
+     */
+    public void onStoreAdd( @Observes final ArtifactStorePostUpdateEvent event )
+    {
+        if ( !started || event.getType() != ArtifactStoreUpdateType.ADD )
+        {
+            return;
+        }
+
+        if ( !getMatchedStoreNames( event ).isEmpty() )
+        {
+            scanPending = true;
+        }
+    }
+
+    /**
+     * A deleted store is dropped from the scanned stores. Its name is removed from the GA entries lazily by the group
+     * filter, see {@link #reduceStaled(String, Set)}.
+     */
+    public void onStoreDelete( @Observes final ArtifactStoreDeletePostEvent event )
+    {
+        if ( !started )
+        {
+            return;
+        }
+
+        final Set<String> deleted = getMatchedStoreNames( event );
+        if ( !deleted.isEmpty() )
+        {
+            logger.info( "Remove deleted stores from scanned, deleted: {}", deleted );
+            reduce( SCANNED_STORES, deleted, false );
+        }
+    }
+
+    private Set<String> getMatchedStoreNames( final Iterable<ArtifactStore> stores )
+    {
+        final Set<String> matched = new HashSet<>();
+        for ( final ArtifactStore store : stores )
+        {
+            if ( isMatched( store.getKey() ) )
+            {
+                matched.add( store.getName() );
+            }
+        }
+        return matched;
+    }
+
+    private String getMatchedStoreName( final Transfer transfer )
+    {
+        if ( transfer == null || !transfer.getPath().endsWith( ".pom" ) )
+        {
+            return null;
+        }
+
+        final StoreKey key = getKey( transfer );
+        return key != null && isMatched( key ) ? key.getName() : null;
+    }
+
+    private boolean isMatched( final StoreKey key )
+    {
+        return PKG_TYPE_MAVEN.equals( key.getPackageType() ) && key.getType() == StoreType.hosted
+                && key.getName().matches( gaStorePattern );
+    }
+
+    /**
+     * Whether any version directory of the GA still has a pom in the store.
+     */
+    private boolean containsPom( final String storeName, final String ga )
+    {
+        if ( pathMappedFileManager == null )
+        {
+            return true; // can't tell, keep the store
+        }
+
+        final PathDB pathDB = pathMappedFileManager.getPathDB();
+        final String fileSystem = "maven:hosted:" + storeName;
+        for ( final PathMap version : pathDB.list( fileSystem, ROOT_DIR + ga, PathDB.FileType.dir ) )
+        {
+            final String versionDir = Paths.get( version.getParentPath(), version.getFilename() ).toString();
+            for ( final PathMap file : pathDB.list( fileSystem, versionDir, PathDB.FileType.file ) )
+            {
+                if ( file.getFilename().endsWith( ".pom" ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private Set<String> getMatchedStores() throws IndyDataException
     {
         Set<String> matched = storeDataManager.query().getAllHostedRepositories( PKG_TYPE_MAVEN )
@@ -303,7 +488,7 @@ public class PathMappedMavenGACache
         bound.setSet( 0, set );
         bound.setString( 1, ga );
         session.execute( bound );
-        inMemoryCache.remove( ga ); // clear to force reloading
+        updateLocal( ga, set, true );
     }
 
     public void reduce( String ga, Set<String> set, boolean isAsync )
@@ -319,7 +504,55 @@ public class PathMappedMavenGACache
         {
             session.execute( bound );
         }
-        inMemoryCache.remove( ga ); // clear to force reloading
+        updateLocal( ga, set, false );
+    }
+
+    /**
+     * Remove stores found in a GA row but not in the scanned stores, i.e. deleted ones. The scanned stores are read
+     * from the database rather than the local cache, and stores that still exist are kept: a store scanned on another
+     * node or not scanned yet may already be in GA rows from its uploads.
+     */
+    public void reduceStaled( final String ga, final Set<String> candidates )
+    {
+        final Set<String> scanned = readStores( SCANNED_STORES, MINUTES.toMillis( SCANNED_TTL_MINUTES ) );
+        final Set<String> staled = new HashSet<>();
+        for ( final String store : candidates )
+        {
+            if ( !scanned.contains( store ) && !storeDataManager.hasArtifactStore(
+                            new StoreKey( PKG_TYPE_MAVEN, StoreType.hosted, store ) ) )
+            {
+                staled.add( store );
+            }
+        }
+
+        if ( !staled.isEmpty() )
+        {
+            logger.info( "Clean staled stores, gaPath: {}, staled: {}", ga, staled );
+            reduce( ga, staled, true );
+        }
+    }
+
+    /**
+     * Apply a change to the local copy of a GA row, if there is one. Rows not cached locally are read on next access.
+     */
+    private void updateLocal( final String ga, final Set<String> stores, final boolean add )
+    {
+        localCache.computeIfPresent( ga, ( k, current ) -> {
+            final BitSet bits = (BitSet) current.bits.clone();
+            stores.forEach( store -> bits.set( idOf( store ), add ) );
+            return new StoreSet( bits, current.expires );
+        } );
+    }
+
+    private int idOf( final String store )
+    {
+        return storeIds.computeIfAbsent( store, s -> {
+            synchronized ( storeNames )
+            {
+                storeNames.add( s );
+                return storeNames.size() - 1;
+            }
+        } );
     }
 
     /**
@@ -353,12 +586,21 @@ public class PathMappedMavenGACache
      * Get GA path from pathMap obj. If it is pom file, get parent's parent.
      */
     private static String getGAPath( PathMap pathMap )
+    {
+        return getGAPath( pathMap.getParentPath(), pathMap.getFilename() );
+    }
+
+    private static String getGAPath( String path )
+    {
+        Path parent = Paths.get( path ).getParent();
+        return parent == null ? null : getGAPath( parent.toString(), path );
+    }
+
+    private static String getGAPath( String parent, String fileName )
     {
         String ret = null;
-        String fileName = pathMap.getFilename();
         if ( fileName.endsWith( ".pom" ) )
         {
-            String parent = pathMap.getParentPath();
             if ( isNotBlank( parent ) )
             {
                 Path ga = Paths.get( parent ).getParent();
@@ -377,33 +619,40 @@ public class PathMappedMavenGACache
 
     public Set<String> getScannedStores()
     {
-        return getStoresContaining( SCANNED_STORES );
+        final StoreSet ret = localCache.get( SCANNED_STORES );
+        if ( ret != null && ret.expires > System.currentTimeMillis() )
+        {
+            return ret;
+        }
+        return readStores( SCANNED_STORES, MINUTES.toMillis( SCANNED_TTL_MINUTES ) );
     }
 
     /**
-     * Get stores contain the target gaPath. It checks the inMemoryCache first. If not found, query db
-     * and update inMemoryCache.
+     * Get stores contain the target gaPath. It checks the local cache first. If not found or expired, query db
+     * and update the local cache.
      */
     public Set<String> getStoresContaining( String gaPath )
     {
-        Set<String> ret = inMemoryCache.get( gaPath );
-        if ( ret != null )
+        StoreSet ret = localCache.get( gaPath );
+        if ( ret != null && ret.expires > System.currentTimeMillis() )
         {
             return ret;
         }
-        // query db
+        return readStores( gaPath, SECONDS.toMillis( LOCAL_TTL_SECONDS ) );
+    }
+
+    private Set<String> readStores( final String gaPath, final long ttlMillis )
+    {
         BoundStatement bound = preparedQueryByGA.bind( gaPath );
         ResultSet result = session.execute( bound );
         Row row = result.one();
+        BitSet bits = new BitSet();
         if ( row != null )
         {
-            ret = row.getSet( 0, String.class );
-        }
-        else
-        {
-            ret = emptySet();
+            row.getSet( 0, String.class ).forEach( store -> bits.set( idOf( store ) ) );
         }
-        inMemoryCache.put( gaPath, ret );
+        StoreSet ret = new StoreSet( bits, System.currentTimeMillis() + ttlMillis );
+        localCache.put( gaPath, ret );
         return ret;
     }
 
@@ -426,4 +675,41 @@ public class PathMappedMavenGACache
         }
         return false;
     }
+
+    /**
+     * Read-only view of a locally cached GA row. Updates replace the whole instance, so callers holding one see a
+     * consistent set.
+     */
+    private final class StoreSet
+                    extends AbstractSet<String>
+    {
+        private final BitSet bits;
+
+        private final long expires;
+
+        StoreSet( final BitSet bits, final long expires )
+        {
+            this.bits = bits;
+            this.expires = expires;
+        }
+
+        @Override
+        public boolean contains( final Object store )
+        {
+            final Integer id = storeIds.get( store );
+            return id != null && bits.get( id );
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return bits.stream().mapToObj( storeNames::get ).iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return bits.cardinality();
+        }
+    }
 }
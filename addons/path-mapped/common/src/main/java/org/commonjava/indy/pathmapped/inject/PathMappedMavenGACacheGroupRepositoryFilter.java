@@ -128,8 +128,8 @@ public class PathMappedMavenGACacheGroupRepositoryFilter
         staled.removeAll( scanned );
         if ( !staled.isEmpty() )
         {
-            logger.info( "Clean staled stores, gaPath: {}, staled: {}", gaPath, staled );
-            gaCache.reduce( gaPath, staled, true );
+            // only candidates; the cache confirms them against the stored scanned stores before removing any
+            gaCache.reduceStaled( gaPath, staled );
         }
     }
 
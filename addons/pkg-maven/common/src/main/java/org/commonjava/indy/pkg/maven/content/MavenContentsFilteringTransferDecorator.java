@@ -16,24 +16,30 @@
 package org.commonjava.indy.pkg.maven.content;
 
 import java.io.ByteArrayInputStream;
-import java.io.CharArrayWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.commonjava.atlas.maven.ident.util.SnapshotUtils;
 import org.commonjava.atlas.maven.ident.version.part.SnapshotPart;
@@ -50,9 +56,6 @@ import org.commonjava.maven.galley.util.IdempotentCloseOutputStream;
 import org.commonjava.maven.galley.util.TransferUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -182,30 +185,55 @@ public class MavenContentsFilteringTransferDecorator
                         artifactId + '-' + version + '.' ) || isRemoteSnapshot;
     }
 
+    /**
+     * Filters maven-metadata.xml written to a proxied location that doesn't allow snapshots and/or releases. Written
+     * content is spooled (in memory up to {@link #SPOOL_THRESHOLD} bytes, then to a temp file) and filtered with StAX
+     * once the stream is closed, so memory use doesn't grow with the size of the metadata.
+     * <p>
+     * The first pass only reads: it checks the document is well-formed, whether anything has to be filtered at all, and
+     * finds the last allowed version in case &lt;latest&gt; has to be replaced, since &lt;latest&gt; comes before
+     * &lt;versions&gt;. Metadata with nothing to filter is copied unchanged; otherwise the second pass streams the
+     * filtered events to the target.
+     */
     private static class MetadataFilteringOutputStream
             extends IdempotentCloseOutputStream
     {
         private static final String TIMER = "io.maven.metadata.out.filter";
 
-        private final Logger logger = LoggerFactory.getLogger( this.getClass() );
+        private static final int SPOOL_THRESHOLD = 1024 * 1024;
+
+        private static final String VERSIONS = "versions";
+
+        private static final String VERSION = "version";
+
+        private static final String LATEST = "latest";
+
+        private static final String RELEASE = "release";
 
-        private static final String LATEST = "<latest>([^<]+)</latest>";
+        private static final String SNAPSHOT = "snapshot";
 
-        private static final String RELEASE = "<release>([^<]+)</release>";
+        private static final String SNAPSHOT_VERSIONS = "snapshotVersions";
 
-        private static final String VERSION = "<version>([^<]+)</version>";
+        private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
 
-        private static final String VERSIONS = "<versions>[\\s]*(?:(" + VERSION + ")[\\s]*)+</versions>";
+        private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
 
-        private StringBuilder buffer = new StringBuilder();
+        private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+        private final Logger logger = LoggerFactory.getLogger( this.getClass() );
+
+        private final DeferredFileOutputStream spool =
+                new DeferredFileOutputStream( SPOOL_THRESHOLD, "indy-metadata-filter", ".xml", null );
 
         private final boolean allowsSnapshots;
 
         private final boolean allowsReleases;
 
-        private Transfer transfer;
+        private final Transfer transfer;
+
+        private final DefaultMetricsManager metricsManager;
 
-        private DefaultMetricsManager metricsManager;
+        private boolean filtered;
 
         private MetadataFilteringOutputStream( final OutputStream stream, final boolean allowsSnapshots,
                                                final boolean allowsReleases, Transfer transfer,
@@ -218,54 +246,54 @@ public class MavenContentsFilteringTransferDecorator
             this.metricsManager = metricsManager;
         }
 
-        private String filterMetadata()
+        private static XMLInputFactory newInputFactory()
         {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+            factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+            return factory;
+        }
 
-            if ( buffer.length() == 0 )
+        private void filterMetadata()
+                throws IOException
+        {
+            spool.close();
+            if ( spool.getByteCount() == 0 )
             {
-                return "";
+                return;
             }
 
             Timer.Context timer = metricsManager == null ? null : metricsManager.startTimer( TIMER );
             try
             {
-                // filter versions from GA metadata
-                final List<String> versions = fetchVersions();
+                Scan scan;
+                try (InputStream in = openSpool())
+                {
+                    scan = scan( in );
+                }
+                catch ( XMLStreamException e )
+                {
+                    //FIXME: Not sure if it is a good idea to just log these xml parsing exception and return original metadata content.
+                    logger.error( "Error: Can not filtering {} as it is not a valid maven-metadata.xml.",
+                                  transfer.getPath() );
+                    scan = null;
+                }
 
-                boolean changed = false;
-                for ( final String version : new ArrayList<>( versions ) )
+                try (InputStream in = openSpool())
                 {
-                    final boolean isSnapshot = SnapshotUtils.isSnapshotVersion( version );
-                    if ( !allowsSnapshots && isSnapshot || !allowsReleases && !isSnapshot )
+                    if ( scan == null || !scan.changed )
                     {
-                        logger.debug( "FILTER: Removing prohibited version: {} from: {}", version, transfer );
-                        versions.remove( version );
-                        changed = true;
+                        IOUtils.copy( in, out );
+                    }
+                    else
+                    {
+                        writeFiltered( in, scan.lastAllowedVersion );
                     }
                 }
-
-                String filteredMetadata = buffer.toString();
-                if ( changed )
+                catch ( XMLStreamException e )
                 {
-                    filteredMetadata = replaceOriginal( filteredMetadata, versions );
+                    throw new IOException( "Failed to write filtered metadata of: " + transfer.getPath(), e );
                 }
-
-                filteredMetadata = resetLatest( filteredMetadata, versions );
-
-                // filter release from GAV metadata
-                filteredMetadata = prohibitRelease( filteredMetadata );
-
-                // filter snapshots from GAV metadata
-                filteredMetadata = prohibitSnapshots( filteredMetadata );
-
-                return filteredMetadata;
-            }
-            catch ( IOException | SAXException | ParserConfigurationException | XPathExpressionException e )
-            {
-                //FIXME: Not sure if it is a good idea to just log these xml parsing exception and return original metadata content.
-                logger.error( "Error: Can not filtering {} as it is not a valid maven-metadata.xml.",
-                              transfer.getPath() );
-                return buffer.toString();
             }
             finally
             {
@@ -276,151 +304,313 @@ public class MavenContentsFilteringTransferDecorator
             }
         }
 
-        private List<String> fetchVersions()
-                throws IOException, SAXException, ParserConfigurationException, XPathExpressionException
+        private Scan scan( final InputStream in )
+                throws XMLStreamException
         {
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware( true );
-            final Document doc =
-                    factory.newDocumentBuilder().parse( new ByteArrayInputStream( buffer.toString().getBytes() ) );
-
-            final NodeList nodes = (NodeList) XPathFactory.newInstance()
-                                                          .newXPath()
-                                                          .compile( "//version/text()" )
-                                                          .evaluate( doc, XPathConstants.NODESET );
-            final List<String> versions = new ArrayList<>();
-            for ( int i = 0; i < nodes.getLength(); i++ )
+            final Scan scan = new Scan();
+            final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader( in );
+            try
             {
-                versions.add( nodes.item( i ).getNodeValue() );
+                boolean inVersions = false;
+                while ( reader.hasNext() )
+                {
+                    int type = reader.next();
+                    if ( type == XMLStreamConstants.END_ELEMENT && VERSIONS.equals( reader.getLocalName() ) )
+                    {
+                        inVersions = false;
+                    }
+
+                    if ( type != XMLStreamConstants.START_ELEMENT )
+                    {
+                        continue;
+                    }
+
+                    switch ( reader.getLocalName() )
+                    {
+                        case VERSIONS:
+                            inVersions = true;
+                            break;
+                        case VERSION:
+                            if ( inVersions )
+                            {
+                                String version = reader.getElementText().trim();
+                                if ( isAllowed( version ) )
+                                {
+                                    scan.lastAllowedVersion = version;
+                                }
+                                else
+                                {
+                                    scan.changed = true;
+                                }
+                            }
+                            break;
+                        case LATEST:
+                            scan.changed |= !isAllowed( reader.getElementText().trim() );
+                            break;
+                        case RELEASE:
+                            scan.changed |= !allowsReleases && !reader.getElementText().trim().isEmpty();
+                            break;
+                        case SNAPSHOT:
+                        case SNAPSHOT_VERSIONS:
+                            scan.changed |= !allowsSnapshots;
+                            break;
+                        default:
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
             }
 
-            return versions;
+            return scan;
         }
 
-        private String replaceOriginal( final String originalMetadata, final List<String> versions )
+        private void writeFiltered( final InputStream in, final String lastAllowedVersion )
+                throws XMLStreamException
         {
-            String filteredVersions;
-            if ( versions.size() == 0 )
+            final XMLEventReader reader = INPUT_FACTORY.createXMLEventReader( in );
+            final XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter( out, UTF_8.name() );
+
+            // indentation before a version is only written along with the version, so removed ones leave no blank lines
+            final List<XMLEvent> heldWhitespace = new ArrayList<>();
+            boolean inVersions = false;
+            try
             {
-                filteredVersions = "<versions></versions>";
+                while ( reader.hasNext() )
+                {
+                    final XMLEvent event = reader.nextEvent();
+                    if ( event.isStartDocument() )
+                    {
+                        final StartDocument doc = (StartDocument) event;
+                        writer.add( EVENT_FACTORY.createStartDocument( UTF_8.name(), doc.getVersion() ) );
+                    }
+                    else if ( inVersions && event.isCharacters() && event.asCharacters().isWhiteSpace() )
+                    {
+                        heldWhitespace.add( event );
+                    }
+                    else if ( event.isEndElement() && VERSIONS.equals(
+                            event.asEndElement().getName().getLocalPart() ) )
+                    {
+                        inVersions = false;
+                        writeHeld( writer, heldWhitespace );
+                        writer.add( event );
+                    }
+                    else if ( event.isStartElement() )
+                    {
+                        inVersions = filterElement( event.asStartElement(), reader, writer, heldWhitespace, inVersions,
+                                                    lastAllowedVersion );
+                    }
+                    else
+                    {
+                        writer.add( event );
+                    }
+                }
+
+                writer.flush();
             }
-            else
+            finally
             {
-                filteredVersions = "<versions>\n<version>" + StringUtils.join( versions, "</version>\n<version>" )
-                        + "</version>\n</versions>";
+                writer.close();
+                reader.close();
             }
-            return originalMetadata.replaceFirst( VERSIONS, filteredVersions );
         }
 
-        private String resetLatest( final String originalMetadata, final List<String> versions )
+        /**
+         * Write the element starting with the given event, or its filtered replacement.
+         *
+         * @return whether the reader is inside &lt;versions&gt; afterwards
+         */
+        private boolean filterElement( final StartElement start, final XMLEventReader reader,
+                                       final XMLEventWriter writer, final List<XMLEvent> heldWhitespace,
+                                       final boolean inVersions, final String lastAllowedVersion )
+                throws XMLStreamException
         {
-            String filteredMetadata = originalMetadata;
-            final Pattern latestPattern = Pattern.compile( LATEST );
-            final Matcher latestMatcher = latestPattern.matcher( filteredMetadata );
-
-            if ( latestMatcher.find() )
+            switch ( start.getName().getLocalPart() )
             {
-                final String latestVersion = latestMatcher.group( 1 );
-                final boolean isSnapshot = latestVersion.endsWith( "-SNAPSHOT" );
-                if ( ( !allowsSnapshots && isSnapshot ) || ( !allowsReleases && !isSnapshot ) )
-                {
-                    logger.debug( "FILTER: Recalculating LATEST version; supplied value is prohibited: {} from: {}",
-                                  latestVersion, transfer );
+                case VERSIONS:
+                    writer.add( start );
+                    return true;
+                case VERSION:
+                    if ( !inVersions )
+                    {
+                        break;
+                    }
 
-                    String newLatest;
-                    if ( versions.size() > 0 )
+                    final String version = reader.getElementText().trim();
+                    if ( isAllowed( version ) )
                     {
-                        newLatest = "<latest>" + versions.get( versions.size() - 1 ) + "</latest>";
+                        writeHeld( writer, heldWhitespace );
+                        writeElement( writer, start, version );
                     }
                     else
                     {
-                        newLatest = "<latest></latest>";
+                        logger.debug( "FILTER: Removing prohibited version: {} from: {}", version, transfer );
+                        heldWhitespace.clear();
                     }
-                    filteredMetadata = filteredMetadata.replaceFirst( LATEST, newLatest );
-                }
+                    return true;
+                case LATEST:
+                    final String latest = reader.getElementText().trim();
+                    if ( isAllowed( latest ) )
+                    {
+                        writeElement( writer, start, latest );
+                    }
+                    else
+                    {
+                        logger.debug( "FILTER: Recalculating LATEST version; supplied value is prohibited: {} from: {}",
+                                      latest, transfer );
+                        writeElement( writer, start, lastAllowedVersion == null ? "" : lastAllowedVersion );
+                    }
+                    return inVersions;
+                case RELEASE:
+                    if ( allowsReleases )
+                    {
+                        break;
+                    }
+
+                    logger.debug( "FILTER: Suppressing prohibited release fields from: {}", transfer );
+                    skipElement( reader );
+                    writeElement( writer, start, "" );
+                    return inVersions;
+                case SNAPSHOT:
+                case SNAPSHOT_VERSIONS:
+                    if ( allowsSnapshots )
+                    {
+                        break;
+                    }
+
+                    logger.debug( "FILTER: Suppressing prohibited snapshot fields from: {}", transfer );
+                    skipElement( reader );
+                    writeElement( writer, start, "" );
+                    return inVersions;
+                default:
             }
 
-            return filteredMetadata;
+            writer.add( start );
+            return inVersions;
         }
 
-        private String prohibitRelease( final String originalMetadata )
+        private boolean isAllowed( final String version )
         {
-            String filteredMetadata = originalMetadata;
-            if ( !allowsReleases )
+            if ( version.isEmpty() )
             {
-                final Pattern releasePattern = Pattern.compile( RELEASE );
-                final Matcher releaseMatcher = releasePattern.matcher( filteredMetadata );
-                if ( releaseMatcher.find() )
-                {
-                    logger.debug( "FILTER: Suppressing prohibited release fields from: {}", transfer );
+                return true;
+            }
 
-                    filteredMetadata = filteredMetadata.replaceFirst( RELEASE, "<release></release>" );
-                }
+            final boolean isSnapshot = SnapshotUtils.isSnapshotVersion( version );
+            return ( allowsSnapshots || !isSnapshot ) && ( allowsReleases || isSnapshot );
+        }
+
+        private static void writeHeld( final XMLEventWriter writer, final List<XMLEvent> held )
+                throws XMLStreamException
+        {
+            for ( final XMLEvent event : held )
+            {
+                writer.add( event );
             }
-            return filteredMetadata;
+            held.clear();
         }
 
-        private String prohibitSnapshots( final String originalMetadata){
-            String filteredMetadata = originalMetadata;
-            if ( !allowsSnapshots )
+        private static void writeElement( final XMLEventWriter writer, final StartElement start, final String text )
+                throws XMLStreamException
+        {
+            writer.add( start );
+            if ( !text.isEmpty() )
             {
-                logger.debug( "FILTER: Suppressing prohibited snapshot fields from: {}", transfer );
+                writer.add( EVENT_FACTORY.createCharacters( text ) );
+            }
+            writer.add( EVENT_FACTORY.createEndElement( start.getName(), null ) );
+        }
 
-                final String snapshots = StringUtils.substringBetween( filteredMetadata, "<snapshotVersions>",
-                                                                       "</snapshotVersions>" );
-                if ( snapshots != null )
+        /**
+         * Consume the rest of the element whose start was just read, including its end.
+         */
+        private static void skipElement( final XMLEventReader reader )
+                throws XMLStreamException
+        {
+            int depth = 1;
+            while ( depth > 0 && reader.hasNext() )
+            {
+                final XMLEvent event = reader.nextEvent();
+                if ( event.isStartElement() )
                 {
-                    filteredMetadata = filteredMetadata.replace( snapshots, "" );
+                    depth++;
                 }
-
-                final String snapshot = StringUtils.substringBetween( filteredMetadata, "<snapshot>", "</snapshot>" );
-                if ( snapshot != null )
+                else if ( event.isEndElement() )
                 {
-                    filteredMetadata = filteredMetadata.replace( snapshot, "" );
+                    depth--;
                 }
             }
-            return filteredMetadata;
+        }
+
+        private InputStream openSpool()
+                throws IOException
+        {
+            return spool.isInMemory() ? new ByteArrayInputStream( spool.getData() ) : new FileInputStream(
+                    spool.getFile() );
         }
 
         @Override
         public void write( final int b )
+                throws IOException
         {
-            buffer.append( (char) b );
+            spool.write( b );
         }
 
         @Override
         public void write( byte[] buff, int offset, int len )
+                throws IOException
         {
-            if ( buff != null && len > 0 )
-            {
-                if (len > buff.length || buff.length - offset < len )
-                    throw new ArrayIndexOutOfBoundsException( "Out of bounds exception" );
+            spool.write( buff, offset, len );
+        }
 
-                boolean isSubArray = len < buff.length || offset != 0;
-                byte[] everything = ( isSubArray ? Arrays.copyOfRange( buff, offset, len ) : buff );
-                try (CharArrayWriter writer = new CharArrayWriter( len ) )
-                {
-                    IOUtils.write ( everything, writer, UTF_8 );
-                    buffer.append( writer.toCharArray() );
-                } catch ( IOException ioe )
-                {
-                    logger.error ( ioe.getMessage() );
-                }
+        /**
+         * Nothing reaches the target before the whole document is written and filtered on {@link #close()}.
+         */
+        @Override
+        public void flush()
+                throws IOException
+        {
+            if ( filtered )
+            {
+                out.flush();
             }
         }
 
         @Override
-        public void flush() throws IOException
+        public void close()
+                throws IOException
         {
             try
             {
-                out.write( filterMetadata().getBytes() );
-                out.flush();
+                if ( !filtered )
+                {
+                    filtered = true;
+                    try
+                    {
+                        filterMetadata();
+                    }
+                    finally
+                    {
+                        if ( !spool.isInMemory() )
+                        {
+                            FileUtils.deleteQuietly( spool.getFile() );
+                        }
+                    }
+                }
             }
             finally
             {
-                buffer = new StringBuilder();
+                // release the target stream even when filtering failed
+                super.close();
             }
         }
+
+        private static final class Scan
+        {
+            private boolean changed;
+
+            private String lastAllowedVersion;
+        }
     }
 }
@@ -47,6 +47,7 @@ import org.commonjava.indy.model.core.ArtifactStore;
 import org.commonjava.indy.model.core.Group;
 import org.commonjava.indy.model.core.StoreKey;
 import org.commonjava.indy.model.core.StoreType;
+import org.commonjava.indy.pkg.maven.content.group.GroupMetadataAggregate;
 import org.commonjava.indy.pkg.maven.content.group.MavenMetadataMerger;
 import org.commonjava.indy.pkg.maven.content.group.MavenMetadataProvider;
 import org.commonjava.indy.util.LocationUtils;
@@ -65,7 +66,6 @@ import org.w3c.dom.Element;
 import javax.annotation.PostConstruct;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -77,6 +77,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -169,6 +170,21 @@ public class MavenMetadataGenerator
 
     private static final int THREAD_WAITING_TIME_SECONDS = 300;
 
+    private static final int MAX_GROUP_AGGREGATES = 2000;
+
+    // node-local merge state of recently generated group metadata, see generateGroupMetadata()
+    private final Map<String, GroupMetadataAggregate> groupAggregates =
+            Collections.synchronizedMap( new LinkedHashMap<String, GroupMetadataAggregate>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<String, GroupMetadataAggregate> eldest )
+                {
+                    return size() > MAX_GROUP_AGGREGATES;
+                }
+            } );
+
     protected MavenMetadataGenerator()
     {
     }
@@ -397,35 +413,25 @@ public class MavenMetadataGenerator
                             "Regenerated Metadata for group {} of path {}: latest version: {}, versions: {}",
                             group.getKey(), mergePath, versioning != null ? versioning.getLatest() : null,
                             versioning != null ? versioning.getVersions() : null );
-                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    try
-                    {
-                        logger.trace( "Regenerate lost metadata, group: {}, path: {}", group.getKey(), path );
-                        new MetadataXpp3Writer().write( baos, md );
+                    logger.trace( "Regenerate lost metadata, group: {}, path: {}", group.getKey(), path );
 
-                        final byte[] merged = baos.toByteArray();
-                        try (final OutputStream fos = target.openOutputStream( TransferOperation.GENERATE, true,
-                                                                               eventMetadata ))
-                        {
-                            fos.write( merged );
-                        }
-                        catch ( final IOException e )
-                        {
-                            throw new IndyWorkflowException( "Failed to write merged metadata to: {}.\nError: {}", e,
-                                                             target, e.getMessage() );
-                        }
-
-                        String mergeInfo = writeGroupMergeInfo( md, group, contributing, mergePath );
-                        eventMetadata.set( GROUP_METADATA_GENERATED, true );
-                        MetadataInfo info = new MetadataInfo( md );
-                        info.setMetadataMergeInfo( mergeInfo );
-                        putToMetadataCache( group.getKey(), mergePath, info );
+                    // serialize straight into the target, large snapshot metadata shouldn't be buffered in memory
+                    try (final OutputStream fos = target.openOutputStream( TransferOperation.GENERATE, true,
+                                                                           eventMetadata ))
+                    {
+                        new MetadataXpp3Writer().write( fos, md );
                     }
                     catch ( final IOException e )
                     {
-                        logger.error( String.format( "Cannot write consolidated metadata: %s to: %s. Reason: %s", path,
-                                                     group.getKey(), e.getMessage() ), e );
+                        throw new IndyWorkflowException( "Failed to write merged metadata to: {}.\nError: {}", e,
+                                                         target, e.getMessage() );
                     }
+
+                    String mergeInfo = writeGroupMergeInfo( md, group, contributing, mergePath );
+                    eventMetadata.set( GROUP_METADATA_GENERATED, true );
+                    MetadataInfo info = new MetadataInfo( md );
+                    info.setMetadataMergeInfo( mergeInfo );
+                    putToMetadataCache( group.getKey(), mergePath, info );
                 }
             }
             catch ( IndyWorkflowException e )
@@ -512,6 +518,10 @@ public class MavenMetadataGenerator
      * 2. read cached from member hosted repos and try to download from member remote repos
      * 3. generate by member hosted repos (list dir trying to find version directories)
      *
+     * When the group was merged before on this node, members whose cached metadata is still the one they contributed
+     * last time are not read again; only the changed members go through 2 and 3 and their delta is applied to the
+     * {@link GroupMetadataAggregate}. If a member that contributed before has left the group, it's merged from scratch.
+     *
      * @param group
      * @param members concrete store in group
      * @param path
@@ -540,31 +550,50 @@ public class MavenMetadataGenerator
             return meta;
         }
 
-        Metadata master = new Metadata();
-        master.setVersioning( new Versioning() );
+        final List<StoreKey> memberKeys = members.stream().map( ArtifactStore::getKey ).collect( Collectors.toList() );
+
+        final String aggregateKey = computeKey( group, toMergePath );
+        final GroupMetadataAggregate previous = groupAggregates.get( aggregateKey );
+        final GroupMetadataAggregate aggregate =
+                previous != null && new HashSet<>( memberKeys ).containsAll( previous.getContributors() ) ?
+                        previous :
+                        new GroupMetadataAggregate();
+
+        final Set<ArtifactStore> toRead = new HashSet<>();
+        for ( final ArtifactStore member : members )
+        {
+            final StoreKey key = member.getKey();
+            if ( !aggregate.hasContribution( key ) || !aggregate.isCurrent( key, getMetaFromCache( key,
+                                                                                                     toMergePath ) ) )
+            {
+                toRead.add( member );
+            }
+        }
+
+        logger.debug( "Merging {} in {}: reusing {} member contributions, reading {} members", toMergePath,
+                      group.getKey(), members.size() - toRead.size(), toRead.size() );
 
         MetadataIncrementalResult incrementalResult =
-                new MetadataIncrementalResult( new HashSet<>( members ), Collections.emptySet(), master );
+                new MetadataIncrementalResult( toRead, Collections.emptySet(), aggregate );
 
         incrementalResult = mergeMissing( group, incrementalResult, toMergePath, "cached", this::retrieveCached );
 
-        contributingMembers.addAll( incrementalResult.merged );
-
         incrementalResult = mergeMissing( group, incrementalResult, toMergePath, "downloaded", this::downloadMissing );
 
-        contributingMembers.addAll( incrementalResult.merged );
-
         incrementalResult = mergeMissing( group, incrementalResult, toMergePath, "generated", this::generateMissing );
 
-        contributingMembers.addAll( incrementalResult.merged );
+        // members that have no metadata (anymore) don't contribute, whatever they did last time
+        incrementalResult.missing.forEach( store -> aggregate.remove( store.getKey() ) );
+
+        contributingMembers.clear();
+        memberKeys.stream().filter( aggregate::hasContribution ).forEach( contributingMembers::add );
+
+        groupAggregates.put( aggregateKey, aggregate );
 
+        Metadata master = aggregate.toMetadata( memberKeys );
         if ( metadataProviders != null )
         {
-            master = mergeProviderMetadata( group, incrementalResult.result, toMergePath );
-        }
-        else
-        {
-            master = incrementalResult.result;
+            master = mergeProviderMetadata( group, master, toMergePath );
         }
 
         if ( !incrementalResult.missing.isEmpty() )
@@ -698,10 +727,10 @@ public class MavenMetadataGenerator
     {
         private final Set<ArtifactStore> missing;
         private final Set<StoreKey> merged;
-        private final Metadata result;
+        private final GroupMetadataAggregate result;
 
         public MetadataIncrementalResult( final Set<ArtifactStore> missing, final Set<StoreKey> merged,
-                                          final Metadata result )
+                                          final GroupMetadataAggregate result )
         {
             this.missing = missing;
             this.merged = merged;
@@ -716,7 +745,7 @@ public class MavenMetadataGenerator
             throws IndyWorkflowException
     {
         Set<ArtifactStore> missing = incrementalResult.missing;
-        Metadata master = incrementalResult.result;
+        GroupMetadataAggregate aggregate = incrementalResult.result;
 
         logger.debug( "Merge member metadata for {}, {}, missing: {}, size: {}", group.getKey(), description,
                       missing, missing.size() );
@@ -740,7 +769,7 @@ public class MavenMetadataGenerator
                     else
                     {
                         included.add( mr.store.getKey() );
-                        merger.merge( master, mr.metadata, group, toMergePath );
+                        aggregate.update( mr.store.getKey(), mr.metadata );
                         putToMetadataCache( mr.store.getKey(), toMergePath, new MetadataInfo( mr.metadata ) );
                     }
                 }
@@ -755,7 +784,7 @@ public class MavenMetadataGenerator
             throw new IndyWorkflowException( "Failed to merge downloaded " + description + " member metadata.", e );
         }
 
-        return new MetadataIncrementalResult( resultingMissing, included, master );
+        return new MetadataIncrementalResult( resultingMissing, included, aggregate );
     }
 
     private Metadata mergeProviderMetadata( final Group group, final Metadata master,
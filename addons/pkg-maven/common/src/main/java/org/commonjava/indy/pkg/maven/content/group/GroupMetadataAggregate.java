@@ -0,0 +1,492 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.pkg.maven.content.group;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Plugin;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.commonjava.indy.model.core.StoreKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Merge state of one group maven-metadata.xml, kept as the metadata each member contributed, reference counts of the
+ * versions, and the snapshot versions and plugins of every member. Replacing or removing the contribution of one
+ * member only touches the entries of that member, so a group regeneration after a single member changed doesn't have
+ * to re-read and re-merge all the others.
+ * <p>
+ * Snapshot versions and plugins listed by several members are resolved like the full merge does: the most recently
+ * updated snapshot version wins, and a plugin comes from the first member in group order. Winners are only recomputed
+ * for the entries a change touched, or for all of them when the member order changed.
+ * <p>
+ * Instances are not shared between threads while they are updated; callers hold the merge lock of the group path.
+ */
+public class GroupMetadataAggregate
+{
+    private static final Comparator<SnapshotVersion> SNAPSHOT_VERSION_COMPARATOR =
+            Comparator.comparing( SnapshotVersion::getVersion, Comparator.nullsFirst( Comparator.naturalOrder() ) )
+                      .thenComparing( SnapshotVersion::getExtension,
+                                      Comparator.nullsFirst( Comparator.naturalOrder() ) );
+
+    private final Map<StoreKey, Contribution> contributions = new LinkedHashMap<>();
+
+    private final Map<String, Integer> versions = new LinkedHashMap<>();
+
+    private final Map<String, Map<StoreKey, SnapshotVersion>> snapshotVersions = new HashMap<>();
+
+    private final Map<String, Map<StoreKey, Plugin>> plugins = new HashMap<>();
+
+    private final Map<String, SnapshotVersion> snapshotVersionWinners = new HashMap<>();
+
+    private final Map<String, Plugin> pluginWinners = new HashMap<>();
+
+    private final Set<String> changedSnapshotVersions = new HashSet<>();
+
+    private final Set<String> changedPlugins = new HashSet<>();
+
+    private List<StoreKey> winnerOrder = Collections.emptyList();
+
+    public synchronized Collection<StoreKey> getContributors()
+    {
+        return new ArrayList<>( contributions.keySet() );
+    }
+
+    public synchronized boolean hasContribution( final StoreKey member )
+    {
+        return contributions.containsKey( member );
+    }
+
+    /**
+     * Whether the given metadata of a member has the same content as what that member already contributed, compared
+     * by a fingerprint over all the fields the merge uses.
+     */
+    public synchronized boolean isCurrent( final StoreKey member, final Metadata metadata )
+    {
+        final Contribution contribution = contributions.get( member );
+        return contribution != null && metadata != null && contribution.fingerprint == fingerprint( metadata );
+    }
+
+    /**
+     * Replace the contribution of a member with the given metadata, applying only the delta to the merged state. A
+     * null metadata removes the member's contribution.
+     */
+    public synchronized void update( final StoreKey member, final Metadata metadata )
+    {
+        final Contribution previous = contributions.remove( member );
+        if ( previous != null )
+        {
+            withdraw( member, previous );
+        }
+
+        if ( metadata != null )
+        {
+            contributions.put( member, contribute( member, metadata ) );
+        }
+    }
+
+    public synchronized void remove( final StoreKey member )
+    {
+        update( member, null );
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return contributions.isEmpty();
+    }
+
+    /**
+     * Render the merged metadata. Like merging all members one by one in group order, coordinates come from the last
+     * member that has them; snapshot, latest and release come from the most recently updated contribution, and from the
+     * later one of two updated at the same time.
+     *
+     * @param memberOrder keys of the group members, in group order
+     */
+    public synchronized Metadata toMetadata( final List<StoreKey> memberOrder )
+    {
+        final Metadata result = new Metadata();
+        final Versioning versioning = new Versioning();
+        result.setVersioning( versioning );
+
+        final List<Metadata> ordered = memberOrder.stream()
+                                                  .map( contributions::get )
+                                                  .filter( Objects::nonNull )
+                                                  .map( c -> c.metadata )
+                                                  .collect( Collectors.toList() );
+
+        String lastUpdated = null;
+        String latest = null;
+        String release = null;
+        String snapshotUpdated = null;
+        Snapshot snapshot = null;
+        for ( final Metadata md : ordered )
+        {
+            if ( md.getGroupId() != null )
+            {
+                result.setGroupId( md.getGroupId() );
+            }
+            if ( md.getArtifactId() != null )
+            {
+                result.setArtifactId( md.getArtifactId() );
+            }
+            if ( md.getVersion() != null )
+            {
+                result.setVersion( md.getVersion() );
+            }
+
+            final Versioning src = md.getVersioning();
+            if ( src == null )
+            {
+                continue;
+            }
+
+            final String updated = lastUpdated( md );
+            if ( overrides( updated, lastUpdated ) )
+            {
+                if ( updated != null )
+                {
+                    lastUpdated = updated;
+                }
+                if ( src.getLatest() != null )
+                {
+                    latest = src.getLatest();
+                }
+                if ( src.getRelease() != null )
+                {
+                    release = src.getRelease();
+                }
+            }
+
+            if ( src.getSnapshot() != null && ( snapshot == null || overrides( updated, snapshotUpdated ) ) )
+            {
+                if ( updated != null )
+                {
+                    snapshotUpdated = updated;
+                }
+                snapshot = src.getSnapshot();
+            }
+        }
+
+        versioning.setLastUpdated( lastUpdated );
+        versioning.setLatest( latest );
+        versioning.setRelease( release );
+
+        if ( snapshot != null )
+        {
+            versioning.setSnapshot( copy( snapshot ) );
+        }
+
+        versioning.setVersions( new ArrayList<>( versions.keySet() ) );
+
+        updateWinners( memberOrder );
+
+        final List<SnapshotVersion> snaps = new ArrayList<>( snapshotVersionWinners.values() );
+        snaps.sort( SNAPSHOT_VERSION_COMPARATOR );
+        versioning.setSnapshotVersions( snaps );
+
+        final Map<StoreKey, Integer> positions = positions( memberOrder );
+        final List<Plugin> pluginList = new ArrayList<>( pluginWinners.values() );
+        pluginList.sort( Comparator.comparing( ( Plugin p ) -> positions.getOrDefault( winnerOf( p ), Integer.MAX_VALUE ) )
+                                   .thenComparing( Plugin::getPrefix, Comparator.nullsFirst( Comparator.naturalOrder() ) ) );
+        result.setPlugins( pluginList );
+
+        return result;
+    }
+
+    private Contribution contribute( final StoreKey member, final Metadata metadata )
+    {
+        final Contribution contribution = new Contribution( metadata, fingerprint( metadata ) );
+
+        if ( metadata.getPlugins() != null )
+        {
+            for ( final Plugin p : metadata.getPlugins() )
+            {
+                plugins.computeIfAbsent( p.getPrefix(), k -> new HashMap<>() ).put( member, p );
+                changedPlugins.add( p.getPrefix() );
+                contribution.plugins.add( p.getPrefix() );
+            }
+        }
+
+        final Versioning versioning = metadata.getVersioning();
+        if ( versioning == null )
+        {
+            return contribution;
+        }
+
+        if ( versioning.getVersions() != null )
+        {
+            for ( final String v : versioning.getVersions() )
+            {
+                versions.merge( v, 1, Integer::sum );
+                contribution.versions.add( v );
+            }
+        }
+
+        // like the full merge, snapshot versions only count for metadata that carries snapshot information
+        if ( versioning.getSnapshot() != null && versioning.getSnapshotVersions() != null )
+        {
+            for ( final SnapshotVersion sv : versioning.getSnapshotVersions() )
+            {
+                final String key = keyOf( sv );
+                snapshotVersions.computeIfAbsent( key, k -> new HashMap<>() ).put( member, sv );
+                changedSnapshotVersions.add( key );
+                contribution.snapshotVersions.add( key );
+            }
+        }
+
+        return contribution;
+    }
+
+    /**
+     * Take back what a member contributed, by the keys recorded when it did, so a metadata instance changed in place
+     * meanwhile can't unbalance the counts.
+     */
+    private void withdraw( final StoreKey member, final Contribution contribution )
+    {
+        contribution.versions.forEach( v -> versions.computeIfPresent( v, ( k, c ) -> c > 1 ? c - 1 : null ) );
+
+        contribution.snapshotVersions.forEach( key -> {
+            withdraw( snapshotVersions, key, member );
+            changedSnapshotVersions.add( key );
+        } );
+
+        contribution.plugins.forEach( key -> {
+            withdraw( plugins, key, member );
+            changedPlugins.add( key );
+        } );
+    }
+
+    private static <T> void withdraw( final Map<String, Map<StoreKey, T>> candidates, final String key,
+                                      final StoreKey member )
+    {
+        candidates.computeIfPresent( key, ( k, byMember ) -> {
+            byMember.remove( member );
+            return byMember.isEmpty() ? null : byMember;
+        } );
+    }
+
+    private void updateWinners( final List<StoreKey> memberOrder )
+    {
+        if ( !memberOrder.equals( winnerOrder ) )
+        {
+            winnerOrder = new ArrayList<>( memberOrder );
+            changedSnapshotVersions.addAll( snapshotVersionWinners.keySet() );
+            changedSnapshotVersions.addAll( snapshotVersions.keySet() );
+            changedPlugins.addAll( pluginWinners.keySet() );
+            changedPlugins.addAll( plugins.keySet() );
+        }
+
+        if ( changedSnapshotVersions.isEmpty() && changedPlugins.isEmpty() )
+        {
+            return;
+        }
+
+        final Map<StoreKey, Integer> positions = positions( memberOrder );
+
+        // the full merge keeps the later of two entries updated at the same time
+        final Comparator<Map.Entry<StoreKey, SnapshotVersion>> newer =
+                Comparator.comparing( ( Map.Entry<StoreKey, SnapshotVersion> e ) -> Objects.toString(
+                        e.getValue().getUpdated(), "" ) ).thenComparing( e -> positionOf( positions, e.getKey() ) );
+        changedSnapshotVersions.forEach( key -> updateWinner( snapshotVersions, snapshotVersionWinners, key, newer ) );
+        changedSnapshotVersions.clear();
+
+        // Metadata.merge() only adds plugins with a prefix not merged yet, so the first member wins
+        final Comparator<Map.Entry<StoreKey, Plugin>> first =
+                Comparator.comparing( ( Map.Entry<StoreKey, Plugin> e ) -> -positionOf( positions, e.getKey() ) );
+        changedPlugins.forEach( key -> updateWinner( plugins, pluginWinners, key, first ) );
+        changedPlugins.clear();
+    }
+
+    private static <T> void updateWinner( final Map<String, Map<StoreKey, T>> candidates, final Map<String, T> winners,
+                                          final String key, final Comparator<Map.Entry<StoreKey, T>> better )
+    {
+        final Map<StoreKey, T> byMember = candidates.get( key );
+        if ( byMember == null )
+        {
+            winners.remove( key );
+            return;
+        }
+
+        winners.put( key, Collections.max( byMember.entrySet(), better ).getValue() );
+    }
+
+    private StoreKey winnerOf( final Plugin plugin )
+    {
+        final Map<StoreKey, Plugin> byMember = plugins.get( plugin.getPrefix() );
+        if ( byMember != null )
+        {
+            for ( final Map.Entry<StoreKey, Plugin> e : byMember.entrySet() )
+            {
+                if ( e.getValue() == plugin )
+                {
+                    return e.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<StoreKey, Integer> positions( final List<StoreKey> memberOrder )
+    {
+        final Map<StoreKey, Integer> positions = new HashMap<>();
+        for ( int i = 0; i < memberOrder.size(); i++ )
+        {
+            positions.putIfAbsent( memberOrder.get( i ), i );
+        }
+        return positions;
+    }
+
+    // members not in the order rank after all the others
+    private static int positionOf( final Map<StoreKey, Integer> positions, final StoreKey member )
+    {
+        return positions.getOrDefault( member, Integer.MAX_VALUE );
+    }
+
+    private static String keyOf( final SnapshotVersion sv )
+    {
+        return sv.getVersion() + ":" + sv.getExtension() + ":" + sv.getClassifier();
+    }
+
+    /**
+     * Like Metadata.merge(): a member updated at the same time as the merged result overrides it, and so does one
+     * without a lastUpdated, which is taken as being as recent as the result.
+     */
+    private static boolean overrides( final String updated, final String current )
+    {
+        return current == null || updated == null || updated.compareTo( current ) >= 0;
+    }
+
+    private static String lastUpdated( final Metadata metadata )
+    {
+        final Versioning versioning = metadata.getVersioning();
+        if ( versioning == null || versioning.getLastUpdated() == null || versioning.getLastUpdated().isEmpty()
+                || "null".equals( versioning.getLastUpdated() ) )
+        {
+            return null;
+        }
+        return versioning.getLastUpdated();
+    }
+
+    /**
+     * 64-bit FNV-1a over every field the merge reads, so any change of a member's content shows, not just a new
+     * lastUpdated or a different number of entries.
+     */
+    private static long fingerprint( final Metadata metadata )
+    {
+        final Fingerprint f = new Fingerprint();
+        f.add( metadata.getGroupId() ).add( metadata.getArtifactId() ).add( metadata.getVersion() );
+
+        if ( metadata.getPlugins() != null )
+        {
+            metadata.getPlugins().forEach( p -> f.add( p.getPrefix() ).add( p.getArtifactId() ).add( p.getName() ) );
+        }
+
+        final Versioning versioning = metadata.getVersioning();
+        if ( versioning != null )
+        {
+            f.add( versioning.getLastUpdated() ).add( versioning.getLatest() ).add( versioning.getRelease() );
+
+            final Snapshot snapshot = versioning.getSnapshot();
+            if ( snapshot != null )
+            {
+                f.add( snapshot.getTimestamp() ).add( String.valueOf( snapshot.getBuildNumber() ) )
+                 .add( String.valueOf( snapshot.isLocalCopy() ) );
+            }
+
+            if ( versioning.getVersions() != null )
+            {
+                versioning.getVersions().forEach( f::add );
+            }
+
+            if ( versioning.getSnapshotVersions() != null )
+            {
+                versioning.getSnapshotVersions()
+                          .forEach( sv -> f.add( keyOf( sv ) ).add( sv.getVersion() ).add( sv.getUpdated() ) );
+            }
+        }
+        return f.hash;
+    }
+
+    private static Snapshot copy( final Snapshot snapshot )
+    {
+        final Snapshot result = new Snapshot();
+        result.setTimestamp( snapshot.getTimestamp() );
+        result.setBuildNumber( snapshot.getBuildNumber() );
+        result.setLocalCopy( snapshot.isLocalCopy() );
+        return result;
+    }
+
+    private static final class Contribution
+    {
+        private final Metadata metadata;
+
+        private final long fingerprint;
+
+        private final List<String> versions = new ArrayList<>();
+
+        private final List<String> snapshotVersions = new ArrayList<>();
+
+        private final List<String> plugins = new ArrayList<>();
+
+        Contribution( final Metadata metadata, final long fingerprint )
+        {
+            this.metadata = metadata;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static final class Fingerprint
+    {
+        private long hash = 0xcbf29ce484222325L;
+
+        Fingerprint add( final String value )
+        {
+            if ( value == null )
+            {
+                mix( 0xffff );
+            }
+            else
+            {
+                for ( int i = 0; i < value.length(); i++ )
+                {
+                    mix( value.charAt( i ) );
+                }
+            }
+            // separator, so that field boundaries count
+            mix( 0xfffe );
+            return this;
+        }
+
+        private void mix( final int c )
+        {
+            hash ^= c;
+            hash *= 0x100000001b3L;
+        }
+    }
+
+}
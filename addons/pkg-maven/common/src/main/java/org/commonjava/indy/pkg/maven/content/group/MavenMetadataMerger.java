@@ -26,11 +26,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.commonjava.atlas.maven.ident.util.SnapshotUtils.LOCAL_SNAPSHOT_VERSION_PART;
@@ -57,6 +63,22 @@ public class MavenMetadataMerger
         }
     }
 
+    public static final Comparator<SnapshotVersion> SNAPSHOT_VERSION_COMPARATOR = new SnapshotVersionComparator();
+
+    private static final int MAX_PARSED_VERSIONS = 50000;
+
+    private final Map<String, Optional<SingleVersion>> parsedVersions =
+            Collections.synchronizedMap( new LinkedHashMap<String, Optional<SingleVersion>>( 1024, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<String, Optional<SingleVersion>> eldest )
+                {
+                    return size() > MAX_PARSED_VERSIONS;
+                }
+            } );
+
     public static final String METADATA_NAME = "maven-metadata.xml";
 
     public static final String METADATA_SHA_NAME = METADATA_NAME + ".sha1";
@@ -91,31 +113,34 @@ public class MavenMetadataMerger
             master.setVersion( src.getVersion() );
         }
 
-        master.merge( src );
+        // Metadata.merge() looks up every source version in the master list; merge the versions through a set instead
+        // and let it handle the rest
+        master.merge( withoutVersionLists( src ) );
 
         Versioning versioning = master.getVersioning();
 
         Versioning srcVersioning = src.getVersioning();
 
+        if ( srcVersioning != null && !srcVersioning.getVersions().isEmpty() )
+        {
+            final Set<String> known = new HashSet<>( versioning.getVersions() );
+            srcVersioning.getVersions().stream().filter( known::add ).forEach( versioning::addVersion );
+        }
+
         if ( srcVersioning != null && srcVersioning.getSnapshot() != null )
         {
             logger.trace( "INCLUDING snapshot information from: {} in: {}:{}", src, group.getKey(), path );
             versioning.setSnapshot( srcVersioning.getSnapshot() );
 
-            final List<SnapshotVersion> snapshotVersions = versioning.getSnapshotVersions();
-            boolean added = false;
-            for ( final SnapshotVersion snap : srcVersioning.getSnapshotVersions() )
+            if ( !srcVersioning.getSnapshotVersions().isEmpty() )
             {
-                if ( !snapshotVersions.contains( snap ) )
-                {
-                    snapshotVersions.add( snap );
-                    added = true;
-                }
-            }
+                final Map<String, SnapshotVersion> snapshotVersions = new HashMap<>();
+                versioning.getSnapshotVersions().forEach( snap -> addSnapshotVersion( snapshotVersions, snap ) );
+                srcVersioning.getSnapshotVersions().forEach( snap -> addSnapshotVersion( snapshotVersions, snap ) );
 
-            if ( added )
-            {
-                snapshotVersions.sort( new SnapshotVersionComparator() );
+                final List<SnapshotVersion> sorted = new ArrayList<>( snapshotVersions.values() );
+                sorted.sort( SNAPSHOT_VERSION_COMPARATOR );
+                versioning.setSnapshotVersions( sorted );
             }
         }
         else
@@ -132,17 +157,12 @@ public class MavenMetadataMerger
         if ( versioning != null && versioning.getVersions() != null )
         {
 
-            List<SingleVersion> versionObjects =
-                    versioning.getVersions().stream().map( (v)->{
-                        try
-                        {
-                            return VersionUtils.createSingleVersion( v );
-                        }
-                        catch (InvalidVersionSpecificationException e )
-                        {
-                            return null;
-                        }
-                    } ).filter( Objects::nonNull ).collect( Collectors.toList() );
+            List<SingleVersion> versionObjects = versioning.getVersions()
+                                                           .stream()
+                                                           .map( this::parseVersion )
+                                                           .filter( Optional::isPresent )
+                                                           .map( Optional::get )
+                                                           .collect( Collectors.toList() );
 
             Collections.sort( versionObjects );
 
@@ -161,4 +181,61 @@ public class MavenMetadataMerger
         }
     }
 
+    /**
+     * Parsing is by far the most expensive part of sorting, and the same version strings come back with every merge of
+     * the same artifact, so parsed versions (and the strings that don't parse) are kept in a bounded LRU cache.
+     */
+    private Optional<SingleVersion> parseVersion( final String version )
+    {
+        Optional<SingleVersion> parsed = parsedVersions.get( version );
+        if ( parsed == null )
+        {
+            try
+            {
+                parsed = Optional.of( VersionUtils.createSingleVersion( version ) );
+            }
+            catch ( InvalidVersionSpecificationException e )
+            {
+                parsed = Optional.empty();
+            }
+            parsedVersions.put( version, parsed );
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Snapshot versions are identified by version, extension and classifier. When two members list the same one, the
+     * most recently updated entry is kept.
+     */
+    private static void addSnapshotVersion( final Map<String, SnapshotVersion> snapshotVersions,
+                                            final SnapshotVersion snap )
+    {
+        snapshotVersions.merge( snap.getVersion() + ":" + snap.getExtension() + ":" + snap.getClassifier(), snap,
+                                ( existing, added ) -> Objects.toString( added.getUpdated(), "" )
+                                                              .compareTo( Objects.toString( existing.getUpdated(),
+                                                                                            "" ) ) >= 0 ?
+                                        added :
+                                        existing );
+    }
+
+    private static Metadata withoutVersionLists( final Metadata src )
+    {
+        final Metadata result = new Metadata();
+        result.setPlugins( src.getPlugins() );
+
+        final Versioning srcVersioning = src.getVersioning();
+        if ( srcVersioning != null )
+        {
+            final Versioning versioning = new Versioning();
+            versioning.setLastUpdated( srcVersioning.getLastUpdated() );
+            versioning.setLatest( srcVersioning.getLatest() );
+            versioning.setRelease( srcVersioning.getRelease() );
+            versioning.setSnapshot( srcVersioning.getSnapshot() );
+            result.setVersioning( versioning );
+        }
+
+        return result;
+    }
+
 }
@@ -17,6 +17,10 @@ package org.commonjava.indy.pkg.maven.content;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.commonjava.indy.test.fixture.core.HttpTestFixture;
 import org.commonjava.maven.galley.config.TransportMetricConfig;
 import org.commonjava.maven.galley.event.EventMetadata;
@@ -122,6 +126,51 @@ public class MavenContentFilteringTransferDecoratorTest
         }
     }
 
+    @Test
+    public void metadataFilteringWhenReleasesNotAllowed() throws Exception
+    {
+        final String fname = "/commons-codec/commons-codec/maven-metadata.xml";
+
+        // @formatter:off
+        final String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<metadata modelVersion=\"1.1.0\">\n"
+            + "  <groupId>commons-codec</groupId>\n"
+            + "  <artifactId>commons-codec</artifactId>\n"
+            + "  <versioning>\n"
+            + "    <latest>1.2</latest>\n"
+            + "    <release>1.2</release>\n"
+            + "    <versions>\n"
+            + "      <version>1.1</version>\n"
+            + "      <version>1.1-SNAPSHOT</version>\n"
+            + "      <version>1.2-SNAPSHOT</version>\n"
+            + "      <version>1.2</version>\n"
+            + "    </versions>\n"
+            + "    <lastUpdated>20171020231327</lastUpdated>\n"
+            + "  </versioning>\n"
+            + "</metadata>\n";
+        // @formatter:on
+
+        final String baseUri = fixture.getBaseUri();
+        final SimpleHttpLocation location = new SimpleHttpLocation( "test", baseUri, true, false, true, true, null );
+        final Transfer transfer = fixture.getTransfer( new ConcreteResource( location, fname ) );
+
+        try (OutputStream stream = transfer.openOutputStream( TransferOperation.UPLOAD ))
+        {
+            IOUtils.write( content, stream );
+        }
+
+        try (InputStream in = transfer.openInputStream())
+        {
+            Metadata filtered = new MetadataXpp3Reader().read( in );
+            Versioning versioning = filtered.getVersioning();
+            assertThat( versioning.getVersions(), equalTo( Arrays.asList( "1.1-SNAPSHOT", "1.2-SNAPSHOT" ) ) );
+            assertThat( versioning.getLatest(), equalTo( "1.2-SNAPSHOT" ) );
+            assertThat( StringUtils.isEmpty( versioning.getRelease() ), equalTo( true ) );
+            assertThat( versioning.getLastUpdated(), equalTo( "20171020231327" ) );
+            assertThat( filtered.getGroupId(), equalTo( "commons-codec" ) );
+        }
+    }
+
     @Test
     public void snapshotNotExistsWhenSnapshotsNotAllowed()
             throws Exception
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.pkg.maven.content.group;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Plugin;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class GroupMetadataAggregateTest
+{
+    private final StoreKey first = new StoreKey( PKG_TYPE_MAVEN, StoreType.hosted, "first" );
+
+    private final StoreKey second = new StoreKey( PKG_TYPE_MAVEN, StoreType.remote, "second" );
+
+    private final List<StoreKey> order = Arrays.asList( first, second );
+
+    @Test
+    public void replaceOneMemberKeepsVersionsOfTheOthers()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        aggregate.update( first, metadata( "20200101000000", "1.0", "1.1" ) );
+        aggregate.update( second, metadata( "20200102000000", "1.1", "2.0" ) );
+
+        assertThat( aggregate.toMetadata( order ).getVersioning().getVersions(), hasItems( "1.0", "1.1", "2.0" ) );
+
+        // 1.1 is still contributed by the first member
+        aggregate.update( second, metadata( "20200103000000", "3.0" ) );
+
+        Metadata merged = aggregate.toMetadata( order );
+        List<String> versions = merged.getVersioning().getVersions();
+        assertThat( versions, hasItems( "1.0", "1.1", "3.0" ) );
+        assertThat( versions, not( hasItems( "2.0" ) ) );
+        assertThat( versions.size(), equalTo( 3 ) );
+        assertThat( merged.getVersioning().getLastUpdated(), equalTo( "20200103000000" ) );
+        assertThat( merged.getGroupId(), equalTo( "org.foo" ) );
+    }
+
+    @Test
+    public void removeMemberDropsItsVersions()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        aggregate.update( first, metadata( "20200101000000", "1.0" ) );
+        aggregate.update( second, metadata( "20200102000000", "1.0", "2.0" ) );
+
+        aggregate.remove( second );
+
+        assertThat( aggregate.toMetadata( order ).getVersioning().getVersions(), equalTo( Arrays.asList( "1.0" ) ) );
+        assertThat( aggregate.hasContribution( second ), equalTo( false ) );
+    }
+
+    @Test
+    public void contributionIsCurrentUntilMemberMetadataChanges()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        Metadata md = metadata( "20200101000000", "1.0" );
+        aggregate.update( first, md );
+
+        assertThat( aggregate.isCurrent( first, md ), equalTo( true ) );
+        assertThat( aggregate.isCurrent( first, metadata( "20200101000000", "1.0" ) ), equalTo( true ) );
+        assertThat( aggregate.isCurrent( first, metadata( "20200105000000", "1.0", "1.1" ) ), equalTo( false ) );
+        assertThat( aggregate.isCurrent( second, md ), equalTo( false ) );
+
+        // same lastUpdated and entry counts, different content
+        assertThat( aggregate.isCurrent( first, metadata( "20200101000000", "1.1" ) ), equalTo( false ) );
+
+        // changed in place after it was contributed
+        md.getVersioning().setLatest( "0.9" );
+        assertThat( aggregate.isCurrent( first, md ), equalTo( false ) );
+    }
+
+    @Test
+    public void updatedSnapshotVersionReplacesThePreviousOne()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        aggregate.update( first, snapshotMetadata( "20200101000000" ) );
+        aggregate.update( second, snapshotMetadata( "20200102000000" ) );
+
+        assertThat( snapshotUpdated( aggregate.toMetadata( order ) ), equalTo( "20200102000000" ) );
+
+        aggregate.update( first, snapshotMetadata( "20200103000000" ) );
+        assertThat( snapshotUpdated( aggregate.toMetadata( order ) ), equalTo( "20200103000000" ) );
+
+        // falls back to the one of the remaining member
+        aggregate.remove( first );
+        assertThat( snapshotUpdated( aggregate.toMetadata( order ) ), equalTo( "20200102000000" ) );
+    }
+
+    @Test
+    public void laterMemberWinsWhenUpdatedAtTheSameTime()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        aggregate.update( first, metadata( "20200101000000", "1.0" ) );
+        aggregate.update( second, metadata( "20200101000000", "2.0" ) );
+
+        // Metadata.merge() lets a source updated at the same time as the merged result override it
+        Versioning merged = aggregate.toMetadata( order ).getVersioning();
+        assertThat( merged.getLatest(), equalTo( "2.0" ) );
+        assertThat( merged.getRelease(), equalTo( "2.0" ) );
+
+        merged = aggregate.toMetadata( Arrays.asList( second, first ) ).getVersioning();
+        assertThat( merged.getLatest(), equalTo( "1.0" ) );
+        assertThat( merged.getRelease(), equalTo( "1.0" ) );
+        assertThat( merged.getLastUpdated(), equalTo( "20200101000000" ) );
+
+        // without a lastUpdated, a member counts as updated at the same time as the result
+        aggregate.update( second, metadata( null, "3.0" ) );
+        merged = aggregate.toMetadata( order ).getVersioning();
+        assertThat( merged.getLatest(), equalTo( "3.0" ) );
+        assertThat( merged.getLastUpdated(), equalTo( "20200101000000" ) );
+    }
+
+    @Test
+    public void laterSnapshotWinsWhenUpdatedAtTheSameTime()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        Metadata md = snapshotMetadata( "20200101000000" );
+        md.getVersioning().getSnapshot().setBuildNumber( 2 );
+        aggregate.update( first, md );
+        aggregate.update( second, snapshotMetadata( "20200101000000" ) );
+
+        assertThat( aggregate.toMetadata( order ).getVersioning().getSnapshot().getBuildNumber(), equalTo( 1 ) );
+        assertThat( aggregate.toMetadata( Arrays.asList( second, first ) ).getVersioning().getSnapshot().getBuildNumber(),
+                    equalTo( 2 ) );
+    }
+
+    @Test
+    public void pluginComesFromFirstMemberInOrder()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        aggregate.update( second, pluginMetadata( "Second Plugin" ) );
+        aggregate.update( first, pluginMetadata( "First Plugin" ) );
+
+        assertThat( aggregate.toMetadata( order ).getPlugins().get( 0 ).getName(), equalTo( "First Plugin" ) );
+
+        aggregate.update( first, pluginMetadata( "First Plugin, renamed" ) );
+        assertThat( aggregate.toMetadata( order ).getPlugins().get( 0 ).getName(),
+                    equalTo( "First Plugin, renamed" ) );
+
+        aggregate.remove( first );
+        Metadata merged = aggregate.toMetadata( order );
+        assertThat( merged.getPlugins().size(), equalTo( 1 ) );
+        assertThat( merged.getPlugins().get( 0 ).getName(), equalTo( "Second Plugin" ) );
+
+        aggregate.update( first, pluginMetadata( "First Plugin" ) );
+        assertThat( aggregate.toMetadata( Arrays.asList( second, first ) ).getPlugins().get( 0 ).getName(),
+                    equalTo( "Second Plugin" ) );
+    }
+
+    @Test
+    public void coordinatesComeFromLastMember()
+    {
+        GroupMetadataAggregate aggregate = new GroupMetadataAggregate();
+        Metadata md = metadata( "20200101000000", "1.0" );
+        md.setArtifactId( "other" );
+        aggregate.update( first, md );
+        aggregate.update( second, metadata( "20200101000000", "1.0" ) );
+
+        assertThat( aggregate.toMetadata( order ).getArtifactId(), equalTo( "bar" ) );
+        assertThat( aggregate.toMetadata( Arrays.asList( second, first ) ).getArtifactId(), equalTo( "other" ) );
+    }
+
+    private Metadata snapshotMetadata( final String lastUpdated )
+    {
+        Metadata md = metadata( lastUpdated, "1.0-SNAPSHOT" );
+        md.setVersion( "1.0-SNAPSHOT" );
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.setTimestamp( lastUpdated.substring( 0, 8 ) + "." + lastUpdated.substring( 8 ) );
+        snapshot.setBuildNumber( 1 );
+        md.getVersioning().setSnapshot( snapshot );
+
+        SnapshotVersion sv = new SnapshotVersion();
+        sv.setExtension( "jar" );
+        sv.setVersion( "1.0-20200101.000000-1" );
+        sv.setUpdated( lastUpdated );
+        md.getVersioning().addSnapshotVersion( sv );
+
+        return md;
+    }
+
+    private String snapshotUpdated( final Metadata merged )
+    {
+        List<SnapshotVersion> snapshotVersions = merged.getVersioning().getSnapshotVersions();
+        assertThat( snapshotVersions.size(), equalTo( 1 ) );
+        return snapshotVersions.get( 0 ).getUpdated();
+    }
+
+    private Metadata pluginMetadata( final String name )
+    {
+        Metadata md = new Metadata();
+        md.setGroupId( "org.foo" );
+
+        Plugin plugin = new Plugin();
+        plugin.setPrefix( "foo" );
+        plugin.setArtifactId( "foo-maven-plugin" );
+        plugin.setName( name );
+        md.addPlugin( plugin );
+
+        return md;
+    }
+
+    private Metadata metadata( final String lastUpdated, final String... versions )
+    {
+        Metadata md = new Metadata();
+        md.setGroupId( "org.foo" );
+        md.setArtifactId( "bar" );
+
+        Versioning versioning = new Versioning();
+        versioning.setLastUpdated( lastUpdated );
+        Arrays.stream( versions ).forEach( versioning::addVersion );
+        versioning.setLatest( versions[versions.length - 1] );
+        versioning.setRelease( versions[versions.length - 1] );
+        md.setVersioning( versioning );
+
+        return md;
+    }
+}
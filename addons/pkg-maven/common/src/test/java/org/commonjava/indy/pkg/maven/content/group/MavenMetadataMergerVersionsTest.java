@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.pkg.maven.content.group;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.commonjava.indy.model.core.Group;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MavenMetadataMergerVersionsTest
+{
+    private static final String PATH = "org/foo/bar/1.0-SNAPSHOT/maven-metadata.xml";
+
+    private final Group group = new Group( PKG_TYPE_MAVEN, "test" );
+
+    private final MavenMetadataMerger merger = new MavenMetadataMerger();
+
+    @Test
+    public void mergeVersionsWithoutDuplicatesAndSort()
+    {
+        Metadata master = new Metadata();
+        merger.merge( master, versions( "20200101000000", "1.0", "1.10", "2.0" ), group, PATH );
+        merger.merge( master, versions( "20200102000000", "1.2", "1.10" ), group, PATH );
+        merger.sortVersions( master );
+
+        Versioning versioning = master.getVersioning();
+        assertThat( versioning.getVersions(), equalTo( Arrays.asList( "1.0", "1.2", "1.10", "2.0" ) ) );
+        assertThat( versioning.getLatest(), equalTo( "2.0" ) );
+        assertThat( versioning.getRelease(), equalTo( "2.0" ) );
+        assertThat( versioning.getLastUpdated(), equalTo( "20200102000000" ) );
+    }
+
+    @Test
+    public void sameSnapshotVersionFromTwoMembersIsListedOnce()
+    {
+        Metadata master = new Metadata();
+        merger.merge( master, snapshots( "20200101.000000-1", "20200101000000", "jar", "pom" ), group, PATH );
+        merger.merge( master, snapshots( "20200101.000000-1", "20200101000000", "jar" ), group, PATH );
+        merger.merge( master, snapshots( "20200102.000000-2", "20200102000000", "jar" ), group, PATH );
+
+        List<String> merged = master.getVersioning()
+                                    .getSnapshotVersions()
+                                    .stream()
+                                    .map( sv -> sv.getVersion() + "." + sv.getExtension() )
+                                    .collect( Collectors.toList() );
+
+        assertThat( merged, equalTo( Arrays.asList( "1.0-20200101.000000-1.jar", "1.0-20200101.000000-1.pom",
+                                                    "1.0-20200102.000000-2.jar" ) ) );
+        assertThat( master.getVersioning().getSnapshot().getBuildNumber(), equalTo( 2 ) );
+    }
+
+    private Metadata versions( final String lastUpdated, final String... versions )
+    {
+        Metadata md = new Metadata();
+        md.setGroupId( "org.foo" );
+        md.setArtifactId( "bar" );
+
+        Versioning versioning = new Versioning();
+        versioning.setLastUpdated( lastUpdated );
+        Arrays.stream( versions ).forEach( versioning::addVersion );
+        md.setVersioning( versioning );
+
+        return md;
+    }
+
+    private Metadata snapshots( final String timestampAndBuild, final String updated, final String... extensions )
+    {
+        Metadata md = versions( updated );
+        md.setVersion( "1.0-SNAPSHOT" );
+
+        String[] parts = timestampAndBuild.split( "-" );
+        Snapshot snapshot = new Snapshot();
+        snapshot.setTimestamp( parts[0] );
+        snapshot.setBuildNumber( Integer.parseInt( parts[1] ) );
+        md.getVersioning().setSnapshot( snapshot );
+
+        for ( String ext : extensions )
+        {
+            SnapshotVersion sv = new SnapshotVersion();
+            sv.setVersion( "1.0-" + timestampAndBuild );
+            sv.setExtension( ext );
+            sv.setUpdated( updated );
+            md.getVersioning().addSnapshotVersion( sv );
+        }
+
+        return md;
+    }
+}
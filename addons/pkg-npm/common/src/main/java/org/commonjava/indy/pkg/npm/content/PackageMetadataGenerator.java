@@ -15,9 +15,15 @@
  */
 package org.commonjava.indy.pkg.npm.content;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.commonjava.cdi.util.weft.DrainingExecutorCompletionService;
+import org.commonjava.cdi.util.weft.ExecutorConfig;
+import org.commonjava.cdi.util.weft.WeftExecutorService;
+import org.commonjava.cdi.util.weft.WeftManaged;
+import org.commonjava.cdi.util.weft.exception.PoolOverloadException;
 import org.commonjava.indy.IndyWorkflowException;
 import org.commonjava.indy.content.DirectContentAccess;
 import org.commonjava.indy.content.DownloadManager;
@@ -49,14 +55,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.commonjava.cdi.util.weft.ExecutorConfig.BooleanLiteral.TRUE;
 import static org.commonjava.maven.galley.util.PathUtils.normalize;
 import static org.commonjava.maven.galley.util.PathUtils.parentPath;
 
@@ -79,6 +90,29 @@ public class PackageMetadataGenerator
     @Inject
     private DownloadManager downloadManager;
 
+    @Inject
+    @WeftManaged
+    @ExecutorConfig( named = "npm-metadata-generator", threads = 20, priority = 8, loadSensitive = TRUE,
+                     maxLoadFactor = 100 )
+    private WeftExecutorService versionMetadataService;
+
+    private static final int MAX_CACHED_VERSIONS = 20000;
+
+    // parsed version files by store and version path, see readVersionMetadata()
+    private final Map<String, CachedVersionMetadata> versionMetadataCache =
+            Collections.synchronizedMap( new LinkedHashMap<String, CachedVersionMetadata>( 256, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<String, CachedVersionMetadata> eldest )
+                {
+                    return size() > MAX_CACHED_VERSIONS;
+                }
+            } );
+
+    private final IndyObjectMapper mapper = new IndyObjectMapper( true );
+
     protected PackageMetadataGenerator()
     {
     }
@@ -99,6 +133,20 @@ public class PackageMetadataGenerator
         this.storagePathCalculator = storagePathCalculator;
     }
 
+    public PackageMetadataGenerator( final DirectContentAccess fileManager, final StoreDataManager storeManager,
+                                     final DownloadManager downloadManager,
+                                     final TypeMapper typeMapper, final PackageMetadataMerger merger,
+                                     final GroupMergeHelper mergeHelper, final NotFoundCache nfc,
+                                     final PathGenerator pathGenerator,
+                                     final NPMStoragePathCalculator storagePathCalculator,
+                                     final WeftExecutorService versionMetadataService,
+                                     final MergedContentAction... mergedContentActions )
+    {
+        this( fileManager, storeManager, downloadManager, typeMapper, merger, mergeHelper, nfc, pathGenerator,
+              storagePathCalculator, mergedContentActions );
+        this.versionMetadataService = versionMetadataService;
+    }
+
     @Override
     public Transfer generateGroupFileContent( Group group, List<ArtifactStore> members, String path,
                                               EventMetadata eventMetadata ) throws IndyWorkflowException
@@ -159,19 +207,21 @@ public class PackageMetadataGenerator
                 }
             }
 
-            final byte[] merged = merger.merge( sources, group, toMergePath );
-            if ( merged != null )
+            final boolean merged;
+            try
             {
-                try (OutputStream fos = target.openOutputStream( TransferOperation.GENERATE, true, eventMetadata ))
-                {
-                    fos.write( merged );
-                }
-                catch ( final IOException e )
-                {
-                    throw new IndyWorkflowException( "Failed to write merged metadata to: {}.\nError: {}", e, target,
-                                                     e.getMessage() );
-                }
+                merged = merger.merge( sources, group, toMergePath,
+                                       () -> target.openOutputStream( TransferOperation.GENERATE, true,
+                                                                      eventMetadata ) );
+            }
+            catch ( final IOException e )
+            {
+                throw new IndyWorkflowException( "Failed to write merged metadata to: {}.\nError: {}", e, target,
+                                                 e.getMessage() );
+            }
 
+            if ( merged )
+            {
                 helper.writeMergeInfo( helper.generateMergeInfo( sources ), group, toMergePath );
             }
         }
@@ -246,7 +296,6 @@ public class PackageMetadataGenerator
         final Transfer metadataFile = fileManager.getTransfer( store, path );
 
         final PackageMetadata packageMetadata = new PackageMetadata();
-        final IndyObjectMapper mapper = new IndyObjectMapper( true );
         List<String> keywords = new ArrayList<>(  );
 
         DistTag distTags = new DistTag();
@@ -254,73 +303,43 @@ public class PackageMetadataGenerator
 
         PackagePath latest = packagePaths.get( packagePaths.size() - 1 );
 
+        final Map<PackagePath, VersionMetadata> versionMetadatas =
+                readVersionMetadata( store, packagePaths, eventMetadata );
+
         for ( PackagePath packagePath : packagePaths )
         {
-            String versionPath = packagePath.getVersionPath();
-            logger.debug( "Retrieving the version file {} from store {}", versionPath, store );
-            Transfer metaFile = fileManager.retrieveRaw( store, versionPath, eventMetadata );
-            if ( metaFile == null )
+            VersionMetadata versionMetadata = versionMetadatas.get( packagePath );
+            if ( versionMetadata == null )
             {
-                // The metadata file (@scoped/)package/version for the specific version is missing, still need to extract it from tarball
-                String tarPath = packagePath.getTarPath();
-                Transfer tar = fileManager.retrieveRaw( store, tarPath, eventMetadata );
-                if ( tar == null )
-                {
-                    logger.warn( "Tarball file {} is missing in the store {}.", tarPath, store.getKey() );
-                    continue;
-                }
-                logger.info( "Extracting package metadata package.json from tarball {} and store it in {}/{}", tarPath, store.getKey(), versionPath );
-                metaFile = extractMetaFileFromTarballAndStore( store, versionPath, tar );
-
-                if ( metaFile == null )
-                {
-                    logger.warn( "Package metadata is missing in tarball {}/{}.", store.getKey(), tarPath );
-                    continue;
-                }
-
+                continue;
             }
 
-            try ( InputStream input = metaFile.openInputStream() )
-            {
-                VersionMetadata versionMetadata = mapper.readValue( input, VersionMetadata.class );
-
-                if ( versionMetadata == null )
-                {
-                    continue;
-                }
-
-                versions.put( versionMetadata.getVersion(), versionMetadata );
+            versions.put( versionMetadata.getVersion(), versionMetadata );
 
-                if ( versionMetadata.getKeywords() != null )
+            if ( versionMetadata.getKeywords() != null )
+            {
+                for ( String keyword : versionMetadata.getKeywords() )
                 {
-                    for ( String keyword : versionMetadata.getKeywords() )
+                    if ( !keywords.contains( keyword ) )
                     {
-                        if ( !keywords.contains( keyword ) )
-                        {
-                            keywords.add( keyword );
-                        }
+                        keywords.add( keyword );
                     }
                 }
+            }
 
-                // Set couple of attributes based on the latest version metadata
-                if ( packagePath.getVersion().equals( latest.getVersion() ) )
+            // Set couple of attributes based on the latest version metadata
+            if ( packagePath.getVersion().equals( latest.getVersion() ) )
+            {
+                packageMetadata.setName( versionMetadata.getName() );
+                packageMetadata.setDescription( versionMetadata.getDescription() );
+                packageMetadata.setAuthor( versionMetadata.getAuthor() );
+                if ( versionMetadata.getLicense() != null )
                 {
-                    packageMetadata.setName( versionMetadata.getName() );
-                    packageMetadata.setDescription( versionMetadata.getDescription() );
-                    packageMetadata.setAuthor( versionMetadata.getAuthor() );
-                    if ( versionMetadata.getLicense() != null )
-                    {
-                        packageMetadata.setLicense( versionMetadata.getLicense() );
-                    }
-                    packageMetadata.setRepository( versionMetadata.getRepository() );
-                    packageMetadata.setBugs( versionMetadata.getBugs() );
-                    distTags.setLatest( versionMetadata.getVersion() );
+                    packageMetadata.setLicense( versionMetadata.getLicense() );
                 }
-            }
-            catch ( IOException e )
-            {
-                logger.error( "Get the version metadata error from path {}", versionPath, e );
-                throw new IndyWorkflowException( "Get the version metadata error from path {}", versionPath );
+                packageMetadata.setRepository( versionMetadata.getRepository() );
+                packageMetadata.setBugs( versionMetadata.getBugs() );
+                distTags.setLatest( versionMetadata.getVersion() );
             }
         }
 
@@ -353,6 +372,173 @@ public class PackageMetadataGenerator
         return true;
     }
 
+    /**
+     * Read the metadata of all package versions, fanning the reads (and tarball extractions for versions without a
+     * metadata file) out on the generator executor, or reading on the calling thread when the executor is overloaded.
+     * Parsed version files are cached per store and version path; a version whose stored file still has the cached
+     * time stamp is neither retrieved nor parsed again, so regenerating after a single upload only reads the new
+     * version.
+     */
+    private Map<PackagePath, VersionMetadata> readVersionMetadata( final ArtifactStore store,
+                                                                   final List<PackagePath> packagePaths,
+                                                                   final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
+        final Map<PackagePath, VersionMetadata> result = new HashMap<>();
+        if ( versionMetadataService == null )
+        {
+            for ( PackagePath packagePath : packagePaths )
+            {
+                VersionMetadata versionMetadata = readVersionMetadata( store, packagePath, eventMetadata );
+                if ( versionMetadata != null )
+                {
+                    result.put( packagePath, versionMetadata );
+                }
+            }
+            return result;
+        }
+
+        final DrainingExecutorCompletionService<Map.Entry<PackagePath, VersionMetadata>> svc =
+                new DrainingExecutorCompletionService<>( versionMetadataService );
+
+        // EventMetadata is not safe to share between threads, each read gets its own copy
+        for ( PackagePath packagePath : packagePaths )
+        {
+            try
+            {
+                svc.submit( () -> new AbstractMap.SimpleEntry<>(
+                        packagePath, readVersionMetadata( store, packagePath, new EventMetadata( eventMetadata ) ) ) );
+            }
+            catch ( PoolOverloadException e )
+            {
+                // read it here rather than failing the whole package.json under load
+                logger.debug( "Version metadata executor overloaded, reading {} inline", packagePath.getVersionPath() );
+                VersionMetadata versionMetadata =
+                        readVersionMetadata( store, packagePath, new EventMetadata( eventMetadata ) );
+                if ( versionMetadata != null )
+                {
+                    result.put( packagePath, versionMetadata );
+                }
+            }
+        }
+
+        try
+        {
+            svc.drain( entry -> {
+                if ( entry != null && entry.getValue() != null )
+                {
+                    result.put( entry.getKey(), entry.getValue() );
+                }
+            } );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IndyWorkflowException( "Interrupted while reading version metadata of {}", store.getKey() );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IndyWorkflowException )
+            {
+                throw (IndyWorkflowException) e.getCause();
+            }
+            throw new IndyWorkflowException( "Failed to read version metadata of {}", e, store.getKey() );
+        }
+
+        return result;
+    }
+
+    private VersionMetadata readVersionMetadata( final ArtifactStore store, final PackagePath packagePath,
+                                                 final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
+        String versionPath = packagePath.getVersionPath();
+        final String cacheKey = store.getKey() + ":" + versionPath;
+        final CachedVersionMetadata cached = versionMetadataCache.get( cacheKey );
+        if ( cached != null )
+        {
+            // only a local check, an unchanged version file isn't retrieved again
+            Transfer local = fileManager.getTransfer( store, versionPath );
+            if ( local != null && local.exists() && local.lastModified() == cached.lastModified )
+            {
+                return toVersionMetadata( cached.tree, versionPath );
+            }
+        }
+
+        logger.debug( "Retrieving the version file {} from store {}", versionPath, store );
+        Transfer metaFile = fileManager.retrieveRaw( store, versionPath, eventMetadata );
+        if ( metaFile == null )
+        {
+            // The metadata file (@scoped/)package/version for the specific version is missing, still need to extract it from tarball
+            String tarPath = packagePath.getTarPath();
+            Transfer tar = fileManager.retrieveRaw( store, tarPath, eventMetadata );
+            if ( tar == null )
+            {
+                logger.warn( "Tarball file {} is missing in the store {}.", tarPath, store.getKey() );
+                return null;
+            }
+            logger.info( "Extracting package metadata package.json from tarball {} and store it in {}/{}", tarPath, store.getKey(), versionPath );
+            metaFile = extractMetaFileFromTarballAndStore( store, versionPath, tar );
+
+            if ( metaFile == null )
+            {
+                logger.warn( "Package metadata is missing in tarball {}/{}.", store.getKey(), tarPath );
+                return null;
+            }
+        }
+
+        final long lastModified = metaFile.lastModified();
+        final JsonNode tree;
+        try ( InputStream input = metaFile.openInputStream() )
+        {
+            tree = mapper.readTree( input );
+        }
+        catch ( IOException e )
+        {
+            logger.error( "Get the version metadata error from path {}", versionPath, e );
+            throw new IndyWorkflowException( "Get the version metadata error from path {}", versionPath );
+        }
+
+        if ( tree == null || tree.isMissingNode() || tree.isNull() )
+        {
+            return null;
+        }
+
+        versionMetadataCache.put( cacheKey, new CachedVersionMetadata( tree, lastModified ) );
+        return toVersionMetadata( tree, versionPath );
+    }
+
+    /**
+     * Bind a new {@link VersionMetadata} from the cached tree, so nothing that uses it can change what is cached.
+     */
+    private VersionMetadata toVersionMetadata( final JsonNode tree, final String versionPath )
+            throws IndyWorkflowException
+    {
+        try
+        {
+            return mapper.treeToValue( tree, VersionMetadata.class );
+        }
+        catch ( IOException e )
+        {
+            logger.error( "Get the version metadata error from path {}", versionPath, e );
+            throw new IndyWorkflowException( "Get the version metadata error from path {}", versionPath );
+        }
+    }
+
+    private static final class CachedVersionMetadata
+    {
+        // never handed out, callers get their own instance from toVersionMetadata()
+        private final JsonNode tree;
+
+        private final long lastModified;
+
+        CachedVersionMetadata( final JsonNode tree, final long lastModified )
+        {
+            this.tree = tree;
+            this.lastModified = lastModified;
+        }
+    }
+
     private Map<String, VersionMetadata> sortVersions( Map<String, VersionMetadata> versions )
     {
         final Map<String, VersionMetadata> sorted = new LinkedHashMap<>( versions.size() );
@@ -15,13 +15,21 @@
  */
 package org.commonjava.indy.pkg.npm.content.group;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.io.IOUtils;
 import org.commonjava.indy.IndyWorkflowException;
 import org.commonjava.indy.model.core.Group;
 import org.commonjava.indy.model.core.StoreKey;
 import org.commonjava.indy.model.core.io.IndyObjectMapper;
 import org.commonjava.indy.pkg.npm.model.PackageMetadata;
+import org.commonjava.indy.pkg.npm.model.VersionMetadata;
 import org.commonjava.indy.pkg.npm.model.io.PackageSerializerModule;
 import org.commonjava.maven.galley.model.Transfer;
 import org.slf4j.Logger;
@@ -31,11 +39,21 @@ import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.commonjava.indy.util.LocationUtils.getKey;
@@ -45,6 +63,8 @@ public class PackageMetadataMerger
 {
     public static final String METADATA_NAME = "package.json";
 
+    private static final String VERSIONS = "versions";
+
     @Inject
     private Instance<PackageMetadataProvider> metadataProviderInstances;
 
@@ -80,46 +100,243 @@ public class PackageMetadataMerger
         mapper.registerModule( packageSerializerModule );
     }
 
+    /**
+     * Opens the output of a streaming merge. It's only called once the merge succeeded and merged something, so the
+     * target is never left empty or half-written.
+     */
+    @FunctionalInterface
+    public interface MergeTarget
+    {
+        OutputStream open()
+                throws IOException;
+    }
+
     public byte[] merge( final Collection<Transfer> sources, final Group group, final String path )
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try
+        {
+            if ( merge( sources, group, path, () -> baos ) )
+            {
+                return baos.toByteArray();
+            }
+        }
+        catch ( IOException e )
+        {
+            Logger logger = LoggerFactory.getLogger( getClass() );
+            logger.error( String.format( "Cannot write merged metadata: %s of group: %s. Reason: %s", path,
+                                         group.getKey(), e.getMessage() ), e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Merge the package metadata of the sources (and metadata providers) straight into the target, one member at a time.
+     * Version entries are copied through one by one, keeping the first one seen for each version as a group merge does,
+     * so only a single version entry is bound at a time. Everything else in a package.json is small, and is merged
+     * with {@link PackageMetadata#merge(PackageMetadata, boolean)} to keep the dist-tags, time, etc. merge rules.
+     * <p>
+     * The merge is written to a temporary file first, and only copied to the target when it completed. A source that
+     * turns out to be broken part way through only stops contributing; what was written up to then stays valid, since
+     * each version entry is read completely before it is written.
+     *
+     * @return whether anything was merged; the target isn't opened otherwise
+     */
+    public boolean merge( final Collection<Transfer> sources, final Group group, final String path,
+                          final MergeTarget target )
+            throws IOException
     {
         Logger logger = LoggerFactory.getLogger( getClass() );
         logger.debug( "Generating merged metadata in: {}:{}", group.getKey(), path );
 
-        InputStream stream = null;
+        final List<Transfer> readable = new ArrayList<>();
+        for ( final Transfer src : sources )
+        {
+            if ( src.exists() )
+            {
+                readable.add( src );
+            }
+        }
 
-        boolean merged = false;
+        final List<PackageMetadata> provided = getProvidedMetadata( group, path );
+        if ( readable.isEmpty() && provided.isEmpty() )
+        {
+            return false;
+        }
+
+        final File buffer = File.createTempFile( "package-metadata-merge", ".json" );
+        try
+        {
+            final boolean merged;
+            try (OutputStream out = new BufferedOutputStream( new FileOutputStream( buffer ) ))
+            {
+                merged = merge( readable, provided, out );
+            }
+
+            if ( merged )
+            {
+                try (OutputStream out = target.open())
+                {
+                    Files.copy( buffer.toPath(), out );
+                }
+            }
+
+            return merged;
+        }
+        finally
+        {
+            if ( !buffer.delete() )
+            {
+                buffer.deleteOnExit();
+            }
+        }
+    }
+
+    private boolean merge( final List<Transfer> readable, final List<PackageMetadata> provided,
+                           final OutputStream out )
+            throws IOException
+    {
+        Logger logger = LoggerFactory.getLogger( getClass() );
 
         final PackageMetadata packageMetadata = new PackageMetadata();
+        final Set<String> seenVersions = new HashSet<>();
+        final ObjectWriter writer = mapper.writer().without( SerializationFeature.FLUSH_AFTER_WRITE_VALUE );
 
-        for ( final Transfer src : sources )
+        boolean merged = false;
+        try (JsonGenerator generator = mapper.getFactory().createGenerator( out ))
         {
-            if ( !src.exists() )
+            // the output is closed by the caller
+            generator.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+            if ( mapper.isEnabled( SerializationFeature.INDENT_OUTPUT ) )
             {
-                continue;
+                generator.useDefaultPrettyPrinter();
             }
 
-            try
+            generator.writeStartObject();
+            generator.writeFieldName( VERSIONS );
+            generator.writeStartObject();
+
+            for ( final Transfer src : readable )
             {
-                stream = src.openInputStream();
-                String content = IOUtils.toString( stream );
-                logger.debug( "Adding in metadata content from: {}\n\n{}\n\n", src, content );
+                try (InputStream stream = src.openInputStream(); JsonParser parser = mapper.getFactory()
+                                                                                            .createParser( stream ))
+                {
+                    logger.debug( "Adding in metadata content from: {}", src );
+                    merged = mergeSource( parser, packageMetadata, seenVersions, generator, writer ) || merged;
+                }
+                catch ( final IOException e )
+                {
+                    final StoreKey key = getKey( src );
+                    logger.error( String.format( "Cannot read metadata: %s from artifact-store: %s. Reason: %s",
+                                                 src.getPath(), key, e.getMessage() ), e );
+                }
+            }
 
-                PackageMetadata md = mapper.readValue( content, PackageMetadata.class );
+            for ( final PackageMetadata toMerge : provided )
+            {
+                for ( final Map.Entry<String, VersionMetadata> version : toMerge.getVersions().entrySet() )
+                {
+                    if ( seenVersions.add( version.getKey() ) )
+                    {
+                        generator.writeFieldName( version.getKey() );
+                        writer.writeValue( generator, version.getValue() );
+                    }
+                }
+                merged = packageMetadata.merge( toMerge, true ) || merged;
+            }
 
-                merged = packageMetadata.merge( md, true ) || merged;
+            generator.writeEndObject();
+
+            // versions are already written, the rest of the merged package.json follows them
+            final ObjectNode rest = mapper.valueToTree( packageMetadata );
+            rest.remove( VERSIONS );
+            final Iterator<Map.Entry<String, JsonNode>> fields = rest.fields();
+            while ( fields.hasNext() )
+            {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName( field.getKey() );
+                writer.writeValue( generator, field.getValue() );
             }
-            catch ( final IOException e )
+
+            generator.writeEndObject();
+        }
+
+        return merged || !seenVersions.isEmpty();
+    }
+
+    private boolean mergeSource( final JsonParser parser, final PackageMetadata packageMetadata,
+                                 final Set<String> seenVersions, final JsonGenerator generator,
+                                 final ObjectWriter writer )
+            throws IOException
+    {
+        if ( parser.nextToken() != JsonToken.START_OBJECT )
+        {
+            return false;
+        }
+
+        boolean merged = false;
+        final ObjectNode rest = mapper.createObjectNode();
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ( VERSIONS.equals( field ) && value == JsonToken.START_OBJECT )
             {
-                final StoreKey key = getKey( src );
-                logger.error( String.format( "Cannot read metadata: %s from artifact-store: %s. Reason: %s",
-                                             src.getPath(), key, e.getMessage() ), e );
+                merged = copyVersions( parser, seenVersions, generator, writer ) || merged;
             }
-            finally
+            else
             {
-                closeQuietly( stream );
+                rest.set( field, mapper.readTree( parser ) );
+            }
+        }
+
+        final PackageMetadata md = mapper.treeToValue( rest, PackageMetadata.class );
+        return packageMetadata.merge( md, true ) || merged;
+    }
+
+    private boolean copyVersions( final JsonParser parser, final Set<String> seenVersions,
+                                  final JsonGenerator generator, final ObjectWriter writer )
+            throws IOException
+    {
+        boolean copied = false;
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            final String version = parser.getCurrentName();
+            parser.nextToken();
+
+            // for group merging, versions only accepts the first one coming to the group
+            if ( seenVersions.contains( version ) )
+            {
+                parser.skipChildren();
+                continue;
             }
+
+            final VersionMetadata vm;
+            try
+            {
+                vm = mapper.readValue( parser, VersionMetadata.class );
+            }
+            catch ( JsonProcessingException e )
+            {
+                // the entry has been read completely at this point, so the next ones can still be merged
+                Logger logger = LoggerFactory.getLogger( getClass() );
+                logger.warn( "Skipping version {} from package metadata: {}", version, e.getMessage() );
+                continue;
+            }
+
+            seenVersions.add( version );
+            generator.writeFieldName( version );
+            writer.writeValue( generator, vm );
+            copied = true;
         }
 
+        return copied;
+    }
+
+    private List<PackageMetadata> getProvidedMetadata( final Group group, final String path )
+    {
+        final List<PackageMetadata> provided = new ArrayList<>();
         if ( metadataProviders != null )
         {
             for ( PackageMetadataProvider provider : metadataProviders )
@@ -129,36 +346,21 @@ public class PackageMetadataMerger
                     PackageMetadata toMerge = provider.getMetadata( group.getKey(), path );
                     if ( toMerge != null )
                     {
-                        merged = packageMetadata.merge( toMerge, true ) || merged;
+                        provided.add( toMerge );
                     }
                 }
                 catch ( IndyWorkflowException e )
                 {
+                    Logger logger = LoggerFactory.getLogger( getClass() );
                     logger.error( String.format( "Cannot read metadata: %s from metadata provider: %s. Reason: %s",
                                                  path, provider.getClass().getSimpleName(), e.getMessage() ), e );
                 }
             }
         }
 
-        if ( merged )
-        {
-
-            String output = null;
-            try
-            {
-                output = mapper.writeValueAsString( packageMetadata );
-            }
-            catch ( JsonProcessingException e )
-            {
-                logger.error( String.format( "Cannot convert from metadata: %s to String. Reason: %s", packageMetadata,
-                                             e.getMessage() ), e );
-            }
-            return output.getBytes();
-        }
-
-        return null;
+        return provided;
     }
-    
+
     public InputStream merge( final Transfer... sources )
     {
         Logger logger = LoggerFactory.getLogger( getClass() );
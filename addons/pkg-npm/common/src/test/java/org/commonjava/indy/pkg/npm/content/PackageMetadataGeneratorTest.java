@@ -110,10 +110,40 @@ public class PackageMetadataGeneratorTest
         generator = new PackageMetadataGenerator( contentAccess, stores, downloads, types, merger, helper,
                                                   new MemoryNotFoundCache(), new IndyPathGenerator(
                         Collections.singleton( new NPMStoragePathCalculator( specialPathManager ) ) ),
-                                                  new NPMStoragePathCalculator( specialPathManager ) );
+                                                  new NPMStoragePathCalculator( specialPathManager ),
+                                                  new PoolWeftExecutorService( "test-npm-metadata-generator",
+                                                                               (ThreadPoolExecutor) Executors.newCachedThreadPool(),
+                                                                               2, 10f, false, null, null ) );
 
     }
 
+    @Test
+    public void regenerateMetadataAfterNewVersionUpload() throws Exception
+    {
+        ChangeSummary summary = new ChangeSummary( "test","Init NPM hosted repo." );
+        final HostedRepository hostedRepository = new HostedRepository( NPM_PKG_KEY, "npm-builds" );
+        initStore(hostedRepository, summary);
+
+        final KeyedLocation location = LocationUtils.toLocation( hostedRepository );
+
+        storeFile( location, "jquery/-/jquery-9.0.5.tgz", "tarball/version-1.tgz");
+        storeFile( location, "jquery/9.0.5", "metadata/version-1.json" );
+
+        final String jqueryMetadataPath = "jquery/package.json";
+
+        Transfer metadataFile = generator.generateFileContent( hostedRepository, jqueryMetadataPath, new EventMetadata(  ) );
+        assertNotNull(metadataFile);
+
+        // 9.0.5 comes from the version metadata cache this time
+        storeFile( location, "jquery/-/jquery-9.0.6.tgz", "tarball/version-2.tgz");
+        storeFile( location, "jquery/9.0.6", "metadata/version-2.json" );
+
+        metadataFile = generator.generateFileContent( hostedRepository, jqueryMetadataPath, new EventMetadata(  ) );
+        assertNotNull(metadataFile);
+
+        verifyMetadata( metadataFile );
+    }
+
     @Test
     public void generateMetadataWhenMissing() throws Exception
     {
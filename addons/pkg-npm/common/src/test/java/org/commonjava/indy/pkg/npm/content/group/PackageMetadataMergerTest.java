@@ -47,6 +47,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -55,6 +56,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.commonjava.indy.pkg.npm.model.NPMPackageTypeDescriptor.NPM_PKG_KEY;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -395,6 +397,67 @@ public class PackageMetadataMergerTest
         assertThat( versions.get( "1.5.1" ).getVersion(), equalTo( "1.5.1" ) );
     }
 
+    @Test
+    public void streamMergeDoesNotOpenTargetWhenNothingToMerge() throws Exception
+    {
+        String path = "jquery";
+        HostedRepository h1 = new HostedRepository( NPM_PKG_KEY, "test-hosted-1" );
+        HostedRepository h2 = new HostedRepository( NPM_PKG_KEY, "test-hosted-2" );
+
+        Transfer t1 = cacheProvider.getTransfer( new ConcreteResource( LocationUtils.toLocation( h1 ), path ) );
+        Transfer t2 = cacheProvider.getTransfer( new ConcreteResource( LocationUtils.toLocation( h2 ), path ) );
+        initTestData( t2, VERSION_META + "invalid.json" );
+
+        Group g = new Group( NPM_PKG_KEY, "test-group", h1.getKey(), h2.getKey() );
+
+        boolean merged = new PackageMetadataMerger( Collections.emptyList(), mapper ).merge(
+                Arrays.asList( t1, t2 ), g, path, () -> {
+                    fail( "Target should not be opened" );
+                    return null;
+                } );
+
+        assertThat( merged, equalTo( false ) );
+    }
+
+    @Test
+    public void streamMergeKeepsOutputValidWhenSourceBreaksHalfway() throws Exception
+    {
+        String path = "jquery";
+        HostedRepository h1 = new HostedRepository( NPM_PKG_KEY, "test-hosted-1" );
+        HostedRepository h2 = new HostedRepository( NPM_PKG_KEY, "test-hosted-2" );
+
+        Transfer t1 = cacheProvider.getTransfer( new ConcreteResource( LocationUtils.toLocation( h1 ), path ) );
+        initTestData( t1, VERSION_META + "package-1.json" );
+
+        Transfer t2 = cacheProvider.getTransfer( new ConcreteResource( LocationUtils.toLocation( h2 ), path ) );
+        try (OutputStream out = t2.openOutputStream( TransferOperation.DOWNLOAD, false ))
+        {
+            // cut off in the middle of the second version entry
+            out.write( ( "{\"name\":\"jquery\",\"versions\":{"
+                    + "\"9.9.9\":{\"name\":\"jquery\",\"version\":\"9.9.9\"},"
+                    + "\"9.9.10\":{\"na" ).getBytes() );
+        }
+
+        Group g = new Group( NPM_PKG_KEY, "test-group", h1.getKey(), h2.getKey() );
+
+        AtomicInteger opened = new AtomicInteger();
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        boolean result = new PackageMetadataMerger( Collections.emptyList(), mapper ).merge(
+                Arrays.asList( t1, t2 ), g, path, () -> {
+                    opened.incrementAndGet();
+                    return target;
+                } );
+
+        assertThat( result, equalTo( true ) );
+        assertThat( opened.get(), equalTo( 1 ) );
+
+        PackageMetadata merged = mapper.readValue( target.toByteArray(), PackageMetadata.class );
+        assertThat( merged.getName(), equalTo( "jquery" ) );
+        assertThat( merged.getVersions().get( "1.5.1" ).getVersion(), equalTo( "1.5.1" ) );
+        assertThat( merged.getVersions().get( "9.9.9" ).getVersion(), equalTo( "9.9.9" ) );
+        assertThat( merged.getVersions().containsKey( "9.9.10" ), equalTo( false ) );
+    }
+
     private void initTestData( Transfer transfer, String resourcePath ) throws IOException
     {
         try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream( resourcePath );
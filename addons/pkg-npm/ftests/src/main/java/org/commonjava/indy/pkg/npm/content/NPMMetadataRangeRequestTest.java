@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.pkg.npm.content;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.commonjava.indy.client.core.IndyClientHttp;
+import org.commonjava.indy.client.core.IndyClientModule;
+import org.commonjava.indy.client.core.module.IndyRawHttpModule;
+import org.commonjava.indy.client.core.util.UrlUtils;
+import org.commonjava.indy.ftest.core.AbstractContentManagementTest;
+import org.commonjava.indy.model.core.RemoteRepository;
+import org.commonjava.indy.model.core.StoreKey;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.commonjava.indy.pkg.npm.model.NPMPackageTypeDescriptor.NPM_PKG_KEY;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * This case tests that range requests on decorated package.json metadata get the whole decorated content.
+ * when: <br />
+ * <ul>
+ *      <li>creates remote repo A and expect metadata file in it</li>
+ *      <li>retrieve the metadata file from A with a Range header</li>
+ * </ul>
+ * then: <br />
+ * <ul>
+ *     <li>the whole metadata content is returned with status 200, with the tarball urls decorated</li>
+ *     <li>neither an ETag nor Accept-Ranges is sent, since both would describe the stored file</li>
+ * </ul>
+ */
+public class NPMMetadataRangeRequestTest
+                extends AbstractContentManagementTest
+{
+    @Test
+    public void test() throws Exception
+    {
+        final String packageContent = IOUtils.toString(
+                        Thread.currentThread().getContextClassLoader().getResourceAsStream( "package-1.5.1.json" ) );
+
+        final String packagePath = "jquery";
+
+        final String tarballUrl = "https://registry.npmjs.org/jquery/-/jquery-1.5.1.tgz";
+
+        server.expect( server.formatUrl( STORE, packagePath ), 200,
+                       new ByteArrayInputStream( packageContent.getBytes() ) );
+
+        final RemoteRepository remoteRepository = new RemoteRepository( NPM_PKG_KEY, STORE, server.formatUrl( STORE ) );
+        client.stores().create( remoteRepository, "adding npm remote repo", RemoteRepository.class );
+
+        final StoreKey storeKey = remoteRepository.getKey();
+        final String contextUrl =
+                        UrlUtils.buildUrl( fixture.getUrl(), "content", NPM_PKG_KEY, storeKey.getType().name(), STORE );
+        final String decoratedContent =
+                        packageContent.replaceAll( tarballUrl, contextUrl + "/jquery/-/jquery-1.5.1.tgz" );
+
+        final IndyClientHttp http = client.module( IndyRawHttpModule.class ).getHttp();
+        final HttpGet request = http.newRawGet( client.content().contentUrl( storeKey, packagePath ) );
+        request.addHeader( "Range", "bytes=0-99" );
+
+        final CloseableHttpClient hc = http.newClient();
+        try (CloseableHttpResponse response = hc.execute( request ))
+        {
+            assertThat( response.getStatusLine().getStatusCode(), equalTo( 200 ) );
+            assertThat( response.getFirstHeader( "ETag" ), nullValue() );
+            assertThat( response.getFirstHeader( "Accept-Ranges" ), nullValue() );
+            assertThat( IOUtils.toString( response.getEntity().getContent() ), equalTo( decoratedContent ) );
+        }
+    }
+
+    @Override
+    protected Collection<IndyClientModule> getAdditionalClientModules()
+    {
+        return Collections.<IndyClientModule> singleton( new IndyRawHttpModule() );
+    }
+
+    @Override
+    protected boolean createStandardTestStructures()
+    {
+        return false;
+    }
+}
@@ -21,48 +21,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
-import static java.util.Collections.disjoint;
-
+/**
+ * Keeps concurrent promotions to the same target from working on the same paths. Each path in flight is claimed in a
+ * table keyed by target and path; a request claims all of its paths or none of them, so checking a request costs one
+ * table operation per path and promotions of unrelated paths or targets never wait on each other.
+ */
 @ApplicationScoped
 public class PathConflictManager
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private final Map<StoreKey, Set<StoreKeyPaths>> inUseMap = new HashMap<>();
+    private final ConcurrentHashMap<PathClaim, StoreKeyPaths> claims = new ConcurrentHashMap<>();
 
     public PathsPromoteResult checkAnd( StoreKeyPaths k, Function<StoreKeyPaths, PathsPromoteResult> function,
                                         Function<StoreKeyPaths, PathsPromoteResult> conflictedFunction )
     {
-        Set<StoreKeyPaths> inUse = null;
-        boolean conflicted = false;
+        logger.debug( "Check paths conflict for {}", k );
+        List<PathClaim> claimed = claim( k );
         try
         {
-            logger.debug( "Check paths conflict for {}", k );
-            synchronized ( inUseMap )
-            {
-                inUse = inUseMap.get( k.getTarget() );
-                if ( inUse == null )
-                {
-                    inUse = new HashSet<>();
-                    inUse.add( k );
-                    inUseMap.put( k.getTarget(), inUse );
-                }
-                else
-                {
-                    conflicted = hasConflict( k.getPaths(), inUse );
-                    if ( !conflicted )
-                    {
-                        inUse.add( k );
-                    }
-                }
-            }
-
+            boolean conflicted = claimed == null;
             logger.debug( "Check done, conflicted: {}", conflicted );
             if ( conflicted )
             {
@@ -76,28 +61,77 @@ public class PathConflictManager
         finally
         {
             // clean up
-            synchronized ( inUseMap )
+            if ( claimed != null )
+            {
+                release( claimed, k );
+            }
+        }
+    }
+
+    /**
+     * Claim all paths of the request, with the request instance as owner so that an equal request in flight is still
+     * a conflict. If one of the paths is taken, release what was claimed so far. Paths are claimed in sorted order,
+     * so of two overlapping requests the one that gets their first shared path also gets the rest, instead of each
+     * taking some of the other's paths and both failing.
+     *
+     * @return the claims, or null on conflict
+     */
+    private List<PathClaim> claim( final StoreKeyPaths k )
+    {
+        final List<PathClaim> claimed = new ArrayList<>( k.getPaths().size() );
+        for ( String path : new TreeSet<>( k.getPaths() ) )
+        {
+            final PathClaim claim = new PathClaim( k.getTarget(), path );
+            final StoreKeyPaths owner = claims.putIfAbsent( claim, k );
+            if ( owner != null )
             {
-                inUse.remove( k );
-                if ( inUse.isEmpty() )
-                {
-                    inUseMap.remove( k.getTarget() );
-                }
+                logger.warn( "Conflict detected, key: {}, path: {}, paths: {}, inUse: {}", k.getTarget(), path,
+                             k.getPaths(), owner.getPaths() );
+                release( claimed, k );
+                return null;
             }
+            claimed.add( claim );
         }
+        return claimed;
     }
 
-    private boolean hasConflict( Set<String> paths, Set<StoreKeyPaths> inUse )
+    private void release( final List<PathClaim> claimed, final StoreKeyPaths owner )
     {
-        for ( StoreKeyPaths keyPaths : inUse )
+        // identity, not equality: StoreKeyPaths equal to this one may belong to another request
+        claimed.forEach( claim -> claims.computeIfPresent( claim, ( c, o ) -> o == owner ? null : o ) );
+    }
+
+    private static final class PathClaim
+    {
+        private final StoreKey target;
+
+        private final String path;
+
+        PathClaim( final StoreKey target, final String path )
         {
-            Set<String> s = keyPaths.getPaths();
-            if ( !disjoint( paths, s ) )
+            this.target = target;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals( final Object o )
+        {
+            if ( this == o )
             {
-                logger.warn( "Conflict detected, key: {}, paths: {}, inUse: {}", keyPaths.getTarget(), paths, s );
                 return true;
             }
+            if ( o == null || getClass() != o.getClass() )
+            {
+                return false;
+            }
+            PathClaim that = (PathClaim) o;
+            return target.equals( that.target ) && path.equals( that.path );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash( target, path );
         }
-        return false;
     }
 }
@@ -60,8 +60,6 @@ import org.commonjava.indy.util.RequestContextHelper;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -989,11 +987,12 @@ public class PromotionManager
         logger.debug( "Store target transfer: {}", target );
         eventMetadata.set( AFFECTED_GROUPS, new ValuePipe<>( affectedGroups ) ).set( TARGET_STORE, tgt );
 
-        try (InputStream stream = transfer.openInputStream( true ))
+        try
         {
-            contentManager.store( tgt, path, stream, UPLOAD, eventMetadata );
+            // path-mapped storage only adds a reference to the content of the source, others copy the bytes
+            contentManager.store( tgt, path, transfer, UPLOAD, eventMetadata );
         }
-        catch ( final IOException e )
+        catch ( final IndyWorkflowException e )
         {
             String msg = String.format( "Failed to promote: %s. Error: %s", transfer, e.getMessage() );
             result.error = msg;
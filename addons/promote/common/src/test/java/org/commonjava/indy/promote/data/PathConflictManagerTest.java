@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.promote.data;
+
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
+import org.commonjava.indy.promote.model.PathsPromoteResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PathConflictManagerTest
+{
+    private final StoreKey target = new StoreKey( PKG_TYPE_MAVEN, StoreType.hosted, "shared-imports" );
+
+    private final PathConflictManager manager = new PathConflictManager();
+
+    private final List<String> events = new ArrayList<>();
+
+    @Test
+    public void overlappingPathsConflictOnlyWhileInFlight()
+    {
+        run( "first", paths( "a", "b" ), k -> {
+            run( "overlapping", paths( "b", "c" ), null );
+            run( "disjoint", paths( "c", "d" ), null );
+            run( "other-target", new StoreKeyPaths( new StoreKey( PKG_TYPE_MAVEN, StoreType.hosted, "other" ),
+                                                    new HashSet<>( Arrays.asList( "a" ) ) ), null );
+            return null;
+        } );
+        run( "after", paths( "a", "b" ), null );
+
+        assertThat( events, equalTo( Arrays.asList( "overlapping:conflict", "disjoint:run", "other-target:run",
+                                                    "first:run", "after:run" ) ) );
+    }
+
+    @Test
+    public void conflictingEqualRequestKeepsOwnerClaims()
+    {
+        run( "first", paths( "a" ), k -> {
+            run( "equal", paths( "a" ), null );
+            run( "again", paths( "a" ), null );
+            return null;
+        } );
+
+        assertThat( events, equalTo( Arrays.asList( "equal:conflict", "again:conflict", "first:run" ) ) );
+    }
+
+    @Test
+    public void partialClaimIsRolledBack()
+    {
+        run( "first", paths( "a" ), k -> {
+            run( "partial", paths( "b", "c", "a" ), null );
+            run( "rest", paths( "b", "c" ), null );
+            return null;
+        } );
+
+        assertThat( events, equalTo( Arrays.asList( "partial:conflict", "rest:run", "first:run" ) ) );
+    }
+
+    private StoreKeyPaths paths( final String... paths )
+    {
+        return new StoreKeyPaths( target, new HashSet<>( Arrays.asList( paths ) ) );
+    }
+
+    private void run( final String name, final StoreKeyPaths k,
+                      final Function<StoreKeyPaths, PathsPromoteResult> nested )
+    {
+        manager.checkAnd( k, key -> {
+            if ( nested != null )
+            {
+                nested.apply( key );
+            }
+            events.add( name + ":run" );
+            return null;
+        }, key -> {
+            events.add( name + ":conflict" );
+            return null;
+        } );
+    }
+}
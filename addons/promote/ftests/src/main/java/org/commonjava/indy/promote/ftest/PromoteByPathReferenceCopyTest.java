@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.promote.ftest;
+
+import org.apache.commons.io.IOUtils;
+import org.commonjava.indy.content.ContentDigester;
+import org.commonjava.indy.promote.client.IndyPromoteClientModule;
+import org.commonjava.indy.promote.model.PathsPromoteRequest;
+import org.commonjava.indy.promote.model.PathsPromoteResult;
+import org.commonjava.indy.util.LocationUtils;
+import org.commonjava.maven.galley.cache.pathmapped.PathMappedCacheProvider;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.io.SpecialPathConstants;
+import org.commonjava.maven.galley.io.checksum.TransferMetadata;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.junit.Test;
+
+import javax.enterprise.inject.spi.CDI;
+import java.io.InputStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * When path-mapped storage is used, promoted paths point to the file of the source path instead of being copied.
+ * <br/>
+ * Then:
+ * <ul>
+ *     <li>The target path has the content of the source, backed by the same physical file</li>
+ *     <li>The upload http-metadata.json of the source path is there for the target path, too</li>
+ *     <li>The target path has the checksums of the content</li>
+ * </ul>
+ */
+public class PromoteByPathReferenceCopyTest
+        extends AbstractPromotionManagerTest
+{
+
+    @Test
+    public void run()
+            throws Exception
+    {
+        final PathsPromoteResult result = client.module( IndyPromoteClientModule.class )
+                                                .promoteByPath( new PathsPromoteRequest( source.getKey(),
+                                                                                         target.getKey(), first ) );
+
+        assertThat( result.getError(), nullValue() );
+        assertThat( result.getCompletedPaths().size(), equalTo( 1 ) );
+
+        try (InputStream in = client.content().get( target.getKey(), first ))
+        {
+            assertThat( in, notNullValue() );
+            assertThat( IOUtils.toString( in ), equalTo( "This is a test" ) );
+        }
+
+        PathMappedCacheProvider provider = (PathMappedCacheProvider) cacheProvider;
+        assertThat( provider.getDetachedFile(
+                new ConcreteResource( LocationUtils.toLocation( target ), first ) ),
+                    equalTo( provider.getDetachedFile(
+                            new ConcreteResource( LocationUtils.toLocation( source ), first ) ) ) );
+
+        assertThat( client.content().exists( target.getKey(), first + SpecialPathConstants.HTTP_METADATA_EXT ),
+                    equalTo( true ) );
+
+        ContentDigester digester = CDI.current().select( ContentDigester.class ).get();
+        TransferMetadata targetMetadata = digester.digest( target.getKey(), first, new EventMetadata() );
+        TransferMetadata sourceMetadata = digester.digest( source.getKey(), first, new EventMetadata() );
+        assertThat( targetMetadata.getDigests(), equalTo( sourceMetadata.getDigests() ) );
+        assertThat( targetMetadata.getSize(), equalTo( (long) "This is a test".length() ) );
+    }
+}
@@ -1,12 +1,17 @@
 package org.commonjava.indy.schedule;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.mapping.Mapper;
 import com.datastax.driver.mapping.MappingManager;
+import org.commonjava.cdi.util.weft.NamedThreadFactory;
 import org.commonjava.indy.conf.IndyConfiguration;
 import org.commonjava.indy.schedule.conf.ScheduleDBConfig;
 import org.commonjava.indy.schedule.datastax.model.DtxExpiration;
@@ -15,11 +20,14 @@ import org.commonjava.indy.schedule.event.ScheduleTriggerEvent;
 import org.commonjava.indy.subsys.cassandra.CassandraClient;
 import org.commonjava.indy.subsys.cassandra.util.SchemaUtils;
 import org.commonjava.indy.subsys.infinispan.CacheProducer;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import org.commonjava.o11yphant.metrics.api.Gauge;
 import org.infinispan.counter.api.StrongCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
@@ -28,12 +36,25 @@ import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 @ApplicationScoped
 public class ScheduleDB
@@ -76,6 +97,34 @@ public class ScheduleDB
 
     ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
 
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final int TRIGGER_THREADS = 4;
+
+    private static final String WRITER_NAME = "schedule-writer";
+
+    private final Map<ScheduleKey, DtxSchedule> pendingSchedules = new ConcurrentHashMap<>();
+
+    // schedules taken from pendingSchedules by the running flush, guarded by the flush holding this monitor
+    private final Set<ScheduleKey> flushingSchedules = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService writeService;
+
+    private final ExecutorService triggerService = Executors.newFixedThreadPool( TRIGGER_THREADS, r -> {
+        Thread t = new Thread( r, "schedule-trigger" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    private final AtomicLong lastSweepLag = new AtomicLong();
+
+    private final AtomicLong lastSweepExpired = new AtomicLong();
+
+    private final AtomicLong lastSweepDuration = new AtomicLong();
+
+    @Inject
+    private DefaultMetricsManager metricsManager;
+
     public ScheduleDB() {}
 
     public ScheduleDB( IndyConfiguration indyConfig, ScheduleDBConfig config, CassandraClient client, CacheProducer cacheProducer )
@@ -176,24 +225,193 @@ public class ScheduleDB
             queryAndSetExpiredSchedule( Date.from( localDateTime.atZone( ZoneId.systemDefault() ).toInstant() ) );
         }, 10, config.getScheduleRatePeriod(), TimeUnit.SECONDS );
 
+        if ( metricsManager != null )
+        {
+            Map<String, Gauge<Integer>> gauges = new HashMap<>();
+            gauges.put( "lag", () -> (int) lastSweepLag.get() );
+            gauges.put( "expired", () -> (int) lastSweepExpired.get() );
+            gauges.put( "duration", () -> (int) lastSweepDuration.get() );
+            metricsManager.addGauges( getClass(), "sweep", gauges );
+        }
+
+        long writePeriod = config.getScheduleWritePeriodMillis();
+        if ( writePeriod > 0 )
+        {
+            writeService = Executors.newSingleThreadScheduledExecutor(
+                            new NamedThreadFactory( WRITER_NAME, new ThreadGroup( WRITER_NAME ), true, 4 ) );
+            writeService.scheduleWithFixedDelay( () -> {
+                try
+                {
+                    flushPendingSchedules();
+                }
+                catch ( RuntimeException e )
+                {
+                    // keep the writer scheduled, the next run picks up whatever is still pending
+                    logger.error( "Failed to write pending schedules", e );
+                }
+            }, writePeriod, writePeriod, TimeUnit.MILLISECONDS );
+        }
     }
 
-    public void createSchedule( String storeKey, String jobType, String jobName, String payload, Long timeout )
+    @PreDestroy
+    public void stop()
     {
+        if ( writeService != null )
+        {
+            writeService.shutdown();
+        }
+        flushPendingSchedules();
+        triggerService.shutdown();
+    }
 
-        UUID scheduleUID = UUID.randomUUID();
-        Date scheduleTime = new Date();
+    public void createSchedule( String storeKey, String jobType, String jobName, String payload, Long timeout )
+    {
+        // a pending write of the same schedule would otherwise overwrite this one later
+        ScheduleKey key = new ScheduleKey( storeKey, jobName );
+        pendingSchedules.remove( key );
+        if ( flushingSchedules.contains( key ) )
+        {
+            // wait for the flush writing the older schedule, and drop it if that flush queued it again for a retry
+            synchronized ( this )
+            {
+                pendingSchedules.remove( key );
+            }
+        }
 
-        DtxSchedule schedule =
-                        new DtxSchedule( storeKey, jobType, jobName, scheduleUID, scheduleTime, payload, timeout );
+        DtxSchedule schedule = newSchedule( storeKey, jobType, jobName, payload, timeout );
         scheduleMapper.save( schedule );
+        expirationMapper.save( newExpiration( schedule ) );
+    }
 
-        Date expirationTime = calculateExpirationTime( scheduleTime, timeout );
-        DtxExpiration expiration =
-                        new DtxExpiration( calculateExpirationPID( expirationTime ), scheduleUID, expirationTime,
-                                           storeKey, jobName );
-        expirationMapper.save( expiration );
+    /**
+     * Queue the schedule to be written with the next batch. A schedule queued again for the same store and job name
+     * before that replaces the earlier one, so it is only written once. When too many schedules are waiting, or
+     * write-behind is disabled, the schedule is written directly like {@link #createSchedule}.
+     */
+    public void createScheduleLater( String storeKey, String jobType, String jobName, String payload, Long timeout )
+    {
+        if ( writeService == null )
+        {
+            createSchedule( storeKey, jobType, jobName, payload, timeout );
+            return;
+        }
 
+        ScheduleKey key = new ScheduleKey( storeKey, jobName );
+        if ( pendingSchedules.size() >= config.getScheduleWriteQueueSize() && !pendingSchedules.containsKey( key ) )
+        {
+            logger.debug( "{} schedules waiting to be written, writing {} directly", pendingSchedules.size(), key );
+            createSchedule( storeKey, jobType, jobName, payload, timeout );
+            return;
+        }
+
+        pendingSchedules.put( key, newSchedule( storeKey, jobType, jobName, payload, timeout ) );
+    }
+
+    /**
+     * Write all queued schedules, as unlogged batches per partition of the schedule and expiration tables. Schedules
+     * from failed batches are queued again, unless a newer schedule for them was queued meanwhile. A direct
+     * {@link #createSchedule} of a schedule being written here waits for this to finish, so it is never overwritten.
+     */
+    public synchronized void flushPendingSchedules()
+    {
+        if ( pendingSchedules.isEmpty() )
+        {
+            return;
+        }
+
+        List<DtxSchedule> schedules = new ArrayList<>( pendingSchedules.size() );
+        for ( ScheduleKey key : pendingSchedules.keySet() )
+        {
+            // atomic with the removal in createSchedule, so that either sees the schedule as being flushed
+            pendingSchedules.computeIfPresent( key, ( k, schedule ) -> {
+                flushingSchedules.add( k );
+                schedules.add( schedule );
+                return null;
+            } );
+        }
+
+        try
+        {
+            writeSchedules( schedules );
+        }
+        finally
+        {
+            flushingSchedules.clear();
+        }
+    }
+
+    private void writeSchedules( List<DtxSchedule> schedules )
+    {
+        // the schedule table is partitioned by store key, the expiration table by expiration pid
+        Map<String, List<DtxSchedule>> schedulePartitions = new LinkedHashMap<>();
+        Map<Long, List<DtxExpiration>> expirationPartitions = new LinkedHashMap<>();
+        Map<DtxExpiration, DtxSchedule> expirationSchedules = new IdentityHashMap<>();
+        for ( DtxSchedule schedule : schedules )
+        {
+            DtxExpiration expiration = newExpiration( schedule );
+            expirationSchedules.put( expiration, schedule );
+
+            schedulePartitions.computeIfAbsent( schedule.getStoreKey(), k -> new ArrayList<>() ).add( schedule );
+            expirationPartitions.computeIfAbsent( expiration.getExpirationPID(), k -> new ArrayList<>() )
+                                .add( expiration );
+        }
+
+        Map<ResultSetFuture, List<DtxSchedule>> writes = new LinkedHashMap<>();
+        schedulePartitions.values()
+                          .forEach( partition -> writeBatches( partition, partition, scheduleMapper::saveQuery,
+                                                               writes ) );
+        expirationPartitions.values().forEach( partition -> {
+            List<DtxSchedule> owners = new ArrayList<>( partition.size() );
+            partition.forEach( e -> owners.add( expirationSchedules.get( e ) ) );
+            writeBatches( partition, owners, expirationMapper::saveQuery, writes );
+        } );
+
+        int failed = 0;
+        for ( Map.Entry<ResultSetFuture, List<DtxSchedule>> write : writes.entrySet() )
+        {
+            try
+            {
+                write.getKey().getUninterruptibly();
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Failed to write {} schedules, will retry. Reason: {}", write.getValue().size(),
+                             e.getMessage() );
+                write.getValue()
+                     .forEach( s -> pendingSchedules.putIfAbsent( new ScheduleKey( s.getStoreKey(), s.getJobName() ),
+                                                                   s ) );
+                failed += write.getValue().size();
+            }
+        }
+
+        logger.debug( "Wrote {} schedules in {} batches, {} failed", schedules.size(), writes.size(), failed );
+    }
+
+    private <T> void writeBatches( List<T> entities, List<DtxSchedule> owners, Function<T, Statement> toStatement,
+                                   Map<ResultSetFuture, List<DtxSchedule>> writes )
+    {
+        for ( int i = 0; i < entities.size(); i += MAX_BATCH_SIZE )
+        {
+            int end = Math.min( entities.size(), i + MAX_BATCH_SIZE );
+
+            BatchStatement batch = new BatchStatement( BatchStatement.Type.UNLOGGED );
+            batch.setConsistencyLevel( ConsistencyLevel.QUORUM );
+            entities.subList( i, end ).forEach( e -> batch.add( toStatement.apply( e ) ) );
+
+            writes.put( session.executeAsync( batch ), owners.subList( i, end ) );
+        }
+    }
+
+    private DtxSchedule newSchedule( String storeKey, String jobType, String jobName, String payload, Long timeout )
+    {
+        return new DtxSchedule( storeKey, jobType, jobName, UUID.randomUUID(), new Date(), payload, timeout );
+    }
+
+    private DtxExpiration newExpiration( DtxSchedule schedule )
+    {
+        Date expirationTime = calculateExpirationTime( schedule.getScheduleTime(), schedule.getLifespan() );
+        return new DtxExpiration( calculateExpirationPID( expirationTime ), schedule.getScheduleUID(), expirationTime,
+                                  schedule.getStoreKey(), schedule.getJobName() );
     }
 
     private Long calculateExpirationPID( Date date )
@@ -208,6 +426,12 @@ public class ScheduleDB
 
     public DtxSchedule querySchedule( String storeKey, String jobName )
     {
+        DtxSchedule pending = pendingSchedules.get( new ScheduleKey( storeKey, jobName ) );
+        if ( pending != null )
+        {
+            return pending;
+        }
+
         BoundStatement bound = preparedSingleScheduleQuery.bind( storeKey, jobName );
         ResultSet resultSet = session.execute( bound );
 
@@ -233,25 +457,184 @@ public class ScheduleDB
         return expirations;
     }
 
+    /**
+     * Sweep the expiration partition of the given date. The partition is read page by page; for each page the
+     * matching schedules are looked up concurrently, the {@link ScheduleTriggerEvent}s of the ones still current are
+     * fired from the trigger pool, and the schedules whose trigger was handled get their expired flag set in batches.
+     * A trigger that fails or is lost to a shutdown leaves its schedule unflagged, so a later sweep fires it again.
+     */
     public void queryAndSetExpiredSchedule( Date date )
     {
-        Collection<DtxExpiration> expirations = queryExpirations( date );
-        expirations.forEach( expiration -> {
-            if ( expiration.getExpirationTime().before( new Date() ) )
+        final long sweepStart = System.currentTimeMillis();
+        final int pageSize = config.getScheduleSweepPageSize();
+
+        BoundStatement bound = preparedExpiredQuery.bind( calculateExpirationPID( date ) );
+        bound.setFetchSize( pageSize );
+
+        SweepStats stats = new SweepStats();
+        try
+        {
+            ResultSet resultSet = session.execute( bound );
+            List<DtxExpiration> page = new ArrayList<>( pageSize );
+            for ( Row row : resultSet )
             {
-                DtxSchedule schedule = querySchedule( expiration.getStorekey(), expiration.getJobName() );
+                // start fetching the next page while this one is processed
+                if ( resultSet.getAvailableWithoutFetching() == pageSize / 2 && !resultSet.isFullyFetched() )
+                {
+                    resultSet.fetchMoreResults();
+                }
 
-                if ( schedule != null && !schedule.getExpired() && schedule.getScheduleUID()
-                                                                           .equals( expiration.getScheduleUID() ) )
+                DtxExpiration expiration = toDtxExpiration( row );
+                if ( expiration.getExpirationTime().getTime() < sweepStart )
                 {
-                    BoundStatement boundU = preparedExpiredUpdate.bind( schedule.getStoreKey(), schedule.getJobName() );
-                    session.execute( boundU );
+                    page.add( expiration );
+                }
 
-                    logger.debug( "Expired entry: {}", schedule );
-                    eventDispatcher.fire( new ScheduleTriggerEvent( schedule.getJobType(), schedule.getPayload() ) );
+                if ( page.size() >= pageSize )
+                {
+                    expirePage( page, sweepStart, stats );
+                    page = new ArrayList<>( pageSize );
                 }
             }
+
+            if ( !page.isEmpty() )
+            {
+                expirePage( page, sweepStart, stats );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            logger.error( "Failed to sweep expirations for: " + date, e );
+        }
+
+        lastSweepLag.set( stats.maxLag );
+        lastSweepExpired.set( stats.expired );
+        lastSweepDuration.set( System.currentTimeMillis() - sweepStart );
+        logger.debug( "Swept expirations for: {}, {} expired, max lag: {}ms, took: {}ms", date, stats.expired,
+                      stats.maxLag, lastSweepDuration.get() );
+    }
+
+    private void expirePage( List<DtxExpiration> expirations, long sweepStart, SweepStats stats )
+    {
+        // look up the schedules concurrently, with a bounded number of queries in flight
+        Semaphore permits = new Semaphore( config.getScheduleSweepConcurrency() );
+        List<ResultSetFuture> lookups = new ArrayList<>( expirations.size() );
+        for ( DtxExpiration expiration : expirations )
+        {
+            permits.acquireUninterruptibly();
+            ResultSetFuture lookup = session.executeAsync(
+                            preparedSingleScheduleQuery.bind( expiration.getStorekey(), expiration.getJobName() ) );
+            lookup.addListener( permits::release, Runnable::run );
+            lookups.add( lookup );
+        }
+
+        Map<String, List<DtxSchedule>> expiredByStore = new LinkedHashMap<>();
+        for ( int i = 0; i < expirations.size(); i++ )
+        {
+            DtxExpiration expiration = expirations.get( i );
+            DtxSchedule schedule;
+            try
+            {
+                schedule = toDtxSchedule( lookups.get( i ).getUninterruptibly().one() );
+            }
+            catch ( RuntimeException e )
+            {
+                // not flagged, so the next sweep will try it again
+                logger.warn( "Failed to query schedule for: {}, {}. Reason: {}", expiration.getStorekey(),
+                             expiration.getJobName(), e.getMessage() );
+                continue;
+            }
+
+            if ( schedule != null && !schedule.getExpired() && schedule.getScheduleUID()
+                                                                       .equals( expiration.getScheduleUID() ) )
+            {
+                expiredByStore.computeIfAbsent( schedule.getStoreKey(), k -> new ArrayList<>() ).add( schedule );
+                stats.maxLag = Math.max( stats.maxLag, sweepStart - expiration.getExpirationTime().getTime() );
+            }
+        }
+
+        // fire the triggers before flagging, so a trigger lost to a shutdown or crash is fired again by a later sweep
+        Map<String, List<Future<?>>> triggers = new LinkedHashMap<>();
+        expiredByStore.forEach( ( storeKey, schedules ) -> {
+            List<Future<?>> fired = new ArrayList<>( schedules.size() );
+            schedules.forEach( schedule -> {
+                logger.debug( "Expired entry: {}", schedule );
+                fired.add( triggerService.submit( () -> fireTrigger( schedule ) ) );
+            } );
+            triggers.put( storeKey, fired );
+        } );
+
+        // the schedule table is partitioned by store key, so updates are batched per store
+        Map<ResultSetFuture, List<DtxSchedule>> updates = new LinkedHashMap<>();
+        expiredByStore.forEach( ( storeKey, schedules ) -> {
+            List<DtxSchedule> handled = awaitTriggers( schedules, triggers.get( storeKey ) );
+            for ( int i = 0; i < handled.size(); i += MAX_BATCH_SIZE )
+            {
+                List<DtxSchedule> chunk = handled.subList( i, Math.min( handled.size(), i + MAX_BATCH_SIZE ) );
+
+                BatchStatement batch = new BatchStatement( BatchStatement.Type.UNLOGGED );
+                chunk.forEach( s -> batch.add( preparedExpiredUpdate.bind( s.getStoreKey(), s.getJobName() ) ) );
+                updates.put( session.executeAsync( batch ), chunk );
+            }
         } );
+
+        updates.forEach( ( update, schedules ) -> {
+            try
+            {
+                update.getUninterruptibly();
+            }
+            catch ( RuntimeException e )
+            {
+                // their triggers already ran, the next sweep fires them once more
+                logger.warn( "Failed to set {} schedules expired. Reason: {}", schedules.size(), e.getMessage() );
+                return;
+            }
+
+            stats.expired += schedules.size();
+        } );
+    }
+
+    private void fireTrigger( DtxSchedule schedule )
+    {
+        // without an event dispatcher (outside of CDI) there is nobody to handle the trigger
+        if ( eventDispatcher != null )
+        {
+            eventDispatcher.fire( new ScheduleTriggerEvent( schedule.getJobType(), schedule.getPayload() ) );
+        }
+    }
+
+    /**
+     * Wait for the triggers of the given schedules and return the schedules whose trigger was handled.
+     */
+    private List<DtxSchedule> awaitTriggers( List<DtxSchedule> schedules, List<Future<?>> triggers )
+    {
+        List<DtxSchedule> handled = new ArrayList<>( schedules.size() );
+        for ( int i = 0; i < schedules.size(); i++ )
+        {
+            DtxSchedule schedule = schedules.get( i );
+            try
+            {
+                triggers.get( i ).get();
+                handled.add( schedule );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return handled;
+            }
+            catch ( ExecutionException e )
+            {
+                // not flagged, so the next sweep will try it again
+                logger.warn( "Failed to handle trigger for: {}, {}. Reason: {}", schedule.getStoreKey(),
+                             schedule.getJobName(), e.getCause().getMessage() );
+            }
+        }
+        return handled;
+    }
+
+    public long getLastSweepLag()
+    {
+        return lastSweepLag.get();
     }
 
     public Collection<DtxSchedule> querySchedulesByJobType( String jobType )
@@ -262,7 +645,7 @@ public class ScheduleDB
         resultSet.forEach( row -> {
             schedules.add(toDtxSchedule(row));
         } );
-        return schedules;
+        return withPending( schedules, s -> s.getJobType().equals( jobType ) );
     }
 
     public Collection<DtxSchedule> querySchedulesByStoreKey( String storeKey )
@@ -273,7 +656,7 @@ public class ScheduleDB
         resultSet.forEach( row -> {
             schedules.add(toDtxSchedule(row));
         } );
-        return schedules;
+        return withPending( schedules, s -> s.getStoreKey().equals( storeKey ) );
     }
 
     public Collection<DtxSchedule> querySchedules( String storeKey, String jobType, Boolean expired )
@@ -292,7 +675,33 @@ public class ScheduleDB
                 schedules.add( schedule );
             }
         } );
-        return schedules;
+        return withPending( schedules, s -> s.getStoreKey().equals( storeKey ) && s.getJobType().equals( jobType )
+                        && s.getExpired().equals( expired ) );
+    }
+
+    /**
+     * Replace the stored schedules with the ones still waiting to be written, and add the waiting ones that match.
+     */
+    private Collection<DtxSchedule> withPending( Collection<DtxSchedule> stored, Predicate<DtxSchedule> matches )
+    {
+        if ( pendingSchedules.isEmpty() )
+        {
+            return stored;
+        }
+
+        Map<ScheduleKey, DtxSchedule> schedules = new LinkedHashMap<>();
+        stored.forEach( s -> schedules.put( new ScheduleKey( s.getStoreKey(), s.getJobName() ), s ) );
+        pendingSchedules.forEach( ( key, pending ) -> {
+            if ( matches.test( pending ) )
+            {
+                schedules.put( key, pending );
+            }
+            else
+            {
+                schedules.remove( key );
+            }
+        } );
+        return new ArrayList<>( schedules.values() );
     }
 
     private DtxSchedule toDtxSchedule( Row row )
@@ -327,4 +736,51 @@ public class ScheduleDB
         return null;
     }
 
+    private static final class SweepStats
+    {
+        private long maxLag;
+
+        private long expired;
+    }
+
+    private static final class ScheduleKey
+    {
+        private final String storeKey;
+
+        private final String jobName;
+
+        ScheduleKey( String storeKey, String jobName )
+        {
+            this.storeKey = storeKey;
+            this.jobName = jobName;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+            if ( !( o instanceof ScheduleKey ) )
+            {
+                return false;
+            }
+            ScheduleKey that = (ScheduleKey) o;
+            return storeKey.equals( that.storeKey ) && jobName.equals( that.jobName );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash( storeKey, jobName );
+        }
+
+        @Override
+        public String toString()
+        {
+            return storeKey + ":" + jobName;
+        }
+    }
+
 }
@@ -14,6 +14,14 @@ import java.util.Properties;
 public class ScheduleDBConfig implements IndyConfigInfo
 {
 
+    public static final long DEFAULT_SCHEDULE_WRITE_PERIOD_MILLIS = 1000;
+
+    public static final int DEFAULT_SCHEDULE_WRITE_QUEUE_SIZE = 10000;
+
+    public static final int DEFAULT_SCHEDULE_SWEEP_PAGE_SIZE = 500;
+
+    public static final int DEFAULT_SCHEDULE_SWEEP_CONCURRENCY = 16;
+
     private String scheduleKeyspace;
 
     private int replicationFactor;
@@ -26,6 +34,14 @@ public class ScheduleDBConfig implements IndyConfigInfo
 
     private Boolean enabled;
 
+    private Long scheduleWritePeriodMillis;
+
+    private Integer scheduleWriteQueueSize;
+
+    private Integer scheduleSweepPageSize;
+
+    private Integer scheduleSweepConcurrency;
+
     public ScheduleDBConfig () {}
 
     public ScheduleDBConfig( String keyspace, int replicationFactor, long partitionKeyRange, long period )
@@ -79,6 +95,50 @@ public class ScheduleDBConfig implements IndyConfigInfo
         this.offsetHours = offsetHours;
     }
 
+    public long getScheduleWritePeriodMillis()
+    {
+        return scheduleWritePeriodMillis == null ? DEFAULT_SCHEDULE_WRITE_PERIOD_MILLIS : scheduleWritePeriodMillis;
+    }
+
+    @ConfigName( "schedule.write.period.millis" )
+    public void setScheduleWritePeriodMillis( Long scheduleWritePeriodMillis )
+    {
+        this.scheduleWritePeriodMillis = scheduleWritePeriodMillis;
+    }
+
+    public int getScheduleWriteQueueSize()
+    {
+        return scheduleWriteQueueSize == null ? DEFAULT_SCHEDULE_WRITE_QUEUE_SIZE : scheduleWriteQueueSize;
+    }
+
+    @ConfigName( "schedule.write.queue.size" )
+    public void setScheduleWriteQueueSize( Integer scheduleWriteQueueSize )
+    {
+        this.scheduleWriteQueueSize = scheduleWriteQueueSize;
+    }
+
+    public int getScheduleSweepPageSize()
+    {
+        return scheduleSweepPageSize == null ? DEFAULT_SCHEDULE_SWEEP_PAGE_SIZE : scheduleSweepPageSize;
+    }
+
+    @ConfigName( "schedule.sweep.page.size" )
+    public void setScheduleSweepPageSize( Integer scheduleSweepPageSize )
+    {
+        this.scheduleSweepPageSize = scheduleSweepPageSize;
+    }
+
+    public int getScheduleSweepConcurrency()
+    {
+        return scheduleSweepConcurrency == null ? DEFAULT_SCHEDULE_SWEEP_CONCURRENCY : scheduleSweepConcurrency;
+    }
+
+    @ConfigName( "schedule.sweep.concurrency" )
+    public void setScheduleSweepConcurrency( Integer scheduleSweepConcurrency )
+    {
+        this.scheduleSweepConcurrency = scheduleSweepConcurrency;
+    }
+
     @Override
     public String getDefaultConfigFileName()
     {
@@ -17,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -135,4 +136,42 @@ public class ScheduleTest
         assertThat( schedule_03.getExpired(), equalTo(Boolean.FALSE) );
     }
 
+    @Test
+    public void testWriteBehindCoalescesSchedules() throws Exception
+    {
+        final String storeKey = "maven:remote:test";
+        final String jobName = "org/jboss/foo/1/foo-1.pom";
+        final String payload = "json_string";
+
+        scheduleDB.createScheduleLater( storeKey, JobType.CONTENT.getJobType(), jobName, payload, Long.valueOf( 30 ) );
+        scheduleDB.createScheduleLater( storeKey, JobType.CONTENT.getJobType(), jobName, payload, Long.valueOf( 60 ) );
+
+        scheduleDB.flushPendingSchedules();
+
+        final DtxSchedule schedule = scheduleDB.querySchedule( storeKey, jobName );
+        assertThat( schedule.getLifespan(), equalTo( 60L ) );
+        final Date expiration = new Date( schedule.getScheduleTime().getTime() + 60 * 1000 );
+        assertThat( scheduleDB.queryExpirations( expiration ).size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void testPendingScheduleIsVisibleAndReplacedByDirectWrite() throws Exception
+    {
+        final String storeKey = "maven:remote:test";
+        final String jobName = "org/jboss/foo/1/foo-1.jar";
+        final String payload = "json_string";
+
+        scheduleDB.createScheduleLater( storeKey, JobType.CONTENT.getJobType(), jobName, payload, Long.valueOf( 30 ) );
+
+        assertThat( scheduleDB.querySchedule( storeKey, jobName ).getLifespan(), equalTo( 30L ) );
+        assertThat( scheduleDB.querySchedules( storeKey, JobType.CONTENT.getJobType(), Boolean.FALSE ).size(),
+                    equalTo( 1 ) );
+
+        scheduleDB.createSchedule( storeKey, JobType.CONTENT.getJobType(), jobName, payload, Long.valueOf( 90 ) );
+        scheduleDB.flushPendingSchedules();
+
+        assertThat( scheduleDB.querySchedule( storeKey, jobName ).getLifespan(), equalTo( 90L ) );
+        assertThat( scheduleDB.querySchedulesByStoreKey( storeKey ).size(), equalTo( 1 ) );
+    }
+
 }
@@ -46,6 +46,10 @@ public class DefaultIndyConfiguration
 
     public static final int DEFAULT_NFC_MAX_RESULT_SET_SIZE = 5000;
 
+    public static final int DEFAULT_NFC_INMEMORY_MAX_ENTRIES = 200000;
+
+    public static final int DEFAULT_NFC_FILTER_REBUILD_MINUTES = 60;
+
     public static final Boolean DEFAULT_ALLOW_REMOTE_LIST_DOWNLOAD = false;
 
     public static final int DEFAULT_REMOTE_METADATA_TIMEOUT_SECONDS = 86400;
@@ -66,6 +70,14 @@ public class DefaultIndyConfiguration
 
     public static final int DEFAULT_CASSANDRA_KEYSPACE_REPLICAS = 1;
 
+    public static final int DEFAULT_GROUP_MEMBER_PROBE_CONCURRENCY = 1;
+
+    public static final int DEFAULT_GROUP_MEMBER_PROBE_GROUP_LIMIT = 20;
+
+    public static final int DEFAULT_CONTENT_DIGEST_CONCURRENCY = 4;
+
+    public static final int DEFAULT_PRECOMPRESSED_CACHE_MAX_MB = 64;
+
     private Integer passthroughTimeoutSeconds;
 
     private Integer notFoundCacheTimeoutSeconds;
@@ -110,6 +122,20 @@ public class DefaultIndyConfiguration
 
     private Integer keyspaceReplicas;
 
+    private Integer groupMemberProbeConcurrency;
+
+    private Integer groupMemberProbeGroupLimit;
+
+    private Integer contentDigestConcurrency;
+
+    private Boolean nfcFilterEnabled;
+
+    private Integer nfcFilterRebuildMinutes;
+
+    private Integer nfcInMemoryMaxEntries;
+
+    private Integer precompressedCacheMaxMb;
+
     public DefaultIndyConfiguration()
     {
     }
@@ -422,6 +448,94 @@ public class DefaultIndyConfiguration
         this.keyspaceReplicas = keyspaceReplicas;
     }
 
+    @Override
+    public int getGroupMemberProbeConcurrency()
+    {
+        return groupMemberProbeConcurrency == null ?
+                DEFAULT_GROUP_MEMBER_PROBE_CONCURRENCY :
+                groupMemberProbeConcurrency;
+    }
+
+    @ConfigName( "group.member.probe.concurrency" )
+    public void setGroupMemberProbeConcurrency( final Integer groupMemberProbeConcurrency )
+    {
+        this.groupMemberProbeConcurrency = groupMemberProbeConcurrency;
+    }
+
+    @Override
+    public int getGroupMemberProbeGroupLimit()
+    {
+        return groupMemberProbeGroupLimit == null ?
+                DEFAULT_GROUP_MEMBER_PROBE_GROUP_LIMIT :
+                groupMemberProbeGroupLimit;
+    }
+
+    @ConfigName( "group.member.probe.group.limit" )
+    public void setGroupMemberProbeGroupLimit( final Integer groupMemberProbeGroupLimit )
+    {
+        this.groupMemberProbeGroupLimit = groupMemberProbeGroupLimit;
+    }
+
+    @Override
+    public int getContentDigestConcurrency()
+    {
+        return contentDigestConcurrency == null ? DEFAULT_CONTENT_DIGEST_CONCURRENCY : contentDigestConcurrency;
+    }
+
+    @ConfigName( "content.digest.concurrency" )
+    public void setContentDigestConcurrency( final Integer contentDigestConcurrency )
+    {
+        this.contentDigestConcurrency = contentDigestConcurrency;
+    }
+
+    @Override
+    public boolean isNfcFilterEnabled()
+    {
+        return nfcFilterEnabled == null ? false : nfcFilterEnabled;
+    }
+
+    @ConfigName( "nfc.filter.enabled" )
+    public void setNfcFilterEnabled( final Boolean nfcFilterEnabled )
+    {
+        this.nfcFilterEnabled = nfcFilterEnabled;
+    }
+
+    @Override
+    public int getNfcFilterRebuildMinutes()
+    {
+        return nfcFilterRebuildMinutes == null ? DEFAULT_NFC_FILTER_REBUILD_MINUTES : nfcFilterRebuildMinutes;
+    }
+
+    @ConfigName( "nfc.filter.rebuild.minutes" )
+    public void setNfcFilterRebuildMinutes( final Integer nfcFilterRebuildMinutes )
+    {
+        this.nfcFilterRebuildMinutes = nfcFilterRebuildMinutes;
+    }
+
+    @Override
+    public int getNfcInMemoryMaxEntries()
+    {
+        return nfcInMemoryMaxEntries == null ? DEFAULT_NFC_INMEMORY_MAX_ENTRIES : nfcInMemoryMaxEntries;
+    }
+
+    @ConfigName( "nfc.inmemory.max.entries" )
+    public void setNfcInMemoryMaxEntries( final Integer nfcInMemoryMaxEntries )
+    {
+        this.nfcInMemoryMaxEntries = nfcInMemoryMaxEntries;
+    }
+
+    @Override
+    public int getPrecompressedCacheMaxMb()
+    {
+        return precompressedCacheMaxMb == null ? DEFAULT_PRECOMPRESSED_CACHE_MAX_MB : precompressedCacheMaxMb;
+    }
+
+    @ConfigName( "precompressed.cache.max.mb" )
+    public void setPrecompressedCacheMaxMb( final Integer precompressedCacheMaxMb )
+    {
+        this.precompressedCacheMaxMb = precompressedCacheMaxMb;
+    }
+
     @Override
     public String getDefaultConfigFileName()
     {
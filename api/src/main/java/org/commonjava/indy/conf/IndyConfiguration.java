@@ -127,4 +127,63 @@ public interface IndyConfiguration
      * @sinces 2.5.4
      */
     int getKeyspaceReplicas();
+
+    /**
+     * Number of group members probed at the same time when retrieving content from a group. Hosted members are
+     * still checked in order on the request thread, while remote members inside this window are checked for the path
+     * in parallel. Content is still only downloaded from the first member in group order that has it. The default of
+     * 1 keeps the sequential member lookup.
+     *
+     * @since 2.6.0
+     */
+    int getGroupMemberProbeConcurrency();
+
+    /**
+     * Maximum number of in-flight parallel member probes for a single group, across all requests to that group.
+     *
+     * @since 2.6.0
+     */
+    int getGroupMemberProbeGroupLimit();
+
+    /**
+     * Maximum number of content digests (checksum recalculations) that may read their content at the same time. Each
+     * running digest streams a whole file, so this bounds the disk and CPU spent on large artifacts.
+     *
+     * @since 2.6.0
+     */
+    int getContentDigestConcurrency();
+
+    /**
+     * Whether the Cassandra NFC keeps per-store Bloom filters of its paths in memory, so lookups of paths that were
+     * never marked missing skip the database. Paths marked missing by other nodes reach this node's filters within a
+     * few seconds.
+     *
+     * @since 2.6.0
+     */
+    boolean isNfcFilterEnabled();
+
+    /**
+     * Number of minutes between checks of whether the Cassandra NFC path filters should be rebuilt. A rebuild reads the
+     * whole nfc table, so it only happens when the expired and cleared paths left in the filters make too many lookups
+     * go to the database. Zero or less disables rebuilding.
+     *
+     * @since 2.6.0
+     */
+    int getNfcFilterRebuildMinutes();
+
+    /**
+     * Maximum number of not-found entries the Cassandra NFC keeps in memory on this node, across all stores. The least
+     * recently used entries are evicted beyond that.
+     *
+     * @since 2.6.0
+     */
+    int getNfcInMemoryMaxEntries();
+
+    /**
+     * Maximum size, in megabytes, of the gzip copies of generated metadata kept in memory on this node. The least
+     * recently used copies are dropped beyond that.
+     *
+     * @since 2.6.0
+     */
+    int getPrecompressedCacheMaxMb();
 }
@@ -151,6 +151,15 @@ public interface ContentManager
     Transfer store( final ArtifactStore store , final String path , final InputStream stream , TransferOperation op , EventMetadata eventMetadata  )
         throws IndyWorkflowException;
 
+    /**
+     * Store the content of the given source {@link Transfer} under the given path within the storage directory for the given
+     * {@link ArtifactStore}, running the same maintenance actions as storing from an {@link InputStream}. When the storage can
+     * reference the same content from several paths, no bytes are copied and the checksums of the source are reused.
+     */
+    Transfer store( final ArtifactStore store, final String path, final Transfer source, TransferOperation op,
+                    EventMetadata eventMetadata )
+        throws IndyWorkflowException;
+
 //    /**
 //     * Store the content contained in the {@link InputStream} under the given path within the storage directory for first appropriate instance among
 //     * the given {@link ArtifactStore}'s. Use the given {@link TransferOperation} to trigger the appropriate tangential maintenance, etc. actions.
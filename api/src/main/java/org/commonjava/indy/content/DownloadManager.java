@@ -113,6 +113,16 @@ public interface DownloadManager
     Transfer store( final ArtifactStore store , final String path , final InputStream stream , TransferOperation op , EventMetadata eventMetadata  )
         throws IndyWorkflowException;
 
+    /**
+     * Store the content of the given source {@link Transfer} under the given path within the storage directory for the given
+     * {@link ArtifactStore}, with the same checks as storing from an {@link InputStream}. When the storage can reference the same
+     * content from several paths, only a new reference to the source content is recorded and no bytes are copied; otherwise
+     * the content is streamed from the source.
+     */
+    Transfer store( final ArtifactStore store, final String path, final Transfer source, TransferOperation op,
+                    EventMetadata eventMetadata )
+        throws IndyWorkflowException;
+
     /**
      * Store the content contained in the {@link InputStream} under the given path within the storage directory for first appropriate instance among 
      * the given {@link ArtifactStore}'s. Use the given {@link TransferOperation} to trigger the appropriate tangential maintenance, etc. actions. 
@@ -154,6 +154,13 @@ public interface StoreDataManager
     Set<Group> affectedBy( Collection<StoreKey> keys )
             throws IndyDataException;
 
+    /**
+     * Retrieve the groups that list the given store as a direct member, regardless of their enabled state.
+     * @since 2.6.0
+     */
+    Set<Group> getGroupsContaining( StoreKey key )
+            throws IndyDataException;
+
     /**
      * Get affected-by groups from event metadata if provided.
      * @param keys
@@ -22,9 +22,12 @@ public enum ApplicationHeader
     location( "Location" ),
     uri( "URI" ),
     content_length( "Content-Length" ),
+    content_encoding( "Content-Encoding" ),
     last_modified( "Last-Modified" ),
     deprecated( "Deprecated-Use-Alt" ),
     accept( "Accept" ),
+    accept_encoding( "Accept-Encoding" ),
+    vary( "Vary" ),
     allow( "Allow" ),
     authorization( "Authorization" ),
     proxy_authenticate( "Proxy-Authenticate" ),
@@ -33,6 +36,13 @@ public enum ApplicationHeader
     content_disposition( "Content-Disposition" ),
     indy_origin( "Indy-Origin" ),
     transfer_encoding( "Transfer-Encoding" ),
+    etag( "ETag" ),
+    accept_ranges( "Accept-Ranges" ),
+    content_range( "Content-Range" ),
+    range( "Range" ),
+    if_range( "If-Range" ),
+    if_none_match( "If-None-Match" ),
+    if_modified_since( "If-Modified-Since" ),
     md5("INDY-MD5"),
     sha1("INDY-SHA1")
     ;
@@ -15,6 +15,7 @@
  */
 package org.commonjava.indy.core.bind.jaxrs;
 
+import org.apache.commons.io.IOUtils;
 import org.commonjava.indy.IndyWorkflowException;
 import org.commonjava.indy.bind.jaxrs.IndyResources;
 import org.commonjava.indy.bind.jaxrs.util.JaxRsRequestHelper;
@@ -22,9 +23,12 @@ import org.commonjava.indy.bind.jaxrs.util.REST;
 import org.commonjava.indy.bind.jaxrs.util.ResponseHelper;
 import org.commonjava.indy.content.ContentDigester;
 import org.commonjava.indy.content.ContentManager;
+import org.commonjava.indy.core.bind.jaxrs.util.ByteRange;
+import org.commonjava.indy.core.bind.jaxrs.util.RangeStreamingOutput;
 import org.commonjava.indy.core.bind.jaxrs.util.RequestUtils;
 import org.commonjava.indy.core.bind.jaxrs.util.TransferCountingInputStream;
 import org.commonjava.indy.core.bind.jaxrs.util.TransferStreamingOutput;
+import org.commonjava.indy.core.content.PrecompressedContentCache;
 import org.commonjava.indy.core.ctl.ContentController;
 import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
 import org.commonjava.indy.subsys.metrics.conf.IndyMetricsConfig;
@@ -32,6 +36,7 @@ import org.commonjava.indy.model.core.BatchDeleteRequest;
 import org.commonjava.indy.model.core.PackageTypes;
 import org.commonjava.indy.model.core.StoreKey;
 import org.commonjava.indy.model.core.StoreType;
+import org.commonjava.indy.model.util.HttpUtils;
 import org.commonjava.indy.util.AcceptInfo;
 import org.commonjava.indy.util.ApplicationContent;
 import org.commonjava.indy.util.ApplicationHeader;
@@ -40,6 +45,7 @@ import org.commonjava.indy.util.LocationUtils;
 import org.commonjava.indy.util.UriFormatter;
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.io.checksum.ContentDigest;
+import org.commonjava.maven.galley.io.checksum.TransferMetadata;
 import org.commonjava.maven.galley.model.SpecialPathInfo;
 import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.model.TransferOperation;
@@ -56,10 +62,13 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -106,6 +115,9 @@ public class ContentAccessHandler
     @Inject
     ContentDigester contentDigester;
 
+    @Inject
+    PrecompressedContentCache precompressedCache;
+
 
     protected ContentAccessHandler()
     {
@@ -355,10 +367,11 @@ public class ContentAccessHandler
                         logger.debug( "Got retrieved transfer reference: {}", item );
                     }
 
+                    final SpecialPathInfo spi = specialPathManager.getSpecialPathInfo( item, packageType );
+                    final boolean metadata = spi != null && spi.isMetadata();
                     if ( MDC.get( METADATA_CONTENT ) != null )
                     {
-                        SpecialPathInfo spi = specialPathManager.getSpecialPathInfo( item, packageType );
-                        setContext( METADATA_CONTENT, Boolean.toString( spi != null && spi.isMetadata() ) );
+                        setContext( METADATA_CONTENT, Boolean.toString( metadata ) );
                     }
 
                     logger.trace( "Building 200 response. Using HTTP metadata: {}", httpMetadata );
@@ -376,8 +389,22 @@ public class ContentAccessHandler
     
                     if(!path.endsWith("/")) {
                         // Content hashing headers
-                        builder.header(ApplicationHeader.md5.key(), contentDigester.digest(sk, path, new EventMetadata()).getDigests().get(ContentDigest.MD5));
-                        builder.header(ApplicationHeader.sha1.key(), contentDigester.digest(sk, path, new EventMetadata()).getDigests().get(ContentDigest.SHA_1));
+                        final Map<ContentDigest, String> digests =
+                                contentDigester.digest( sk, path, new EventMetadata() ).getDigests();
+                        builder.header( ApplicationHeader.md5.key(), digests.get( ContentDigest.MD5 ) );
+                        builder.header( ApplicationHeader.sha1.key(), digests.get( ContentDigest.SHA_1 ) );
+
+                        String etag = getETag( item, metadata );
+                        if ( etag != null )
+                        {
+                            builder.header( ApplicationHeader.etag.key(), null );
+                            builder.header( ApplicationHeader.etag.key(), etag );
+                        }
+                        if ( !metadata )
+                        {
+                            builder.header( ApplicationHeader.accept_ranges.key(), null );
+                            builder.header( ApplicationHeader.accept_ranges.key(), "bytes" );
+                        }
                     }
                     
                     if ( builderModifier != null )
@@ -501,13 +528,44 @@ public class ContentAccessHandler
                     else
                     {
                         logger.debug( "RETURNING: retrieval of content: {}:{}", sk, path );
-                        // open the stream here to prevent deletion while waiting for the transfer back to the user to start...
-                        InputStream in = item.openInputStream( true, eventMetadata );
-                        final ResponseBuilder builder = Response.ok(
-                                new TransferStreamingOutput( in, metricsManager, metricsConfig ) );
+                        final String contentType = contentController.getContentType( path );
+                        final boolean metadata = spi != null && spi.isMetadata();
+                        final boolean precompressed = isPrecompressible( request, item, metadata );
+                        final String etag = getETag( item, metadata );
+                        final long lastModified = item.lastModified();
+
+                        final ResponseBuilder builder;
+                        if ( RequestUtils.isNotModified( request, etag, lastModified ) )
+                        {
+                            logger.debug( "NOT MODIFIED: {}:{}", sk, path );
+                            setContext( HTTP_STATUS, String.valueOf( 304 ) );
+                            builder = Response.notModified();
+                            builder.header( ApplicationHeader.last_modified.key(),
+                                            HttpUtils.formatDateHeader( lastModified ) );
+                        }
+                        else if ( precompressed )
+                        {
+                            builder = buildPrecompressedResponse( item, sk, path, contentType, eventMetadata );
+                        }
+                        else
+                        {
+                            // open the stream here to prevent deletion while waiting for the transfer back to the user to start...
+                            InputStream in = item.openInputStream( true, eventMetadata );
+                            builder = buildContentResponse( request, item, in, sk, path, contentType, etag,
+                                                            lastModified, metadata );
+                        }
+
+                        if ( precompressed )
+                        {
+                            builder.header( ApplicationHeader.vary.key(), ApplicationHeader.accept_encoding.key() );
+                        }
+
+                        if ( etag != null )
+                        {
+                            builder.header( ApplicationHeader.etag.key(), null );
+                            builder.header( ApplicationHeader.etag.key(), etag );
+                        }
 
-                        responseHelper.setInfoHeaders( builder, item, sk, path, true, contentController.getContentType( path ),
-                                        contentController.getHttpMetadata( item ) );
                         if ( builderModifier != null )
                         {
                             builderModifier.accept( builder );
@@ -535,6 +593,146 @@ public class ContentAccessHandler
         return response;
     }
 
+    /**
+     * Build the response for content that has to be sent: the requested ranges as 206 when the request has a Range
+     * header that applies, 416 when none of its ranges is satisfiable, otherwise the whole content as 200. Metadata is
+     * always sent whole: read decorators rewrite it, so offsets into the stored file don't match what is sent.
+     */
+    private ResponseBuilder buildContentResponse( final HttpServletRequest request, final Transfer item,
+                                                  final InputStream in, final StoreKey sk, final String path,
+                                                  final String contentType, final String etag, final long lastModified,
+                                                  final boolean metadata )
+            throws IndyWorkflowException
+    {
+        final long length = item.length();
+        final List<ByteRange> ranges = !metadata && RequestUtils.isRangeApplicable( request, etag, lastModified ) ?
+                ByteRange.parse( request.getHeader( ApplicationHeader.range.key() ), length ) :
+                null;
+
+        final ResponseBuilder builder;
+        if ( ranges == null )
+        {
+            builder = Response.ok( new TransferStreamingOutput( in, getZeroCopyFile( item, metadata ), metricsManager,
+                                                                metricsConfig ) );
+            responseHelper.setInfoHeaders( builder, item, sk, path, true, contentType,
+                                           contentController.getHttpMetadata( item ) );
+        }
+        else if ( ranges.isEmpty() )
+        {
+            IOUtils.closeQuietly( in );
+
+            logger.debug( "RANGE NOT SATISFIABLE: {}:{} ({} bytes)", sk, path, length );
+            setContext( HTTP_STATUS, String.valueOf( 416 ) );
+            return Response.status( 416 ).header( ApplicationHeader.content_range.key(), "bytes */" + length );
+        }
+        else
+        {
+            logger.debug( "RETURNING RANGES: {} of {}:{}", ranges, sk, path );
+            setContext( HTTP_STATUS, String.valueOf( 206 ) );
+
+            final RangeStreamingOutput output = new RangeStreamingOutput( item, in, ranges, length, contentType );
+            builder = Response.status( 206 ).entity( output );
+            responseHelper.setInfoHeaders( builder, item, sk, path, false, contentType,
+                                           contentController.getHttpMetadata( item ) );
+
+            builder.header( ApplicationHeader.content_type.key(), null );
+            builder.header( ApplicationHeader.content_type.key(), output.getResponseContentType() );
+            builder.header( ApplicationHeader.content_length.key(), output.getResponseLength() );
+            if ( !output.isMultipart() )
+            {
+                builder.header( ApplicationHeader.content_range.key(), ranges.get( 0 ).toContentRange( length ) );
+            }
+        }
+
+        if ( !metadata )
+        {
+            builder.header( ApplicationHeader.accept_ranges.key(), null );
+            builder.header( ApplicationHeader.accept_ranges.key(), "bytes" );
+        }
+        return builder;
+    }
+
+    /**
+     * Whether to answer with the precompressed gzip copy of generated metadata instead of leaving the compression to
+     * the encoding handler, which would compress the same bytes again on every request. Small content isn't compressed
+     * by the encoding handler either. Metadata is never sent in ranges, so a Range header doesn't matter here.
+     */
+    private boolean isPrecompressible( final HttpServletRequest request, final Transfer item, final boolean metadata )
+    {
+        return metadata && precompressedCache != null && item.length() > PrecompressedContentCache.MIN_BYTES
+                && RequestUtils.acceptsEncoding( request, "gzip" );
+    }
+
+    private ResponseBuilder buildPrecompressedResponse( final Transfer item, final StoreKey sk, final String path,
+                                                        final String contentType, final EventMetadata eventMetadata )
+            throws IOException, IndyWorkflowException
+    {
+        final byte[] gzip;
+        // still read through the transfer, so access events fire and read decorators apply to what gets compressed
+        try (InputStream in = item.openInputStream( true, eventMetadata ))
+        {
+            gzip = precompressedCache.getGzip( sk, path, (String) eventMetadata.get( ContentManager.ENTRY_POINT_BASE_URI ),
+                                               item.lastModified(), item.length(), in );
+        }
+
+        logger.debug( "RETURNING PRECOMPRESSED: {}:{} ({} bytes)", sk, path, gzip.length );
+        final ResponseBuilder builder = Response.ok(
+                new TransferStreamingOutput( new ByteArrayInputStream( gzip ), metricsManager, metricsConfig ) );
+        responseHelper.setInfoHeaders( builder, item, sk, path, false, contentType,
+                                       contentController.getHttpMetadata( item ) );
+
+        builder.header( ApplicationHeader.content_length.key(), gzip.length );
+        builder.header( ApplicationHeader.content_encoding.key(), null );
+        builder.header( ApplicationHeader.content_encoding.key(), "gzip" );
+        return builder;
+    }
+
+    /**
+     * The local file behind the transfer when it can be sent as is. Metadata reads go through content-altering
+     * decorators (filtering, masking, URL rewriting), and a file of a different length than the transfer isn't what the
+     * reader would see either.
+     */
+    private File getZeroCopyFile( final Transfer item, final boolean metadata )
+    {
+        if ( metadata )
+        {
+            return null;
+        }
+
+        try
+        {
+            final File file = item.getDetachedFile();
+            return file != null && file.isFile() && file.length() == item.length() ? file : null;
+        }
+        catch ( final RuntimeException e )
+        {
+            logger.debug( "No local file for: {}. Reason: {}", item, e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Strong entity tag of the content, from the SHA-256 or else SHA-1 checksum already cached for the resolved item.
+     * The content is never read just for this: without cached checksums, no ETag is sent. Metadata gets none either,
+     * since read decorators rewrite it (per base URI, for npm) and the stored file's checksum isn't that of what is sent.
+     */
+    private String getETag( final Transfer item, final boolean metadata )
+    {
+        final TransferMetadata transferMetadata =
+                item == null || metadata ? null : contentDigester.getContentMetadata( item );
+        if ( transferMetadata == null || transferMetadata.getDigests() == null )
+        {
+            return null;
+        }
+
+        String checksum = transferMetadata.getDigests().get( ContentDigest.SHA_256 );
+        if ( checksum == null )
+        {
+            checksum = transferMetadata.getDigests().get( ContentDigest.SHA_1 );
+        }
+        return checksum == null ? null : "\"" + checksum + "\"";
+    }
+
     protected Response handleMissingContentQuery( final StoreKey sk, final String path,
                                                   final Consumer<ResponseBuilder> builderModifier )
     {
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.bind.jaxrs.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One satisfiable range of a <code>Range: bytes=...</code> request header, with both ends inclusive like in the
+ * Content-Range response header.
+ */
+public final class ByteRange
+{
+    // more ranges than this in one request are not worth the overhead; the whole content is sent instead
+    private static final int MAX_RANGES = 32;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+
+    private final long end;
+
+    public ByteRange( final long start, final long end )
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getEnd()
+    {
+        return end;
+    }
+
+    public long getLength()
+    {
+        return end - start + 1;
+    }
+
+    public String toContentRange( final long contentLength )
+    {
+        return "bytes " + start + "-" + end + "/" + contentLength;
+    }
+
+    /**
+     * Parse a Range header against content of the given length.
+     *
+     * @return null when the header is missing, malformed, not in bytes, or asks for too many ranges, in which case it
+     * is ignored and the whole content is sent; an empty list when none of the ranges is satisfiable (416); otherwise
+     * the satisfiable ranges in request order, ends clipped to the content.
+     */
+    public static List<ByteRange> parse( final String header, final long contentLength )
+    {
+        if ( header == null || !header.regionMatches( true, 0, BYTES_UNIT, 0, BYTES_UNIT.length() ) )
+        {
+            return null;
+        }
+
+        final String[] specs = header.substring( BYTES_UNIT.length() ).split( "," );
+        if ( specs.length > MAX_RANGES )
+        {
+            return null;
+        }
+
+        final List<ByteRange> ranges = new ArrayList<>( specs.length );
+        for ( final String raw : specs )
+        {
+            final String spec = raw.trim();
+            final int dash = spec.indexOf( '-' );
+            if ( dash < 0 )
+            {
+                return null;
+            }
+
+            final long first;
+            final long last;
+            try
+            {
+                if ( dash == 0 )
+                {
+                    // suffix range: the last N bytes
+                    final long suffix = Long.parseLong( spec.substring( 1 ) );
+                    if ( suffix <= 0 )
+                    {
+                        continue;
+                    }
+                    first = Math.max( 0, contentLength - suffix );
+                    last = contentLength - 1;
+                }
+                else
+                {
+                    first = Long.parseLong( spec.substring( 0, dash ) );
+                    if ( dash == spec.length() - 1 )
+                    {
+                        last = contentLength - 1;
+                    }
+                    else
+                    {
+                        final long requested = Long.parseLong( spec.substring( dash + 1 ) );
+                        if ( requested < first )
+                        {
+                            return null;
+                        }
+                        last = Math.min( contentLength - 1, requested );
+                    }
+                }
+            }
+            catch ( final NumberFormatException e )
+            {
+                return null;
+            }
+
+            if ( first < 0 )
+            {
+                return null;
+            }
+
+            if ( first < contentLength && first <= last )
+            {
+                ranges.add( new ByteRange( first, last ) );
+            }
+        }
+
+        return ranges.isEmpty() ? Collections.emptyList() : ranges;
+    }
+
+    @Override
+    public String toString()
+    {
+        return start + "-" + end;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.bind.jaxrs.util;
+
+import org.apache.commons.io.IOUtils;
+import org.commonjava.maven.galley.model.Transfer;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.commonjava.indy.util.ApplicationHeader.content_range;
+import static org.commonjava.indy.util.ApplicationHeader.content_type;
+
+/**
+ * Writes the requested ranges of a transfer for a 206 response: a single range as is, several ranges as a
+ * multipart/byteranges body. The stream opened before the response started is read forward, skipping to each range;
+ * it is only reopened when a range starts before the current position.
+ */
+public class RangeStreamingOutput
+    implements StreamingOutput
+{
+    private static final String CRLF = "\r\n";
+
+    private final Transfer item;
+
+    private final List<ByteRange> ranges;
+
+    private final long contentLength;
+
+    private final String contentType;
+
+    private final String boundary;
+
+    private InputStream stream;
+
+    public RangeStreamingOutput( final Transfer item, final InputStream stream, final List<ByteRange> ranges,
+                                 final long contentLength, final String contentType )
+    {
+        this.item = item;
+        this.stream = stream;
+        this.ranges = ranges;
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.boundary = ranges.size() > 1 ? UUID.randomUUID().toString().replace( "-", "" ) : null;
+    }
+
+    public boolean isMultipart()
+    {
+        return boundary != null;
+    }
+
+    /**
+     * Content-Type of the response, which for several ranges is the multipart type carrying the boundary.
+     */
+    public String getResponseContentType()
+    {
+        return isMultipart() ? "multipart/byteranges; boundary=" + boundary : contentType;
+    }
+
+    /**
+     * Exact number of bytes {@link #write(OutputStream)} produces, so the response can carry a Content-Length.
+     */
+    public long getResponseLength()
+    {
+        long length = 0;
+        for ( final ByteRange range : ranges )
+        {
+            length += range.getLength();
+            if ( isMultipart() )
+            {
+                length += partHeader( range ).length;
+            }
+        }
+
+        if ( isMultipart() )
+        {
+            length += closingBoundary().length;
+        }
+
+        return length;
+    }
+
+    @Override
+    public void write( final OutputStream out )
+        throws IOException, WebApplicationException
+    {
+        long position = 0;
+        try
+        {
+            final byte[] buf = new byte[8192];
+            for ( final ByteRange range : ranges )
+            {
+                if ( isMultipart() )
+                {
+                    out.write( partHeader( range ) );
+                }
+
+                if ( range.getStart() < position )
+                {
+                    IOUtils.closeQuietly( stream );
+                    stream = item.openInputStream( false );
+                    position = 0;
+                }
+
+                IOUtils.skipFully( stream, range.getStart() - position );
+                position = range.getStart();
+
+                long remaining = range.getLength();
+                while ( remaining > 0 )
+                {
+                    final int read = stream.read( buf, 0, (int) Math.min( buf.length, remaining ) );
+                    if ( read < 0 )
+                    {
+                        throw new IOException( "Content of " + item + " ended before byte " + range.getEnd() );
+                    }
+                    out.write( buf, 0, read );
+                    remaining -= read;
+                    position += read;
+                }
+            }
+
+            if ( isMultipart() )
+            {
+                out.write( closingBoundary() );
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( stream );
+        }
+    }
+
+    private byte[] partHeader( final ByteRange range )
+    {
+        return ( CRLF + "--" + boundary + CRLF + content_type.key() + ": " + contentType + CRLF + content_range.key()
+                + ": " + range.toContentRange( contentLength ) + CRLF + CRLF ).getBytes( StandardCharsets.ISO_8859_1 );
+    }
+
+    private byte[] closingBoundary()
+    {
+        return ( CRLF + "--" + boundary + "--" + CRLF ).getBytes( StandardCharsets.ISO_8859_1 );
+    }
+}
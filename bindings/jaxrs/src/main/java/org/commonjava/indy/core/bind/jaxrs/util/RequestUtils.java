@@ -21,6 +21,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.Response;
 import java.net.URI;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -33,6 +36,10 @@ import static org.commonjava.indy.IndyRequestConstants.LISTING_HTML_FILE;
 import static org.commonjava.indy.core.ctl.ContentController.BROWSER_USER_AGENT;
 import static org.commonjava.indy.core.ctl.ContentController.CONTENT_BROWSE_API_ROOT;
 import static org.commonjava.indy.core.ctl.ContentController.CONTENT_BROWSE_ROOT;
+import static org.commonjava.indy.util.ApplicationHeader.accept_encoding;
+import static org.commonjava.indy.util.ApplicationHeader.if_modified_since;
+import static org.commonjava.indy.util.ApplicationHeader.if_none_match;
+import static org.commonjava.indy.util.ApplicationHeader.if_range;
 
 public final class RequestUtils
 {
@@ -109,4 +116,137 @@ public final class RequestUtils
         final String pathInfo = request.getPathInfo().trim();
         return pathInfo.endsWith( "/" ) || pathInfo.endsWith( LISTING_HTML_FILE );
     }
+
+    /**
+     * Whether a GET can be answered with 304 Not Modified. If-None-Match takes precedence over If-Modified-Since, as
+     * RFC 7232 asks; entity tags are compared weakly, dates with second precision.
+     *
+     * @param etag quoted entity tag of the content, or null if unknown
+     */
+    public static boolean isNotModified( final HttpServletRequest request, final String etag, final long lastModified )
+    {
+        final String ifNoneMatch = request.getHeader( if_none_match.key() );
+        if ( ifNoneMatch != null )
+        {
+            return matchesETag( ifNoneMatch, etag, false );
+        }
+
+        final long ifModifiedSince = parseDateHeader( request.getHeader( if_modified_since.key() ) );
+        return ifModifiedSince > 0 && lastModified > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Whether the Range header of a GET applies: there is no If-Range, or it names the current content through a strong
+     * entity tag or its exact last-modified date.
+     */
+    public static boolean isRangeApplicable( final HttpServletRequest request, final String etag,
+                                             final long lastModified )
+    {
+        final String ifRange = request.getHeader( if_range.key() );
+        if ( ifRange == null )
+        {
+            return true;
+        }
+
+        final String value = ifRange.trim();
+        if ( value.startsWith( "\"" ) || value.startsWith( "W/" ) )
+        {
+            return matchesETag( value, etag, true );
+        }
+
+        final long date = parseDateHeader( value );
+        return date > 0 && date / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * Whether the Accept-Encoding header of the request accepts the given content coding, by name or through
+     * <code>*</code>, with a non-zero quality.
+     */
+    public static boolean acceptsEncoding( final HttpServletRequest request, final String encoding )
+    {
+        final String acceptEncoding = request.getHeader( accept_encoding.key() );
+        if ( acceptEncoding == null )
+        {
+            return false;
+        }
+
+        for ( final String candidate : acceptEncoding.split( "," ) )
+        {
+            final String[] parts = candidate.trim().split( ";" );
+            final String coding = parts[0].trim();
+            if ( !coding.equalsIgnoreCase( encoding ) && !"*".equals( coding ) )
+            {
+                continue;
+            }
+
+            for ( int i = 1; i < parts.length; i++ )
+            {
+                final String param = parts[i].trim();
+                if ( param.startsWith( "q=" ) )
+                {
+                    try
+                    {
+                        return Double.parseDouble( param.substring( 2 ) ) > 0;
+                    }
+                    catch ( final NumberFormatException e )
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private static boolean matchesETag( final String header, final String etag, final boolean strong )
+    {
+        if ( etag == null )
+        {
+            return false;
+        }
+
+        for ( final String candidate : header.split( "," ) )
+        {
+            String tag = candidate.trim();
+            if ( "*".equals( tag ) )
+            {
+                return !strong;
+            }
+
+            if ( tag.startsWith( "W/" ) )
+            {
+                if ( strong )
+                {
+                    continue;
+                }
+                tag = tag.substring( 2 );
+            }
+
+            if ( tag.equals( etag ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long parseDateHeader( final String value )
+    {
+        if ( value == null )
+        {
+            return -1;
+        }
+
+        try
+        {
+            return ZonedDateTime.parse( value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME ).toInstant().toEpochMilli();
+        }
+        catch ( final DateTimeParseException e )
+        {
+            return -1;
+        }
+    }
 }
@@ -20,15 +20,23 @@ import org.apache.commons.io.output.CountingOutputStream;
 import org.commonjava.o11yphant.metrics.annotation.Measure;
 import org.commonjava.o11yphant.metrics.api.Meter;
 import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import io.undertow.servlet.handlers.ServletRequestContext;
+import io.undertow.servlet.spec.HttpServletResponseImpl;
+import io.undertow.servlet.spec.ServletOutputStreamImpl;
 import org.commonjava.indy.subsys.metrics.conf.IndyMetricsConfig;
+import org.commonjava.indy.util.ApplicationHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletOutputStream;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import static org.commonjava.indy.IndyContentConstants.NANOS_PER_SEC;
 import static org.commonjava.o11yphant.metrics.MetricsConstants.METER;
@@ -43,6 +51,8 @@ public class TransferStreamingOutput
 
     private InputStream stream;
 
+    private File file;
+
     private DefaultMetricsManager metricsManager;
 
     private IndyMetricsConfig metricsConfig;
@@ -55,6 +65,17 @@ public class TransferStreamingOutput
         this.metricsConfig = metricsConfig;
     }
 
+    /**
+     * @param file local file holding exactly the content of the stream, which is then sent with sendfile when the
+     * response goes straight to Undertow; the stream is only kept open to hold the transfer until the response is done.
+     */
+    public TransferStreamingOutput( final InputStream stream, final File file,
+                                    final DefaultMetricsManager metricsManager, final IndyMetricsConfig metricsConfig )
+    {
+        this( stream, metricsManager, metricsConfig );
+        this.file = file;
+    }
+
     @Override
     @Measure
     public void write( final OutputStream out )
@@ -63,11 +84,16 @@ public class TransferStreamingOutput
         long start = System.nanoTime();
         try
         {
-            CountingOutputStream cout = new CountingOutputStream( out );
-            IOUtils.copy( stream, cout );
+            long written = file == null ? -1 : sendFile( out );
+            if ( written < 0 )
+            {
+                CountingOutputStream cout = new CountingOutputStream( out );
+                IOUtils.copy( stream, cout );
+                written = cout.getByteCount();
+            }
 
             Logger logger = LoggerFactory.getLogger( getClass() );
-            logger.trace( "Wrote: {} bytes", cout.getByteCount() );
+            logger.trace( "Wrote: {} bytes", written );
 
             String name = getName( metricsConfig.getNodePrefix(), TRANSFER_METRIC_NAME,
                                    getDefaultName( TransferStreamingOutput.class, "write" ), METER );
@@ -76,7 +102,7 @@ public class TransferStreamingOutput
             double elapsed = (end-start)/NANOS_PER_SEC;
 
             Meter meter = metricsManager.getMeter( name );
-            meter.mark( Math.round( cout.getByteCount() / elapsed ) );
+            meter.mark( Math.round( written / elapsed ) );
         }
         finally
         {
@@ -84,4 +110,42 @@ public class TransferStreamingOutput
         }
     }
 
+    /**
+     * Send the file through Undertow's {@link ServletOutputStreamImpl#transferFrom(FileChannel)}, which uses
+     * {@link FileChannel#transferTo} on the connection instead of copying the content through the worker thread. The
+     * headers collected by JAX-RS are committed first by flushing its stream. Nothing is sent, and -1 returned, when
+     * the response isn't written by Undertow or is encoded on the way out.
+     *
+     * @return the number of bytes sent, or -1 to copy the stream instead
+     */
+    private long sendFile( final OutputStream out )
+            throws IOException
+    {
+        final ServletRequestContext context = ServletRequestContext.current();
+        if ( context == null )
+        {
+            return -1;
+        }
+
+        final HttpServletResponseImpl response = context.getOriginalResponse();
+        final ServletOutputStream servletOut = response.getOutputStream();
+        if ( !( servletOut instanceof ServletOutputStreamImpl ) )
+        {
+            return -1;
+        }
+
+        out.flush();
+        if ( response.containsHeader( ApplicationHeader.content_encoding.key() ) )
+        {
+            return -1;
+        }
+
+        try (FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+        {
+            final long size = channel.size();
+            ( (ServletOutputStreamImpl) servletOut ).transferFrom( channel );
+            return size;
+        }
+    }
+
 }
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.bind.jaxrs.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ByteRangeTest
+{
+    @Test
+    public void parseSingleAndSuffixRanges()
+    {
+        List<ByteRange> ranges = ByteRange.parse( "bytes=0-9, 95-, -3", 100 );
+
+        assertThat( ranges.size(), equalTo( 3 ) );
+        assertThat( ranges.get( 0 ).toContentRange( 100 ), equalTo( "bytes 0-9/100" ) );
+        assertThat( ranges.get( 1 ).toContentRange( 100 ), equalTo( "bytes 95-99/100" ) );
+        assertThat( ranges.get( 2 ).toContentRange( 100 ), equalTo( "bytes 97-99/100" ) );
+    }
+
+    @Test
+    public void clipEndAndDropUnsatisfiableRanges()
+    {
+        assertThat( ByteRange.parse( "bytes=90-200", 100 ).get( 0 ).getEnd(), equalTo( 99L ) );
+        assertThat( ByteRange.parse( "bytes=100-200", 100 ).isEmpty(), equalTo( true ) );
+        assertThat( ByteRange.parse( "bytes=100-200,5-6", 100 ).size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void ignoreMalformedHeaders()
+    {
+        assertThat( ByteRange.parse( null, 100 ), nullValue() );
+        assertThat( ByteRange.parse( "items=0-1", 100 ), nullValue() );
+        assertThat( ByteRange.parse( "bytes=5-1", 100 ), nullValue() );
+        assertThat( ByteRange.parse( "bytes=a-b", 100 ), nullValue() );
+    }
+
+    @Test
+    public void writeMultipleRangesAsMultipart()
+            throws Exception
+    {
+        byte[] content = "0123456789abcdefghij".getBytes( StandardCharsets.UTF_8 );
+        List<ByteRange> ranges = Arrays.asList( new ByteRange( 0, 2 ), new ByteRange( 10, 12 ) );
+
+        RangeStreamingOutput output =
+                new RangeStreamingOutput( null, new ByteArrayInputStream( content ), ranges, content.length,
+                                          "application/java-archive" );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.write( out );
+
+        String body = new String( out.toByteArray(), StandardCharsets.ISO_8859_1 );
+        assertThat( output.getResponseContentType(), containsString( "multipart/byteranges; boundary=" ) );
+        assertThat( body, containsString( "Content-Range: bytes 0-2/20\r\n\r\n012\r\n" ) );
+        assertThat( body, containsString( "Content-Range: bytes 10-12/20\r\n\r\nabc\r\n" ) );
+        assertThat( (long) out.size(), equalTo( output.getResponseLength() ) );
+    }
+}
@@ -15,8 +15,8 @@
  */
 package org.commonjava.indy.core.content;
 
-import org.apache.commons.io.IOUtils;
 import org.commonjava.indy.IndyWorkflowException;
+import org.commonjava.indy.conf.IndyConfiguration;
 import org.commonjava.indy.content.ContentDigester;
 import org.commonjava.indy.content.DirectContentAccess;
 import org.commonjava.indy.core.inject.ContentMetadataCache;
@@ -29,12 +29,17 @@ import org.commonjava.maven.galley.model.Transfer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 
+import static org.commonjava.indy.conf.DefaultIndyConfiguration.DEFAULT_CONTENT_DIGEST_CONCURRENCY;
 import static org.commonjava.maven.galley.io.ChecksummingTransferDecorator.FORCE_CHECKSUM;
 
 /**
@@ -47,6 +52,7 @@ public class DefaultContentDigester
         implements ContentDigester
 
 {
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
 
     @Inject
     private DirectContentAccess directContentAccess;
@@ -55,17 +61,44 @@ public class DefaultContentDigester
     @ContentMetadataCache
     private BasicCacheHandle<String, TransferMetadata> metadataCache;
 
+    @Inject
+    private IndyConfiguration indyConfig;
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
+    private Semaphore digestPermits;
+
+    private BlockingQueue<byte[]> digestBuffers;
+
     protected DefaultContentDigester()
     {
     }
 
     public DefaultContentDigester( DirectContentAccess directContentAccess,
                                    BasicCacheHandle<String, TransferMetadata> metadataCache )
+    {
+        this( directContentAccess, metadataCache, DEFAULT_CONTENT_DIGEST_CONCURRENCY );
+    }
+
+    public DefaultContentDigester( DirectContentAccess directContentAccess,
+                                   BasicCacheHandle<String, TransferMetadata> metadataCache, int digestConcurrency )
     {
         this.directContentAccess = directContentAccess;
         this.metadataCache = metadataCache;
+        initDigestLimits( digestConcurrency );
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        initDigestLimits( indyConfig.getContentDigestConcurrency() );
+    }
+
+    private void initDigestLimits( final int digestConcurrency )
+    {
+        final int permits = Math.max( 1, digestConcurrency );
+        digestPermits = new Semaphore( permits, true );
+        digestBuffers = new ArrayBlockingQueue<>( permits );
     }
 
     @Override
@@ -138,21 +171,64 @@ public class DefaultContentDigester
         logger.debug( "TransferMetadata missing for: {}. Re-reading with FORCE_CHECKSUM now to calculate it.",
                       cacheKey );
 
-        EventMetadata forcedEventMetadata = new EventMetadata( eventMetadata ).set( FORCE_CHECKSUM, Boolean.TRUE );
-        try(InputStream stream = transfer.openInputStream( false, forcedEventMetadata ) )
+        final byte[] buffer = acquireDigestBuffer( transfer );
+        try
         {
             // depend on ChecksummingTransferDecorator to calculate / store metadata as this gets read, using
             // the FORCE_CHECKSUM metadata key to control its generation.
-            IOUtils.toByteArray( stream );
+            EventMetadata forcedEventMetadata = new EventMetadata( eventMetadata ).set( FORCE_CHECKSUM, Boolean.TRUE );
+            try (InputStream stream = transfer.openInputStream( false, forcedEventMetadata ))
+            {
+                drain( stream, buffer );
+            }
+
+            logger.debug( "Retrying TransferMetadata retrieval from cache for: {} after recalculating", cacheKey );
+            return getContentMetadata( transfer );
         }
         catch ( IOException e )
         {
             throw new IndyWorkflowException( "Failed to calculate checksums (MD5, SHA-256, etc.) for: %s. Reason: %s",
                                              e, transfer, e.getMessage() );
         }
+        finally
+        {
+            releaseDigestBuffer( buffer );
+        }
+    }
 
-        logger.debug( "Retrying TransferMetadata retrieval from cache for: {} after recalculating", cacheKey );
+    /**
+     * Wait for one of the digest permits, and hand out a read buffer to go with it. Buffers are recycled between
+     * digests, so reading even a very large file never allocates more than the one fixed-size buffer.
+     */
+    private byte[] acquireDigestBuffer( final Transfer transfer )
+            throws IndyWorkflowException
+    {
+        try
+        {
+            digestPermits.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IndyWorkflowException( "Interrupted while waiting to calculate checksums for: %s", e, transfer );
+        }
 
-        return getContentMetadata( transfer );
+        byte[] buffer = digestBuffers.poll();
+        return buffer == null ? new byte[DIGEST_BUFFER_SIZE] : buffer;
+    }
+
+    private void releaseDigestBuffer( final byte[] buffer )
+    {
+        digestBuffers.offer( buffer );
+        digestPermits.release();
+    }
+
+    private void drain( final InputStream stream, final byte[] buffer )
+            throws IOException
+    {
+        //noinspection StatementWithEmptyBody
+        while ( stream.read( buffer ) > -1 )
+        {
+        }
     }
 }
@@ -23,6 +23,7 @@ import org.commonjava.indy.content.ContentDigester;
 import org.commonjava.indy.content.ContentManager;
 import org.commonjava.indy.content.DownloadManager;
 import org.commonjava.indy.content.StoreResource;
+import org.commonjava.indy.core.content.group.GroupMemberProber;
 import org.commonjava.indy.core.content.group.GroupRepositoryFilterManager;
 import org.commonjava.indy.data.IndyDataException;
 import org.commonjava.indy.data.StoreDataManager;
@@ -36,6 +37,7 @@ import org.commonjava.indy.util.ApplicationStatus;
 import org.commonjava.indy.util.LocationUtils;
 import org.commonjava.maven.galley.TransferManager;
 import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.io.checksum.TransferMetadata;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.SpecialPathInfo;
 import org.commonjava.maven.galley.model.Transfer;
@@ -96,6 +98,9 @@ public class DefaultContentManager
     @Inject
     private GroupRepositoryFilterManager repositoryFilterManager;
 
+    @Inject
+    private GroupMemberProber groupMemberProber;
+
     protected DefaultContentManager()
     {
     }
@@ -224,21 +229,23 @@ public class DefaultContentManager
             {
                 if ( PathMaskChecker.checkMask( store, path ) )
                 {
-                    for ( final ArtifactStore member : members )
+                    if ( groupMemberProber != null && groupMemberProber.isEnabled() )
                     {
-                        try
-                        {
-                            item = doRetrieve( member, path, eventMetadata );
-                        }
-                        catch ( IndyWorkflowException e )
-                        {
-                            logger.error( "Failed to retrieve artifact from for path {} from {} in group {}, error is: {}",
-                                          path, member, store, e.getMessage() );
-                        }
-                        if ( item != null )
+                        item = groupMemberProber.retrieveFirst( (Group) store, members, eventMetadata,
+                                                                member -> downloadManager.exists( member, path ),
+                                                                ( member, memberMetadata ) -> doRetrieveMember(
+                                                                        store, member, path, memberMetadata ) );
+                    }
+                    else
+                    {
+                        for ( final ArtifactStore member : members )
                         {
-                            // get the item from the first member store
-                            break;
+                            item = doRetrieveMember( store, member, path, eventMetadata );
+                            if ( item != null )
+                            {
+                                // get the item from the first member store
+                                break;
+                            }
                         }
                     }
                 }
@@ -280,6 +287,21 @@ public class DefaultContentManager
         return members;
     }
 
+    private Transfer doRetrieveMember( final ArtifactStore group, final ArtifactStore member, final String path,
+                                       final EventMetadata eventMetadata )
+    {
+        try
+        {
+            return doRetrieve( member, path, eventMetadata );
+        }
+        catch ( IndyWorkflowException e )
+        {
+            logger.error( "Failed to retrieve artifact from for path {} from {} in group {}, error is: {}", path,
+                          member, group, e.getMessage() );
+        }
+        return null;
+    }
+
     private Transfer doRetrieve( final ArtifactStore store, final String path, final EventMetadata eventMetadata )
             throws IndyWorkflowException
     {
@@ -358,6 +380,56 @@ public class DefaultContentManager
 
         logger.debug( "Storing: {} for: {} with event metadata: {}", path, store.getKey(), eventMetadata );
         final Transfer txfr = downloadManager.store( store, path, stream, op, eventMetadata );
+        handleStored( store, path, txfr, eventMetadata );
+
+        return txfr;
+    }
+
+    @Override
+    @Measure
+    public Transfer store( final ArtifactStore store, final String path, final Transfer source,
+                           final TransferOperation op, final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
+        if ( group == store.getKey().getType() )
+        {
+            try (InputStream stream = source.openInputStream( true ))
+            {
+                return store( store, path, stream, op, eventMetadata );
+            }
+            catch ( final IOException e )
+            {
+                throw new IndyWorkflowException( "Failed to read: %s for storage in: %s. Reason: %s", e, source,
+                                                 store.getKey(), e.getMessage() );
+            }
+        }
+
+        logger.debug( "Storing: {} for: {} from: {} with event metadata: {}", path, store.getKey(), source,
+                      eventMetadata );
+        final Transfer txfr = downloadManager.store( store, path, source, op, eventMetadata );
+        if ( txfr != null )
+        {
+            // same content, so the checksums of the source apply without reading it again; without them, calculate
+            // them now, as the checksumming decorator would have while writing
+            final TransferMetadata sourceMetadata = contentDigester.getContentMetadata( source );
+            if ( sourceMetadata != null )
+            {
+                contentDigester.addMetadata( txfr, sourceMetadata );
+            }
+            else if ( contentDigester.getContentMetadata( txfr ) == null )
+            {
+                contentDigester.digest( store.getKey(), path, eventMetadata );
+            }
+        }
+        handleStored( store, path, txfr, eventMetadata );
+
+        return txfr;
+    }
+
+    private void handleStored( final ArtifactStore store, final String path, final Transfer txfr,
+                               final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
         if ( txfr != null )
         {
             final KeyedLocation kl = (KeyedLocation) txfr.getLocation();
@@ -381,8 +453,6 @@ public class DefaultContentManager
             storeManager.asyncGroupAffectedBy(
                     new StoreDataManager.ContextualTask( name, context, () -> clearNFCEntries( kl, path, eventMetadata ) ) );
         }
-
-        return txfr;
     }
 
     @Measure
@@ -47,8 +47,10 @@ import org.commonjava.maven.galley.TransferException;
 import org.commonjava.maven.galley.TransferLocationException;
 import org.commonjava.maven.galley.TransferManager;
 import org.commonjava.maven.galley.TransferTimeoutException;
+import org.commonjava.maven.galley.cache.pathmapped.PathMappedCacheProvider;
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.event.FileAccessEvent;
+import org.commonjava.maven.galley.event.FileStorageEvent;
 import org.commonjava.maven.galley.io.SpecialPathManagerImpl;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.ListingResult;
@@ -57,9 +59,11 @@ import org.commonjava.maven.galley.model.SpecialPathInfo;
 import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.model.TransferOperation;
 import org.commonjava.maven.galley.model.VirtualResource;
+import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.commonjava.maven.galley.spi.io.SpecialPathManager;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
 import org.commonjava.maven.galley.spi.transport.LocationExpander;
+import org.commonjava.maven.galley.transport.htcli.model.HttpExchangeMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -88,6 +92,7 @@ import static org.commonjava.indy.model.core.StoreType.hosted;
 import static org.commonjava.indy.util.ContentUtils.dedupeListing;
 import static org.commonjava.maven.galley.model.TransferOperation.DOWNLOAD;
 import static org.commonjava.maven.galley.model.TransferOperation.LISTING;
+import static org.commonjava.maven.galley.spi.cache.CacheProvider.STORE_HTTP_HEADERS;
 
 @javax.enterprise.context.ApplicationScoped
 public class DefaultDownloadManager
@@ -113,6 +118,12 @@ public class DefaultDownloadManager
     @Inject
     private TransferManager transfers;
 
+    @Inject
+    private Instance<CacheProvider> cacheProviders;
+
+    // the cache provider doesn't change at runtime, resolved on first use
+    private volatile Boolean referenceCopySupported;
+
     @Inject
     private LocationExpander locationExpander;
 
@@ -571,47 +582,7 @@ public class DefaultDownloadManager
             return null;
         }
 
-        if ( store.getKey().getType() != hosted )
-        {
-            throw new IndyWorkflowException( ApplicationStatus.BAD_REQUEST.code(),
-                                             "Cannot deploy to non-deploy point artifact store: {}.", store.getKey() );
-        }
-
-        if ( !isIgnoreReadonly( eventMetadata ) && storeManager.isReadonly( store ) )
-        {
-            throw new IndyWorkflowException( ApplicationStatus.METHOD_NOT_ALLOWED.code(),
-                                             "The store {} is readonly. If you want to store any content to this store, please modify it to non-readonly",
-                                             store.getKey() );
-        }
-
-
-        if ( store instanceof HostedRepository )
-        {
-            final HostedRepository deploy = (HostedRepository) store;
-
-//            final ArtifactPathInfo pathInfo = ArtifactPathInfo.parse( path );
-            final ContentQuality quality = getQuality( path );
-            if ( quality != ContentQuality.METADATA )
-            {
-                if ( quality == ContentQuality.SNAPSHOT )
-                {
-                    if ( !deploy.isAllowSnapshots() )
-                    {
-                        logger.error( "Cannot store snapshot in non-snapshot deploy point: {}", deploy.getName() );
-                        throw new IndyWorkflowException( ApplicationStatus.BAD_REQUEST.code(),
-                                                         "Cannot store snapshot in non-snapshot deploy point: {}",
-                                                         deploy.getName() );
-                    }
-                }
-                else if ( !deploy.isAllowReleases() )
-                {
-                    logger.error( "Cannot store release in snapshot-only deploy point: {}", deploy.getName() );
-                    throw new IndyWorkflowException( ApplicationStatus.BAD_REQUEST.code(),
-                                                     "Cannot store release in snapshot-only deploy point: {}",
-                                                     deploy.getName() );
-                }
-            }
-        }
+        checkStorable( store, path, eventMetadata );
 
         //        final Transfer target = getStorageReference( deploy, path );
 
@@ -678,6 +649,141 @@ public class DefaultDownloadManager
         }
     }
 
+    @Override
+    @Measure
+    public Transfer store( final ArtifactStore store, final String path, final Transfer source,
+                           final TransferOperation op, final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
+        if ( store.getKey().getType() == StoreType.group )
+        {
+            return null;
+        }
+
+        // request headers to record come with direct uploads; let the upload decorators write them with the content
+        final boolean uploaded = eventMetadata != null && eventMetadata.get( STORE_HTTP_HEADERS ) != null;
+        if ( uploaded || !isReferenceCopySupported() )
+        {
+            try (InputStream stream = source.openInputStream( true ))
+            {
+                return store( store, path, stream, op, eventMetadata );
+            }
+            catch ( final IOException e )
+            {
+                throw new IndyWorkflowException( "Failed to read: {} for storage in: {}. Reason: {}", e, source,
+                                                 store.getKey(), e.getMessage() );
+            }
+        }
+
+        checkStorable( store, path, eventMetadata );
+
+        KeyedLocation loc = LocationUtils.toLocation( store );
+        boolean resetReadonly = ( !loc.allowsStoring() && isIgnoreReadonly( eventMetadata ) && loc instanceof CacheOnlyLocation );
+        try
+        {
+            if ( resetReadonly )
+            {
+                ( (CacheOnlyLocation) loc ).setReadonly( false );
+            }
+            final ConcreteResource resource = new ConcreteResource( loc, path );
+
+            // only the path mapping is copied, both paths point to the same physical file afterwards
+            Transfer txfr = transfers.getCacheReference( resource );
+            txfr.copyFrom( source, eventMetadata );
+            logger.debug( "Stored: {} as reference to: {}", txfr, source );
+
+            // the upload decorators don't see a reference copy, so carry the upload metadata of the source over
+            final Transfer sourceHttpMeta = source.getSiblingMeta( HttpExchangeMetadata.FILE_EXTENSION );
+            if ( sourceHttpMeta != null && sourceHttpMeta.exists() )
+            {
+                final Transfer httpMeta = txfr.getSiblingMeta( HttpExchangeMetadata.FILE_EXTENSION );
+                httpMeta.copyFrom( sourceHttpMeta, eventMetadata );
+                logger.debug( "Stored: {} as reference to: {}", httpMeta, sourceHttpMeta );
+            }
+
+            fileEventManager.fire( new FileStorageEvent( op, txfr, eventMetadata ) );
+            nfc.clearMissing( resource );
+            return txfr;
+        }
+        catch ( final IOException e )
+        {
+            logger.error( String.format( "Failed to store: %s in: %s as reference to: %s. Reason: %s", path,
+                                         store.getKey(), source, e.getMessage() ), e );
+
+            throw new IndyWorkflowException( "Failed to store: %s in: %s. Reason: %s", e, path, store.getKey(),
+                                             e.getMessage() );
+        }
+        finally
+        {
+            if ( resetReadonly )
+            {
+                ( (CacheOnlyLocation) loc ).setReadonly( true );
+            }
+        }
+    }
+
+    /**
+     * Path-mapped storage keeps content addressed by checksum, so a path can be added as a reference to the file behind
+     * another path. Other storage has to copy the bytes.
+     */
+    private boolean isReferenceCopySupported()
+    {
+        Boolean supported = referenceCopySupported;
+        if ( supported == null )
+        {
+            supported = cacheProviders != null && !cacheProviders.isUnsatisfied()
+                    && cacheProviders.get() instanceof PathMappedCacheProvider;
+            referenceCopySupported = supported;
+        }
+        return supported;
+    }
+
+    private void checkStorable( final ArtifactStore store, final String path, final EventMetadata eventMetadata )
+            throws IndyWorkflowException
+    {
+        if ( store.getKey().getType() != hosted )
+        {
+            throw new IndyWorkflowException( ApplicationStatus.BAD_REQUEST.code(),
+                                             "Cannot deploy to non-deploy point artifact store: {}.", store.getKey() );
+        }
+
+        if ( !isIgnoreReadonly( eventMetadata ) && storeManager.isReadonly( store ) )
+        {
+            throw new IndyWorkflowException( ApplicationStatus.METHOD_NOT_ALLOWED.code(),
+                                             "The store {} is readonly. If you want to store any content to this store, please modify it to non-readonly",
+                                             store.getKey() );
+        }
+
+
+        if ( store instanceof HostedRepository )
+        {
+            final HostedRepository deploy = (HostedRepository) store;
+
+//            final ArtifactPathInfo pathInfo = ArtifactPathInfo.parse( path );
+            final ContentQuality quality = getQuality( path );
+            if ( quality != ContentQuality.METADATA )
+            {
+                if ( quality == ContentQuality.SNAPSHOT )
+                {
+                    if ( !deploy.isAllowSnapshots() )
+                    {
+                        logger.error( "Cannot store snapshot in non-snapshot deploy point: {}", deploy.getName() );
+                        throw new IndyWorkflowException( ApplicationStatus.BAD_REQUEST.code(),
+                                                         "Cannot store snapshot in non-snapshot deploy point: {}",
+                                                         deploy.getName() );
+                    }
+                }
+                else if ( !deploy.isAllowReleases() )
+                {
+                    logger.error( "Cannot store release in snapshot-only deploy point: {}", deploy.getName() );
+                    throw new IndyWorkflowException( ApplicationStatus.BAD_REQUEST.code(),
+                                                     "Cannot store release in snapshot-only deploy point: {}",
+                                                     deploy.getName() );
+                }
+            }
+        }
+    }
+
     private boolean isIgnoreReadonly( EventMetadata eventMetadata )
     {
         return Boolean.TRUE.equals( eventMetadata.get( IGNORE_READONLY ) );
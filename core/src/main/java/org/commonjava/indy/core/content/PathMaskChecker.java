@@ -16,15 +16,21 @@
 package org.commonjava.indy.core.content;
 
 import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.StoreKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PathMaskChecker
 {
     private static final Logger logger = LoggerFactory.getLogger( PathMaskChecker.class );
 
+    // not in the store's transient metadata, which copies of the store share and which isn't thread-safe
+    private static final Map<StoreKey, PathMaskMatcher> MATCHERS = new ConcurrentHashMap<>();
+
     public static boolean checkMask(final ArtifactStore repo, final String path){
         Set<String> maskPatterns = repo.getPathMaskPatterns();
 
@@ -37,23 +43,10 @@ public class PathMaskChecker
             return true;
         }
 
-        for ( String pattern : maskPatterns )
+        if ( getMatcher( repo, maskPatterns ).matches( path ) )
         {
-            // adding allPlaintext to the condition to reduce the number of isRegexPattern() calls
-            if ( isRegexPattern( pattern ) )
-            {
-                final String realRegex = pattern.substring( 2, pattern.length() - 1 );
-                if ( path.matches( realRegex ) )
-                {
-                    logger.trace( "Checking mask in: {}, pattern with regex: {} - MATCH", repo.getName(), realRegex );
-                    return true;
-                }
-            }
-            else if ( path.startsWith( pattern ) )
-            {
-                logger.trace( "Checking mask in: {}, pattern: {} - MATCH", repo.getName(), pattern );
-                return true;
-            }
+            logger.trace( "Checking mask in: {}, path: {} - MATCH", repo.getName(), path );
+            return true;
         }
 
         logger.debug( "Path {} not available in path mask {} of repo {}", path, maskPatterns, repo );
@@ -75,24 +68,12 @@ public class PathMaskChecker
             return true;
         }
 
-        for ( String pattern : maskPatterns )
-        {
-            if ( isRegexPattern( pattern ) )
-            {
-                // if there is a regexp pattern we cannot check presence of directory listing, because we would have to
-                // check only the beginning of the regexp and that's impossible, so we have to assume that the path is
-                // present
-                return true;
-            }
-        }
-
-        for ( String pattern : maskPatterns )
+        // if there is a regexp pattern we cannot check presence of directory listing, because we would have to
+        // check only the beginning of the regexp and that's impossible, so the matcher assumes that the path is present
+        if ( getMatcher( store, maskPatterns ).matchesListing( path ) )
         {
-            if ( path.startsWith( pattern ) || pattern.startsWith( path ) )
-            {
-                logger.trace( "Checking mask in: {}, pattern: {} - MATCH", store.getName(), pattern );
-                return true;
-            }
+            logger.trace( "Checking mask in: {}, path: {} - MATCH", store.getName(), path );
+            return true;
         }
 
         logger.debug( "Listing for path {} not enabled by path mask {} of repo {}", path, maskPatterns, store.getKey() );
@@ -104,4 +85,21 @@ public class PathMaskChecker
     {
         return pattern != null && pattern.startsWith( "r|" ) && pattern.endsWith( "|" );
     }
+
+    /**
+     * The compiled patterns are kept per store key, and only rebuilt when the store's mask patterns change.
+     */
+    static PathMaskMatcher getMatcher( final ArtifactStore store, final Set<String> maskPatterns )
+    {
+        PathMaskMatcher cached = MATCHERS.get( store.getKey() );
+        if ( cached != null && cached.isCompiledFrom( maskPatterns ) )
+        {
+            return cached;
+        }
+
+        logger.trace( "Compiling {} mask patterns of {}", maskPatterns.size(), store.getKey() );
+        PathMaskMatcher matcher = new PathMaskMatcher( maskPatterns );
+        MATCHERS.put( store.getKey(), matcher );
+        return matcher;
+    }
 }
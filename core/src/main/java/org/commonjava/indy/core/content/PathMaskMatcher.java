@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.commonjava.indy.core.content.PathMaskChecker.isRegexPattern;
+
+/**
+ * Compiled form of a store's path mask patterns. Plain patterns are prefixes, kept as a sorted array without the
+ * prefixes that are already covered by a shorter one, so a single binary search tells whether any of them matches.
+ * Regex patterns (<code>r|...|</code>) are compiled once instead of on every {@link String#matches(String)} call.
+ */
+public final class PathMaskMatcher
+{
+    private final Set<String> patterns;
+
+    private final String[] prefixes;
+
+    private final Pattern[] regexes;
+
+    PathMaskMatcher( final Set<String> patterns )
+    {
+        this.patterns = new HashSet<>( patterns );
+
+        final List<String> plain = new ArrayList<>();
+        final List<Pattern> compiled = new ArrayList<>();
+        for ( final String pattern : patterns )
+        {
+            if ( isRegexPattern( pattern ) )
+            {
+                compiled.add( Pattern.compile( pattern.substring( 2, pattern.length() - 1 ) ) );
+            }
+            else if ( pattern != null )
+            {
+                plain.add( pattern );
+            }
+        }
+
+        this.regexes = compiled.toArray( new Pattern[0] );
+        this.prefixes = prefixFree( plain );
+    }
+
+    /**
+     * Whether this matcher was compiled from the given patterns. The matcher keeps its own copy, so changes made to the
+     * store's set after compiling are seen here too.
+     */
+    boolean isCompiledFrom( final Set<String> patterns )
+    {
+        return this.patterns.equals( patterns );
+    }
+
+    public boolean matches( final String path )
+    {
+        if ( matchesPrefix( path ) )
+        {
+            return true;
+        }
+
+        for ( final Pattern regex : regexes )
+        {
+            if ( regex.matcher( path ).matches() )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether a listing of the given directory path may contain something matched by the patterns: the path is under
+     * one of the prefixes, or one of the prefixes is under the path. Regex patterns can't be checked against a
+     * directory, so any regex pattern allows all listings.
+     */
+    public boolean matchesListing( final String path )
+    {
+        if ( regexes.length > 0 || matchesPrefix( path ) )
+        {
+            return true;
+        }
+
+        // the first prefix sorting at or after the path is the only one that can start with it
+        int idx = Arrays.binarySearch( prefixes, path );
+        if ( idx >= 0 )
+        {
+            return true;
+        }
+
+        int ceiling = -idx - 1;
+        return ceiling < prefixes.length && prefixes[ceiling].startsWith( path );
+    }
+
+    public boolean hasRegexes()
+    {
+        return regexes.length > 0;
+    }
+
+    /**
+     * In a prefix-free sorted array, the only candidate prefix of a path is the greatest entry sorting at or before it.
+     */
+    private boolean matchesPrefix( final String path )
+    {
+        int idx = Arrays.binarySearch( prefixes, path );
+        if ( idx >= 0 )
+        {
+            return true;
+        }
+
+        int floor = -idx - 2;
+        return floor >= 0 && path.startsWith( prefixes[floor] );
+    }
+
+    private static String[] prefixFree( final List<String> plain )
+    {
+        final String[] sorted = plain.toArray( new String[0] );
+        Arrays.sort( sorted );
+
+        // sorting puts every prefix right before the patterns it covers
+        final List<String> result = new ArrayList<>( sorted.length );
+        for ( final String prefix : sorted )
+        {
+            if ( result.isEmpty() || !prefix.startsWith( result.get( result.size() - 1 ) ) )
+            {
+                result.add( prefix );
+            }
+        }
+
+        return result.toArray( new String[0] );
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content;
+
+import org.commonjava.indy.conf.IndyConfiguration;
+import org.commonjava.indy.content.MergedContentAction;
+import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.Group;
+import org.commonjava.indy.model.core.StoreKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import static org.apache.commons.io.IOUtils.copy;
+
+/**
+ * Gzip-compressed copies of generated metadata (merged maven-metadata.xml, npm package documents), so the same bytes
+ * aren't recompressed on every request between two regenerations. A copy is only used while the stored file still has
+ * the last-modified time and length it was compressed from, and is dropped together with the merged content of the
+ * path. Content that is rewritten on read differently per request (the npm URL masking uses the request base URI) is
+ * kept as separate variants of the path. Content that isn't stored at all, like directory listings, is rendered on
+ * every request; its copy is used while the rendered bytes still have the same digest, which is much cheaper than
+ * compressing them again.
+ * <p>
+ * The copies are held in memory, least recently used first out beyond
+ * {@link IndyConfiguration#getPrecompressedCacheMaxMb()}.
+ */
+@ApplicationScoped
+public class PrecompressedContentCache
+        implements MergedContentAction
+{
+    // the encoding handler leaves responses up to this size uncompressed
+    public static final long MIN_BYTES = 5 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    @Inject
+    private IndyConfiguration indyConfig;
+
+    // store:path -> variant -> compressed copy
+    private final LinkedHashMap<String, Map<String, Compressed>> entries = new LinkedHashMap<>( 256, 0.75f, true );
+
+    private long totalBytes;
+
+    protected PrecompressedContentCache()
+    {
+    }
+
+    public PrecompressedContentCache( final IndyConfiguration indyConfig )
+    {
+        this.indyConfig = indyConfig;
+    }
+
+    /**
+     * Return the gzip copy of the content, compressing the given stream when there is no copy matching the stored
+     * file yet. The stream is not closed.
+     *
+     * @param variant what the read-time decoration of the content depends on, or null
+     */
+    public byte[] getGzip( final StoreKey key, final String path, final String variant, final long lastModified,
+                           final long length, final InputStream content )
+            throws IOException
+    {
+        return getGzip( key, path, variant, lastModified + "/" + length, length, content );
+    }
+
+    /**
+     * Return the gzip copy of content rendered on request, compressing it when there is no copy of the same bytes yet.
+     *
+     * @param variant what the rendering of the content depends on, or null
+     */
+    public byte[] getGzip( final StoreKey key, final String path, final String variant, final byte[] content )
+            throws IOException
+    {
+        return getGzip( key, path, variant, sha256Hex( content ), content.length,
+                        new ByteArrayInputStream( content ) );
+    }
+
+    private byte[] getGzip( final StoreKey key, final String path, final String variant, final String validator,
+                            final long length, final InputStream content )
+            throws IOException
+    {
+        final String entryKey = key + ":" + path;
+        final String variantKey = variant == null ? "" : variant;
+
+        final Compressed existing = get( entryKey, variantKey );
+        if ( existing != null && existing.validator.equals( validator ) )
+        {
+            return existing.gzip;
+        }
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream( (int) Math.min( length / 4 + 64, 1024 * 1024 ) );
+        try (GZIPOutputStream gzip = new GZIPOutputStream( baos )
+        {
+            {
+                // compressed once, served many times
+                def.setLevel( Deflater.BEST_COMPRESSION );
+            }
+        })
+        {
+            copy( content, gzip );
+        }
+
+        final byte[] compressed = baos.toByteArray();
+        logger.debug( "Compressed {} ({}) from {} to {} bytes", entryKey, variantKey, length, compressed.length );
+
+        put( entryKey, variantKey, new Compressed( compressed, validator ) );
+        return compressed;
+    }
+
+    public synchronized void remove( final StoreKey key, final String path )
+    {
+        final Map<String, Compressed> variants = entries.remove( key + ":" + path );
+        if ( variants != null )
+        {
+            variants.values().forEach( c -> totalBytes -= c.gzip.length );
+        }
+    }
+
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    @Override
+    public void clearMergedPath( final ArtifactStore originatingStore, final Set<Group> affectedGroups,
+                                 final String path )
+    {
+        remove( originatingStore.getKey(), path );
+        affectedGroups.forEach( group -> remove( group.getKey(), path ) );
+    }
+
+    private synchronized Compressed get( final String entryKey, final String variantKey )
+    {
+        final Map<String, Compressed> variants = entries.get( entryKey );
+        return variants == null ? null : variants.get( variantKey );
+    }
+
+    private synchronized void put( final String entryKey, final String variantKey, final Compressed compressed )
+    {
+        final long maxBytes = indyConfig.getPrecompressedCacheMaxMb() * 1024L * 1024L;
+        if ( compressed.gzip.length > maxBytes )
+        {
+            return;
+        }
+
+        final Compressed previous =
+                entries.computeIfAbsent( entryKey, k -> new HashMap<>() ).put( variantKey, compressed );
+        if ( previous != null )
+        {
+            totalBytes -= previous.gzip.length;
+        }
+        totalBytes += compressed.gzip.length;
+
+        final Iterator<Map.Entry<String, Map<String, Compressed>>> eldest = entries.entrySet().iterator();
+        while ( totalBytes > maxBytes && eldest.hasNext() )
+        {
+            final Map.Entry<String, Map<String, Compressed>> entry = eldest.next();
+            if ( entry.getKey().equals( entryKey ) )
+            {
+                continue;
+            }
+            entry.getValue().values().forEach( c -> totalBytes -= c.gzip.length );
+            eldest.remove();
+        }
+    }
+
+    private static final class Compressed
+    {
+        private final byte[] gzip;
+
+        // what the copy was compressed from: stored file time stamp and length, or digest of rendered content
+        private final String validator;
+
+        Compressed( final byte[] gzip, final String validator )
+        {
+            this.gzip = gzip;
+            this.validator = validator;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content.group;
+
+import org.commonjava.cdi.util.weft.ExecutorConfig;
+import org.commonjava.cdi.util.weft.WeftExecutorService;
+import org.commonjava.cdi.util.weft.WeftManaged;
+import org.commonjava.indy.IndyWorkflowException;
+import org.commonjava.indy.change.event.ArtifactStoreDeletePostEvent;
+import org.commonjava.indy.conf.IndyConfiguration;
+import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.Group;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.model.Transfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.commonjava.cdi.util.weft.ExecutorConfig.BooleanLiteral.TRUE;
+import static org.commonjava.indy.model.core.StoreType.group;
+import static org.commonjava.indy.model.core.StoreType.remote;
+
+/**
+ * Retrieves a path from the ordered concrete members of a group, checking whether the next few remote members have
+ * the path in parallel instead of paying one remote round-trip per member. Probes are existence checks only; the
+ * content itself is only ever retrieved on the calling thread, from the first member in group order that has it.
+ * Hosted members are checked in order on the calling thread.
+ */
+@ApplicationScoped
+public class GroupMemberProber
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    @Inject
+    private IndyConfiguration indyConfig;
+
+    @Inject
+    @WeftManaged
+    @ExecutorConfig( named = "group-member-probes", threads = 40, priority = 7, loadSensitive = TRUE,
+                     maxLoadFactor = 100 )
+    private WeftExecutorService probeService;
+
+    // one entry per group that was probed, dropped again when the group is deleted
+    private final Map<StoreKey, Semaphore> groupPermits = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface MemberRetrieval
+    {
+        Transfer retrieve( ArtifactStore member, EventMetadata eventMetadata )
+                throws IndyWorkflowException;
+    }
+
+    @FunctionalInterface
+    public interface MemberCheck
+    {
+        boolean exists( ArtifactStore member )
+                throws IndyWorkflowException;
+    }
+
+    protected GroupMemberProber()
+    {
+    }
+
+    public GroupMemberProber( final IndyConfiguration indyConfig, final WeftExecutorService probeService )
+    {
+        this.indyConfig = indyConfig;
+        this.probeService = probeService;
+    }
+
+    public boolean isEnabled()
+    {
+        return indyConfig.getGroupMemberProbeConcurrency() > 1;
+    }
+
+    /**
+     * Walk the members in order and return the first non-null {@link Transfer}. While waiting on a member, the remote
+     * members in the next {@link IndyConfiguration#getGroupMemberProbeConcurrency()} positions are checked for the
+     * path in the background, as long as the group has probe permits left. A member whose probe found nothing is
+     * skipped, the same as the existence check would skip it; a member whose probe found the path is retrieved on the
+     * calling thread in its turn. A miss in the whole group therefore costs the parallel probes and no downloads.
+     * Probes that are no longer needed once a result is found are cancelled or ignored; since they only check
+     * existence, one that already started costs a HEAD request at most, and never downloads content.
+     */
+    public Transfer retrieveFirst( final Group group, final List<ArtifactStore> members,
+                                   final EventMetadata eventMetadata, final MemberCheck check,
+                                   final MemberRetrieval retrieval )
+            throws IndyWorkflowException
+    {
+        final int window = indyConfig.getGroupMemberProbeConcurrency();
+        final Semaphore permits = groupPermits.computeIfAbsent( group.getKey(), k -> new Semaphore(
+                indyConfig.getGroupMemberProbeGroupLimit() ) );
+
+        final Map<Integer, MemberProbe> probes = new HashMap<>();
+        try
+        {
+            for ( int i = 0; i < members.size(); i++ )
+            {
+                int end = Math.min( members.size(), i + window );
+                for ( int j = i + 1; j < end; j++ )
+                {
+                    ArtifactStore next = members.get( j );
+                    if ( remote == next.getType() && !probes.containsKey( j ) )
+                    {
+                        MemberProbe probe = startProbe( next, permits, check );
+                        if ( probe == null )
+                        {
+                            break;
+                        }
+                        probes.put( j, probe );
+                    }
+                }
+
+                final ArtifactStore member = members.get( i );
+                final MemberProbe probe = probes.remove( i );
+                if ( probe != null && !probe.await() )
+                {
+                    logger.trace( "Probe found nothing in {}, skipping it", member.getKey() );
+                    continue;
+                }
+
+                final Transfer txfr = retrieval.retrieve( member, eventMetadata );
+                if ( txfr != null )
+                {
+                    logger.debug( "Found {} in member {} of {} ({} probes still in flight)", txfr, member.getKey(),
+                                  group.getKey(), probes.size() );
+                    return txfr;
+                }
+            }
+
+            return null;
+        }
+        finally
+        {
+            probes.values().forEach( MemberProbe::cancel );
+        }
+    }
+
+    public void onStoreDelete( @Observes final ArtifactStoreDeletePostEvent event )
+    {
+        for ( final ArtifactStore store : event )
+        {
+            if ( group == store.getType() )
+            {
+                groupPermits.remove( store.getKey() );
+            }
+        }
+    }
+
+    int getTrackedGroupCount()
+    {
+        return groupPermits.size();
+    }
+
+    private MemberProbe startProbe( final ArtifactStore member, final Semaphore permits, final MemberCheck check )
+    {
+        if ( !permits.tryAcquire() )
+        {
+            logger.trace( "No probe permits left, {} will be retrieved in order", member.getKey() );
+            return null;
+        }
+
+        final MemberProbe probe = new MemberProbe( member, permits );
+        try
+        {
+            probe.future = probeService.submit( () -> {
+                try
+                {
+                    return check.exists( member );
+                }
+                finally
+                {
+                    probe.release();
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            logger.debug( "Probe of {} rejected: {}", member.getKey(), e.getMessage() );
+            probe.release();
+            return null;
+        }
+
+        return probe;
+    }
+
+    private final class MemberProbe
+    {
+        private final ArtifactStore member;
+
+        private final Semaphore permits;
+
+        private final AtomicBoolean permitHeld = new AtomicBoolean( true );
+
+        private Future<Boolean> future;
+
+        MemberProbe( final ArtifactStore member, final Semaphore permits )
+        {
+            this.member = member;
+            this.permits = permits;
+        }
+
+        /**
+         * Whether the member has the path. A failed probe counts as not found, the way
+         * {@link org.commonjava.indy.content.DownloadManager#exists} treats a failed existence check.
+         */
+        boolean await()
+                throws IndyWorkflowException
+        {
+            try
+            {
+                return Boolean.TRUE.equals( future.get() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IndyWorkflowException( "Interrupted while probing %s", e, member.getKey() );
+            }
+            catch ( ExecutionException e )
+            {
+                logger.debug( "Probe of {} failed, skipping it: {}", member.getKey(), e.getCause().getMessage() );
+                return false;
+            }
+        }
+
+        void cancel()
+        {
+            if ( future.cancel( false ) )
+            {
+                release();
+            }
+        }
+
+        void release()
+        {
+            if ( permitHeld.compareAndSet( true, false ) )
+            {
+                permits.release();
+            }
+        }
+    }
+}
@@ -253,6 +253,13 @@ public class ScheduleDBManager
     public void scheduleForStore( final StoreKey key, final String jobType, final String jobName,
                                                final Object payload, final int startSeconds )
             throws IndySchedulerException
+    {
+        scheduleForStore( key, jobType, jobName, payload, startSeconds, false );
+    }
+
+    private void scheduleForStore( final StoreKey key, final String jobType, final String jobName,
+                                   final Object payload, final int startSeconds, final boolean writeBehind )
+            throws IndySchedulerException
     {
         if ( !schedulerConfig.isEnabled() )
         {
@@ -270,7 +277,15 @@ public class ScheduleDBManager
             throw new IndySchedulerException( "Failed to serialize JSON payload: " + payload, e );
         }
 
-        scheduleDB.createSchedule( key.toString(), jobType, jobName, payloadStr, Long.valueOf( startSeconds ) );
+        if ( writeBehind )
+        {
+            scheduleDB.createScheduleLater( key.toString(), jobType, jobName, payloadStr,
+                                            Long.valueOf( startSeconds ) );
+        }
+        else
+        {
+            scheduleDB.createSchedule( key.toString(), jobType, jobName, payloadStr, Long.valueOf( startSeconds ) );
+        }
         logger.debug( "Scheduled for the key {} with timeout: {} seconds", key, startSeconds );
     }
 
@@ -287,7 +302,9 @@ public class ScheduleDBManager
         logger.info( "Scheduling timeout for: {} in: {} in: {} seconds (at: {}).", path, key, timeoutSeconds,
                      new Date( System.currentTimeMillis() + ( timeoutSeconds * 1000 ) ) );
 
-        scheduleForStore( key, JobType.CONTENT.getJobType(), path, new ContentExpiration( key, path ), timeoutSeconds );
+        // content expirations are set on the download path, so they're written behind in batches
+        scheduleForStore( key, JobType.CONTENT.getJobType(), path, new ContentExpiration( key, path ), timeoutSeconds,
+                          true );
     }
 
     public void setSnapshotTimeouts( final StoreKey key, final String path )
@@ -602,6 +619,7 @@ public class ScheduleDBManager
             return;
         }
 
+        scheduleDB.flushPendingSchedules();
     }
 
 }
@@ -20,19 +20,21 @@ import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import org.commonjava.cdi.util.weft.NamedThreadFactory;
 import org.commonjava.indy.conf.IndyConfiguration;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
 import org.commonjava.o11yphant.metrics.annotation.Measure;
 import org.commonjava.indy.model.core.StoreKey;
 import org.commonjava.indy.model.galley.KeyedLocation;
 import org.commonjava.indy.subsys.cassandra.CassandraClient;
-import org.commonjava.indy.subsys.infinispan.CacheHandle;
-import org.commonjava.indy.subsys.infinispan.CacheProducer;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Location;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Alternative;
 import javax.inject.Inject;
@@ -42,11 +44,27 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import static org.commonjava.indy.conf.DefaultIndyConfiguration.DEFAULT_NOT_FOUND_CACHE_TIMEOUT_SECONDS;
 import static org.commonjava.indy.subsys.cassandra.util.SchemaUtils.getSchemaCreateKeyspace;
 
+/**
+ * Not-found cache kept in Cassandra and shared by all nodes, with recently checked entries held in memory.
+ * <p>
+ * With the path filter enabled, lookups of paths the filter has never seen skip the database. Every node adds the
+ * entries it creates to the nfc_recent table too, bucketed by time, and each node reads the new buckets every
+ * {@link #SYNC_PERIOD_SECONDS} into its filter, so entries added elsewhere are only missed for a few seconds. If the
+ * sync falls behind, lookups go to the database again. Expired and cleared paths stay in the filter as false
+ * positives, so it is checked every {@link IndyConfiguration#getNfcFilterRebuildMinutes()} and rebuilt from the nfc
+ * table only once more than {@link #REBUILD_FALSE_POSITIVE_RATE} of its positives turned out to be false since the
+ * last rebuild.
+ */
 @ApplicationScoped
 @Alternative
 public class CassandraNotFoundCache
@@ -56,6 +74,20 @@ public class CassandraNotFoundCache
 
     private static final String TIMEOUT_FORMAT = "yyyy-MM-dd HH:mm:ss z";
 
+    private static final String FILTER_SYNC_NAME = "nfc-filter-sync";
+
+    private static final int SYNC_PERIOD_SECONDS = 5;
+
+    private static final long SYNC_BUCKET_MILLIS = SECONDS.toMillis( 10 );
+
+    private static final int RECENT_TTL_SECONDS = 600;
+
+    // lookups bypass the filter once its last sync is older than this
+    private static final long MAX_SYNC_LAG_MILLIS = SECONDS.toMillis( SYNC_PERIOD_SECONDS * 4 );
+
+    // several times the filter's own false positive probability, so only the paths left behind trigger a rebuild
+    private static final double REBUILD_FALSE_POSITIVE_RATE = 0.05;
+
     private PreparedStatement preparedInsert;
 
     private PreparedStatement preparedExistQuery;
@@ -68,6 +100,10 @@ public class CassandraNotFoundCache
 
     private PreparedStatement preparedQueryByStore;
 
+    private PreparedStatement preparedRecentInsert;
+
+    private PreparedStatement preparedRecentQuery;
+
     // @formatter:off
     private static String getSchemaCreateTable( String keyspace )
     {
@@ -79,17 +115,22 @@ public class CassandraNotFoundCache
                         + "PRIMARY KEY (storekey, path)"
                         + ");";
     }
+
+    private static String getSchemaCreateRecentTable( String keyspace )
+    {
+        return "CREATE TABLE IF NOT EXISTS " + keyspace + ".nfc_recent ("
+                        + "bucket bigint,"
+                        + "storekey varchar,"
+                        + "path varchar,"
+                        + "PRIMARY KEY (bucket, storekey, path)"
+                        + ");";
+    }
     // @formatter:on
 
     @Inject
     private CassandraClient cassandraClient;
 
-    @Inject
-    private CacheProducer cacheProducer;
-
-    private CacheHandle<ConcreteResource, Object> inMemoryCache;
-
-    private final static Object DUMB_CACHE_VALUE = new Object();
+    private InMemoryNfcIndex inMemoryIndex;
 
     private int maxResultSetSize; // limit the max size for REST endpoint getMissing to avoid OOM
 
@@ -100,23 +141,56 @@ public class CassandraNotFoundCache
 
     private Session session;
 
+    @Inject
+    private DefaultMetricsManager metricsManager;
+
+    private NotFoundPathFilter pathFilter;
+
+    private ExecutorService filterLoader;
+
+    private ScheduledExecutorService filterSync;
+
+    private long lastSyncedBucket;
+
+    private volatile long lastSyncMillis;
+
     protected CassandraNotFoundCache()
     {
     }
 
-    public CassandraNotFoundCache( final IndyConfiguration config, final CacheProducer cacheProducer,
-                                   final CassandraClient cassandraClient )
+    public CassandraNotFoundCache( final IndyConfiguration config, final CassandraClient cassandraClient )
+    {
+        this( config, cassandraClient, null );
+    }
+
+    public CassandraNotFoundCache( final IndyConfiguration config, final CassandraClient cassandraClient,
+                                   final DefaultMetricsManager metricsManager )
+    {
+        this( config, cassandraClient, metricsManager, null );
+    }
+
+    /**
+     * @param filterLoader runs the initial load of the path filter; without one, the filter is loaded before this
+     * constructor returns
+     */
+    public CassandraNotFoundCache( final IndyConfiguration config, final CassandraClient cassandraClient,
+                                   final DefaultMetricsManager metricsManager, final ExecutorService filterLoader )
     {
         this.config = config;
-        this.cacheProducer = cacheProducer;
         this.cassandraClient = cassandraClient;
+        this.metricsManager = metricsManager;
+        this.filterLoader = filterLoader;
         start();
     }
 
     @PostConstruct
     public void start()
     {
-        inMemoryCache = cacheProducer.getCache( "nfc-in-memory-cache" );
+        inMemoryIndex = new InMemoryNfcIndex( config.getNfcInMemoryMaxEntries() );
+        if ( metricsManager != null )
+        {
+            inMemoryIndex.registerMetrics( metricsManager );
+        }
 
         keyspace = config.getCacheKeyspace();
         maxResultSetSize = config.getNfcMaxResultSetSize();
@@ -144,6 +218,141 @@ public class CassandraNotFoundCache
 
         preparedInsert = session.prepare( "INSERT INTO " + keyspace
                                                           + ".nfc (storekey,path,creation,expiration) VALUES (?,?,?,?) USING TTL ?;" ); // ttl in seconds
+
+        if ( config.isNfcFilterEnabled() )
+        {
+            session.execute( getSchemaCreateRecentTable( keyspace ) );
+
+            preparedRecentInsert = session.prepare( "INSERT INTO " + keyspace
+                                                            + ".nfc_recent (bucket,storekey,path) VALUES (?,?,?) USING TTL "
+                                                            + RECENT_TTL_SECONDS + ";" );
+            preparedRecentQuery = session.prepare(
+                            "SELECT storekey, path FROM " + keyspace + ".nfc_recent WHERE bucket=?;" );
+
+            pathFilter = new NotFoundPathFilter();
+            if ( metricsManager != null )
+            {
+                pathFilter.registerMetrics( metricsManager );
+            }
+
+            // entries added by other nodes while the filter loads are in the nfc table, which the load reads after
+            lastSyncedBucket = System.currentTimeMillis() / SYNC_BUCKET_MILLIS;
+            lastSyncMillis = System.currentTimeMillis();
+
+            filterSync = Executors.newSingleThreadScheduledExecutor(
+                            new NamedThreadFactory( FILTER_SYNC_NAME, new ThreadGroup( FILTER_SYNC_NAME ), true, 4 ) );
+            filterSync.scheduleWithFixedDelay( this::syncPathFilter, SYNC_PERIOD_SECONDS, SYNC_PERIOD_SECONDS,
+                                               SECONDS );
+            int rebuildMinutes = config.getNfcFilterRebuildMinutes();
+            if ( rebuildMinutes > 0 )
+            {
+                filterSync.scheduleWithFixedDelay( this::scheduleRebuild, rebuildMinutes, rebuildMinutes, MINUTES );
+            }
+
+            if ( filterLoader != null )
+            {
+                filterLoader.execute( this::rebuildPathFilter );
+            }
+            else
+            {
+                rebuildPathFilter();
+            }
+        }
+    }
+
+    /**
+     * Fill the path filter from the nfc table, dropping the paths which expired or were cleared since the last time.
+     * Until the first load completes, lookups keep going to the database; entries added in the meantime go into both
+     * the current and the rebuilt filter, so nothing is lost.
+     */
+    private void rebuildPathFilter()
+    {
+        long start = System.currentTimeMillis();
+        pathFilter.startRebuild();
+        try
+        {
+            SimpleStatement query = new SimpleStatement( "SELECT storekey, path FROM " + keyspace + ".nfc;" );
+            query.setFetchSize( 5000 );
+
+            long count = 0;
+            for ( Row row : session.execute( query ) )
+            {
+                pathFilter.addRebuilt( StoreKey.fromString( row.getString( 0 ) ), row.getString( 1 ) );
+                count++;
+            }
+
+            pathFilter.finishRebuild();
+            logger.info( "[NFC] Loaded path filter with {} entries in {}ms", count,
+                         System.currentTimeMillis() - start );
+        }
+        catch ( RuntimeException e )
+        {
+            pathFilter.abortRebuild();
+            logger.error( "[NFC] Failed to load path filter, the previous one is kept", e );
+        }
+    }
+
+    private void scheduleRebuild()
+    {
+        if ( !pathFilter.isStale( REBUILD_FALSE_POSITIVE_RATE ) )
+        {
+            logger.debug( "[NFC] Path filter has few false positives since its last rebuild, skipping rebuild" );
+            return;
+        }
+
+        if ( filterLoader != null )
+        {
+            filterLoader.execute( this::rebuildPathFilter );
+        }
+        else
+        {
+            rebuildPathFilter();
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        if ( filterSync != null )
+        {
+            filterSync.shutdownNow();
+        }
+    }
+
+    /**
+     * Add the entries other nodes created since the last sync. The previous bucket is always read again, so that
+     * entries written late into it, or by a node with a slightly different clock, are not missed.
+     */
+    private void syncPathFilter()
+    {
+        long start = System.currentTimeMillis();
+        long current = start / SYNC_BUCKET_MILLIS;
+        try
+        {
+            long count = 0;
+            for ( long bucket = Math.min( lastSyncedBucket, current - 1 ); bucket <= current; bucket++ )
+            {
+                for ( Row row : session.execute( preparedRecentQuery.bind( bucket ) ) )
+                {
+                    pathFilter.add( StoreKey.fromString( row.getString( 0 ) ), row.getString( 1 ) );
+                    count++;
+                }
+            }
+
+            lastSyncedBucket = current;
+            lastSyncMillis = start;
+            logger.trace( "[NFC] Synced {} path filter entries", count );
+        }
+        catch ( RuntimeException e )
+        {
+            logger.warn( "[NFC] Failed to sync path filter, will retry. Reason: {}", e.getMessage() );
+        }
+    }
+
+    private boolean isFiltered()
+    {
+        return pathFilter != null && pathFilter.isReady()
+                        && System.currentTimeMillis() - lastSyncMillis < MAX_SYNC_LAG_MILLIS;
     }
 
     @Override
@@ -173,23 +382,40 @@ public class CassandraNotFoundCache
         BoundStatement bound = preparedInsert.bind( key.toString(), resource.getPath(), curDate, timeoutDate,
                                                     timeoutInSeconds );
         session.execute( bound );
-        inMemoryCache.put( resource, DUMB_CACHE_VALUE, timeoutInSeconds, TimeUnit.SECONDS );
+        inMemoryIndex.put( key, resource.getPath(), timeoutDate.getTime() );
+        if ( pathFilter != null )
+        {
+            pathFilter.add( key, resource.getPath() );
+            session.executeAsync( preparedRecentInsert.bind( System.currentTimeMillis() / SYNC_BUCKET_MILLIS,
+                                                             key.toString(), resource.getPath() ) );
+        }
     }
 
     @Override
     @Measure
     public boolean isMissing( final ConcreteResource resource )
     {
-        if ( inMemoryCache.get( resource ) != null )
+        StoreKey key = getResourceKey( resource );
+        if ( inMemoryIndex.contains( key, resource.getPath() ) )
         {
             return true;
         }
-        StoreKey key = getResourceKey( resource );
+        boolean filtered = isFiltered();
+        if ( filtered && !pathFilter.mightContain( key, resource.getPath() ) )
+        {
+            logger.trace( "NFC check: {}, missing: false (filtered)", resource );
+            return false;
+        }
+
         BoundStatement bound = preparedExistQuery.bind( key.toString(), resource.getPath() );
         ResultSet result = session.execute( bound );
         Row row = result.one();
         if ( row == null )
         {
+            if ( filtered )
+            {
+                pathFilter.markFalsePositive();
+            }
             return false;
         }
         Date expiration = row.get( 0, Date.class );
@@ -200,7 +426,7 @@ public class CassandraNotFoundCache
             long timeout = expiration.getTime() - System.currentTimeMillis();
             if ( timeout > 1000 )
             {
-                inMemoryCache.put( resource, DUMB_CACHE_VALUE, new Long( timeout / 1000 ).intValue(), TimeUnit.SECONDS );
+                inMemoryIndex.put( key, resource.getPath(), expiration.getTime() );
             }
         }
         return missing;
@@ -213,26 +439,11 @@ public class CassandraNotFoundCache
         StoreKey key = ( (KeyedLocation) location ).getKey();
         BoundStatement bound = preparedDeleteByStore.bind( key.toString() );
         session.execute( bound );
-        clearInMemoryCache( location );
-    }
-
-    private void clearInMemoryCache( final Location location )
-    {
-        inMemoryCache.executeCache( c -> {
-            c.entrySet()
-             .stream()
-             .filter( e -> e.getKey().getLocation().equals( location ) )
-             .forEach( ( cache, e ) -> cache.remove( e.getKey() ) );
-            return c;
-        } );
-    }
-
-    private void clearInMemoryCache()
-    {
-        inMemoryCache.executeCache( c -> {
-            c.clear();
-            return c;
-        } );
+        inMemoryIndex.clear( key );
+        if ( pathFilter != null )
+        {
+            pathFilter.clear( key );
+        }
     }
 
     @Override
@@ -242,7 +453,8 @@ public class CassandraNotFoundCache
         StoreKey key = getResourceKey( resource );
         BoundStatement bound = preparedDelete.bind( key.toString(), resource.getPath() );
         session.execute( bound );
-        inMemoryCache.remove( resource );
+        inMemoryIndex.remove( key, resource.getPath() );
+        // the path filter can't forget a single path, it stays a (harmless) false positive
     }
 
     @Override
@@ -250,7 +462,11 @@ public class CassandraNotFoundCache
     public void clearAllMissing()
     {
         session.execute( "TRUNCATE " + keyspace + ".nfc;" );
-        clearInMemoryCache();
+        inMemoryIndex.clear();
+        if ( pathFilter != null )
+        {
+            pathFilter.clear();
+        }
     }
 
     @Override
@@ -16,22 +16,26 @@
 package org.commonjava.indy.core.inject;
 
 import com.fasterxml.jackson.databind.Module;
+import org.commonjava.cdi.util.weft.ExecutorConfig;
+import org.commonjava.cdi.util.weft.WeftManaged;
 import org.commonjava.indy.conf.IndyConfiguration;
 import org.commonjava.indy.model.core.io.IndyObjectMapper;
 import org.commonjava.indy.model.core.io.ModuleSet;
 import org.commonjava.indy.subsys.cassandra.CassandraClient;
 import org.commonjava.indy.subsys.infinispan.BasicCacheHandle;
-import org.commonjava.indy.subsys.infinispan.CacheProducer;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Default;
 import javax.enterprise.inject.Instance;
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
+import java.util.concurrent.ExecutorService;
 
 import static org.commonjava.indy.conf.DefaultIndyConfiguration.CASSANDRA_NFC_PROVIDER;
 
@@ -46,13 +50,18 @@ public class CoreProvider
     @Inject
     private CassandraClient cassandraClient;
 
-    @Inject
-    private CacheProducer cacheProducer;
-
     @Inject
     @NfcCache
     private BasicCacheHandle<String, NfcConcreteResourceWrapper> nfcCache;
 
+    @Inject
+    private DefaultMetricsManager metricsManager;
+
+    @Inject
+    @WeftManaged
+    @ExecutorConfig( named = "nfc-filter-loader", threads = 1, priority = 4 )
+    private ExecutorService nfcFilterLoader;
+
     @Inject
     private Instance<Module> objectMapperModules;
 
@@ -91,8 +100,8 @@ public class CoreProvider
             logger.info( "Apply nfc provider: {}", nfcProvider );
             if ( CASSANDRA_NFC_PROVIDER.equals( nfcProvider ) )
             {
-                notFoundCache = new CassandraNotFoundCache( indyConfiguration, cacheProducer,
-                                                            cassandraClient );
+                notFoundCache = new CassandraNotFoundCache( indyConfiguration, cassandraClient, metricsManager,
+                                                           nfcFilterLoader );
             }
             else
             {
@@ -102,4 +111,14 @@ public class CoreProvider
         return notFoundCache;
     }
 
+    @PreDestroy
+    public void stop()
+    {
+        // produced instances are not destroyed by the container
+        if ( notFoundCache instanceof CassandraNotFoundCache )
+        {
+            ( (CassandraNotFoundCache) notFoundCache ).stop();
+        }
+    }
+
 }
@@ -0,0 +1,313 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.inject;
+
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import org.commonjava.o11yphant.metrics.api.Gauge;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.commonjava.indy.conf.DefaultIndyConfiguration.DEFAULT_NFC_INMEMORY_MAX_ENTRIES;
+
+/**
+ * Node-local not-found entries, organized by {@link StoreKey} so that clearing or counting the entries of one store only
+ * touches that store's paths.
+ * <p>
+ * Expiration uses a timing wheel of one-second buckets: every entry is also queued in the bucket of its expiry time,
+ * and due buckets are drained opportunistically on access. Expired entries are also ignored on lookup, so they never
+ * show up even before their bucket is drained.
+ * <p>
+ * The total number of entries is capped. Each store keeps its paths in LRU order; when the cap is reached, the least
+ * recently used path of the store being added to is evicted, or of another store if that one has nothing else to give.
+ */
+public class InMemoryNfcIndex
+{
+    private static final long BUCKET_MILLIS = 1000;
+
+    private final Map<StoreKey, StorePaths> stores = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<Long, Queue<Expiry>> wheel = new ConcurrentSkipListMap<>();
+
+    private final AtomicBoolean expiring = new AtomicBoolean();
+
+    private final AtomicInteger total = new AtomicInteger();
+
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    private final int maxEntries;
+
+    public InMemoryNfcIndex()
+    {
+        this( DEFAULT_NFC_INMEMORY_MAX_ENTRIES );
+    }
+
+    public InMemoryNfcIndex( final int maxEntries )
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    public void registerMetrics( final DefaultMetricsManager metricsManager )
+    {
+        Map<String, Gauge<Integer>> gauges = new HashMap<>();
+        gauges.put( "stores", stores::size );
+        gauges.put( "entries", this::size );
+        gauges.put( "evictions", evictions::get );
+        gauges.put( "largestStore", () -> stores.values().stream().mapToInt( StorePaths::count ).max().orElse( 0 ) );
+        metricsManager.addGauges( getClass(), "index", gauges );
+    }
+
+    public void put( final StoreKey key, final String path, final long expiresAt )
+    {
+        final long now = System.currentTimeMillis();
+        expireDue( now );
+
+        stores.compute( key, ( k, paths ) -> {
+            StorePaths result = paths == null ? new StorePaths() : paths;
+            synchronized ( result )
+            {
+                if ( result.put( path, expiresAt ) == null )
+                {
+                    total.incrementAndGet();
+                }
+            }
+            return result;
+        } );
+
+        if ( expiresAt < Long.MAX_VALUE )
+        {
+            schedule( new Expiry( key, path ), expiresAt / BUCKET_MILLIS );
+        }
+
+        while ( total.get() > maxEntries && evictOne( key ) )
+        {
+            evictions.incrementAndGet();
+        }
+    }
+
+    public boolean contains( final StoreKey key, final String path )
+    {
+        final long now = System.currentTimeMillis();
+        expireDue( now );
+
+        StorePaths paths = stores.get( key );
+        if ( paths == null )
+        {
+            return false;
+        }
+
+        Long expiresAt;
+        synchronized ( paths )
+        {
+            expiresAt = paths.get( path );
+        }
+        return expiresAt != null && expiresAt > now;
+    }
+
+    public void remove( final StoreKey key, final String path )
+    {
+        stores.computeIfPresent( key, ( k, paths ) -> {
+            synchronized ( paths )
+            {
+                if ( paths.remove( path ) != null )
+                {
+                    total.decrementAndGet();
+                }
+                return paths.isEmpty() ? null : paths;
+            }
+        } );
+    }
+
+    /**
+     * Drop all entries of one store. Their expiry records stay in the wheel and are discarded when their bucket is due.
+     */
+    public void clear( final StoreKey key )
+    {
+        stores.computeIfPresent( key, ( k, paths ) -> {
+            synchronized ( paths )
+            {
+                total.addAndGet( -paths.size() );
+            }
+            return null;
+        } );
+    }
+
+    public void clear()
+    {
+        stores.keySet().forEach( this::clear );
+        wheel.clear();
+    }
+
+    public int size( final StoreKey key )
+    {
+        StorePaths paths = stores.get( key );
+        return paths == null ? 0 : paths.count();
+    }
+
+    public int size()
+    {
+        return total.get();
+    }
+
+    /**
+     * Remove the least recently used entry of the given store, or of any other store if the given one holds no more
+     * than the entry just added.
+     */
+    private boolean evictOne( final StoreKey preferred )
+    {
+        if ( evictEldest( preferred, 1 ) )
+        {
+            return true;
+        }
+
+        Iterator<StoreKey> keys = stores.keySet().iterator();
+        while ( keys.hasNext() )
+        {
+            StoreKey key = keys.next();
+            if ( !key.equals( preferred ) && evictEldest( key, 0 ) )
+            {
+                return true;
+            }
+        }
+
+        return evictEldest( preferred, 0 );
+    }
+
+    private boolean evictEldest( final StoreKey key, final int keep )
+    {
+        AtomicBoolean evicted = new AtomicBoolean();
+        stores.computeIfPresent( key, ( k, paths ) -> {
+            synchronized ( paths )
+            {
+                if ( paths.size() > keep )
+                {
+                    Iterator<String> it = paths.keySet().iterator();
+                    it.next();
+                    it.remove();
+                    total.decrementAndGet();
+                    evicted.set( true );
+                }
+                return paths.isEmpty() ? null : paths;
+            }
+        } );
+        return evicted.get();
+    }
+
+    /**
+     * Queue the expiry in its bucket. If the bucket was drained and removed while adding to it, the expiry is queued
+     * again in a live bucket; being expired twice does no harm, never being expired would keep the entry forever.
+     */
+    private void schedule( final Expiry expiry, final long bucket )
+    {
+        Queue<Expiry> expiries;
+        do
+        {
+            expiries = wheel.computeIfAbsent( bucket, b -> new ConcurrentLinkedQueue<>() );
+            expiries.add( expiry );
+        }
+        while ( wheel.get( bucket ) != expiries );
+    }
+
+    /**
+     * Remove the entries of every bucket that is due. Only one thread drains at a time, others just carry on.
+     */
+    void expireDue( final long now )
+    {
+        // a bucket is due once all of its second has passed
+        final long currentBucket = now / BUCKET_MILLIS;
+        Map.Entry<Long, Queue<Expiry>> first = wheel.firstEntry();
+        if ( first == null || first.getKey() >= currentBucket || !expiring.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        try
+        {
+            ConcurrentNavigableMap<Long, Queue<Expiry>> due = wheel.headMap( currentBucket, false );
+            for ( Long bucket : due.keySet() )
+            {
+                Queue<Expiry> expiries = wheel.remove( bucket );
+                if ( expiries != null )
+                {
+                    expiries.forEach( e -> expire( e, now ) );
+                }
+            }
+        }
+        finally
+        {
+            expiring.set( false );
+        }
+    }
+
+    private void expire( final Expiry expiry, final long now )
+    {
+        stores.computeIfPresent( expiry.key, ( k, paths ) -> {
+            synchronized ( paths )
+            {
+                // only remove the entry if it hasn't been re-added with a later expiry since
+                Long expiresAt = paths.get( expiry.path );
+                if ( expiresAt != null && expiresAt <= now )
+                {
+                    paths.remove( expiry.path );
+                    total.decrementAndGet();
+                }
+                return paths.isEmpty() ? null : paths;
+            }
+        } );
+    }
+
+    /**
+     * Paths of one store with their expiry, in access order. Guarded by its own monitor.
+     */
+    private static final class StorePaths
+            extends LinkedHashMap<String, Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        StorePaths()
+        {
+            super( 16, 0.75f, true );
+        }
+
+        synchronized int count()
+        {
+            return size();
+        }
+    }
+
+    private static final class Expiry
+    {
+        private final StoreKey key;
+
+        private final String path;
+
+        Expiry( final StoreKey key, final String path )
+        {
+            this.key = key;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.inject;
+
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import org.commonjava.o11yphant.metrics.api.Gauge;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-store Bloom filters over the paths recorded in the not-found cache. When the filter of a store says a path was
+ * never added, the NFC lookup can answer "not missing" without asking the backing database.
+ * <p>
+ * When a store's filter fills up, a new stage with twice the capacity is added instead of re-reading the paths.
+ * Removing a single path is not supported, so a cleared or expired path just stays a false positive that falls through
+ * to the database. To keep those from piling up, the owner rebuilds the filters from the database from time to time:
+ * between {@link #startRebuild()} and {@link #finishRebuild()} the current filters keep answering, while paths added
+ * meanwhile go to both the current and the rebuilt ones.
+ * <p>
+ * Until {@link #markReady()} or the first {@link #finishRebuild()} is called (that is, while the filters are still
+ * being loaded), every path is reported as possibly present.
+ */
+public class NotFoundPathFilter
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    // below this many positives since the last rebuild, the false positive rate says too little to act on
+    private static final long MIN_POSITIVES_FOR_STALENESS = 1000;
+
+    private volatile Map<StoreKey, StorePathFilter> filters = new ConcurrentHashMap<>();
+
+    private volatile Map<StoreKey, StorePathFilter> rebuilding;
+
+    private final AtomicLong negatives = new AtomicLong();
+
+    private final AtomicLong positives = new AtomicLong();
+
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private volatile long rebuiltPositives;
+
+    private volatile long rebuiltFalsePositives;
+
+    private volatile boolean ready;
+
+    public void registerMetrics( final DefaultMetricsManager metricsManager )
+    {
+        Map<String, Gauge<Integer>> gauges = new HashMap<>();
+        gauges.put( "stores", () -> filters.size() );
+        gauges.put( "paths", () -> (int) getSize() );
+        gauges.put( "negatives", () -> (int) negatives.get() );
+        gauges.put( "positives", () -> (int) positives.get() );
+        gauges.put( "falsePositives", () -> (int) falsePositives.get() );
+        gauges.put( "falsePositivePermille", () -> (int) ( getFalsePositiveRate() * 1000 ) );
+        metricsManager.addGauges( getClass(), "filter", gauges );
+    }
+
+    public void add( final StoreKey key, final String path )
+    {
+        // read first, so that a rebuild finishing in between can't drop the path with the replaced filters
+        final Map<StoreKey, StorePathFilter> rebuilt = rebuilding;
+        add( filters, key, path );
+        if ( rebuilt != null )
+        {
+            add( rebuilt, key, path );
+        }
+    }
+
+    /**
+     * Add a path read from the database during a rebuild. Only the rebuilt filters get it, the current ones answer
+     * until the rebuild finishes.
+     */
+    public void addRebuilt( final StoreKey key, final String path )
+    {
+        final Map<StoreKey, StorePathFilter> rebuilt = rebuilding;
+        if ( rebuilt != null )
+        {
+            add( rebuilt, key, path );
+        }
+    }
+
+    private static void add( final Map<StoreKey, StorePathFilter> filters, final StoreKey key, final String path )
+    {
+        filters.computeIfAbsent( key, k -> new StorePathFilter() ).add( path );
+    }
+
+    /**
+     * Start collecting the paths of a rebuild. The caller has to read the database only after this returns, so that
+     * every path stored before is read, and every path added after goes to the rebuilt filters through {@link #add}.
+     */
+    public void startRebuild()
+    {
+        rebuilding = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Replace the current filters with the rebuilt ones, which drops the paths no longer in the database.
+     */
+    public void finishRebuild()
+    {
+        final Map<StoreKey, StorePathFilter> rebuilt = rebuilding;
+        if ( rebuilt != null )
+        {
+            filters = rebuilt;
+            rebuilding = null;
+            rebuiltPositives = positives.get();
+            rebuiltFalsePositives = falsePositives.get();
+            ready = true;
+        }
+    }
+
+    public void abortRebuild()
+    {
+        rebuilding = null;
+    }
+
+    /**
+     * @return false only if the path was definitely never added for the given store
+     */
+    public boolean mightContain( final StoreKey key, final String path )
+    {
+        if ( !ready )
+        {
+            return true;
+        }
+
+        StorePathFilter filter = filters.get( key );
+        if ( filter == null || !filter.mightContain( path ) )
+        {
+            negatives.incrementAndGet();
+            return false;
+        }
+
+        positives.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Record that a path the filter reported as possibly present turned out not to be in the NFC.
+     */
+    public void markFalsePositive()
+    {
+        falsePositives.incrementAndGet();
+    }
+
+    public void markReady()
+    {
+        ready = true;
+    }
+
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    public void clear( final StoreKey key )
+    {
+        filters.remove( key );
+        final Map<StoreKey, StorePathFilter> rebuilt = rebuilding;
+        if ( rebuilt != null )
+        {
+            rebuilt.remove( key );
+        }
+    }
+
+    public void clear()
+    {
+        filters.clear();
+        final Map<StoreKey, StorePathFilter> rebuilt = rebuilding;
+        if ( rebuilt != null )
+        {
+            rebuilt.clear();
+        }
+    }
+
+    /**
+     * @return the number of paths added to the current filters, which is what a rebuild keeps in check
+     */
+    public long getSize()
+    {
+        long size = 0;
+        for ( StorePathFilter filter : filters.values() )
+        {
+            size += filter.size();
+        }
+        return size;
+    }
+
+    public long getNegatives()
+    {
+        return negatives.get();
+    }
+
+    public long getPositives()
+    {
+        return positives.get();
+    }
+
+    public long getFalsePositives()
+    {
+        return falsePositives.get();
+    }
+
+    public double getFalsePositiveRate()
+    {
+        long p = positives.get();
+        return p == 0 ? 0 : (double) falsePositives.get() / p;
+    }
+
+    /**
+     * @return whether the paths cleared or expired since the last rebuild push the false positive rate above the given
+     * one, so that a rebuild is worth reading the whole database for
+     */
+    public boolean isStale( final double maxFalsePositiveRate )
+    {
+        long p = positives.get() - rebuiltPositives;
+        if ( p < MIN_POSITIVES_FOR_STALENESS )
+        {
+            return false;
+        }
+        return (double) ( falsePositives.get() - rebuiltFalsePositives ) / p > maxFalsePositiveRate;
+    }
+
+    private static final class StorePathFilter
+    {
+        private final List<BloomStage> stages = new CopyOnWriteArrayList<>();
+
+        private volatile BloomStage current;
+
+        StorePathFilter()
+        {
+            current = new BloomStage( INITIAL_CAPACITY );
+            stages.add( current );
+        }
+
+        void add( final String path )
+        {
+            final long h1 = hash( path );
+            final long h2 = mix( h1 ^ 0x9E3779B97F4A7C15L );
+            if ( mightContain( h1, h2 ) )
+            {
+                return;
+            }
+
+            synchronized ( this )
+            {
+                if ( current.isFull() )
+                {
+                    current = new BloomStage( current.capacity * 2 );
+                    stages.add( current );
+                }
+                current.add( h1, h2 );
+            }
+        }
+
+        long size()
+        {
+            long size = 0;
+            for ( BloomStage stage : stages )
+            {
+                size += stage.size.get();
+            }
+            return size;
+        }
+
+        boolean mightContain( final String path )
+        {
+            final long h1 = hash( path );
+            return mightContain( h1, mix( h1 ^ 0x9E3779B97F4A7C15L ) );
+        }
+
+        private boolean mightContain( final long h1, final long h2 )
+        {
+            for ( BloomStage stage : stages )
+            {
+                if ( stage.mightContain( h1, h2 ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class BloomStage
+    {
+        private final int capacity;
+
+        private final long bitCount;
+
+        private final int hashCount;
+
+        private final AtomicLongArray bits;
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        BloomStage( final int capacity )
+        {
+            this.capacity = capacity;
+
+            long m = (long) Math.ceil( -capacity * Math.log( FALSE_POSITIVE_PROBABILITY ) / ( Math.log( 2 ) * Math.log(
+                    2 ) ) );
+            this.bits = new AtomicLongArray( (int) ( ( m + 63 ) / 64 ) );
+            this.bitCount = bits.length() * 64L;
+            this.hashCount = Math.max( 1, (int) Math.round( (double) bitCount / capacity * Math.log( 2 ) ) );
+        }
+
+        boolean isFull()
+        {
+            return size.get() >= capacity;
+        }
+
+        void add( final long h1, final long h2 )
+        {
+            for ( int i = 0; i < hashCount; i++ )
+            {
+                long bit = index( h1, h2, i );
+                int word = (int) ( bit >>> 6 );
+                long mask = 1L << bit;
+
+                long old;
+                do
+                {
+                    old = bits.get( word );
+                }
+                while ( ( old & mask ) == 0 && !bits.compareAndSet( word, old, old | mask ) );
+            }
+            size.incrementAndGet();
+        }
+
+        boolean mightContain( final long h1, final long h2 )
+        {
+            for ( int i = 0; i < hashCount; i++ )
+            {
+                long bit = index( h1, h2, i );
+                if ( ( bits.get( (int) ( bit >>> 6 ) ) & ( 1L << bit ) ) == 0 )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long index( final long h1, final long h2, final int i )
+        {
+            return Math.floorMod( h1 + i * h2, bitCount );
+        }
+    }
+
+    // 64-bit FNV-1a over the path characters, finished with a murmur3 mix for better bit spread
+    private static long hash( final String path )
+    {
+        long h = 0xcbf29ce484222325L;
+        for ( int i = 0; i < path.length(); i++ )
+        {
+            h ^= path.charAt( i );
+            h *= 0x100000001b3L;
+        }
+        return mix( h );
+    }
+
+    private static long mix( long h )
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e87c5L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
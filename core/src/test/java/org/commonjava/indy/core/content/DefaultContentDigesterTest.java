@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content;
+
+import org.commonjava.cdi.util.weft.PoolWeftExecutorService;
+import org.commonjava.indy.audit.ChangeSummary;
+import org.commonjava.indy.conf.DefaultIndyConfiguration;
+import org.commonjava.indy.content.DirectContentAccess;
+import org.commonjava.indy.content.IndyLocationExpander;
+import org.commonjava.indy.core.inject.ExpiringMemoryNotFoundCache;
+import org.commonjava.indy.data.StoreDataManager;
+import org.commonjava.indy.mem.data.MemoryStoreDataManager;
+import org.commonjava.indy.model.core.HostedRepository;
+import org.commonjava.indy.subsys.infinispan.CacheHandle;
+import org.commonjava.maven.galley.GalleyCore;
+import org.commonjava.maven.galley.GalleyCoreBuilder;
+import org.commonjava.maven.galley.cache.FileCacheProviderFactory;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.io.checksum.TransferMetadata;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.infinispan.Cache;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.commonjava.indy.pkg.maven.model.MavenPackageTypeDescriptor.MAVEN_PKG_KEY;
+import static org.commonjava.maven.galley.io.checksum.ContentDigest.MD5;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DefaultContentDigesterTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static Cache<String, TransferMetadata> contentMetadata;
+
+    private StoreDataManager storeManager;
+
+    private DefaultDownloadManager downloadManager;
+
+    private DefaultContentDigester digester;
+
+    @BeforeClass
+    public static void setupClass()
+            throws IOException
+    {
+        DefaultCacheManager cacheManager = new DefaultCacheManager(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream( "infinispan-test.xml" ) );
+
+        contentMetadata = cacheManager.getCache( "content-metadata", true );
+    }
+
+    @Before
+    public void setup()
+            throws Exception
+    {
+        contentMetadata.clear();
+
+        GalleyCore core = new GalleyCoreBuilder( new FileCacheProviderFactory( temp.newFolder( "cache" ) ) ).build();
+
+        storeManager = new MemoryStoreDataManager( true );
+
+        final DefaultIndyConfiguration config = new DefaultIndyConfiguration();
+        downloadManager = new DefaultDownloadManager( storeManager, core.getTransferManager(),
+                                                      new IndyLocationExpander( storeManager ), null,
+                                                      new ExpiringMemoryNotFoundCache( config ),
+                                                      new PoolWeftExecutorService( "test-rescan-executor",
+                                                                                   (ThreadPoolExecutor) Executors.newCachedThreadPool(),
+                                                                                   2, 10f, false, null, null ) );
+
+        DirectContentAccess dca = new DefaultDirectContentAccess( downloadManager, new PoolWeftExecutorService(
+                "test-content-access-executor", (ThreadPoolExecutor) Executors.newCachedThreadPool(), 2, 10f, false,
+                null, null ) );
+
+        digester = new DefaultContentDigester( dca, new CacheHandle<>( "content-metadata", contentMetadata ), 1 );
+    }
+
+    @Test( timeout = 10000 )
+    public void digestLargeContentWithoutChecksummingDecoratorFindsNothing()
+            throws Exception
+    {
+        HostedRepository hosted = new HostedRepository( MAVEN_PKG_KEY, "test" );
+        storeManager.storeArtifactStore( hosted, new ChangeSummary( ChangeSummary.SYSTEM_USER, "Test setup" ), false,
+                                         true, new EventMetadata() );
+
+        // bigger than the digest buffer, so the content is read in several chunks
+        byte[] content = new byte[300 * 1024 + 17];
+        new Random( 42 ).nextBytes( content );
+
+        String path = "org/foo/bar/1/bar-1.zip";
+        Transfer transfer = downloadManager.getStorageReference( hosted, path, TransferOperation.UPLOAD );
+        try (OutputStream out = transfer.openOutputStream( TransferOperation.UPLOAD ))
+        {
+            out.write( content );
+        }
+
+        // nothing records checksums while the content is read, so there is nothing to return
+        assertThat( digester.digest( hosted.getKey(), path, new EventMetadata() ), nullValue() );
+
+        // the single digest permit was handed back, so the next digest doesn't block
+        assertThat( digester.digest( hosted.getKey(), path, new EventMetadata() ), nullValue() );
+
+        // checksums recorded by someone else are returned without reading the content
+        TransferMetadata recorded = new TransferMetadata( Collections.singletonMap( MD5, md5Hex( content ) ),
+                                                          (long) content.length );
+        digester.addMetadata( transfer, recorded );
+        TransferMetadata meta = digester.digest( hosted.getKey(), path, new EventMetadata() );
+        assertThat( meta.getDigests(), equalTo( recorded.getDigests() ) );
+        assertThat( meta.getSize(), equalTo( (long) content.length ) );
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content;
+
+import org.commonjava.indy.model.core.RemoteRepository;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PathMaskCheckerTest
+{
+    @Test
+    public void matchPrefixesCoveredByShorterPatterns()
+    {
+        RemoteRepository repo = remote( "org/foo/bar/1.0/", "org/foo/", "com/baz/", "net/" );
+
+        assertThat( PathMaskChecker.checkMask( repo, "org/foo/other/2.0/other-2.0.pom" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkMask( repo, "org/foo/bar/1.0/bar-1.0.jar" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkMask( repo, "com/baz/x/1/x-1.jar" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkMask( repo, "com/bar/x/1/x-1.jar" ), equalTo( false ) );
+        assertThat( PathMaskChecker.checkMask( repo, "org/fo" ), equalTo( false ) );
+        assertThat( PathMaskChecker.checkMask( repo, "zzz/a.jar" ), equalTo( false ) );
+    }
+
+    @Test
+    public void matchRegexPatterns()
+    {
+        RemoteRepository repo = remote( "r|.+/bar-[0-9.]+\\.jar|", "com/baz/" );
+
+        assertThat( PathMaskChecker.checkMask( repo, "org/foo/bar/1.0/bar-1.0.jar" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkMask( repo, "org/foo/bar/1.0/bar-1.0.pom" ), equalTo( false ) );
+        assertThat( PathMaskChecker.checkMask( repo, "com/baz/x/1/x-1.pom" ), equalTo( true ) );
+
+        // no way to tell which directories a regex can match
+        assertThat( PathMaskChecker.checkListingMask( repo, "anything/" ), equalTo( true ) );
+    }
+
+    @Test
+    public void listingMatchesParentsAndChildrenOfPrefixes()
+    {
+        RemoteRepository repo = remote( "org/foo/bar/", "com/baz/" );
+
+        assertThat( PathMaskChecker.checkListingMask( repo, "org/" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkListingMask( repo, "org/foo/bar/1.0/" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkListingMask( repo, "org/foo/baz/" ), equalTo( false ) );
+        assertThat( PathMaskChecker.checkListingMask( repo, "net/" ), equalTo( false ) );
+    }
+
+    @Test
+    public void matcherIsRebuiltWhenPatternsChange()
+    {
+        RemoteRepository repo = remote( "org/foo/" );
+
+        PathMaskMatcher first = PathMaskChecker.getMatcher( repo, repo.getPathMaskPatterns() );
+        assertThat( PathMaskChecker.getMatcher( repo, repo.getPathMaskPatterns() ), sameInstance( first ) );
+
+        repo.setPathMaskPatterns( new HashSet<>( Arrays.asList( "com/baz/" ) ) );
+
+        assertThat( PathMaskChecker.getMatcher( repo, repo.getPathMaskPatterns() ), not( sameInstance( first ) ) );
+        assertThat( PathMaskChecker.checkMask( repo, "org/foo/bar.jar" ), equalTo( false ) );
+        assertThat( PathMaskChecker.checkMask( repo, "com/baz/bar.jar" ), equalTo( true ) );
+    }
+
+    @Test
+    public void matcherIsRebuiltWhenPatternSetChangesInPlace()
+    {
+        RemoteRepository repo = remote( "org/foo/" );
+        assertThat( PathMaskChecker.checkMask( repo, "com/baz/bar.jar" ), equalTo( false ) );
+
+        repo.getPathMaskPatterns().add( "com/baz/" );
+
+        assertThat( PathMaskChecker.checkMask( repo, "com/baz/bar.jar" ), equalTo( true ) );
+        assertThat( PathMaskChecker.checkMask( repo, "org/foo/bar.jar" ), equalTo( true ) );
+    }
+
+    private RemoteRepository remote( final String... patterns )
+    {
+        RemoteRepository repo = new RemoteRepository( PKG_TYPE_MAVEN, "test", "http://test/" );
+        repo.setPathMaskPatterns( new HashSet<>( Arrays.asList( patterns ) ) );
+        return repo;
+    }
+}
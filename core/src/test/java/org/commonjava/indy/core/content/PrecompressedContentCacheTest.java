@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content;
+
+import org.commonjava.indy.conf.DefaultIndyConfiguration;
+import org.commonjava.indy.model.core.Group;
+import org.commonjava.indy.model.core.HostedRepository;
+import org.commonjava.indy.model.core.StoreKey;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.apache.commons.io.IOUtils.copy;
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_NPM;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PrecompressedContentCacheTest
+{
+    private static final String PATH = "jquery/package.json";
+
+    private final Group group = new Group( PKG_TYPE_NPM, "public" );
+
+    private final StoreKey key = group.getKey();
+
+    private final PrecompressedContentCache cache = new PrecompressedContentCache( new DefaultIndyConfiguration() );
+
+    @Test
+    public void reuseCompressedCopyUntilFileChanges()
+            throws Exception
+    {
+        byte[] first = gzip( "{\"name\":\"jquery\"}", 1000L );
+        assertThat( gunzip( first ), equalTo( "{\"name\":\"jquery\"}" ) );
+
+        // same size and time stamp, so still the compressed copy of the first content
+        assertThat( gzip( "{\"name\":\"zquery\"}", 1000L ), sameInstance( first ) );
+
+        byte[] second = gzip( "{\"name\":\"jquery\",\"v\":2}", 2000L );
+        assertThat( gunzip( second ), equalTo( "{\"name\":\"jquery\",\"v\":2}" ) );
+    }
+
+    @Test
+    public void clearMergedPathDropsGroupCopies()
+            throws Exception
+    {
+        byte[] first = gzip( "{}", 1000L );
+
+        cache.clearMergedPath( new HostedRepository( PKG_TYPE_NPM, "builds" ), Collections.singleton( group ),
+                               PATH );
+
+        assertThat( cache.getTotalBytes(), equalTo( 0L ) );
+        assertThat( gzip( "{}", 1000L ), not( sameInstance( first ) ) );
+    }
+
+    @Test
+    public void variantsAreCompressedSeparately()
+            throws Exception
+    {
+        byte[] a = cache.getGzip( key, PATH, "http://a/", 1000L, 2, stream( "{}" ) );
+        byte[] b = cache.getGzip( key, PATH, "http://b/", 1000L, 2, stream( "[]" ) );
+
+        assertThat( gunzip( a ), equalTo( "{}" ) );
+        assertThat( gunzip( b ), equalTo( "[]" ) );
+        assertThat( cache.getGzip( key, PATH, "http://a/", 1000L, 2, stream( "" ) ), sameInstance( a ) );
+    }
+
+    @Test
+    public void reuseCompressedCopyOfRenderedContentWhileBytesAreTheSame()
+            throws Exception
+    {
+        byte[] first = cache.getGzip( key, "jquery/", "http://a/", bytes( "{\"listing\":[1]}" ) );
+        assertThat( cache.getGzip( key, "jquery/", "http://a/", bytes( "{\"listing\":[1]}" ) ),
+                    sameInstance( first ) );
+
+        byte[] second = cache.getGzip( key, "jquery/", "http://a/", bytes( "{\"listing\":[2]}" ) );
+        assertThat( gunzip( second ), equalTo( "{\"listing\":[2]}" ) );
+    }
+
+    @Test
+    public void dropLeastRecentlyUsedCopiesBeyondConfiguredSize()
+            throws Exception
+    {
+        DefaultIndyConfiguration config = new DefaultIndyConfiguration();
+        config.setPrecompressedCacheMaxMb( 1 );
+        PrecompressedContentCache small = new PrecompressedContentCache( config );
+
+        // random content doesn't compress, so two of these don't fit into 1 MB
+        byte[] content = new byte[600 * 1024];
+        new Random( 42 ).nextBytes( content );
+
+        byte[] first = small.getGzip( key, "a/package.json", null, 1000L, content.length,
+                                      new ByteArrayInputStream( content ) );
+        small.getGzip( key, "b/package.json", null, 1000L, content.length, new ByteArrayInputStream( content ) );
+
+        assertThat( small.getTotalBytes() <= 1024 * 1024, equalTo( true ) );
+        assertThat( small.getGzip( key, "a/package.json", null, 1000L, content.length,
+                                   new ByteArrayInputStream( content ) ), not( sameInstance( first ) ) );
+    }
+
+    private byte[] gzip( final String content, final long lastModified )
+            throws Exception
+    {
+        return cache.getGzip( key, PATH, null, lastModified, content.length(), stream( content ) );
+    }
+
+    private ByteArrayInputStream stream( final String content )
+    {
+        return new ByteArrayInputStream( bytes( content ) );
+    }
+
+    private byte[] bytes( final String content )
+    {
+        return content.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private String gunzip( final byte[] gzip )
+            throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy( new GZIPInputStream( new ByteArrayInputStream( gzip ) ), out );
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.content.group;
+
+import org.commonjava.cdi.util.weft.PoolWeftExecutorService;
+import org.commonjava.indy.IndyWorkflowException;
+import org.commonjava.indy.change.event.ArtifactStoreDeletePostEvent;
+import org.commonjava.indy.conf.DefaultIndyConfiguration;
+import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.Group;
+import org.commonjava.indy.model.core.HostedRepository;
+import org.commonjava.indy.model.core.RemoteRepository;
+import org.commonjava.indy.model.galley.KeyedLocation;
+import org.commonjava.indy.util.LocationUtils;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Transfer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GroupMemberProberTest
+{
+    private static final String PATH = "org/foo/bar/1/bar-1.pom";
+
+    private GroupMemberProber prober;
+
+    private Group group;
+
+    private HostedRepository hosted;
+
+    private RemoteRepository first;
+
+    private RemoteRepository second;
+
+    private RemoteRepository third;
+
+    @Before
+    public void setup()
+    {
+        DefaultIndyConfiguration config = new DefaultIndyConfiguration();
+        config.setGroupMemberProbeConcurrency( 4 );
+
+        prober = new GroupMemberProber( config, new PoolWeftExecutorService( "test-probes",
+                                                                              (ThreadPoolExecutor) Executors.newCachedThreadPool(),
+                                                                              4, 10f, false, null, null ) );
+
+        hosted = new HostedRepository( PKG_TYPE_MAVEN, "hosted" );
+        first = new RemoteRepository( PKG_TYPE_MAVEN, "first", "http://first/" );
+        second = new RemoteRepository( PKG_TYPE_MAVEN, "second", "http://second/" );
+        third = new RemoteRepository( PKG_TYPE_MAVEN, "third", "http://third/" );
+        group = new Group( PKG_TYPE_MAVEN, "group", hosted.getKey(), first.getKey(), second.getKey(),
+                           third.getKey() );
+    }
+
+    @Test
+    public void returnHighestPriorityMemberWhileLaterProbesFinishFirst()
+            throws Exception
+    {
+        CountDownLatch thirdDone = new CountDownLatch( 1 );
+        List<ArtifactStore> members = Arrays.asList( hosted, first, second, third );
+
+        Transfer result = prober.retrieveFirst( group, members, new EventMetadata(), member -> {
+            if ( member == third )
+            {
+                thirdDone.countDown();
+                return true;
+            }
+            if ( member == second )
+            {
+                // make sure a lower-priority member answers before this one
+                try
+                {
+                    return thirdDone.await( 5, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    return false;
+                }
+            }
+            return false;
+        }, ( member, em ) -> member == hosted ? null : transfer( member ) );
+
+        assertThat( ( (KeyedLocation) result.getLocation() ).getKey(), equalTo( second.getKey() ) );
+    }
+
+    @Test
+    public void contentIsOnlyRetrievedOnTheCallingThreadFromMembersThatHaveIt()
+            throws Exception
+    {
+        Thread caller = Thread.currentThread();
+        Set<ArtifactStore> offThread = ConcurrentHashMap.newKeySet();
+        Set<ArtifactStore> retrieved = ConcurrentHashMap.newKeySet();
+
+        Transfer result = prober.retrieveFirst( group, Arrays.asList( hosted, first, second, third ),
+                                                new EventMetadata(), member -> member == third,
+                                                ( member, em ) -> {
+                                                    if ( Thread.currentThread() != caller )
+                                                    {
+                                                        offThread.add( member );
+                                                    }
+                                                    retrieved.add( member );
+                                                    return member == third ? transfer( member ) : null;
+                                                } );
+
+        assertThat( ( (KeyedLocation) result.getLocation() ).getKey(), equalTo( third.getKey() ) );
+        assertThat( offThread.isEmpty(), equalTo( true ) );
+
+        // the probes said first and second don't have the path, so nothing was downloaded from them
+        assertThat( retrieved, equalTo( new HashSet<>( Arrays.asList( hosted, third ) ) ) );
+    }
+
+    @Test
+    public void failedProbeCountsAsNotFound()
+            throws Exception
+    {
+        Transfer result = prober.retrieveFirst( group, Arrays.asList( hosted, first, second ), new EventMetadata(),
+                                                member -> {
+                                                    if ( member == first )
+                                                    {
+                                                        throw new IndyWorkflowException( "HEAD failed" );
+                                                    }
+                                                    return true;
+                                                }, ( member, em ) -> member == hosted ? null : transfer( member ) );
+
+        assertThat( ( (KeyedLocation) result.getLocation() ).getKey(), equalTo( second.getKey() ) );
+    }
+
+    @Test
+    public void negativeProbeIsTrustedEvenIfRetrievalWouldFindPath()
+            throws Exception
+    {
+        List<ArtifactStore> retrieved = new ArrayList<>();
+        Transfer result = prober.retrieveFirst( group, Arrays.asList( hosted, first, second, third ),
+                                                new EventMetadata(), member -> member == third,
+                                                ( member, em ) -> {
+                                                    retrieved.add( member );
+                                                    // HEAD on second wrongly says not found, GET would work
+                                                    return member == second || member == third ?
+                                                            transfer( member ) :
+                                                            null;
+                                                } );
+
+        assertThat( ( (KeyedLocation) result.getLocation() ).getKey(), equalTo( third.getKey() ) );
+        assertThat( retrieved, equalTo( Arrays.asList( hosted, third ) ) );
+    }
+
+    @Test
+    public void returnNullWhenNoMemberHasPath()
+            throws Exception
+    {
+        List<ArtifactStore> retrieved = new ArrayList<>();
+        Transfer result = prober.retrieveFirst( group, Arrays.asList( hosted, first, second, third ),
+                                                new EventMetadata(), member -> false, ( member, em ) -> {
+                    retrieved.add( member );
+                    return null;
+                } );
+
+        assertThat( result, nullValue() );
+
+        // a miss in the whole group only downloads from the members that weren't probed
+        assertThat( retrieved, equalTo( Arrays.asList( hosted ) ) );
+    }
+
+    @Test
+    public void dropGroupPermitsWhenGroupIsDeleted()
+            throws Exception
+    {
+        prober.retrieveFirst( group, Arrays.asList( first, second ), new EventMetadata(), member -> false,
+                              ( member, em ) -> null );
+        assertThat( prober.getTrackedGroupCount(), equalTo( 1 ) );
+
+        Map<ArtifactStore, Transfer> roots = new HashMap<>();
+        roots.put( group, null );
+        prober.onStoreDelete( new ArtifactStoreDeletePostEvent( new EventMetadata(), roots ) );
+
+        assertThat( prober.getTrackedGroupCount(), equalTo( 0 ) );
+    }
+
+    private Transfer transfer( final ArtifactStore store )
+    {
+        return new Transfer( new ConcreteResource( LocationUtils.toLocation( store ), PATH ), null, null, null );
+    }
+}
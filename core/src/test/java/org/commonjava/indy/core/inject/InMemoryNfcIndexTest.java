@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.inject;
+
+import org.commonjava.indy.model.core.StoreKey;
+import org.junit.Test;
+
+import static org.commonjava.indy.model.core.StoreType.hosted;
+import static org.commonjava.indy.model.core.StoreType.remote;
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryNfcIndexTest
+{
+    private final StoreKey central = new StoreKey( PKG_TYPE_MAVEN, remote, "central" );
+
+    private final StoreKey local = new StoreKey( PKG_TYPE_MAVEN, hosted, "local" );
+
+    @Test
+    public void clearOneStoreLeavesOthers()
+    {
+        InMemoryNfcIndex index = new InMemoryNfcIndex();
+        long later = System.currentTimeMillis() + 60000;
+
+        index.put( central, "org/foo/bar/1/bar-1.pom", later );
+        index.put( central, "org/foo/bar/1/bar-1.jar", later );
+        index.put( local, "org/foo/bar/1/bar-1.pom", later );
+
+        assertThat( index.size( central ), equalTo( 2 ) );
+        assertThat( index.size(), equalTo( 3 ) );
+
+        index.clear( central );
+
+        assertThat( index.contains( central, "org/foo/bar/1/bar-1.pom" ), equalTo( false ) );
+        assertThat( index.contains( local, "org/foo/bar/1/bar-1.pom" ), equalTo( true ) );
+        assertThat( index.size( central ), equalTo( 0 ) );
+        assertThat( index.size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void expiredEntriesAreIgnoredAndSwept()
+    {
+        InMemoryNfcIndex index = new InMemoryNfcIndex();
+        long now = System.currentTimeMillis();
+
+        index.put( central, "expired.pom", now - 1 );
+        index.put( central, "soon.pom", now + 5000 );
+        index.put( local, "forever.pom", Long.MAX_VALUE );
+
+        assertThat( index.contains( central, "expired.pom" ), equalTo( false ) );
+        assertThat( index.contains( central, "soon.pom" ), equalTo( true ) );
+
+        index.expireDue( now + 10000 );
+
+        assertThat( index.size( central ), equalTo( 0 ) );
+        assertThat( index.contains( local, "forever.pom" ), equalTo( true ) );
+    }
+
+    @Test
+    public void reAddedEntryOutlivesItsOldExpiry()
+    {
+        InMemoryNfcIndex index = new InMemoryNfcIndex();
+        long now = System.currentTimeMillis();
+
+        index.put( central, "org/foo/bar/1/bar-1.pom", now + 2000 );
+        index.put( central, "org/foo/bar/1/bar-1.pom", now + 60000 );
+
+        index.expireDue( now + 5000 );
+
+        assertThat( index.size( central ), equalTo( 1 ) );
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryOfTheSameStoreIsEvictedAtTheCap()
+    {
+        InMemoryNfcIndex index = new InMemoryNfcIndex( 3 );
+
+        index.put( central, "a.pom", Long.MAX_VALUE );
+        index.put( central, "b.pom", Long.MAX_VALUE );
+        index.put( local, "c.pom", Long.MAX_VALUE );
+        index.contains( central, "a.pom" );
+
+        index.put( central, "d.pom", Long.MAX_VALUE );
+
+        assertThat( index.size(), equalTo( 3 ) );
+        assertThat( index.contains( central, "b.pom" ), equalTo( false ) );
+        assertThat( index.contains( central, "a.pom" ), equalTo( true ) );
+        assertThat( index.contains( local, "c.pom" ), equalTo( true ) );
+    }
+
+    @Test
+    public void otherStoreGivesUpAnEntryWhenTheNewStoreHasNoneToSpare()
+    {
+        InMemoryNfcIndex index = new InMemoryNfcIndex( 2 );
+
+        index.put( central, "a.pom", Long.MAX_VALUE );
+        index.put( central, "b.pom", Long.MAX_VALUE );
+
+        index.put( local, "c.pom", Long.MAX_VALUE );
+
+        assertThat( index.size(), equalTo( 2 ) );
+        assertThat( index.size( central ), equalTo( 1 ) );
+        assertThat( index.contains( central, "b.pom" ), equalTo( true ) );
+        assertThat( index.contains( local, "c.pom" ), equalTo( true ) );
+    }
+
+    @Test
+    public void totalFollowsClearAndExpiry()
+    {
+        InMemoryNfcIndex index = new InMemoryNfcIndex( 10 );
+        long now = System.currentTimeMillis();
+
+        index.put( central, "a.pom", now + 2000 );
+        index.put( central, "b.pom", Long.MAX_VALUE );
+        index.put( local, "c.pom", Long.MAX_VALUE );
+        index.put( local, "c.pom", Long.MAX_VALUE );
+        assertThat( index.size(), equalTo( 3 ) );
+
+        index.expireDue( now + 5000 );
+        assertThat( index.size(), equalTo( 2 ) );
+
+        index.clear( local );
+        assertThat( index.size(), equalTo( 1 ) );
+
+        index.remove( central, "b.pom" );
+        assertThat( index.size(), equalTo( 0 ) );
+    }
+}
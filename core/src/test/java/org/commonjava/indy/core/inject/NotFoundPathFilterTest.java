@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.core.inject;
+
+import org.commonjava.indy.model.core.StoreKey;
+import org.junit.Test;
+
+import static org.commonjava.indy.model.core.StoreType.hosted;
+import static org.commonjava.indy.model.core.StoreType.remote;
+import static org.commonjava.indy.pkg.PackageTypeConstants.PKG_TYPE_MAVEN;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class NotFoundPathFilterTest
+{
+    private final StoreKey central = new StoreKey( PKG_TYPE_MAVEN, remote, "central" );
+
+    private final StoreKey local = new StoreKey( PKG_TYPE_MAVEN, hosted, "local" );
+
+    @Test
+    public void everythingMightBePresentUntilReady()
+    {
+        NotFoundPathFilter filter = new NotFoundPathFilter();
+        assertThat( filter.mightContain( central, "org/foo/bar/1/bar-1.pom" ), equalTo( true ) );
+
+        filter.markReady();
+        assertThat( filter.mightContain( central, "org/foo/bar/1/bar-1.pom" ), equalTo( false ) );
+        assertThat( filter.getNegatives(), equalTo( 1L ) );
+    }
+
+    @Test
+    public void addedPathsAreNeverFilteredAcrossGrowth()
+    {
+        NotFoundPathFilter filter = new NotFoundPathFilter();
+        filter.markReady();
+
+        // enough paths to go through several filter stages
+        int count = 20000;
+        for ( int i = 0; i < count; i++ )
+        {
+            filter.add( central, "org/foo/bar/" + i + "/bar-" + i + ".pom" );
+        }
+
+        for ( int i = 0; i < count; i++ )
+        {
+            assertThat( filter.mightContain( central, "org/foo/bar/" + i + "/bar-" + i + ".pom" ), equalTo( true ) );
+        }
+
+        int falsePositives = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( filter.mightContain( central, "org/foo/baz/" + i + "/baz-" + i + ".pom" ) )
+            {
+                falsePositives++;
+            }
+        }
+        assertTrue( "Too many false positives: " + falsePositives, falsePositives < count / 20 );
+
+        // other stores are not affected
+        assertThat( filter.mightContain( local, "org/foo/bar/1/bar-1.pom" ), equalTo( false ) );
+    }
+
+    @Test
+    public void clearingStoreDropsItsPaths()
+    {
+        NotFoundPathFilter filter = new NotFoundPathFilter();
+        filter.markReady();
+
+        filter.add( central, "org/foo/bar/1/bar-1.pom" );
+        filter.add( local, "org/foo/bar/1/bar-1.pom" );
+
+        filter.clear( central );
+        assertThat( filter.mightContain( central, "org/foo/bar/1/bar-1.pom" ), equalTo( false ) );
+        assertThat( filter.mightContain( local, "org/foo/bar/1/bar-1.pom" ), equalTo( true ) );
+
+        filter.markFalsePositive();
+        assertThat( filter.getFalsePositiveRate(), equalTo( 1.0 ) );
+    }
+
+    @Test
+    public void rebuildDropsPathsNotReadAgain()
+    {
+        NotFoundPathFilter filter = new NotFoundPathFilter();
+        filter.markReady();
+
+        filter.add( central, "org/foo/bar/1/bar-1.pom" );
+        filter.add( central, "org/foo/bar/2/bar-2.pom" );
+
+        filter.startRebuild();
+        filter.addRebuilt( central, "org/foo/bar/1/bar-1.pom" );
+
+        // the current filter keeps answering, and paths added during the rebuild are kept
+        assertThat( filter.mightContain( central, "org/foo/bar/2/bar-2.pom" ), equalTo( true ) );
+        filter.add( local, "org/foo/bar/3/bar-3.pom" );
+
+        filter.finishRebuild();
+        assertThat( filter.mightContain( central, "org/foo/bar/1/bar-1.pom" ), equalTo( true ) );
+        assertThat( filter.mightContain( central, "org/foo/bar/2/bar-2.pom" ), equalTo( false ) );
+        assertThat( filter.mightContain( local, "org/foo/bar/3/bar-3.pom" ), equalTo( true ) );
+        assertThat( filter.getSize(), equalTo( 2L ) );
+    }
+
+    @Test
+    public void firstRebuildMakesReadyAndAbortKeepsFilter()
+    {
+        NotFoundPathFilter filter = new NotFoundPathFilter();
+
+        filter.startRebuild();
+        filter.addRebuilt( central, "org/foo/bar/1/bar-1.pom" );
+        assertThat( filter.isReady(), equalTo( false ) );
+
+        filter.finishRebuild();
+        assertThat( filter.isReady(), equalTo( true ) );
+
+        filter.startRebuild();
+        filter.abortRebuild();
+        assertThat( filter.mightContain( central, "org/foo/bar/1/bar-1.pom" ), equalTo( true ) );
+    }
+
+    @Test
+    public void staleOnlyWhenFalsePositivesSinceLastRebuildAreFrequent()
+    {
+        NotFoundPathFilter filter = new NotFoundPathFilter();
+        filter.add( central, "org/foo/bar/1/bar-1.pom" );
+        filter.markReady();
+
+        // too few lookups to tell
+        filter.mightContain( central, "org/foo/bar/1/bar-1.pom" );
+        filter.markFalsePositive();
+        assertThat( filter.isStale( 0.05 ), equalTo( false ) );
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            filter.mightContain( central, "org/foo/bar/1/bar-1.pom" );
+            if ( i % 10 == 0 )
+            {
+                filter.markFalsePositive();
+            }
+        }
+        assertThat( filter.isStale( 0.05 ), equalTo( true ) );
+        assertThat( filter.isStale( 0.2 ), equalTo( false ) );
+
+        // a rebuild starts counting again
+        filter.startRebuild();
+        filter.addRebuilt( central, "org/foo/bar/1/bar-1.pom" );
+        filter.finishRebuild();
+        assertThat( filter.isStale( 0.05 ), equalTo( false ) );
+    }
+}
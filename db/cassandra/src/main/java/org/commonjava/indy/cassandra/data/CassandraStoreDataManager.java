@@ -247,6 +247,15 @@ public class CassandraStoreDataManager extends AbstractStoreDataManager
         return filterAffectedGroups( result );
     }
 
+    /**
+     * Store definitions in cassandra are shared across nodes, so a node-local membership index could go stale.
+     */
+    @Override
+    protected boolean isGroupMembershipIndexed()
+    {
+        return false;
+    }
+
     @Override
     protected void removeAffectedStore( StoreKey key )
     {
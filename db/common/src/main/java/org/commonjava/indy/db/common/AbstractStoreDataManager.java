@@ -30,6 +30,7 @@ import org.commonjava.indy.data.IndyDataException;
 import org.commonjava.indy.data.StoreDataManager;
 import org.commonjava.indy.data.StoreEventDispatcher;
 import org.commonjava.indy.data.StoreValidator;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
 import org.commonjava.o11yphant.metrics.annotation.Measure;
 import org.commonjava.indy.model.core.ArtifactStore;
 import org.commonjava.indy.model.core.Group;
@@ -43,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -101,14 +103,30 @@ public abstract class AbstractStoreDataManager
     @ExecutorConfig( named = AFFECTED_BY_ASYNC_RUNNER_NAME, priority = 4, threads = 32 )
     protected ExecutorService affectedByAsyncRunner;
 
+    @Inject
+    private DefaultMetricsManager metricsManager;
+
+    private final GroupMembershipIndex membershipIndex = new GroupMembershipIndex();
+
+    private final GroupOrderingCache orderingCache = new GroupOrderingCache();
+
     protected AbstractStoreDataManager()
     {
     }
 
+    @PostConstruct
+    public void initGroupOrderingMetrics()
+    {
+        if ( metricsManager != null )
+        {
+            orderingCache.registerMetrics( metricsManager );
+        }
+    }
+
     @Override
     public ArtifactStoreQuery<ArtifactStore> query()
     {
-        return new DefaultArtifactStoreQuery<>( this );
+        return new DefaultArtifactStoreQuery<>( this, isGroupMembershipIndexed() ? orderingCache : null );
     }
 
     protected abstract ArtifactStore getArtifactStoreInternal( final StoreKey key );
@@ -182,8 +200,11 @@ public abstract class AbstractStoreDataManager
         // Hosted or Remote update does not change affectedBy relationships
         if ( store instanceof Group )
         {
+            membershipIndex.update( (Group) store, (Group) original );
             refreshAffectedBy( store, original, STORE );
         }
+
+        invalidateGroupOrderings( store );
     }
 
     protected void preDelete( final ArtifactStore store, final ChangeSummary summary, final boolean fireEvents,
@@ -208,6 +229,8 @@ public abstract class AbstractStoreDataManager
             dispatcher.deleted( eventMetadata, store );
         }
 
+        invalidateGroupOrderings( store );
+        membershipIndex.remove( store );
         refreshAffectedBy( store, null, DELETE );
     }
 
@@ -586,11 +609,90 @@ public abstract class AbstractStoreDataManager
         } );
     }
 
+    /**
+     * Whether group lookups can be answered from the in-memory {@link GroupMembershipIndex}. Implementations whose
+     * store definitions can be changed by other nodes (without going through this instance) should return false.
+     */
+    protected boolean isGroupMembershipIndexed()
+    {
+        return true;
+    }
+
+    /**
+     * Drop the in-memory group membership index, so it is rebuilt from the stored definitions on next use. Call this
+     * when store definitions are replaced wholesale, e.g. on clear or reload.
+     */
+    protected void resetGroupMembershipIndex()
+    {
+        membershipIndex.clear();
+        orderingCache.clear();
+    }
+
+    /**
+     * Any change to a store (membership, enabled state, or the definition itself) can change the flattened ordering of
+     * the store itself if it's a group, and of every group that contains it, directly or not.
+     */
+    private void invalidateGroupOrderings( final ArtifactStore store )
+    {
+        if ( orderingCache.isEmpty() )
+        {
+            return;
+        }
+
+        Set<StoreKey> affected = new HashSet<>( getGroupMembershipIndex().getGroupsAffectedBy(
+                Collections.singleton( store.getKey() ) ) );
+        affected.add( store.getKey() );
+
+        logger.debug( "Invalidating cached group orderings for: {}", affected );
+        orderingCache.invalidate( affected );
+    }
+
+    private GroupMembershipIndex getGroupMembershipIndex()
+    {
+        membershipIndex.ensureBuilt( () -> {
+            Set<ArtifactStore> groups = new HashSet<>();
+            streamArtifactStoreKeys().map( StoreKey::getPackageType )
+                                     .distinct()
+                                     .forEach( pkg -> groups.addAll( getArtifactStoresByPkgAndType( pkg, group ) ) );
+            return groups;
+        } );
+        return membershipIndex;
+    }
+
+    @Override
+    public Set<Group> getGroupsContaining( final StoreKey key )
+    {
+        if ( !isGroupMembershipIndexed() )
+        {
+            return getArtifactStoresByPkgAndType( key.getPackageType(), group ).stream()
+                                                                                .map( s -> (Group) s )
+                                                                                .filter( g -> g.getConstituents()
+                                                                                               .contains( key ) )
+                                                                                .collect( Collectors.toSet() );
+        }
+
+        return toGroups( getGroupMembershipIndex().getGroupsContaining( key ) );
+    }
+
+    private Set<Group> toGroups( final Set<StoreKey> groupKeys )
+    {
+        return groupKeys.stream()
+                        .map( this::getArtifactStoreInternal )
+                        .filter( s -> s instanceof Group )
+                        .map( s -> (Group) s )
+                        .collect( Collectors.toSet() );
+    }
+
     protected Set<Group> affectedByFromStores( final Collection<StoreKey> keys )
     {
         Logger logger = LoggerFactory.getLogger( getClass() );
         logger.debug( "Getting groups affected by: {}", keys );
 
+        if ( isGroupMembershipIndexed() )
+        {
+            return filterAffectedGroups( toGroups( getGroupMembershipIndex().getGroupsAffectedBy( keys ) ) );
+        }
+
         List<StoreKey> toProcess = new ArrayList<>( new HashSet<>( keys ) );
 
         Set<Group> groups = new HashSet<>();
@@ -77,12 +77,21 @@ public class DefaultArtifactStoreQuery<T extends ArtifactStore>
 
     private Boolean enabled;
 
+    private GroupOrderingCache orderingCache;
+
     public DefaultArtifactStoreQuery( StoreDataManager dataManager )
     {
         logger.info( "CREATE new default store query with data manager only" );
         this.dataManager = dataManager;
     }
 
+    public DefaultArtifactStoreQuery( StoreDataManager dataManager, GroupOrderingCache orderingCache )
+    {
+        logger.info( "CREATE new default store query with data manager and group ordering cache" );
+        this.dataManager = dataManager;
+        this.orderingCache = orderingCache;
+    }
+
     private DefaultArtifactStoreQuery( final StoreDataManager dataManager, final String packageType,
                                        final Boolean enabled, final Class<T> storeCls )
     {
@@ -256,7 +265,10 @@ public class DefaultArtifactStoreQuery<T extends ArtifactStore>
     public Set<Group> getGroupsContaining( StoreKey storeKey, Boolean enabled )
                     throws IndyDataException
     {
-        return getAllGroups( storeKey.getPackageType(), enabled ).stream().filter( g -> g.getConstituents().contains( storeKey ) ).collect( Collectors.toSet() );
+        return dataManager.getGroupsContaining( storeKey )
+                          .stream()
+                          .filter( g -> enabled.equals( !g.isDisabled() ) )
+                          .collect( Collectors.toSet() );
     }
 
     @Override
@@ -542,6 +554,21 @@ public class DefaultArtifactStoreQuery<T extends ArtifactStore>
             throw new IndyDataException( "packageType must be set on the query before calling this method!" );
         }
 
+        if ( orderingCache == null )
+        {
+            return loadGroupOrdering( packageType, groupName, includeGroups, recurseGroups );
+        }
+
+        // NOTE: the ordering is filtered on the enabled state of this query, not the parameter
+        return orderingCache.get( new StoreKey( packageType, group, groupName ), this.enabled, includeGroups,
+                                  recurseGroups,
+                                  () -> loadGroupOrdering( packageType, groupName, includeGroups, recurseGroups ) );
+    }
+
+    private List<ArtifactStore> loadGroupOrdering( final String packageType, final String groupName,
+                                                   final boolean includeGroups, final boolean recurseGroups )
+            throws IndyDataException
+    {
         final Group master = (Group) dataManager.getArtifactStore( new StoreKey( packageType, group, groupName ) );
         if ( master == null )
         {
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.db.common;
+
+import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.Group;
+import org.commonjava.indy.model.core.StoreKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory reverse index of group membership: member {@link StoreKey} to the keys of the groups that list it as a
+ * direct constituent. Unlike the affected-by mapping, this covers every group (including ones excluded from
+ * affected-by calculation), so it can answer "which groups contain X" as well as transitive affected-by walks without
+ * scanning all groups.
+ * <p>
+ * The index is built lazily from the full group list on first use, and kept up to date afterwards through
+ * {@link #update(Group, Group)} and {@link #remove(ArtifactStore)}. All updates are idempotent, so an update that races
+ * with the initial build is harmless.
+ */
+public class GroupMembershipIndex
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Map<StoreKey, Set<StoreKey>> containingGroups = new ConcurrentHashMap<>();
+
+    private volatile boolean built;
+
+    /**
+     * Build the index from the supplied groups, unless it has already been built.
+     */
+    public void ensureBuilt( final Supplier<Collection<? extends ArtifactStore>> allGroups )
+    {
+        if ( built )
+        {
+            return;
+        }
+
+        synchronized ( this )
+        {
+            if ( built )
+            {
+                return;
+            }
+
+            Collection<? extends ArtifactStore> groups = allGroups.get();
+            groups.stream()
+                  .filter( s -> s instanceof Group )
+                  .forEach( g -> ( (Group) g ).getConstituents().forEach( m -> add( m, g.getKey() ) ) );
+
+            built = true;
+            logger.info( "Built group membership index from {} groups, {} members indexed", groups.size(),
+                         containingGroups.size() );
+        }
+    }
+
+    /**
+     * Apply the membership delta between the original and updated definition of a group.
+     */
+    public synchronized void update( final Group updated, final Group original )
+    {
+        if ( !built )
+        {
+            return;
+        }
+
+        final StoreKey groupKey = updated.getKey();
+        final Set<StoreKey> updatedMembers = membersOf( updated );
+        final Set<StoreKey> originalMembers = membersOf( original );
+
+        originalMembers.stream().filter( m -> !updatedMembers.contains( m ) ).forEach( m -> remove( m, groupKey ) );
+        updatedMembers.stream().filter( m -> !originalMembers.contains( m ) ).forEach( m -> add( m, groupKey ) );
+    }
+
+    /**
+     * Drop the membership edges of a deleted group. Deleting a hosted or remote repository doesn't change any group
+     * definition, so the groups still listing it stay indexed.
+     */
+    public synchronized void remove( final ArtifactStore store )
+    {
+        if ( !built || !( store instanceof Group ) )
+        {
+            return;
+        }
+
+        membersOf( (Group) store ).forEach( m -> remove( m, store.getKey() ) );
+    }
+
+    public synchronized void clear()
+    {
+        containingGroups.clear();
+        built = false;
+    }
+
+    /**
+     * Keys of the groups that directly contain the given store.
+     */
+    public Set<StoreKey> getGroupsContaining( final StoreKey key )
+    {
+        Set<StoreKey> groups = containingGroups.get( key );
+        return groups == null ? Collections.emptySet() : new HashSet<>( groups );
+    }
+
+    /**
+     * Keys of all groups that contain any of the given stores, directly or through nested groups. The walk only follows
+     * edges leading to the given keys, and the given keys themselves are never part of the result.
+     */
+    public Set<StoreKey> getGroupsAffectedBy( final Collection<StoreKey> keys )
+    {
+        final Set<StoreKey> result = new HashSet<>();
+        final Set<StoreKey> processed = new HashSet<>();
+        final List<StoreKey> toProcess = new LinkedList<>( keys );
+
+        while ( !toProcess.isEmpty() )
+        {
+            StoreKey next = toProcess.remove( 0 );
+            if ( next == null || !processed.add( next ) )
+            {
+                continue;
+            }
+
+            Set<StoreKey> groups = containingGroups.get( next );
+            if ( groups != null )
+            {
+                for ( StoreKey groupKey : groups )
+                {
+                    if ( result.add( groupKey ) )
+                    {
+                        toProcess.add( groupKey );
+                    }
+                }
+            }
+        }
+
+        result.removeAll( keys );
+        return result;
+    }
+
+    private void add( final StoreKey member, final StoreKey group )
+    {
+        containingGroups.computeIfAbsent( member, k -> ConcurrentHashMap.newKeySet() ).add( group );
+    }
+
+    private void remove( final StoreKey member, final StoreKey group )
+    {
+        containingGroups.computeIfPresent( member, ( k, groups ) -> {
+            groups.remove( group );
+            return groups.isEmpty() ? null : groups;
+        } );
+    }
+
+    private static Set<StoreKey> membersOf( final Group group )
+    {
+        if ( group == null || group.getConstituents() == null )
+        {
+            return Collections.emptySet();
+        }
+        return new HashSet<>( group.getConstituents() );
+    }
+}
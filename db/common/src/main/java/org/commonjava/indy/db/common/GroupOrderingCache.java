@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.db.common;
+
+import org.commonjava.indy.data.IndyDataException;
+import org.commonjava.indy.model.core.ArtifactStore;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import org.commonjava.o11yphant.metrics.api.Gauge;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
+
+/**
+ * Cache of flattened group orderings, as computed by {@link DefaultArtifactStoreQuery} for a group and a combination
+ * of ordering options. Entries are grouped by group key so that a change to a group (or anything it transitively
+ * contains) drops exactly the orderings of the affected groups.
+ * <p>
+ * Every invalidation bumps a version. A loaded ordering is only cached if no invalidation happened while it was being
+ * computed, so a slow load can never put back an ordering that was already invalidated.
+ */
+public class GroupOrderingCache
+{
+    private final Map<StoreKey, Map<Variant, List<ArtifactStore>>> orderings = new ConcurrentHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private DefaultMetricsManager metricsManager;
+
+    @FunctionalInterface
+    public interface OrderingLoader
+    {
+        List<ArtifactStore> load()
+                throws IndyDataException;
+    }
+
+    public void registerMetrics( final DefaultMetricsManager metricsManager )
+    {
+        this.metricsManager = metricsManager;
+
+        Map<String, Gauge<Integer>> gauges = new HashMap<>();
+        gauges.put( "groups", orderings::size );
+        metricsManager.addGauges( getClass(), "size", gauges );
+    }
+
+    public List<ArtifactStore> get( final StoreKey groupKey, final Boolean enabled, final boolean includeGroups,
+                                    final boolean recurseGroups, final OrderingLoader loader )
+            throws IndyDataException
+    {
+        final Variant variant = new Variant( enabled, includeGroups, recurseGroups );
+
+        Map<Variant, List<ArtifactStore>> variants = orderings.get( groupKey );
+        List<ArtifactStore> cached = variants == null ? null : variants.get( variant );
+        if ( cached != null )
+        {
+            mark( hits, "hit" );
+            return new ArrayList<>( cached );
+        }
+
+        mark( misses, "miss" );
+
+        final long loadVersion = version.get();
+        final List<ArtifactStore> loaded = loader.load();
+
+        // Checking the version inside compute() serializes with the remove() done by invalidate()
+        orderings.compute( groupKey, ( k, v ) -> {
+            if ( version.get() != loadVersion )
+            {
+                return v;
+            }
+
+            Map<Variant, List<ArtifactStore>> updated = v == null ? new ConcurrentHashMap<>() : v;
+            updated.put( variant, new ArrayList<>( loaded ) );
+            return updated;
+        } );
+
+        return loaded;
+    }
+
+    public void invalidate( final Collection<StoreKey> groupKeys )
+    {
+        version.incrementAndGet();
+        groupKeys.forEach( orderings::remove );
+    }
+
+    public void clear()
+    {
+        version.incrementAndGet();
+        orderings.clear();
+    }
+
+    public boolean isEmpty()
+    {
+        return orderings.isEmpty();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    private void mark( final AtomicLong counter, final String metric )
+    {
+        counter.incrementAndGet();
+        if ( metricsManager != null )
+        {
+            metricsManager.getMeter( name( getClass(), metric ) ).mark();
+        }
+    }
+
+    private static final class Variant
+    {
+        private final Boolean enabled;
+
+        private final boolean includeGroups;
+
+        private final boolean recurseGroups;
+
+        Variant( final Boolean enabled, final boolean includeGroups, final boolean recurseGroups )
+        {
+            this.enabled = enabled;
+            this.includeGroups = includeGroups;
+            this.recurseGroups = recurseGroups;
+        }
+
+        @Override
+        public boolean equals( final Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+            if ( !( o instanceof Variant ) )
+            {
+                return false;
+            }
+            Variant that = (Variant) o;
+            return includeGroups == that.includeGroups && recurseGroups == that.recurseGroups && Objects.equals(
+                    enabled, that.enabled );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash( enabled, includeGroups, recurseGroups );
+        }
+    }
+}
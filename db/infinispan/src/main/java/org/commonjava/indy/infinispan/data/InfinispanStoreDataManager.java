@@ -125,6 +125,7 @@ public class InfinispanStoreDataManager
         storesByPkg.clear();
         affectedByStores.clear();
         storesByPkg.clear();
+        resetGroupMembershipIndex();
     }
 
     @Override
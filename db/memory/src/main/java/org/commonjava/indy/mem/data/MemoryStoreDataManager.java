@@ -118,6 +118,7 @@ public class MemoryStoreDataManager
             throws IndyDataException
     {
         stores.clear();
+        resetGroupMembershipIndex();
     }
 
     @Override
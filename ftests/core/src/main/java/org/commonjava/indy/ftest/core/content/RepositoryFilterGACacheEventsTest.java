@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.ftest.core.content;
+
+import org.commonjava.indy.client.core.IndyClientException;
+import org.commonjava.indy.ftest.core.AbstractContentManagementTest;
+import org.commonjava.indy.model.core.HostedRepository;
+import org.commonjava.indy.pathmapped.cache.PathMappedMavenGACache;
+import org.junit.Test;
+
+import javax.enterprise.inject.spi.CDI;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Paths;
+
+import static java.util.Collections.singleton;
+import static org.commonjava.indy.pkg.maven.model.MavenPackageTypeDescriptor.MAVEN_PKG_KEY;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Given:
+ *   - ga-cache.store.pattern=build-\d
+ *   - Hosted repo build-1 contains GA_1, and is scanned
+ *
+ * When:
+ *   - Hosted repo build-2 is created, and a pom of GA_2 is uploaded to it
+ *
+ * Then:
+ *   - build-2 is not marked as scanned, but is added to GA_2
+ *   - Stale cleanup of GA_2 keeps build-2, because it still exists
+ *
+ * When:
+ *   - A pom of GA_2 is uploaded to build-1, and later deleted
+ *
+ * Then:
+ *   - build-1 is added to GA_2, and removed again after the deletion
+ *
+ * When:
+ *   - build-2 is deleted
+ *
+ * Then:
+ *   - Stale cleanup of GA_2 removes build-2
+ */
+public class RepositoryFilterGACacheEventsTest
+                extends AbstractContentManagementTest
+{
+    private final String GROUP_ID = "org/commonjava";
+
+    private final String A_1 = "path-mapped";
+
+    private final String A_2 = "jhttpc";
+
+    private final String V1 = "1.0";
+
+    private final String V2 = "2.0-bluehat-1";
+
+    private final String GA_1 = GROUP_ID + "/" + A_1;
+
+    private final String GA_2 = GROUP_ID + "/" + A_2;
+
+    /* @formatter:off */
+    private static final String POM_TEMPLATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<project>\n" +
+        "  <modelVersion>4.0.0</modelVersion>\n" +
+        "  <groupId>org/commonjava</groupId>\n" +
+        "  <artifactId>%artifact%</artifactId>\n" +
+        "  <version>%version%</version>\n" +
+        "</project>\n";
+    /* @formatter:on */
+
+    @Test
+    public void run() throws Exception
+    {
+        PathMappedMavenGACache gaCache = CDI.current().select( PathMappedMavenGACache.class ).get();
+
+        HostedRepository build_1 = prepareHosted( "build-1" );
+        storePom( build_1, A_1, V1 );
+        gaCache.fill();
+
+        assertThat( gaCache.getScannedStores().contains( "build-1" ), equalTo( true ) );
+        assertThat( gaCache.getStoresContaining( GA_1 ).contains( "build-1" ), equalTo( true ) );
+
+        // a new store stays unknown until scanned, but its uploads show up right away
+        HostedRepository build_2 = prepareHosted( "build-2" );
+        storePom( build_2, A_2, V1 );
+        waitForEventPropagation();
+
+        assertThat( gaCache.getScannedStores().contains( "build-2" ), equalTo( false ) );
+        assertThat( gaCache.getStoresContaining( GA_2 ).contains( "build-2" ), equalTo( true ) );
+
+        gaCache.reduceStaled( GA_2, singleton( "build-2" ) );
+        waitForEventPropagation();
+        assertThat( gaCache.getStoresContaining( GA_2 ).contains( "build-2" ), equalTo( true ) );
+
+        // uploads to and deletions from a scanned store
+        storePom( build_1, A_2, V2 );
+        waitForEventPropagation();
+        assertThat( gaCache.getStoresContaining( GA_2 ).contains( "build-1" ), equalTo( true ) );
+
+        client.content().delete( build_1.getKey(), getPomPath( A_2, V2 ) );
+        waitForEventPropagation();
+        assertThat( gaCache.getStoresContaining( GA_2 ).contains( "build-1" ), equalTo( false ) );
+        assertThat( gaCache.getStoresContaining( GA_1 ).contains( "build-1" ), equalTo( true ) );
+
+        // a deleted store is staled
+        client.stores().delete( build_2.getKey(), "Delete build-2" );
+        waitForEventPropagation();
+
+        gaCache.reduceStaled( GA_2, singleton( "build-2" ) );
+        waitForEventPropagation();
+        assertThat( gaCache.getStoresContaining( GA_2 ).contains( "build-2" ), equalTo( false ) );
+    }
+
+    private String getPomPath( String A, String V )
+    {
+        return Paths.get( GROUP_ID, A, V, A + "-" + V + ".pom" ).toString();
+    }
+
+    private HostedRepository prepareHosted( String name ) throws IndyClientException
+    {
+        return client.stores().create( new HostedRepository( MAVEN_PKG_KEY, name ), "Add " + name,
+                                       HostedRepository.class );
+    }
+
+    private void storePom( HostedRepository hosted, String A, String V ) throws IndyClientException
+    {
+        client.content()
+              .store( hosted.getKey(), getPomPath( A, V ), new ByteArrayInputStream(
+                              POM_TEMPLATE.replaceAll( "%artifact%", A ).replaceAll( "%version%", V ).getBytes() ) );
+    }
+
+    @Override
+    protected boolean createStandardTestStructures()
+    {
+        return false;
+    }
+}
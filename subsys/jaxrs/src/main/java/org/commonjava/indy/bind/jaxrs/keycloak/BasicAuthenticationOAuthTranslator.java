@@ -24,9 +24,21 @@ import io.undertow.util.HttpString;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
@@ -44,6 +56,7 @@ import org.commonjava.indy.subsys.http.IndyHttpProvider;
 import org.commonjava.indy.subsys.keycloak.conf.KeycloakConfig;
 import org.commonjava.indy.subsys.http.util.UserPass;
 import org.commonjava.indy.subsys.keycloak.util.KeycloakBearerTokenDebug;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.constants.ServiceUrlConstants;
 import org.keycloak.representations.AccessTokenResponse;
@@ -53,12 +66,20 @@ import org.keycloak.common.util.KeycloakUriBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
+
 @ApplicationScoped
 /** <b>FIXME:</b> Setting "enable-basic-auth" in keycloak.json instead of "bearer-only" should enable BOTH basic auth
  * and bearer token auth. However, something about having the keycloak server on a separate domain seems to
  * be causing problems with the state cookie not getting set during the post-sso redirection. This patches
  * that problem by looking for basic auth first, retrieving the corresponding token, and injecting it as a
  * request header.
+ * <p>
+ * Tokens are cached per credentials until shortly before they expire, so a client sending BASIC auth on every request
+ * only costs one token request per token lifetime. The cache key is a salted hash of the credentials; the salt is
+ * random per instance, so the keys can't be matched against anything outside this process. Concurrent requests with
+ * the same credentials share one token request. A cached token is dropped when the request that carried it ends with
+ * a 401, e.g. because the token was revoked.
  * 
  * @author jdcasey
  */
@@ -77,6 +98,13 @@ public class BasicAuthenticationOAuthTranslator
 
     private static final String INDY_BEARER_TOKEN = "Indy-Bearer";
 
+    private static final int MAX_CACHED_TOKENS = 1000;
+
+    // don't hand out a token that expires while the request is still on its way to keycloak
+    private static final long EXPIRATION_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis( 10 );
+
+    private static final int SALT_LENGTH = 16;
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     @Inject
@@ -85,8 +113,31 @@ public class BasicAuthenticationOAuthTranslator
     @Inject
     private IndyHttpProvider http;
 
+    @Inject
+    private DefaultMetricsManager metricsManager;
+
     private boolean enabled;
 
+    private final byte[] salt = new byte[SALT_LENGTH];
+
+    private final Map<String, CachedToken> tokens =
+            Collections.synchronizedMap( new LinkedHashMap<String, CachedToken>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<String, CachedToken> eldest )
+                {
+                    return size() > MAX_CACHED_TOKENS;
+                }
+            } );
+
+    private final Map<String, CompletableFuture<AccessTokenResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
     protected BasicAuthenticationOAuthTranslator()
     {
     }
@@ -101,6 +152,8 @@ public class BasicAuthenticationOAuthTranslator
     @PostConstruct
     public void init()
     {
+        new SecureRandom().nextBytes( salt );
+
         if ( config.getServerCredentialSecret() == null || config.getServerResource() == null )
         {
             logger.warn( "BASIC authentication is disabled; server.resource and/or server.credential.secret are missing from keycloak.conf!" );
@@ -156,9 +209,20 @@ public class BasicAuthenticationOAuthTranslator
             logger.debug( "Parsed BASIC authorization: {}", userPass );
             if ( userPass != null )
             {
-                final AccessTokenResponse token = lookupToken( userPass );
+                final String cacheKey = cacheKey( userPass );
+                final AccessTokenResponse token = getToken( cacheKey, userPass );
                 if ( token != null )
                 {
+                    exchange.addExchangeCompleteListener( ( ex, next ) -> {
+                        if ( ex.getStatusCode() == 401 )
+                        {
+                            logger.debug( "Request with token for {} was rejected; dropping the cached token.",
+                                          userPass.getUser() );
+                            tokens.remove( cacheKey );
+                        }
+                        next.proceed();
+                    } );
+
                     final String encodedToken = token.getToken();
                     logger.debug( "Raw token: {}", encodedToken );
 
@@ -183,6 +247,89 @@ public class BasicAuthenticationOAuthTranslator
         return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
     }
 
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Return the cached token for the credentials, or request a new one. Only one token request per credentials runs
+     * at a time; other callers with the same credentials wait for its result.
+     */
+    private AccessTokenResponse getToken( final String cacheKey, final UserPass userPass )
+    {
+        final CachedToken cached = tokens.get( cacheKey );
+        if ( cached != null && !cached.isExpired() )
+        {
+            mark( hits, "token.hit" );
+            return cached.token;
+        }
+
+        mark( misses, "token.miss" );
+
+        final CompletableFuture<AccessTokenResponse> mine = new CompletableFuture<>();
+        final CompletableFuture<AccessTokenResponse> running = inFlight.putIfAbsent( cacheKey, mine );
+        if ( running != null )
+        {
+            return running.join();
+        }
+
+        AccessTokenResponse token = null;
+        try
+        {
+            token = lookupToken( userPass );
+
+            final long lifetime = token == null ? 0 : TimeUnit.SECONDS.toMillis( token.getExpiresIn() );
+            if ( lifetime > EXPIRATION_MARGIN_MILLIS )
+            {
+                tokens.put( cacheKey,
+                            new CachedToken( token, System.currentTimeMillis() + lifetime - EXPIRATION_MARGIN_MILLIS ) );
+            }
+            else
+            {
+                tokens.remove( cacheKey );
+            }
+        }
+        finally
+        {
+            inFlight.remove( cacheKey, mine );
+            mine.complete( token );
+        }
+
+        return token;
+    }
+
+    private String cacheKey( final UserPass userPass )
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            digest.update( salt );
+            digest.update( userPass.getUser().getBytes( StandardCharsets.UTF_8 ) );
+            digest.update( (byte) 0 );
+            digest.update( String.valueOf( userPass.getPassword() ).getBytes( StandardCharsets.UTF_8 ) );
+            return Base64.getEncoder().encodeToString( digest.digest() );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not available", e );
+        }
+    }
+
+    private void mark( final AtomicLong counter, final String metric )
+    {
+        counter.incrementAndGet();
+        if ( metricsManager != null )
+        {
+            metricsManager.getMeter( name( getClass(), metric ) ).mark();
+        }
+    }
+
     private AccessTokenResponse lookupToken( final UserPass userPass )
     {
         final URI uri = KeycloakUriBuilder.fromUri( config.getUrl() )
@@ -225,6 +372,10 @@ public class BasicAuthenticationOAuthTranslator
                     tokenResponse = JsonSerialization.readValue( json, AccessTokenResponse.class );
                 }
             }
+            else if ( response.getStatusLine().getStatusCode() == 401 )
+            {
+                logger.debug( "Keycloak rejected the credentials of: {}", userPass.getUser() );
+            }
         }
         catch ( IOException | IndyHttpException e )
         {
@@ -250,4 +401,22 @@ public class BasicAuthenticationOAuthTranslator
         return new ChallengeResult( true, 401 );
     }
 
+    private static final class CachedToken
+    {
+        private final AccessTokenResponse token;
+
+        private final long expiration;
+
+        CachedToken( final AccessTokenResponse token, final long expiration )
+        {
+            this.token = token;
+            this.expiration = expiration;
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() >= expiration;
+        }
+    }
+
 }
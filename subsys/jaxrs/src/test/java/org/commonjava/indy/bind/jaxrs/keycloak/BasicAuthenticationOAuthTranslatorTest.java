@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2011-2020 Red Hat, Inc. (https://github.com/Commonjava/indy)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.indy.bind.jaxrs.keycloak;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import org.commonjava.indy.subsys.http.IndyHttpProvider;
+import org.commonjava.indy.subsys.http.conf.IndyHttpConfig;
+import org.commonjava.indy.subsys.http.util.IndySiteConfigLookup;
+import org.commonjava.indy.subsys.keycloak.conf.KeycloakConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class BasicAuthenticationOAuthTranslatorTest
+{
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+
+    private volatile long expiresIn = 300;
+
+    private volatile int tokenStatus = 200;
+
+    private Undertow server;
+
+    private BasicAuthenticationOAuthTranslator translator;
+
+    @Before
+    public void setup()
+            throws Exception
+    {
+        server = Undertow.builder().addHttpListener( 0, "localhost" ).setHandler( this::token ).build();
+        server.start();
+
+        int port = ( (InetSocketAddress) server.getListenerInfo().get( 0 ).getAddress() ).getPort();
+
+        KeycloakConfig config = new KeycloakConfig();
+        config.setUrl( "http://localhost:" + port );
+        config.setRealm( "test" );
+        config.setServerResource( "indy" );
+        config.setServerCredentialSecret( "secret" );
+
+        IndyHttpConfig httpConfig = new IndyHttpConfig();
+        httpConfig.sectionStarted( IndyHttpConfig.SECTION_NAME );
+        httpConfig.parameter( IndyHttpConfig.URI, config.getUrl() );
+        httpConfig.sectionComplete( IndyHttpConfig.SECTION_NAME );
+
+        translator = new BasicAuthenticationOAuthTranslator( config, new IndyHttpProvider(
+                new IndySiteConfigLookup( null, httpConfig ) ) );
+    }
+
+    @After
+    public void teardown()
+    {
+        server.stop();
+    }
+
+    @Test
+    public void reuseTokenForSameCredentials()
+    {
+        assertThat( authenticate( "user", "pass" ), equalTo( "bearer token-1" ) );
+        assertThat( authenticate( "user", "pass" ), equalTo( "bearer token-1" ) );
+        assertThat( tokenRequests.get(), equalTo( 1 ) );
+
+        assertThat( authenticate( "other", "pass" ), equalTo( "bearer token-2" ) );
+        assertThat( authenticate( "user", "wrong" ), equalTo( "bearer token-3" ) );
+        assertThat( tokenRequests.get(), equalTo( 3 ) );
+
+        assertThat( translator.getHits(), equalTo( 1L ) );
+        assertThat( translator.getMisses(), equalTo( 3L ) );
+    }
+
+    @Test
+    public void dontCacheShortLivedOrRejectedTokens()
+    {
+        expiresIn = 5;
+        authenticate( "user", "pass" );
+        authenticate( "user", "pass" );
+        assertThat( tokenRequests.get(), equalTo( 2 ) );
+
+        tokenStatus = 401;
+        assertThat( authenticate( "other", "pass" ), equalTo( null ) );
+        assertThat( authenticate( "other", "pass" ), equalTo( null ) );
+        assertThat( tokenRequests.get(), equalTo( 4 ) );
+    }
+
+    @Test
+    public void concurrentRequestsShareOneTokenRequest()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            List<Future<String>> results = new ArrayList<>();
+            for ( int i = 0; i < 4; i++ )
+            {
+                results.add( executor.submit( (Callable<String>) () -> authenticate( "user", "pass" ) ) );
+            }
+
+            for ( Future<String> result : results )
+            {
+                assertThat( result.get(), equalTo( "bearer token-1" ) );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertThat( tokenRequests.get(), equalTo( 1 ) );
+    }
+
+    private String authenticate( final String user, final String password )
+    {
+        HttpServerExchange exchange = new HttpServerExchange( null );
+        String basic = Base64.getEncoder()
+                             .encodeToString( ( user + ":" + password ).getBytes( StandardCharsets.UTF_8 ) );
+        exchange.getRequestHeaders().add( new HttpString( "Authorization" ), "Basic " + basic );
+
+        translator.authenticate( exchange, null );
+
+        return exchange.getRequestHeaders().getFirst( "Authorization" );
+    }
+
+    private void token( final HttpServerExchange exchange )
+            throws Exception
+    {
+        if ( exchange.isInIoThread() )
+        {
+            exchange.dispatch( this::token );
+            return;
+        }
+
+        int count = tokenRequests.incrementAndGet();
+
+        // give concurrent callers a chance to pile up behind this request
+        Thread.sleep( 200 );
+
+        exchange.setStatusCode( tokenStatus );
+        if ( tokenStatus == 200 )
+        {
+            exchange.getResponseSender()
+                    .send( "{\"access_token\":\"token-" + count + "\",\"expires_in\":" + expiresIn
+                                   + ",\"token_type\":\"bearer\"}" );
+        }
+        else
+        {
+            exchange.endExchange();
+        }
+    }
+}
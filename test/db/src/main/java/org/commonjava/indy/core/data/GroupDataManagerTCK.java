@@ -187,6 +187,50 @@ public abstract class GroupDataManagerTCK
                          .getName(), equalTo( "central" ) );
     }
 
+    @Test
+    public void orderedConcreteStoresFollowNestedGroupAndEnabledChanges()
+        throws Exception
+    {
+        final StoreDataManager manager = getFixtureProvider().getDataManager();
+
+        final RemoteRepository repo2 = (RemoteRepository) manager.getArtifactStore( new StoreKey( remote, "repo2" ) );
+        final Group inner = new Group( "inner", new StoreKey( remote, "central" ) );
+        final Group outer = new Group( "outer", repo2.getKey(), inner.getKey() );
+
+        store( inner, outer );
+
+        assertOrderedNames( manager, outer, "repo2", "central" );
+
+        Group innerCopy = inner.copyOf();
+        innerCopy.removeConstituent( new StoreKey( remote, "central" ) );
+        store( innerCopy );
+
+        assertOrderedNames( manager, outer, "repo2" );
+
+        RemoteRepository repo2Copy = repo2.copyOf();
+        repo2Copy.setDisabled( true );
+        store( repo2Copy );
+
+        assertOrderedNames( manager, outer );
+    }
+
+    private void assertOrderedNames( final StoreDataManager manager, final Group group, final String... names )
+        throws Exception
+    {
+        // query twice, so a cached ordering is checked as well as a freshly loaded one
+        for ( int i = 0; i < 2; i++ )
+        {
+            final List<String> result = manager.query()
+                                               .enabledState( true )
+                                               .getOrderedConcreteStoresInGroup( MAVEN_PKG_KEY, group.getName() )
+                                               .stream()
+                                               .map( ArtifactStore::getName )
+                                               .collect( Collectors.toList() );
+
+            assertThat( result, equalTo( asList( names ) ) );
+        }
+    }
+
     @Test
     public void createGroupAndRetrieveRepositoryConstituents()
         throws Exception
@@ -377,6 +421,47 @@ public abstract class GroupDataManagerTCK
         assertAffectedBy( hosted2.getKey(), groupF, groupC, groupA );
     }
 
+    @Test
+    public void groupsContainingFollowMembershipChanges()
+            throws Exception
+    {
+        final StoreKey central = new StoreKey( PKG_TYPE_MAVEN, remote, "central" );
+        final StoreKey repo2 = new StoreKey( PKG_TYPE_MAVEN, remote, "repo2" );
+        final Group g1 = new Group( PKG_TYPE_MAVEN, "g1", central );
+        final Group g2 = new Group( PKG_TYPE_MAVEN, "g2", central, repo2 );
+
+        store( g1, g2 );
+        assertGroupsContaining( central, g1, g2 );
+        assertGroupsContaining( repo2, g2 );
+
+        Group g1Copy = g1.copyOf();
+        g1Copy.addConstituent( repo2 );
+        store( g1Copy );
+        assertGroupsContaining( repo2, g1, g2 );
+
+        Group g2Copy = g2.copyOf();
+        g2Copy.removeConstituent( central );
+        store( g2Copy );
+        assertGroupsContaining( central, g1 );
+
+        removeStore( g1Copy );
+        assertGroupsContaining( central );
+        assertGroupsContaining( repo2, g2 );
+    }
+
+    private void assertGroupsContaining( StoreKey memberKey, ArtifactStore... expectedStores )
+            throws Exception
+    {
+        final Set<StoreKey> gKeys = manager.query()
+                                           .getGroupsContaining( memberKey )
+                                           .stream()
+                                           .map( Group::getKey )
+                                           .collect( Collectors.toSet() );
+
+        assertThat( gKeys, equalTo(
+                Arrays.stream( expectedStores ).map( ArtifactStore::getKey ).collect( Collectors.toSet() ) ) );
+    }
+
     private void assertAffectedBy( StoreKey affectedByKey, ArtifactStore... expectedStores )
             throws Exception
     {